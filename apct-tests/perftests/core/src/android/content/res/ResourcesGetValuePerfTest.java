@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content.res;
+
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.TypedValue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures {@link Resources#getValue} for simple framework values, which are served from the
+ * table preloaded by the zygote, compared with values that always go through the AssetManager.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class ResourcesGetValuePerfTest {
+    private static final int[] FRAMEWORK_VALUE_IDS = {
+            android.R.integer.config_shortAnimTime,
+            android.R.integer.config_mediumAnimTime,
+            android.R.dimen.app_icon_size,
+            android.R.dimen.notification_large_icon_width,
+            android.R.color.white,
+            android.R.color.black,
+            android.R.dimen.dialog_min_width_major,
+    };
+
+    private static final int[] FRAMEWORK_STRING_IDS = {
+            android.R.string.ok,
+            android.R.string.cancel,
+            android.R.string.copy,
+            android.R.string.paste,
+    };
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private void getValues(Resources resources, int[] ids) {
+        final TypedValue value = new TypedValue();
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            for (int id : ids) {
+                resources.getValue(id, value, true);
+            }
+        }
+    }
+
+    @Test
+    public void testGetValue_frameworkValues() {
+        getValues(InstrumentationRegistry.getTargetContext().getResources(),
+                FRAMEWORK_VALUE_IDS);
+    }
+
+    @Test
+    public void testGetValue_frameworkValues_systemResources() {
+        getValues(Resources.getSystem(), FRAMEWORK_VALUE_IDS);
+    }
+
+    @Test
+    public void testGetValue_frameworkStrings() {
+        getValues(InstrumentationRegistry.getTargetContext().getResources(),
+                FRAMEWORK_STRING_IDS);
+    }
+}
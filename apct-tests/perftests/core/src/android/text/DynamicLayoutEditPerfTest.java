@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.text;
+
+import static android.text.Layout.Alignment.ALIGN_NORMAL;
+
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+/**
+ * Measures how long a {@link DynamicLayout} takes to reflow after single character edits to
+ * a long text, both at the end of the text and in the middle of a long paragraph.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class DynamicLayoutEditPerfTest {
+    private static final int TEXT_LENGTH = 100 * 1024;
+    private static final int PARAGRAPH_LENGTH = 10 * 1024;
+    private static final int WIDTH = 1000;
+    private static final String ALPHABETS = "abcdefghijklmnopqrstuvwxyz";
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private static SpannableStringBuilder getText() {
+        final Random r = new Random(1234567890);
+        final SpannableStringBuilder builder = new SpannableStringBuilder();
+        int paragraphLength = 0;
+        while (builder.length() < TEXT_LENGTH) {
+            final int wordLength = 1 + r.nextInt(10);
+            for (int k = 0; k < wordLength; k++) {
+                builder.append(ALPHABETS.charAt(r.nextInt(ALPHABETS.length())));
+            }
+            paragraphLength += wordLength + 1;
+            if (paragraphLength >= PARAGRAPH_LENGTH) {
+                builder.append('\n');
+                paragraphLength = 0;
+            } else {
+                builder.append(' ');
+            }
+        }
+        return builder;
+    }
+
+    @Test
+    public void testAppend() {
+        final SpannableStringBuilder text = getText();
+        final DynamicLayout layout = new DynamicLayout(text, new TextPaint(), WIDTH,
+                ALIGN_NORMAL, 0, 0, false);
+
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            text.append('a');
+            state.pauseTiming();
+            text.delete(text.length() - 1, text.length());
+            state.resumeTiming();
+        }
+    }
+
+    @Test
+    public void testEditMiddleOfParagraph() {
+        final SpannableStringBuilder text = getText();
+        final DynamicLayout layout = new DynamicLayout(text, new TextPaint(), WIDTH,
+                ALIGN_NORMAL, 0, 0, false);
+        final int offset = TEXT_LENGTH / 2;
+
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            text.insert(offset, "a");
+            state.pauseTiming();
+            text.delete(offset, offset + 1);
+            state.resumeTiming();
+        }
+    }
+}
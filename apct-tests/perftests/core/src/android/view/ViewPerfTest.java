@@ -16,8 +16,10 @@
 
 package android.view;
 
+import android.app.Activity;
 import android.content.Context;
 import android.content.res.Resources;
+import android.os.Bundle;
 import android.perftests.utils.BenchmarkState;
 import android.perftests.utils.PerfStatusReporter;
 import android.support.test.InstrumentationRegistry;
@@ -34,15 +36,31 @@ public class ViewPerfTest {
     @Rule
     public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
 
+    /**
+     * Reports the share of {@link Resources.Theme#obtainStyledAttributes} calls since
+     * {@code before} that reused values the theme had already resolved, in percent.
+     */
+    private static void reportStyledAttributesHitRate(Context context, String key,
+            int[] before) {
+        final int[] after = context.getTheme().getStyledAttributesCacheStats();
+        final long hits = after[0] - before[0];
+        final long total = hits + after[1] - before[1];
+        final Bundle status = new Bundle();
+        status.putLong(key + "_styledAttributesHitRate", total > 0 ? hits * 100 / total : 0);
+        InstrumentationRegistry.getInstrumentation().sendStatus(Activity.RESULT_OK, status);
+    }
+
     @Test
     public void testSimpleViewInflate() {
         final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
         final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
         LayoutInflater inflater = LayoutInflater.from(context);
         FrameLayout root = new FrameLayout(context);
+        final int[] stats = context.getTheme().getStyledAttributesCacheStats();
         while (state.keepRunning()) {
             inflater.inflate(R.layout.test_simple_view, root, false);
         }
+        reportStyledAttributesHitRate(context, "testSimpleViewInflate", stats);
     }
 
     @Test
@@ -51,8 +69,40 @@ public class ViewPerfTest {
         final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
         LayoutInflater inflater = LayoutInflater.from(context);
         FrameLayout root = new FrameLayout(context);
+        final int[] stats = context.getTheme().getStyledAttributesCacheStats();
         while (state.keepRunning()) {
             inflater.inflate(R.layout.twelve_key_entry, root, false);
         }
+        reportStyledAttributesHitRate(context, "testTwelveKeyInflate", stats);
+    }
+
+    @Test
+    public void testComplexListItemInflateCold() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        LayoutInflater inflater = LayoutInflater.from(context);
+        FrameLayout root = new FrameLayout(context);
+        final int[] stats = context.getTheme().getStyledAttributesCacheStats();
+        while (state.keepRunning()) {
+            state.pauseTiming();
+            LayoutInflater.clearCompiledLayouts();
+            state.resumeTiming();
+            inflater.inflate(R.layout.test_complex_list_item, root, false);
+        }
+        reportStyledAttributesHitRate(context, "testComplexListItemInflateCold", stats);
+    }
+
+    @Test
+    public void testComplexListItemInflateWarm() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        LayoutInflater inflater = LayoutInflater.from(context);
+        FrameLayout root = new FrameLayout(context);
+        inflater.inflate(R.layout.test_complex_list_item, root, false);
+        final int[] stats = context.getTheme().getStyledAttributesCacheStats();
+        while (state.keepRunning()) {
+            inflater.inflate(R.layout.test_complex_list_item, root, false);
+        }
+        reportStyledAttributesHitRate(context, "testComplexListItemInflateWarm", stats);
     }
 }
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.widget;
+
+import android.content.Context;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.perftests.utils.StubActivity;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.rule.ActivityTestRule;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.View.MeasureSpec;
+import android.view.ViewGroup;
+
+import com.android.perftests.core.R;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Scrolls a list of complex items, with and without sharing measurements between items.
+ */
+@RunWith(Parameterized.class)
+@LargeTest
+public class ListViewScrollPerfTest {
+    private static final int ITEM_COUNT = 1000;
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int SCROLL_DISTANCE = 50;
+
+    @Parameterized.Parameters(name = "shareMeasurements={0}")
+    public static Collection<Object[]> data() {
+        return Arrays.asList(new Object[][] { { false }, { true } });
+    }
+
+    @Rule
+    public ActivityTestRule<StubActivity> mActivityRule =
+            new ActivityTestRule<>(StubActivity.class);
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private final boolean mShareMeasurements;
+
+    public ListViewScrollPerfTest(boolean shareMeasurements) {
+        mShareMeasurements = shareMeasurements;
+    }
+
+    private static String getSubtitle(int position) {
+        // Every third item has a long subtitle, which takes two lines.
+        return position % 3 == 0
+                ? "A subtitle that is long enough to be wrapped on a second line, at least on"
+                        + " most screens, item " + position
+                : "Subtitle " + position;
+    }
+
+    private static class ItemAdapter extends BaseAdapter
+            implements AbsListView.ItemMeasureFingerprints {
+        private final LayoutInflater mInflater;
+
+        ItemAdapter(Context context) {
+            mInflater = LayoutInflater.from(context);
+        }
+
+        @Override
+        public int getCount() {
+            return ITEM_COUNT;
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return null;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            final View view = convertView != null
+                    ? convertView
+                    : mInflater.inflate(R.layout.test_complex_list_item, parent, false);
+            ((TextView) view.findViewById(R.id.title)).setText("Title " + position);
+            ((TextView) view.findViewById(R.id.time)).setText(position % 60 + " min");
+            ((TextView) view.findViewById(R.id.subtitle)).setText(getSubtitle(position));
+            ((Button) view.findViewById(R.id.action1)).setText("Reply");
+            ((Button) view.findViewById(R.id.action2)).setText("Archive");
+            ((CheckBox) view.findViewById(R.id.star)).setChecked(position % 2 == 0);
+            return view;
+        }
+
+        @Override
+        public long getItemMeasureFingerprint(int position) {
+            // Titles and times are single line, so only the subtitle changes the item's size.
+            return position % 3 == 0 ? 2 : 1;
+        }
+    }
+
+    @Test
+    public void testScroll() throws Throwable {
+        mActivityRule.runOnUiThread(() -> {
+            final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+            final Context context = mActivityRule.getActivity();
+            final ListView listView = new ListView(context);
+            final ItemAdapter adapter = new ItemAdapter(context);
+            listView.setAdapter(adapter);
+            if (mShareMeasurements) {
+                listView.setItemMeasureFingerprints(adapter);
+            }
+            mActivityRule.getActivity().setContentView(listView);
+            layout(listView);
+
+            int distance = SCROLL_DISTANCE;
+            while (state.keepRunning()) {
+                if (!listView.canScrollList(distance)) {
+                    distance = -distance;
+                }
+                listView.scrollListBy(distance);
+                layout(listView);
+            }
+        });
+    }
+
+    private static void layout(View view) {
+        view.measure(MeasureSpec.makeMeasureSpec(WIDTH, MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(HEIGHT, MeasureSpec.EXACTLY));
+        view.layout(0, 0, WIDTH, HEIGHT);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.widget;
+
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.perftests.utils.StubActivity;
+import android.support.test.filters.LargeTest;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.PrecomputedText;
+import android.view.View.MeasureSpec;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+/**
+ * Compares the UI thread cost of binding text to a TextView, as a list row would, with and
+ * without measuring the text ahead of time. Creating the {@link PrecomputedText} is excluded
+ * from the timing since it is meant to happen on a background thread.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class TextViewPrecomputedTextPerfTest {
+    private static final int WIDTH = 720;
+    private static final int WORDS_PER_TEXT = 60;
+    private static final int TEXT_COUNT = 32;
+    private static final String ALPHABETS = "abcdefghijklmnopqrstuvwxyz";
+
+    @Rule
+    public ActivityTestRule<StubActivity> mActivityRule = new ActivityTestRule(StubActivity.class);
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private static String[] getTexts() {
+        final Random r = new Random(1234567890);
+        final String[] texts = new String[TEXT_COUNT];
+        for (int i = 0; i < TEXT_COUNT; i++) {
+            final StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < WORDS_PER_TEXT; j++) {
+                final int wordLength = 1 + r.nextInt(10);
+                for (int k = 0; k < wordLength; k++) {
+                    sb.append(ALPHABETS.charAt(r.nextInt(ALPHABETS.length())));
+                }
+                sb.append(' ');
+            }
+            texts[i] = sb.toString();
+        }
+        return texts;
+    }
+
+    private static void measureAndLayout(TextView textView) {
+        textView.measure(MeasureSpec.makeMeasureSpec(WIDTH, MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
+        textView.layout(0, 0, textView.getMeasuredWidth(), textView.getMeasuredHeight());
+    }
+
+    @Test
+    public void testSetText() {
+        final TextView textView = new TextView(mActivityRule.getActivity());
+        final String[] texts = getTexts();
+
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        int i = 0;
+        while (state.keepRunning()) {
+            textView.setText(texts[i++ % TEXT_COUNT]);
+            measureAndLayout(textView);
+        }
+    }
+
+    @Test
+    public void testSetPrecomputedText() {
+        final TextView textView = new TextView(mActivityRule.getActivity());
+        final String[] texts = getTexts();
+        measureAndLayout(textView);
+        final int layoutWidth = WIDTH - textView.getCompoundPaddingLeft()
+                - textView.getCompoundPaddingRight();
+        final PrecomputedText.Params params = textView.getTextMetricsParams();
+
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        int i = 0;
+        while (state.keepRunning()) {
+            state.pauseTiming();
+            final PrecomputedText text =
+                    PrecomputedText.create(texts[i++ % TEXT_COUNT], params, layoutWidth);
+            state.resumeTiming();
+
+            textView.setPrecomputedText(text);
+            measureAndLayout(textView);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.internal.os;
+
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+/**
+ * Measures the cost of {@link LockContentionStats} on a lock used the way the activity
+ * manager lock is: short locked sections entered from several threads, with the hold time
+ * reported after each release.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class LockContentionStatsPerfTest {
+    private static final int BACKGROUND_THREADS = 3;
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private final Object mLock = new Object();
+    private final ArrayList<Thread> mThreads = new ArrayList<>();
+    private volatile boolean mRunning;
+    private int mCounter;
+
+    @Before
+    public void setUp() {
+        mRunning = true;
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        mRunning = false;
+        for (Thread thread : mThreads) {
+            thread.join();
+        }
+        mThreads.clear();
+    }
+
+    private void lockedSection(LockContentionStats stats) {
+        final long acquired;
+        synchronized (mLock) {
+            acquired = stats != null ? System.nanoTime() : 0;
+            // Roughly the work of a short AMS binder call.
+            for (int i = 0; i < 32; i++) {
+                mCounter += i;
+            }
+        }
+        if (stats != null) {
+            stats.noteHeld(acquired, System.nanoTime());
+        }
+    }
+
+    private void startBackgroundTraffic(LockContentionStats stats) {
+        for (int i = 0; i < BACKGROUND_THREADS; i++) {
+            final Thread thread = new Thread(() -> {
+                while (mRunning) {
+                    lockedSection(stats);
+                }
+            });
+            mThreads.add(thread);
+            thread.start();
+        }
+    }
+
+    @Test
+    public void timeUncontendedUnprofiled() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            lockedSection(null);
+        }
+    }
+
+    @Test
+    public void timeUncontendedProfiled() {
+        final LockContentionStats stats = new LockContentionStats("test", Long.MAX_VALUE);
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            lockedSection(stats);
+        }
+    }
+
+    @Test
+    public void timeContendedUnprofiled() {
+        startBackgroundTraffic(null);
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            lockedSection(null);
+        }
+    }
+
+    @Test
+    public void timeContendedProfiled() {
+        final LockContentionStats stats = new LockContentionStats("test", Long.MAX_VALUE);
+        startBackgroundTraffic(stats);
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            lockedSection(stats);
+        }
+    }
+
+    @Test
+    public void timeContendedProfiledWithSlowHolderSamples() {
+        // Every hold counts as slow, so each one pays for a stack sample.
+        final LockContentionStats stats = new LockContentionStats("test", 0);
+        startBackgroundTraffic(stats);
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            lockedSection(stats);
+        }
+    }
+}
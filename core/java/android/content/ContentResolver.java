@@ -485,7 +485,8 @@ public abstract class ContentResolver {
     @IntDef(flag = true,
             value = {
                 NOTIFY_SYNC_TO_NETWORK,
-                NOTIFY_SKIP_NOTIFY_FOR_DESCENDANTS
+                NOTIFY_SKIP_NOTIFY_FOR_DESCENDANTS,
+                NOTIFY_BATCHED
             })
     @Retention(RetentionPolicy.SOURCE)
     public @interface NotifyFlags {}
@@ -506,6 +507,16 @@ public abstract class ContentResolver {
      */
     public static final int NOTIFY_SKIP_NOTIFY_FOR_DESCENDANTS = 1<<1;
 
+    /**
+     * Flag for {@link #notifyChange(Uri, ContentObserver, int)}: the change may be delivered
+     * a short while later, together with the other batched changes for the same observer.
+     * Identical changes are only delivered once, and an observer that gets too many different
+     * ones is told about a common ancestor of their URIs instead. Meant for providers that
+     * notify once per row of a bulk operation.
+     * @hide
+     */
+    public static final int NOTIFY_BATCHED = 1<<2;
+
     // Always log queries which take 500ms+; shorter queries are
     // sampled accordingly.
     private static final boolean ENABLE_CONTENT_SAMPLE = false;
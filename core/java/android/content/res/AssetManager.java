@@ -84,6 +84,8 @@ public final class AssetManager implements AutoCloseable {
     
     private int mNumRefs = 1;
     private boolean mOpen = true;
+    // Whether addOverlayPath() was called, i.e. framework values may differ from the zygote's.
+    private volatile boolean mHasRuntimeOverlays;
     private HashMap<Long, RuntimeException> mRefStacks;
  
     /**
@@ -705,12 +707,21 @@ public final class AssetManager implements AutoCloseable {
 
     public final int addOverlayPath(String idmapPath) {
         synchronized (this) {
+            mHasRuntimeOverlays = true;
             int res = addOverlayPathNative(idmapPath);
             makeStringBlocks(mStringBlocks);
             return res;
         }
     }
 
+    /**
+     * Returns true if overlays were added to this AssetManager after it was created, which
+     * may change the values of framework resources.
+     */
+    /*package*/ final boolean hasRuntimeOverlays() {
+        return mHasRuntimeOverlays;
+    }
+
     /**
      * See addOverlayPath.
      *
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content.res;
+
+import android.annotation.NonNull;
+import android.util.TypedValue;
+
+import com.android.internal.util.GrowingArrayUtils;
+
+import libcore.util.EmptyArray;
+
+import java.util.Arrays;
+
+/**
+ * A read-only table of resolved framework resource values, built by the zygote while it
+ * preloads resources.
+ *
+ * The table is made of primitive arrays that are never written after the zygote forks, so all
+ * app processes share its pages instead of each resolving the same framework values through
+ * the native AssetManager. Only simple values (booleans, integers, dimensions, colors and
+ * fractions) are included; strings, references and files are always looked up normally.
+ *
+ * Each value remembers which configuration changes affect it, so a lookup only hits when the
+ * caller's configuration differs from the zygote's in ways that do not matter for that value.
+ */
+final class PreloadedValueCache {
+    private static final int FRAMEWORK_PACKAGE_ID = 0x01;
+    private static final int MAX_TYPE_ID = 0xff;
+    // Entries of a type are numbered densely, so a long run of missing ones means the end.
+    private static final int MAX_CONSECUTIVE_MISSING_ENTRIES = 64;
+    private static final String[] VALUE_TYPES = { "bool", "integer", "dimen", "color", "fraction" };
+
+    private final Configuration mConfiguration;
+
+    private int mSize;
+    // Sorted, so lookups can binary search.
+    private int[] mIds = EmptyArray.INT;
+    private int[] mTypes = EmptyArray.INT;
+    private int[] mData = EmptyArray.INT;
+    private int[] mAssetCookies = EmptyArray.INT;
+    private int[] mResourceIds = EmptyArray.INT;
+    private int[] mChangingConfigurations = EmptyArray.INT;
+    private int[] mDensities = EmptyArray.INT;
+
+    private PreloadedValueCache(Configuration configuration) {
+        mConfiguration = new Configuration(configuration);
+    }
+
+    /**
+     * Resolves every simple framework value for {@code configuration}, which must be the
+     * configuration {@code assets} is currently set to.
+     */
+    static PreloadedValueCache build(@NonNull AssetManager assets,
+            @NonNull Configuration configuration) {
+        final PreloadedValueCache cache = new PreloadedValueCache(configuration);
+        final TypedValue value = new TypedValue();
+        for (int type = 1; type <= MAX_TYPE_ID; type++) {
+            final int typeBase = (FRAMEWORK_PACKAGE_ID << 24) | (type << 16);
+            final String typeName = assets.getResourceTypeName(typeBase);
+            if (typeName == null) {
+                continue;
+            }
+            if (!Arrays.asList(VALUE_TYPES).contains(typeName)) {
+                continue;
+            }
+            int missing = 0;
+            for (int entry = 0; entry <= 0xffff && missing < MAX_CONSECUTIVE_MISSING_ENTRIES;
+                    entry++) {
+                final int id = typeBase | entry;
+                if (!assets.getResourceValue(id, 0, value, true)) {
+                    missing++;
+                    continue;
+                }
+                missing = 0;
+                if (isSimpleValue(value.type)) {
+                    cache.add(id, value);
+                }
+            }
+        }
+        return cache;
+    }
+
+    private static boolean isSimpleValue(int type) {
+        return (type >= TypedValue.TYPE_FIRST_INT && type <= TypedValue.TYPE_LAST_INT)
+                || type == TypedValue.TYPE_DIMENSION
+                || type == TypedValue.TYPE_FRACTION
+                || type == TypedValue.TYPE_FLOAT;
+    }
+
+    private void add(int id, TypedValue value) {
+        mIds = GrowingArrayUtils.append(mIds, mSize, id);
+        mTypes = GrowingArrayUtils.append(mTypes, mSize, value.type);
+        mData = GrowingArrayUtils.append(mData, mSize, value.data);
+        mAssetCookies = GrowingArrayUtils.append(mAssetCookies, mSize, value.assetCookie);
+        mResourceIds = GrowingArrayUtils.append(mResourceIds, mSize, value.resourceId);
+        mChangingConfigurations = GrowingArrayUtils.append(mChangingConfigurations, mSize,
+                value.changingConfigurations);
+        mDensities = GrowingArrayUtils.append(mDensities, mSize, value.density);
+        mSize++;
+    }
+
+    /**
+     * Returns the configuration changes between the table and {@code configuration}, to be
+     * passed to {@link #getValue}.
+     */
+    int diff(@NonNull Configuration configuration) {
+        return mConfiguration.diff(configuration, true /* compareUndefined */,
+                false /* publicOnly */);
+    }
+
+    /**
+     * Fills {@code outValue} with the resolved value of {@code id} if the table has it and it
+     * is not affected by {@code configChanges}.
+     *
+     * @param configChanges the result of {@link #diff} for the caller's configuration.
+     * @return whether {@code outValue} was filled
+     */
+    boolean getValue(int id, int configChanges, @NonNull TypedValue outValue) {
+        if ((id >>> 24) != FRAMEWORK_PACKAGE_ID) {
+            return false;
+        }
+        final int index = Arrays.binarySearch(mIds, 0, mSize, id);
+        if (index < 0 || (mChangingConfigurations[index] & configChanges) != 0) {
+            return false;
+        }
+        outValue.type = mTypes[index];
+        outValue.data = mData[index];
+        outValue.string = null;
+        outValue.assetCookie = mAssetCookies[index];
+        outValue.resourceId = mResourceIds[index];
+        outValue.changingConfigurations = mChangingConfigurations[index];
+        outValue.density = mDensities[index];
+        return true;
+    }
+
+    int size() {
+        return mSize;
+    }
+}
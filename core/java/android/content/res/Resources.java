@@ -1620,6 +1620,16 @@ public class Resources {
             mThemeImpl.dump(priority, tag, prefix);
         }
 
+        /**
+         * Returns how many {@link #obtainStyledAttributes} calls reused values this theme had
+         * already resolved, and how many had to resolve them, as {@code [hits, misses]}.
+         *
+         * @hide
+         */
+        public int[] getStyledAttributesCacheStats() {
+            return mThemeImpl.getStyledAttributesCacheStats();
+        }
+
         // Needed by layoutlib.
         /*package*/ long getNativeTheme() {
             return mThemeImpl.getNativeTheme();
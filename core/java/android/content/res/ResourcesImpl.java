@@ -104,6 +104,15 @@ public class ResourcesImpl {
             = new LongSparseArray<>();
     private static final LongSparseArray<android.content.res.ConstantState<ComplexColor>>
             sPreloadedComplexColors = new LongSparseArray<>();
+    // Resolved framework values built by the zygote at the end of preloading.
+    private static PreloadedValueCache sPreloadedValues;
+
+    // The configuration changes between sPreloadedValues and mConfiguration.
+    private volatile int mPreloadedValuesConfigChanges = ~0;
+
+    // Incremented whenever the configuration changes, so themes know when attribute values
+    // they memoized may resolve differently.
+    private volatile int mConfigurationGeneration;
 
     /** Lock object used to protect access to caches and configuration. */
     private final Object mAccessLock = new Object();
@@ -208,6 +217,9 @@ public class ResourcesImpl {
 
     void getValue(@AnyRes int id, TypedValue outValue, boolean resolveRefs)
             throws NotFoundException {
+        if (resolveRefs && getPreloadedValue(id, outValue)) {
+            return;
+        }
         boolean found = mAssets.getResourceValue(id, 0, outValue, resolveRefs);
         if (found) {
             return;
@@ -217,6 +229,9 @@ public class ResourcesImpl {
 
     void getValueForDensity(@AnyRes int id, int density, TypedValue outValue,
             boolean resolveRefs) throws NotFoundException {
+        if (density == 0 && resolveRefs && getPreloadedValue(id, outValue)) {
+            return;
+        }
         boolean found = mAssets.getResourceValue(id, density, outValue, resolveRefs);
         if (found) {
             return;
@@ -224,6 +239,16 @@ public class ResourcesImpl {
         throw new NotFoundException("Resource ID #0x" + Integer.toHexString(id));
     }
 
+    /**
+     * Looks {@code id} up in the values preloaded by the zygote, which are only valid as long
+     * as no overlays were added to this process' assets.
+     */
+    private boolean getPreloadedValue(@AnyRes int id, TypedValue outValue) {
+        final PreloadedValueCache values = sPreloadedValues;
+        return values != null && !mAssets.hasRuntimeOverlays()
+                && values.getValue(id, mPreloadedValuesConfigChanges, outValue);
+    }
+
     void getValue(String name, TypedValue outValue, boolean resolveRefs)
             throws NotFoundException {
         int id = getIdentifier(name, "string", null);
@@ -450,6 +475,11 @@ public class ResourcesImpl {
                             + mDisplayAdjustments.getCompatibilityInfo());
                 }
 
+                if (sPreloadedValues != null) {
+                    mPreloadedValuesConfigChanges = sPreloadedValues.diff(mConfiguration);
+                }
+                mConfigurationGeneration++;
+
                 mDrawableCache.onConfigurationChange(configChanges);
                 mColorDrawableCache.onConfigurationChange(configChanges);
                 mComplexColorCache.onConfigurationChange(configChanges);
@@ -1211,6 +1241,12 @@ public class ResourcesImpl {
                         + count + " bitmaps of " + size + " bytes in " + time + " ms");
             }
 
+            final long valuesStartTime = SystemClock.uptimeMillis();
+            sPreloadedValues = PreloadedValueCache.build(mAssets, mConfiguration);
+            mPreloadedValuesConfigChanges = 0;
+            Log.i(TAG_PRELOAD, "Preloaded " + sPreloadedValues.size() + " resource values in "
+                    + (SystemClock.uptimeMillis() - valuesStartTime) + "ms.");
+
             mPreloading = false;
             flushLayoutCache();
         }
@@ -1249,6 +1285,13 @@ public class ResourcesImpl {
          */
         private int mThemeResId = 0;
 
+        /**
+         * Attribute values resolved by {@link #obtainStyledAttributes}, valid as long as the
+         * styles and the configuration stay the same.
+         */
+        private final StyledAttributesCache mStyledAttributesCache = new StyledAttributesCache();
+        private int mStyledAttributesGeneration;
+
         /*package*/ ThemeImpl() {
             mAssets = ResourcesImpl.this.mAssets;
             mTheme = mAssets.createTheme();
@@ -1275,6 +1318,7 @@ public class ResourcesImpl {
         void applyStyle(int resId, boolean force) {
             synchronized (mKey) {
                 AssetManager.applyThemeStyle(mTheme, resId, force);
+                mStyledAttributesCache.clear();
 
                 mThemeResId = resId;
                 mKey.append(resId, force);
@@ -1285,6 +1329,7 @@ public class ResourcesImpl {
             synchronized (mKey) {
                 synchronized (other.mKey) {
                     AssetManager.copyTheme(mTheme, other.mTheme);
+                    mStyledAttributesCache.clear();
 
                     mThemeResId = other.mThemeResId;
                     mKey.setTo(other.getKey());
@@ -1307,9 +1352,18 @@ public class ResourcesImpl {
                 // out the attributes from the XML file (applying type information
                 // contained in the resources and such).
                 final XmlBlock.Parser parser = (XmlBlock.Parser) set;
-                AssetManager.applyStyle(mTheme, defStyleAttr, defStyleRes,
-                        parser != null ? parser.mParseState : 0,
-                        attrs, attrs.length, array.mDataAddress, array.mIndicesAddress);
+                final int generation = mConfigurationGeneration;
+                if (mStyledAttributesGeneration != generation) {
+                    mStyledAttributesCache.clear();
+                    mStyledAttributesGeneration = generation;
+                }
+                if (!mStyledAttributesCache.get(parser, attrs, defStyleAttr, defStyleRes,
+                        array)) {
+                    AssetManager.applyStyle(mTheme, defStyleAttr, defStyleRes,
+                            parser != null ? parser.mParseState : 0,
+                            attrs, attrs.length, array.mDataAddress, array.mIndicesAddress);
+                    mStyledAttributesCache.put(array);
+                }
                 array.mTheme = wrapper;
                 array.mXml = parser;
 
@@ -1357,6 +1411,21 @@ public class ResourcesImpl {
         public void dump(int priority, String tag, String prefix) {
             synchronized (mKey) {
                 AssetManager.dumpTheme(mTheme, priority, tag, prefix);
+                Log.println(priority, tag, prefix + "obtainStyledAttributes hits="
+                        + mStyledAttributesCache.getHitCount() + " misses="
+                        + mStyledAttributesCache.getMissCount());
+            }
+        }
+
+        /**
+         * Returns how many {@link #obtainStyledAttributes} calls were served from, and missed,
+         * the memoized values, as {@code [hits, misses]}.
+         */
+        int[] getStyledAttributesCacheStats() {
+            synchronized (mKey) {
+                return new int[] {
+                        mStyledAttributesCache.getHitCount(),
+                        mStyledAttributesCache.getMissCount() };
             }
         }
 
@@ -1386,6 +1455,8 @@ public class ResourcesImpl {
         void rebase() {
             synchronized (mKey) {
                 AssetManager.clearTheme(mTheme);
+                mStyledAttributesCache.clear();
+                mStyledAttributesGeneration = mConfigurationGeneration;
 
                 // Reapply the same styles in the same order.
                 for (int i = 0; i < mKey.mCount; i++) {
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content.res;
+
+import android.annotation.Nullable;
+import android.util.LruCache;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memoizes the attribute values a theme resolves in
+ * {@link ResourcesImpl.ThemeImpl#obtainStyledAttributes}.
+ *
+ * Inflating a layout resolves the same styleable against the same default style for every view
+ * of a kind, and list rows inflate the same XML elements over and over. The result only depends
+ * on the theme, the configuration, the requested attributes, the default style and the
+ * attributes written in the XML element, so it can be copied from an earlier call instead of
+ * being resolved again by the native AssetManager.
+ *
+ * Every key is compared in full: the requested attributes by content, since styleables are
+ * often copied or built at runtime, and the XML element by its {@link XmlBlock} and its position
+ * in that block. The values of all themes of the process share one cache bounded in bytes. A
+ * theme that changes takes a new id instead of removing its values, which then age out.
+ *
+ * Each theme has its own instance, which it calls with its lock held.
+ */
+final class StyledAttributesCache {
+    @VisibleForTesting
+    static final int MAX_BYTES = 256 * 1024;
+
+    // Rough size of the objects and array headers of an entry and its key.
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private static final AtomicLong sNextThemeId = new AtomicLong();
+
+    private static final LruCache<Key, Entry> sCache = new LruCache<Key, Entry>(MAX_BYTES) {
+        @Override
+        protected int sizeOf(Key key, Entry entry) {
+            return ENTRY_OVERHEAD_BYTES
+                    + 4 * (key.attrs.length + entry.data.length + entry.indices.length);
+        }
+    };
+
+    private final Key mLookupKey = new Key();
+    private long mThemeId = sNextThemeId.incrementAndGet();
+
+    private int mHitCount;
+    private int mMissCount;
+
+    private static final class Key {
+        long themeId;
+        int[] attrs;
+        int defStyleAttr;
+        int defStyleRes;
+        long blockId;
+        long elementPosition;
+        int hash;
+
+        void set(long themeId, int[] attrs, int defStyleAttr, int defStyleRes, long blockId,
+                long elementPosition) {
+            this.themeId = themeId;
+            this.attrs = attrs;
+            this.defStyleAttr = defStyleAttr;
+            this.defStyleRes = defStyleRes;
+            this.blockId = blockId;
+            this.elementPosition = elementPosition;
+            int h = Long.hashCode(themeId);
+            h = 31 * h + Arrays.hashCode(attrs);
+            h = 31 * h + defStyleAttr;
+            h = 31 * h + defStyleRes;
+            h = 31 * h + Long.hashCode(blockId);
+            h = 31 * h + Long.hashCode(elementPosition);
+            hash = h;
+        }
+
+        Key copy() {
+            final Key key = new Key();
+            key.themeId = themeId;
+            key.attrs = attrs.clone();
+            key.defStyleAttr = defStyleAttr;
+            key.defStyleRes = defStyleRes;
+            key.blockId = blockId;
+            key.elementPosition = elementPosition;
+            key.hash = hash;
+            return key;
+        }
+
+        void clear() {
+            attrs = null;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return hash == other.hash && themeId == other.themeId
+                    && defStyleAttr == other.defStyleAttr && defStyleRes == other.defStyleRes
+                    && blockId == other.blockId && elementPosition == other.elementPosition
+                    && (attrs == other.attrs || Arrays.equals(attrs, other.attrs));
+        }
+    }
+
+    private static final class Entry {
+        final int[] data;
+        final int[] indices;
+
+        Entry(int[] data, int[] indices) {
+            this.data = data;
+            this.indices = indices;
+        }
+    }
+
+    /**
+     * Fills {@code outArray} with the values memoized for these arguments, if any. On a miss,
+     * the caller resolves the values itself and passes the result to {@link #put}, with no
+     * other call in between.
+     *
+     * @return whether {@code outArray} was filled
+     */
+    boolean get(@Nullable XmlBlock.Parser parser, int[] attrs, int defStyleAttr,
+            int defStyleRes, TypedArray outArray) {
+        long blockId = 0;
+        long elementPosition = 0;
+        if (parser != null) {
+            blockId = parser.getBlockId();
+            elementPosition = parser.getElementPosition();
+        }
+
+        mLookupKey.set(mThemeId, attrs, defStyleAttr, defStyleRes, blockId, elementPosition);
+        final Entry entry = sCache.get(mLookupKey);
+        if (entry == null) {
+            mMissCount++;
+            return false;
+        }
+        mHitCount++;
+        mLookupKey.clear();
+        System.arraycopy(entry.data, 0, outArray.mData, 0, entry.data.length);
+        System.arraycopy(entry.indices, 0, outArray.mIndices, 0, entry.indices.length);
+        return true;
+    }
+
+    /**
+     * Memoizes the values resolved into {@code array} after {@link #get} missed.
+     */
+    void put(TypedArray array) {
+        if (mLookupKey.attrs == null) {
+            return;
+        }
+        final int len = array.mLength;
+        final Entry entry = new Entry(
+                Arrays.copyOf(array.mData, len * AssetManager.STYLE_NUM_ENTRIES),
+                Arrays.copyOf(array.mIndices, len + 1));
+        sCache.put(mLookupKey.copy(), entry);
+        mLookupKey.clear();
+    }
+
+    /**
+     * Stops using the values memoized so far, e.g. because the theme or its configuration
+     * changed.
+     */
+    void clear() {
+        mThemeId = sNextThemeId.incrementAndGet();
+    }
+
+    int getHitCount() {
+        return mHitCount;
+    }
+
+    int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Returns the estimated size of the values memoized for all themes, in bytes.
+     */
+    @VisibleForTesting
+    static int getSizeBytes() {
+        return sCache.size();
+    }
+}
@@ -27,6 +27,7 @@ import org.xmlpull.v1.XmlPullParserException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Wrapper around a compiled XML file.
@@ -460,6 +461,19 @@ final class XmlBlock {
             return mStrings.get(id);
         }
 
+        /**
+         * Returns the position of the current element in the block. Positions are only
+         * comparable between parsers of the same {@link #getBlockId block}, in which they
+         * identify the element and so its attributes exactly.
+         */
+        /*package*/ final long getElementPosition() {
+            return nativeGetElementPosition(mParseState);
+        }
+
+        /*package*/ final long getBlockId() {
+            return mBlock.mId;
+        }
+
         /*package*/ long mParseState;
         private final XmlBlock mBlock;
         private boolean mStarted = false;
@@ -484,8 +498,11 @@ final class XmlBlock {
         mStrings = new StringBlock(nativeGetStringBlock(xmlBlock), false);
     }
 
+    private static final AtomicLong sNextId = new AtomicLong();
+
     private final AssetManager mAssets;
     private final long mNative;
+    /*package*/ final long mId = sNextId.incrementAndGet();
     /*package*/ final StringBlock mStrings;
     private boolean mOpen = true;
     private int mOpenCount = 1;
@@ -523,6 +540,8 @@ final class XmlBlock {
     @FastNative
     private static final native int nativeGetAttributeData(long state, int idx);
     @FastNative
+    private static final native long nativeGetElementPosition(long state);
+    @FastNative
     private static final native int nativeGetAttributeStringValue(long state, int idx);
     @FastNative
     private static final native int nativeGetIdAttribute(long state);
@@ -19,6 +19,10 @@ package android.os;
 import android.util.ArrayMap;
 import android.util.Slog;
 
+import com.android.internal.os.CallbackDispatchQueue;
+
+import java.io.PrintWriter;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
 /**
@@ -62,6 +66,8 @@ public class RemoteCallbackList<E extends IInterface> {
     private final class Callback implements IBinder.DeathRecipient {
         final E mCallback;
         final Object mCookie;
+        // Only created once the callback is used with broadcastAsync().
+        CallbackDispatchQueue mDispatchQueue;
 
         Callback(E callback, Object cookie) {
             mCallback = callback;
@@ -71,9 +77,16 @@ public class RemoteCallbackList<E extends IInterface> {
         public void binderDied() {
             synchronized (mCallbacks) {
                 mCallbacks.remove(mCallback.asBinder());
+                closeDispatchQueue();
             }
             onCallbackDied(mCallback, mCookie);
         }
+
+        void closeDispatchQueue() {
+            if (mDispatchQueue != null) {
+                mDispatchQueue.close();
+            }
+        }
     }
 
     /**
@@ -151,6 +164,7 @@ public class RemoteCallbackList<E extends IInterface> {
             Callback cb = mCallbacks.remove(callback.asBinder());
             if (cb != null) {
                 cb.mCallback.asBinder().unlinkToDeath(cb, 0);
+                cb.closeDispatchQueue();
                 return true;
             }
             return false;
@@ -170,6 +184,7 @@ public class RemoteCallbackList<E extends IInterface> {
             for (int cbi=mCallbacks.size()-1; cbi>=0; cbi--) {
                 Callback cb = mCallbacks.valueAt(cbi);
                 cb.mCallback.asBinder().unlinkToDeath(cb, 0);
+                cb.closeDispatchQueue();
             }
             mCallbacks.clear();
             mKilled = true;
@@ -332,6 +347,52 @@ public class RemoteCallbackList<E extends IInterface> {
         }
     }
 
+    /**
+     * Performs {@code action} on each callback on {@code executor} instead of the calling
+     * thread, so that one slow callback does not hold up the others.
+     * <p>
+     * Each callback gets its own queue: actions for the same callback run one at a time, in
+     * the order they were broadcast. If a callback still has an action pending with a
+     * {@code coalesceKey} equal to this one, the pending action is dropped, so callbacks that
+     * fall behind only see the latest state. Pass {@code null} to always deliver.
+     * <p>
+     * As with {@link #broadcast}, {@code action} should catch {@link RemoteException}s.
+     * Callbacks must always be used with the same {@code executor}.
+     *
+     * @hide
+     */
+    public void broadcastAsync(Executor executor, Object coalesceKey, Consumer<E> action) {
+        synchronized (mCallbacks) {
+            for (int i = 0; i < mCallbacks.size(); i++) {
+                final Callback cb = mCallbacks.valueAt(i);
+                if (cb.mDispatchQueue == null) {
+                    cb.mDispatchQueue = new CallbackDispatchQueue(executor);
+                }
+                final E callback = cb.mCallback;
+                cb.mDispatchQueue.enqueue(coalesceKey, () -> action.accept(callback));
+            }
+        }
+    }
+
+    /**
+     * Prints the {@link #broadcastAsync} delivery stats of each callback that has any.
+     *
+     * @hide
+     */
+    public void dumpAsyncDispatchStats(PrintWriter pw, String prefix) {
+        synchronized (mCallbacks) {
+            for (int i = 0; i < mCallbacks.size(); i++) {
+                final Callback cb = mCallbacks.valueAt(i);
+                if (cb.mDispatchQueue != null) {
+                    pw.print(prefix);
+                    pw.print(cb.mCallback.asBinder());
+                    pw.print(": ");
+                    cb.mDispatchQueue.dump(pw);
+                }
+            }
+        }
+    }
+
     /**
      * Returns the number of registered callbacks. Note that the number of registered
      * callbacks may differ from the value returned by {@link #beginBroadcast()} since
@@ -1464,6 +1464,41 @@ public final class Settings {
      */
     public static final String CALL_METHOD_GET_GLOBAL = "GET_global";
 
+    /**
+     * @hide - Private call() method on SettingsProvider to read all of the 'system' table at
+     * once. The response has the names and values in {@link #CALL_METHOD_NAMES_KEY} and
+     * {@link #CALL_METHOD_VALUES_KEY}.
+     */
+    public static final String CALL_METHOD_LIST_SYSTEM = "LIST_system";
+
+    /**
+     * @hide - Private call() method on SettingsProvider to read all of the 'secure' table at
+     * once.
+     *
+     * @see #CALL_METHOD_LIST_SYSTEM
+     */
+    public static final String CALL_METHOD_LIST_SECURE = "LIST_secure";
+
+    /**
+     * @hide - Private call() method on SettingsProvider to read all of the 'global' table at
+     * once.
+     *
+     * @see #CALL_METHOD_LIST_SYSTEM
+     */
+    public static final String CALL_METHOD_LIST_GLOBAL = "LIST_global";
+
+    /**
+     * @hide Key with the names of the settings in the response to a LIST call. The value is
+     * a string array.
+     */
+    public static final String CALL_METHOD_NAMES_KEY = "_names";
+
+    /**
+     * @hide Key with the values of the settings in the response to a LIST call, in the same
+     * order as {@link #CALL_METHOD_NAMES_KEY}. The value is a string array.
+     */
+    public static final String CALL_METHOD_VALUES_KEY = "_values";
+
     /**
      * @hide - Specifies that the caller of the fast-path call()-based flow tracks
      * the settings generation in order to cache values locally. If this key is
@@ -1827,15 +1862,26 @@ public final class Settings {
         // for the fast path of retrieving settings.
         private final String mCallGetCommand;
         private final String mCallSetCommand;
+        // The method we'll call on the provider to read the whole table at once.
+        private final String mCallListCommand;
 
         @GuardedBy("this")
         private GenerationTracker mGenerationTracker;
 
+        // Whether mValues holds the whole table, so that a name it doesn't have is not set.
+        @GuardedBy("this")
+        private boolean mValuesComplete;
+
+        // Set if the provider doesn't support reading the whole table.
+        @GuardedBy("this")
+        private boolean mListUnsupported;
+
         public NameValueCache(Uri uri, String getCommand, String setCommand,
-                ContentProviderHolder providerHolder) {
+                String listCommand, ContentProviderHolder providerHolder) {
             mUri = uri;
             mCallGetCommand = getCommand;
             mCallSetCommand = setCommand;
+            mCallListCommand = listCommand;
             mProviderHolder = providerHolder;
         }
 
@@ -1873,8 +1919,11 @@ public final class Settings {
                                         + cr.getPackageName() +" and user:" + userHandle);
                             }
                             mValues.clear();
+                            mValuesComplete = false;
                         } else if (mValues.containsKey(name)) {
                             return mValues.get(name);
+                        } else if (mValuesComplete) {
+                            return null;
                         }
                         if (mGenerationTracker != null) {
                             currentGeneration = mGenerationTracker.getCurrentGeneration();
@@ -1888,6 +1937,17 @@ public final class Settings {
 
             IContentProvider cp = mProviderHolder.getProvider(cr);
 
+            // The system server reads most settings of its user, so it reads the whole table at
+            // once and then serves all reads from the cache until the table changes.
+            if (isSelf && mCallListCommand != null && Settings.isInSystemServer()
+                    && loadTable(cr, cp, currentGeneration, userHandle)) {
+                synchronized (NameValueCache.this) {
+                    if (mValuesComplete) {
+                        return mValues.get(name);
+                    }
+                }
+            }
+
             // Try the fast path first, not using query().  If this
             // fails (alternate Settings provider that doesn't support
             // this interface?) then we fall back to the query/table
@@ -1914,60 +1974,14 @@ public final class Settings {
                             }
                         }
                     }
-                    Bundle b;
-                    // If we're in system server and in a binder transaction we need to clear the
-                    // calling uid. This works around code in system server that did not call
-                    // clearCallingIdentity, previously this wasn't needed because reading settings
-                    // did not do permission checking but thats no longer the case.
-                    // Long term this should be removed and callers should properly call
-                    // clearCallingIdentity or use a ContentResolver from the caller as needed.
-                    if (Settings.isInSystemServer() && Binder.getCallingUid() != Process.myUid()) {
-                        final long token = Binder.clearCallingIdentity();
-                        try {
-                            b = cp.call(cr.getPackageName(), mCallGetCommand, name, args);
-                        } finally {
-                            Binder.restoreCallingIdentity(token);
-                        }
-                    } else {
-                        b = cp.call(cr.getPackageName(), mCallGetCommand, name, args);
-                    }
+                    Bundle b = call(cr, cp, mCallGetCommand, name, args);
                     if (b != null) {
                         String value = b.getString(Settings.NameValueTable.VALUE);
                         // Don't update our cache for reads of other users' data
                         if (isSelf) {
                             synchronized (NameValueCache.this) {
                                 if (needsGenerationTracker) {
-                                    MemoryIntArray array = b.getParcelable(
-                                            CALL_METHOD_TRACK_GENERATION_KEY);
-                                    final int index = b.getInt(
-                                            CALL_METHOD_GENERATION_INDEX_KEY, -1);
-                                    if (array != null && index >= 0) {
-                                        final int generation = b.getInt(
-                                                CALL_METHOD_GENERATION_KEY, 0);
-                                        if (DEBUG) {
-                                            Log.i(TAG, "Received generation tracker for type:"
-                                                    + mUri.getPath() + " in package:"
-                                                    + cr.getPackageName() + " and user:"
-                                                    + userHandle + " with index:" + index);
-                                        }
-                                        if (mGenerationTracker != null) {
-                                            mGenerationTracker.destroy();
-                                        }
-                                        mGenerationTracker = new GenerationTracker(array, index,
-                                                generation, () -> {
-                                            synchronized (NameValueCache.this) {
-                                                Log.e(TAG, "Error accessing generation"
-                                                        + " tracker - removing");
-                                                if (mGenerationTracker != null) {
-                                                    GenerationTracker generationTracker =
-                                                            mGenerationTracker;
-                                                    mGenerationTracker = null;
-                                                    generationTracker.destroy();
-                                                    mValues.clear();
-                                                }
-                                            }
-                                        });
-                                    }
+                                    setGenerationTrackerLocked(cr, b, userHandle);
                                 }
                                 if (mGenerationTracker != null && currentGeneration ==
                                         mGenerationTracker.getCurrentGeneration()) {
@@ -1993,7 +2007,7 @@ public final class Settings {
             try {
                 Bundle queryArgs = ContentResolver.createSqlQueryBundle(
                         NAME_EQ_PLACEHOLDER, new String[]{name}, null);
-                // Same workaround as above.
+                // Same workaround as in call().
                 if (Settings.isInSystemServer() && Binder.getCallingUid() != Process.myUid()) {
                     final long token = Binder.clearCallingIdentity();
                     try {
@@ -2031,12 +2045,128 @@ public final class Settings {
             }
         }
 
+        /**
+         * Reads the whole table into mValues, and returns whether it did.
+         *
+         * @param currentGeneration the generation of the table before the call, or -1 if
+         *         there is no generation tracker yet.
+         */
+        private boolean loadTable(ContentResolver cr, IContentProvider cp,
+                int currentGeneration, int userHandle) {
+            Bundle args = null;
+            synchronized (NameValueCache.this) {
+                if (mListUnsupported) {
+                    return false;
+                }
+                if (mGenerationTracker == null) {
+                    args = new Bundle();
+                    args.putString(CALL_METHOD_TRACK_GENERATION_KEY, null);
+                }
+            }
+            final Bundle b;
+            try {
+                b = call(cr, cp, mCallListCommand, null, args);
+            } catch (RemoteException e) {
+                return false;
+            }
+            final String[] names = b != null ? b.getStringArray(CALL_METHOD_NAMES_KEY) : null;
+            final String[] values = b != null ? b.getStringArray(CALL_METHOD_VALUES_KEY) : null;
+            synchronized (NameValueCache.this) {
+                if (names == null || values == null || names.length != values.length) {
+                    // Alternate Settings provider that doesn't support this?
+                    mListUnsupported = true;
+                    return false;
+                }
+                if (args != null) {
+                    if (mGenerationTracker != null) {
+                        // Another thread got a tracker meanwhile; we can't tell which
+                        // generation of the table we got.
+                        MemoryIntArray array = b.getParcelable(CALL_METHOD_TRACK_GENERATION_KEY);
+                        if (array != null) {
+                            try {
+                                array.close();
+                            } catch (IOException e) {
+                                Log.e(TAG, "Error closing backing array", e);
+                            }
+                        }
+                        return false;
+                    }
+                    setGenerationTrackerLocked(cr, b, userHandle);
+                    currentGeneration = b.getInt(CALL_METHOD_GENERATION_KEY, -1);
+                }
+                if (mGenerationTracker == null
+                        || currentGeneration != mGenerationTracker.getCurrentGeneration()) {
+                    return false;
+                }
+                mValues.clear();
+                for (int i = 0; i < names.length; i++) {
+                    mValues.put(names[i], values[i]);
+                }
+                mValuesComplete = true;
+                if (DEBUG) {
+                    Log.i(TAG, "Cached " + names.length + " settings of type:" + mUri.getPath()
+                            + " at generation:" + currentGeneration);
+                }
+                return true;
+            }
+        }
+
+        private static Bundle call(ContentResolver cr, IContentProvider cp, String method,
+                String name, Bundle args) throws RemoteException {
+            // If we're in system server and in a binder transaction we need to clear the
+            // calling uid. This works around code in system server that did not call
+            // clearCallingIdentity, previously this wasn't needed because reading settings
+            // did not do permission checking but thats no longer the case.
+            // Long term this should be removed and callers should properly call
+            // clearCallingIdentity or use a ContentResolver from the caller as needed.
+            if (Settings.isInSystemServer() && Binder.getCallingUid() != Process.myUid()) {
+                final long token = Binder.clearCallingIdentity();
+                try {
+                    return cp.call(cr.getPackageName(), method, name, args);
+                } finally {
+                    Binder.restoreCallingIdentity(token);
+                }
+            }
+            return cp.call(cr.getPackageName(), method, name, args);
+        }
+
+        @GuardedBy("this")
+        private void setGenerationTrackerLocked(ContentResolver cr, Bundle b, int userHandle) {
+            MemoryIntArray array = b.getParcelable(CALL_METHOD_TRACK_GENERATION_KEY);
+            final int index = b.getInt(CALL_METHOD_GENERATION_INDEX_KEY, -1);
+            if (array != null && index >= 0) {
+                final int generation = b.getInt(CALL_METHOD_GENERATION_KEY, 0);
+                if (DEBUG) {
+                    Log.i(TAG, "Received generation tracker for type:"
+                            + mUri.getPath() + " in package:"
+                            + cr.getPackageName() + " and user:"
+                            + userHandle + " with index:" + index);
+                }
+                if (mGenerationTracker != null) {
+                    mGenerationTracker.destroy();
+                }
+                mGenerationTracker = new GenerationTracker(array, index, generation, () -> {
+                    synchronized (NameValueCache.this) {
+                        Log.e(TAG, "Error accessing generation tracker - removing");
+                        if (mGenerationTracker != null) {
+                            GenerationTracker generationTracker = mGenerationTracker;
+                            mGenerationTracker = null;
+                            generationTracker.destroy();
+                            mValues.clear();
+                            mValuesComplete = false;
+                        }
+                    }
+                });
+            }
+        }
+
         public void clearGenerationTrackerForTest() {
             synchronized (NameValueCache.this) {
                 if (mGenerationTracker != null) {
                     mGenerationTracker.destroy();
                 }
                 mValues.clear();
+                mValuesComplete = false;
                 mGenerationTracker = null;
             }
         }
@@ -2086,6 +2216,7 @@ public final class Settings {
                 CONTENT_URI,
                 CALL_METHOD_GET_SYSTEM,
                 CALL_METHOD_PUT_SYSTEM,
+                CALL_METHOD_LIST_SYSTEM,
                 sProviderHolder);
 
         private static final HashSet<String> MOVED_TO_SECURE;
@@ -5592,6 +5723,7 @@ public final class Settings {
                 CONTENT_URI,
                 CALL_METHOD_GET_SECURE,
                 CALL_METHOD_PUT_SECURE,
+                CALL_METHOD_LIST_SECURE,
                 sProviderHolder);
 
         private static ILockSettings sLockSettings = null;
@@ -11853,6 +11985,7 @@ public final class Settings {
                     CONTENT_URI,
                     CALL_METHOD_GET_GLOBAL,
                     CALL_METHOD_PUT_GLOBAL,
+                    CALL_METHOD_LIST_GLOBAL,
                     sProviderHolder);
 
         // Certain settings have been moved from global to the per-user secure namespace
@@ -18,23 +18,71 @@ package android.service.notification;
 import android.os.Bundle;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.os.SharedMemory;
+import android.system.ErrnoException;
+import android.system.OsConstants;
+import android.util.Log;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.nio.ByteBuffer;
 
 /**
+ * The rankings of the active notifications, as sent to a listener.
+ *
+ * <p>When the rankings take more than {@link #SHARED_MEMORY_MIN_SIZE} bytes, they are written
+ * once to a read-only {@link SharedMemory} region, and only the region is sent over binder, to
+ * every listener the update goes to. A listener reads the region the first time it asks for a
+ * ranking.
+ *
  * @hide
  */
 public class NotificationRankingUpdate implements Parcelable {
+    private static final String TAG = "NotificationRankingUpdate";
+
+    @VisibleForTesting
+    static final int SHARED_MEMORY_MIN_SIZE = 16 * 1024;
+
+    private static final int PAYLOAD_INLINE = 0;
+    private static final int PAYLOAD_SHARED_MEMORY = 1;
+
     // TODO: Support incremental updates.
-    private final String[] mKeys;
-    private final String[] mInterceptedKeys;
-    private final Bundle mVisibilityOverrides;
-    private final Bundle mSuppressedVisualEffects;
-    private final int[] mImportance;
-    private final Bundle mImportanceExplanation;
-    private final Bundle mOverrideGroupKeys;
-    private final Bundle mChannels;
-    private final Bundle mOverridePeople;
-    private final Bundle mSnoozeCriteria;
-    private final Bundle mShowBadge;
+    @GuardedBy("this")
+    private String[] mKeys;
+    @GuardedBy("this")
+    private String[] mInterceptedKeys;
+    @GuardedBy("this")
+    private Bundle mVisibilityOverrides;
+    @GuardedBy("this")
+    private Bundle mSuppressedVisualEffects;
+    @GuardedBy("this")
+    private int[] mImportance;
+    @GuardedBy("this")
+    private Bundle mImportanceExplanation;
+    @GuardedBy("this")
+    private Bundle mOverrideGroupKeys;
+    @GuardedBy("this")
+    private Bundle mChannels;
+    @GuardedBy("this")
+    private Bundle mOverridePeople;
+    @GuardedBy("this")
+    private Bundle mSnoozeCriteria;
+    @GuardedBy("this")
+    private Bundle mShowBadge;
+
+    /** Whether the fields above are set, rather than still to be read from the payload. */
+    @GuardedBy("this")
+    private boolean mHasFields;
+    /** The fields, marshalled, once they are sent or received in shared memory. */
+    @GuardedBy("this")
+    private SharedMemory mPayload;
+    /** Whether the fields are too small to be worth sending in shared memory. */
+    @GuardedBy("this")
+    private boolean mPayloadInline;
+    /** Whether the payload was written to a parcel, which may still refer to it. */
+    @GuardedBy("this")
+    private boolean mPayloadForwarded;
 
     public NotificationRankingUpdate(String[] keys, String[] interceptedKeys,
             Bundle visibilityOverrides, Bundle suppressedVisualEffects,
@@ -52,9 +100,21 @@ public class NotificationRankingUpdate implements Parcelable {
         mOverridePeople = overridePeople;
         mSnoozeCriteria = snoozeCriteria;
         mShowBadge = showBadge;
+        mHasFields = true;
     }
 
     public NotificationRankingUpdate(Parcel in) {
+        if (in.readInt() == PAYLOAD_SHARED_MEMORY) {
+            mPayload = SharedMemory.CREATOR.createFromParcel(in);
+        } else {
+            readFieldsLocked(in);
+            mHasFields = true;
+            mPayloadInline = true;
+        }
+    }
+
+    @GuardedBy("this")
+    private void readFieldsLocked(Parcel in) {
         mKeys = in.readStringArray();
         mInterceptedKeys = in.readStringArray();
         mVisibilityOverrides = in.readBundle();
@@ -69,13 +129,8 @@ public class NotificationRankingUpdate implements Parcelable {
         mShowBadge = in.readBundle();
     }
 
-    @Override
-    public int describeContents() {
-        return 0;
-    }
-
-    @Override
-    public void writeToParcel(Parcel out, int flags) {
+    @GuardedBy("this")
+    private void writeFieldsLocked(Parcel out) {
         out.writeStringArray(mKeys);
         out.writeStringArray(mInterceptedKeys);
         out.writeBundle(mVisibilityOverrides);
@@ -89,6 +144,142 @@ public class NotificationRankingUpdate implements Parcelable {
         out.writeBundle(mShowBadge);
     }
 
+    /**
+     * Reads the fields from the shared memory they were received in, if that hasn't happened
+     * yet, and closes it unless it was passed on. An update that is passed on after this is
+     * written to a new region.
+     */
+    @GuardedBy("this")
+    private void ensureFieldsLocked() {
+        if (mHasFields) {
+            return;
+        }
+        mHasFields = true;
+        final Parcel fields = Parcel.obtain();
+        ByteBuffer buffer = null;
+        try {
+            buffer = mPayload.mapReadOnly();
+            final byte[] data = new byte[buffer.getInt()];
+            buffer.get(data);
+            fields.unmarshall(data, 0, data.length);
+            fields.setDataPosition(0);
+            readFieldsLocked(fields);
+        } catch (ErrnoException | RuntimeException e) {
+            Log.w(TAG, "Couldn't read shared ranking update", e);
+            mKeys = new String[0];
+            mInterceptedKeys = new String[0];
+            mVisibilityOverrides = new Bundle();
+            mSuppressedVisualEffects = new Bundle();
+            mImportance = new int[0];
+            mImportanceExplanation = new Bundle();
+            mOverrideGroupKeys = new Bundle();
+            mChannels = new Bundle();
+            mOverridePeople = new Bundle();
+            mSnoozeCriteria = new Bundle();
+            mShowBadge = new Bundle();
+        } finally {
+            if (buffer != null) {
+                SharedMemory.unmap(buffer);
+            }
+            fields.recycle();
+            if (!mPayloadForwarded) {
+                mPayload.close();
+                mPayload = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the shared memory to send this update in, writing it the first time, or null if
+     * the update is sent inline.
+     */
+    @GuardedBy("this")
+    private SharedMemory getPayloadLocked() {
+        if (mPayload == null && !mPayloadInline) {
+            final Parcel fields = Parcel.obtain();
+            try {
+                writeFieldsLocked(fields);
+                if (fields.dataSize() >= SHARED_MEMORY_MIN_SIZE) {
+                    mPayload = createPayload(fields.marshall());
+                }
+            } finally {
+                fields.recycle();
+            }
+            mPayloadInline = mPayload == null;
+        }
+        return mPayload;
+    }
+
+    private static SharedMemory createPayload(byte[] data) {
+        SharedMemory memory = null;
+        try {
+            memory = SharedMemory.create(TAG, Integer.BYTES + data.length);
+            final ByteBuffer buffer = memory.mapReadWrite();
+            buffer.putInt(data.length);
+            buffer.put(data);
+            SharedMemory.unmap(buffer);
+            memory.setProtect(OsConstants.PROT_READ);
+            return memory;
+        } catch (ErrnoException e) {
+            Log.w(TAG, "Couldn't share ranking update, sending it inline", e);
+            if (memory != null) {
+                memory.close();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Closes the shared memory this update was sent in. Only the sender should call this, once
+     * it has sent the update to every listener; the listeners keep their own mappings.
+     */
+    public synchronized void releaseSharedMemory() {
+        if (mPayload != null && mHasFields) {
+            mPayload.close();
+            mPayload = null;
+        }
+    }
+
+    /**
+     * Returns whether this update is sent in shared memory.
+     */
+    @VisibleForTesting
+    public synchronized boolean isShared() {
+        return getPayloadLocked() != null;
+    }
+
+    /**
+     * Returns whether this update holds on to a shared memory region.
+     */
+    @VisibleForTesting
+    public synchronized boolean hasSharedMemory() {
+        return mPayload != null;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel out, int flags) {
+        // The region goes as a file descriptor, which e.g. an Intent can't carry.
+        final boolean allowFds = out.pushAllowFds(true);
+        out.restoreAllowFds(allowFds);
+        synchronized (this) {
+            final SharedMemory payload = allowFds ? getPayloadLocked() : null;
+            if (payload != null) {
+                out.writeInt(PAYLOAD_SHARED_MEMORY);
+                payload.writeToParcel(out, flags);
+                mPayloadForwarded = true;
+            } else {
+                out.writeInt(PAYLOAD_INLINE);
+                ensureFieldsLocked();
+                writeFieldsLocked(out);
+            }
+        }
+    }
+
     public static final Parcelable.Creator<NotificationRankingUpdate> CREATOR
             = new Parcelable.Creator<NotificationRankingUpdate>() {
         public NotificationRankingUpdate createFromParcel(Parcel parcel) {
@@ -100,47 +291,58 @@ public class NotificationRankingUpdate implements Parcelable {
         }
     };
 
-    public String[] getOrderedKeys() {
+    public synchronized String[] getOrderedKeys() {
+        ensureFieldsLocked();
         return mKeys;
     }
 
-    public String[] getInterceptedKeys() {
+    public synchronized String[] getInterceptedKeys() {
+        ensureFieldsLocked();
         return mInterceptedKeys;
     }
 
-    public Bundle getVisibilityOverrides() {
+    public synchronized Bundle getVisibilityOverrides() {
+        ensureFieldsLocked();
         return mVisibilityOverrides;
     }
 
-    public Bundle getSuppressedVisualEffects() {
+    public synchronized Bundle getSuppressedVisualEffects() {
+        ensureFieldsLocked();
         return mSuppressedVisualEffects;
     }
 
-    public int[] getImportance() {
+    public synchronized int[] getImportance() {
+        ensureFieldsLocked();
         return mImportance;
     }
 
-    public Bundle getImportanceExplanation() {
+    public synchronized Bundle getImportanceExplanation() {
+        ensureFieldsLocked();
         return mImportanceExplanation;
     }
 
-    public Bundle getOverrideGroupKeys() {
+    public synchronized Bundle getOverrideGroupKeys() {
+        ensureFieldsLocked();
         return mOverrideGroupKeys;
     }
 
-    public Bundle getChannels() {
+    public synchronized Bundle getChannels() {
+        ensureFieldsLocked();
         return mChannels;
     }
 
-    public Bundle getOverridePeople() {
+    public synchronized Bundle getOverridePeople() {
+        ensureFieldsLocked();
         return mOverridePeople;
     }
 
-    public Bundle getSnoozeCriteria() {
+    public synchronized Bundle getSnoozeCriteria() {
+        ensureFieldsLocked();
         return mSnoozeCriteria;
     }
 
-    public Bundle getShowBadge() {
+    public synchronized Bundle getShowBadge() {
+        ensureFieldsLocked();
         return mShowBadge;
     }
 }
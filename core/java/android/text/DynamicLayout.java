@@ -241,12 +241,12 @@ public class DynamicLayout extends Layout
             do {
                 again = false;
 
-                Object[] force = sp.getSpans(where, where + after,
-                                             WrapTogetherSpan.class);
+                final SpanQuery<WrapTogetherSpan> force = mWrapTogetherSpanQuery;
+                force.run(sp, where, where + after);
 
-                for (int i = 0; i < force.length; i++) {
-                    int st = sp.getSpanStart(force[i]);
-                    int en = sp.getSpanEnd(force[i]);
+                for (int i = 0; i < force.size(); i++) {
+                    int st = force.getSpanStart(i);
+                    int en = force.getSpanEnd(i);
 
                     if (st < where) {
                         again = true;
@@ -265,6 +265,7 @@ public class DynamicLayout extends Layout
                         after += diff;
                     }
                 }
+                force.recycle();
             } while (again);
         }
 
@@ -306,7 +307,15 @@ public class DynamicLayout extends Layout
                 .setBreakStrategy(mBreakStrategy)
                 .setHyphenationFrequency(mHyphenationFrequency)
                 .setJustificationMode(mJustificationMode);
+        if (mBreakStrategy == BREAK_STRATEGY_SIMPLE
+                && mHyphenationFrequency == HYPHENATION_FREQUENCY_NONE) {
+            if (mRunCache == null) {
+                mRunCache = new MeasuredRunCache();
+            }
+            b.setMeasuredRunCache(mRunCache);
+        }
         reflowed.generate(b, false, true);
+        b.setMeasuredRunCache(null);
         int n = reflowed.getLineCount();
         // If the new layout has a blank line at the end, but it is not
         // the very end of the buffer, then we already have a line that
@@ -396,7 +405,10 @@ public class DynamicLayout extends Layout
     private boolean contentMayProtrudeFromLineTopOrBottom(CharSequence text, int start, int end) {
         if (text instanceof Spanned) {
             final Spanned spanned = (Spanned) text;
-            if (spanned.getSpans(start, end, ReplacementSpan.class).length > 0) {
+            final boolean hasReplacement = spanned instanceof SpannableStringBuilder
+                    ? ((SpannableStringBuilder) spanned).hasSpans(start, end, ReplacementSpan.class)
+                    : spanned.getSpans(start, end, ReplacementSpan.class).length > 0;
+            if (hasReplacement) {
                 return true;
             }
         }
@@ -848,6 +860,13 @@ public class DynamicLayout extends Layout
 
     private Rect mTempRect = new Rect();
 
+    private final SpanQuery<WrapTogetherSpan> mWrapTogetherSpanQuery =
+            new SpanQuery<>(WrapTogetherSpan.class);
+
+    // Widths of the words measured by previous reflows, so that an edit only needs to measure
+    // the words it changed. Created on the first reflow without hyphenation.
+    private MeasuredRunCache mRunCache;
+
     private static StaticLayout sStaticLayout = null;
     private static StaticLayout.Builder sBuilder = null;
 
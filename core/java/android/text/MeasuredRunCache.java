@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.text;
+
+import android.util.LruCache;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Caches the character advances of measured text runs so that a layout that is regenerated
+ * after an edit only has to measure the words that actually changed.
+ *
+ * Runs are measured and cached one word at a time (a word being everything up to and including
+ * the next space), which is also the granularity at which the native layout cache shapes text,
+ * so splitting a run this way does not change the resulting widths. Words longer than
+ * {@link #MAX_WORD_LENGTH} are measured directly and not cached.
+ *
+ * Paints are compared by their attributes, so a cache stays valid if the paint it was filled
+ * with is modified; entries for the old attributes simply stop being hit.
+ *
+ * Not thread safe. Used by {@link DynamicLayout}, which only reflows on the UI thread.
+ *
+ * @hide
+ */
+class MeasuredRunCache {
+    private static final int MAX_ENTRIES = 4096;
+    @VisibleForTesting
+    static final int MAX_WORD_LENGTH = 64;
+    private static final int MAX_PAINTS = 8;
+
+    private final LruCache<Key, float[]> mCache = new LruCache<>(MAX_ENTRIES);
+    // Distinct paints seen so far; keys refer to them by index.
+    private final ArrayList<TextPaint> mPaints = new ArrayList<>();
+    private final Key mLookupKey = new Key();
+
+    private int mHitCount;
+    private int mMissCount;
+
+    private static final class Key {
+        int paintIndex;
+        boolean isRtl;
+        char[] chars;
+        int start;
+        int length;
+        int hash;
+
+        void set(int paintIndex, boolean isRtl, char[] chars, int start, int length) {
+            this.paintIndex = paintIndex;
+            this.isRtl = isRtl;
+            this.chars = chars;
+            this.start = start;
+            this.length = length;
+            int h = 31 * paintIndex + (isRtl ? 1 : 0);
+            for (int i = start, e = start + length; i < e; i++) {
+                h = 31 * h + chars[i];
+            }
+            hash = h;
+        }
+
+        Key copy() {
+            final Key key = new Key();
+            key.paintIndex = paintIndex;
+            key.isRtl = isRtl;
+            key.chars = Arrays.copyOfRange(chars, start, start + length);
+            key.start = 0;
+            key.length = length;
+            key.hash = hash;
+            return key;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            if (hash != other.hash || paintIndex != other.paintIndex || isRtl != other.isRtl
+                    || length != other.length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (chars[start + i] != other.chars[other.start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Measures {@code chars[start, end)} as a single directional run, filling the advance of
+     * each character into {@code widths[start, end)}.
+     *
+     * @return the total advance of the run
+     */
+    float measure(TextPaint paint, char[] chars, int start, int end, boolean isRtl,
+            float[] widths) {
+        final int paintIndex = getPaintIndex(paint);
+        float advance = 0;
+        int wordStart = start;
+        while (wordStart < end) {
+            int wordEnd = wordStart;
+            while (wordEnd < end && chars[wordEnd++] != ' ') {
+                // Include the trailing space in the word.
+            }
+            advance += measureWord(paint, paintIndex, chars, wordStart, wordEnd, isRtl, widths);
+            wordStart = wordEnd;
+        }
+        return advance;
+    }
+
+    private float measureWord(TextPaint paint, int paintIndex, char[] chars, int start, int end,
+            boolean isRtl, float[] widths) {
+        final int length = end - start;
+        if (length > MAX_WORD_LENGTH) {
+            return paint.getTextRunAdvances(chars, start, length, start, length, isRtl, widths,
+                    start);
+        }
+
+        mLookupKey.set(paintIndex, isRtl, chars, start, length);
+        float[] cached = mCache.get(mLookupKey);
+        if (cached == null) {
+            mMissCount++;
+            final float advance = paint.getTextRunAdvances(chars, start, length, start, length,
+                    isRtl, widths, start);
+            cached = new float[length + 1];
+            System.arraycopy(widths, start, cached, 0, length);
+            cached[length] = advance;
+            mCache.put(mLookupKey.copy(), cached);
+            mLookupKey.chars = null;
+            return advance;
+        }
+        mHitCount++;
+        mLookupKey.chars = null;
+        System.arraycopy(cached, 0, widths, start, length);
+        return cached[length];
+    }
+
+    private int getPaintIndex(TextPaint paint) {
+        for (int i = 0; i < mPaints.size(); i++) {
+            if (mPaints.get(i).hasEqualAttributes(paint)) {
+                return i;
+            }
+        }
+        if (mPaints.size() >= MAX_PAINTS) {
+            // Too many distinct styles to be worth tracking; start over.
+            mCache.evictAll();
+            mPaints.clear();
+        }
+        final TextPaint copy = new TextPaint();
+        copy.set(paint);
+        mPaints.add(copy);
+        return mPaints.size() - 1;
+    }
+
+    @VisibleForTesting
+    int getHitCount() {
+        return mHitCount;
+    }
+
+    @VisibleForTesting
+    int getMissCount() {
+        return mMissCount;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.text;
+
+import android.annotation.NonNull;
+
+import com.android.internal.util.Preconditions;
+
+import java.util.Objects;
+
+/**
+ * Text that has already been measured and broken into lines for a given set of
+ * {@link Params} and width.
+ *
+ * <p>Measuring and line breaking is the most expensive part of showing text. A
+ * PrecomputedText can be created on a background thread, e.g. while binding data for a list
+ * row, and then handed to {@link android.widget.TextView#setPrecomputedText}, which uses the
+ * result as long as the TextView is laid out with the same parameters and width. Otherwise the
+ * TextView simply lays the text out again, so a stale PrecomputedText only costs the time it
+ * took to create.
+ *
+ * <p>PrecomputedText is immutable and can be cached and shared between TextViews. The text
+ * passed to {@link #create} must not be modified afterwards, which is why {@link Spannable}
+ * text is rejected.
+ *
+ * @hide
+ */
+public final class PrecomputedText {
+    private final CharSequence mText;
+    private final Params mParams;
+    private final StaticLayout mLayout;
+
+    /**
+     * The parameters that affect how text is measured and broken into lines. Use
+     * {@link android.widget.TextView#getTextMetricsParams()} to get the parameters of an
+     * existing TextView.
+     */
+    public static final class Params {
+        private final TextPaint mPaint;
+        private final TextDirectionHeuristic mTextDir;
+        private final Layout.Alignment mAlignment;
+        private final float mSpacingAdd;
+        private final float mSpacingMult;
+        private final boolean mIncludePad;
+        private final int mBreakStrategy;
+        private final int mHyphenationFrequency;
+        private final int mJustificationMode;
+        private final int mMaxLines;
+
+        /**
+         * @param paint the paint to measure with. It is copied, so later changes to it do not
+         *              affect these parameters.
+         */
+        public Params(@NonNull TextPaint paint, @NonNull TextDirectionHeuristic textDir,
+                @NonNull Layout.Alignment alignment, float spacingAdd, float spacingMult,
+                boolean includePad, int breakStrategy, int hyphenationFrequency,
+                int justificationMode, int maxLines) {
+            mPaint = new TextPaint();
+            mPaint.set(Preconditions.checkNotNull(paint));
+            mTextDir = Preconditions.checkNotNull(textDir);
+            mAlignment = Preconditions.checkNotNull(alignment);
+            mSpacingAdd = spacingAdd;
+            mSpacingMult = spacingMult;
+            mIncludePad = includePad;
+            mBreakStrategy = breakStrategy;
+            mHyphenationFrequency = hyphenationFrequency;
+            mJustificationMode = justificationMode;
+            mMaxLines = maxLines;
+        }
+
+        /**
+         * Returns true if a layout made with these parameters can be used in place of one made
+         * with the given ones.
+         */
+        public boolean isCompatibleWith(@NonNull TextPaint paint,
+                @NonNull TextDirectionHeuristic textDir, @NonNull Layout.Alignment alignment,
+                float spacingAdd, float spacingMult, boolean includePad, int breakStrategy,
+                int hyphenationFrequency, int justificationMode, int maxLines) {
+            return mTextDir == textDir
+                    && mAlignment == alignment
+                    && mSpacingAdd == spacingAdd
+                    && mSpacingMult == spacingMult
+                    && mIncludePad == includePad
+                    && mBreakStrategy == breakStrategy
+                    && mHyphenationFrequency == hyphenationFrequency
+                    && mJustificationMode == justificationMode
+                    && mMaxLines == maxLines
+                    && hasEqualMetricAttributes(mPaint, paint);
+        }
+
+        /**
+         * Compares the paint attributes that affect text measurement, but not those that only
+         * affect drawing, such as the color, which TextView changes without a new layout.
+         */
+        private static boolean hasEqualMetricAttributes(TextPaint a, TextPaint b) {
+            return a.getTextSize() == b.getTextSize()
+                    && a.getTextScaleX() == b.getTextScaleX()
+                    && a.getTextSkewX() == b.getTextSkewX()
+                    && a.getLetterSpacing() == b.getLetterSpacing()
+                    && a.getWordSpacing() == b.getWordSpacing()
+                    && a.getFlags() == b.getFlags()
+                    && a.getHinting() == b.getHinting()
+                    && a.baselineShift == b.baselineShift
+                    && Objects.equals(a.getTypeface(), b.getTypeface())
+                    && Objects.equals(a.getTextLocales(), b.getTextLocales())
+                    && Objects.equals(a.getFontFeatureSettings(), b.getFontFeatureSettings())
+                    && Objects.equals(a.getFontVariationSettings(),
+                            b.getFontVariationSettings());
+        }
+
+        /**
+         * Returns true if {@code other} would produce the same layouts as these parameters.
+         */
+        public boolean isCompatibleWith(@NonNull Params other) {
+            return isCompatibleWith(other.mPaint, other.mTextDir, other.mAlignment,
+                    other.mSpacingAdd, other.mSpacingMult, other.mIncludePad,
+                    other.mBreakStrategy, other.mHyphenationFrequency, other.mJustificationMode,
+                    other.mMaxLines);
+        }
+    }
+
+    private PrecomputedText(CharSequence text, Params params, StaticLayout layout) {
+        mText = text;
+        mParams = params;
+        mLayout = layout;
+    }
+
+    /**
+     * Measures and breaks {@code text} into lines of at most {@code width} pixels. This does
+     * all the work of laying the text out, so it should be called off the UI thread.
+     *
+     * @throws IllegalArgumentException if {@code text} is {@link Spannable}, i.e. can still
+     *                                  change.
+     */
+    public static PrecomputedText create(@NonNull CharSequence text, @NonNull Params params,
+            int width) {
+        Preconditions.checkNotNull(text);
+        Preconditions.checkNotNull(params);
+        Preconditions.checkArgument(!(text instanceof Spannable), "text must be immutable");
+        Preconditions.checkArgumentNonnegative(width, "width must be non-negative");
+
+        // Params may be shared between threads, so measure with a private copy of the paint.
+        final TextPaint paint = new TextPaint();
+        paint.set(params.mPaint);
+        final StaticLayout layout = StaticLayout.Builder.obtain(text, 0, text.length(),
+                paint, width)
+                .setAlignment(params.mAlignment)
+                .setTextDirection(params.mTextDir)
+                .setLineSpacing(params.mSpacingAdd, params.mSpacingMult)
+                .setIncludePad(params.mIncludePad)
+                .setBreakStrategy(params.mBreakStrategy)
+                .setHyphenationFrequency(params.mHyphenationFrequency)
+                .setJustificationMode(params.mJustificationMode)
+                .setMaxLines(params.mMaxLines)
+                .build();
+        return new PrecomputedText(text, params, layout);
+    }
+
+    /** Returns the text that was laid out. */
+    public @NonNull CharSequence getText() {
+        return mText;
+    }
+
+    /** Returns the parameters the text was laid out with. */
+    public @NonNull Params getParams() {
+        return mParams;
+    }
+
+    /** Returns the width the text was laid out for. */
+    public int getWidth() {
+        return mLayout.getWidth();
+    }
+
+    /**
+     * Returns a layout of the text that draws with {@code paint}, which should be compatible
+     * with {@link #getParams()}. This is cheap: no text is measured.
+     */
+    public @NonNull StaticLayout getLayout(@NonNull TextPaint paint) {
+        return new StaticLayout(mLayout, paint, mParams.mJustificationMode);
+    }
+}
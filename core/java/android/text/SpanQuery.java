@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.text;
+
+import com.android.internal.util.ArrayUtils;
+import com.android.internal.util.GrowingArrayUtils;
+
+import libcore.util.EmptyArray;
+
+import java.util.Arrays;
+
+/**
+ * A reusable result of a span query. Holds the same spans, in the same order, as
+ * {@link Spanned#getSpans(int, int, Class)}, together with their start, end and flags.
+ *
+ * Unlike getSpans(), running a query against a {@link SpannableStringBuilder} does not allocate
+ * once the internal buffers have grown to the size of the largest result, which makes it
+ * suitable for code that runs on every frame or every keystroke. Call {@link #recycle()} when
+ * done with the result so the query does not keep the spans alive.
+ *
+ * @hide
+ */
+public final class SpanQuery<T> {
+    private final Class<T> mKind;
+
+    private int mCount;
+    private T[] mSpans;
+    private int[] mStarts = EmptyArray.INT;
+    private int[] mEnds = EmptyArray.INT;
+    private int[] mFlags = EmptyArray.INT;
+    private int[] mInsertionOrders = EmptyArray.INT;
+
+    public SpanQuery(Class<T> kind) {
+        mKind = kind;
+        mSpans = ArrayUtils.emptyArray(kind);
+    }
+
+    /**
+     * Replaces the result with the spans of this query's kind that overlap the given range of
+     * {@code text}.
+     */
+    public void run(Spanned text, int start, int end) {
+        if (text instanceof SpannableStringBuilder) {
+            ((SpannableStringBuilder) text).getSpans(start, end, this);
+            return;
+        }
+        reset();
+        final T[] spans = text.getSpans(start, end, mKind);
+        for (int i = 0; i < spans.length; i++) {
+            final T span = spans[i];
+            add(span, text.getSpanStart(span), text.getSpanEnd(span), text.getSpanFlags(span), i);
+        }
+    }
+
+    /** Returns the number of spans found by the last {@link #run}. */
+    public int size() {
+        return mCount;
+    }
+
+    public T getSpan(int index) {
+        return mSpans[index];
+    }
+
+    public int getSpanStart(int index) {
+        return mStarts[index];
+    }
+
+    public int getSpanEnd(int index) {
+        return mEnds[index];
+    }
+
+    public int getSpanFlags(int index) {
+        return mFlags[index];
+    }
+
+    /**
+     * Drops the references to the spans found by the last {@link #run}, keeping the buffers for
+     * the next one.
+     */
+    public void recycle() {
+        reset();
+    }
+
+    Class<T> getKind() {
+        return mKind;
+    }
+
+    void reset() {
+        Arrays.fill(mSpans, 0, mCount, null);
+        mCount = 0;
+    }
+
+    void add(T span, int start, int end, int flags, int insertionOrder) {
+        mSpans = GrowingArrayUtils.append(mSpans, mCount, span);
+        mStarts = GrowingArrayUtils.append(mStarts, mCount, start);
+        mEnds = GrowingArrayUtils.append(mEnds, mCount, end);
+        mFlags = GrowingArrayUtils.append(mFlags, mCount, flags);
+        mInsertionOrders = GrowingArrayUtils.append(mInsertionOrders, mCount, insertionOrder);
+        mCount++;
+    }
+
+    /**
+     * Sorts the result the same way as {@link SpannableStringBuilder#getSpans(int, int, Class)}:
+     * by descending priority, then by insertion order. Uses a heap sort so it needs no extra
+     * buffers.
+     */
+    void sort() {
+        for (int i = mCount / 2 - 1; i >= 0; i--) {
+            siftDown(i, mCount);
+        }
+        for (int i = mCount - 1; i > 0; i--) {
+            swap(0, i);
+            siftDown(0, i);
+        }
+    }
+
+    private void siftDown(int index, int size) {
+        int child = 2 * index + 1;
+        while (child < size) {
+            if (child < size - 1 && compare(child, child + 1) < 0) {
+                child++;
+            }
+            if (compare(index, child) >= 0) {
+                break;
+            }
+            swap(index, child);
+            index = child;
+            child = 2 * index + 1;
+        }
+    }
+
+    /**
+     * Heap order: the "largest" element ends up last, so spans that must come later in the
+     * result compare greater.
+     */
+    private int compare(int left, int right) {
+        final int leftPriority = mFlags[left] & Spanned.SPAN_PRIORITY;
+        final int rightPriority = mFlags[right] & Spanned.SPAN_PRIORITY;
+        if (leftPriority != rightPriority) {
+            return leftPriority > rightPriority ? -1 : 1;
+        }
+        return Integer.compare(mInsertionOrders[left], mInsertionOrders[right]);
+    }
+
+    private void swap(int left, int right) {
+        final T span = mSpans[left];
+        mSpans[left] = mSpans[right];
+        mSpans[right] = span;
+        swap(mStarts, left, right);
+        swap(mEnds, left, right);
+        swap(mFlags, left, right);
+        swap(mInsertionOrders, left, right);
+    }
+
+    private static void swap(int[] array, int left, int right) {
+        final int tmp = array[left];
+        array[left] = array[right];
+        array[right] = tmp;
+    }
+}
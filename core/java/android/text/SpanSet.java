@@ -21,7 +21,8 @@ import java.util.Arrays;
 
 /**
  * A cached set of spans. Caches the result of {@link Spanned#getSpans(int, int, Class)} and then
- * provides faster access to {@link Spanned#nextSpanTransition(int, int, Class)}.
+ * provides faster access to {@link Spanned#nextSpanTransition(int, int, Class)}. Once the
+ * arrays have grown to fit, {@link #init} does not allocate.
  *
  * Fields are left public for a convenient direct access.
  *
@@ -30,6 +31,7 @@ import java.util.Arrays;
  */
 public class SpanSet<E> {
     private final Class<? extends E> classType;
+    private final SpanQuery<? extends E> mQuery;
 
     int numberOfSpans;
     E[] spans;
@@ -39,13 +41,14 @@ public class SpanSet<E> {
 
     SpanSet(Class<? extends E> type) {
         classType = type;
+        mQuery = new SpanQuery<>(type);
         numberOfSpans = 0;
     }
 
     @SuppressWarnings("unchecked")
     public void init(Spanned spanned, int start, int limit) {
-        final E[] allSpans = spanned.getSpans(start, limit, classType);
-        final int length = allSpans.length;
+        mQuery.run(spanned, start, limit);
+        final int length = mQuery.size();
 
         if (length > 0 && (spans == null || spans.length < length)) {
             // These arrays may end up being too large because of the discarded empty spans
@@ -58,13 +61,13 @@ public class SpanSet<E> {
         int prevNumberOfSpans = numberOfSpans;
         numberOfSpans = 0;
         for (int i = 0; i < length; i++) {
-            final E span = allSpans[i];
+            final E span = mQuery.getSpan(i);
 
-            final int spanStart = spanned.getSpanStart(span);
-            final int spanEnd = spanned.getSpanEnd(span);
+            final int spanStart = mQuery.getSpanStart(i);
+            final int spanEnd = mQuery.getSpanEnd(i);
             if (spanStart == spanEnd) continue;
 
-            final int spanFlag = spanned.getSpanFlags(span);
+            final int spanFlag = mQuery.getSpanFlags(i);
 
             spans[numberOfSpans] = span;
             spanStarts[numberOfSpans] = spanStart;
@@ -73,6 +76,7 @@ public class SpanSet<E> {
 
             numberOfSpans++;
         }
+        mQuery.recycle();
 
         // cleanup extra spans left over from previous init() call
         if (numberOfSpans < prevNumberOfSpans) {
@@ -981,6 +981,57 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
         return count;
     }
 
+    /**
+     * Fills {@code query} with the spans of its kind that overlap the specified range of the
+     * buffer, in the same order as {@link #getSpans(int, int, Class)}. Unlike getSpans() this
+     * does not allocate once the query's buffers are large enough.
+     *
+     * @hide
+     */
+    public <T> void getSpans(int queryStart, int queryEnd, SpanQuery<T> query) {
+        query.reset();
+        if (mSpanCount == 0) return;
+        getSpansRec(queryStart, queryEnd, query, treeRoot());
+        query.sort();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void getSpansRec(int queryStart, int queryEnd, SpanQuery<T> query, int i) {
+        if ((i & 1) != 0) {
+            // internal tree node
+            int left = leftChild(i);
+            if (resolveGap(mSpanMax[left]) >= queryStart) {
+                getSpansRec(queryStart, queryEnd, query, left);
+            }
+        }
+        if (i >= mSpanCount) return;
+        int spanStart = resolveGap(mSpanStarts[i]);
+        if (spanStart <= queryEnd) {
+            int spanEnd = resolveGap(mSpanEnds[i]);
+            final Class<T> kind = query.getKind();
+            if (spanEnd >= queryStart &&
+                    (spanStart == spanEnd || queryStart == queryEnd ||
+                        (spanStart != queryEnd && spanEnd != queryStart)) &&
+                        (Object.class == kind || kind.isInstance(mSpans[i]))) {
+                query.add((T) mSpans[i], spanStart, spanEnd, mSpanFlags[i], mSpanOrder[i]);
+            }
+            if ((i & 1) != 0) {
+                getSpansRec(queryStart, queryEnd, query, rightChild(i));
+            }
+        }
+    }
+
+    /**
+     * Returns true if any span of the specified type overlaps the specified range of the
+     * buffer, i.e. if {@link #getSpans(int, int, Class)} would return a non-empty array.
+     *
+     * @hide
+     */
+    public boolean hasSpans(int queryStart, int queryEnd, @Nullable Class kind) {
+        if (kind == null || mSpanCount == 0) return false;
+        return countSpans(queryStart, queryEnd, kind, treeRoot()) > 0;
+    }
+
     /**
      * Obtain a temporary sort buffer.
      *
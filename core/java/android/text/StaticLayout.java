@@ -108,6 +108,7 @@ public class StaticLayout extends Layout {
             b.mMeasuredText = null;
             b.mLeftIndents = null;
             b.mRightIndents = null;
+            b.mRunCache = null;
             nFinishBuilder(b.mNativePtr);
             sPool.release(b);
         }
@@ -372,8 +373,27 @@ public class StaticLayout extends Layout {
             }
         }
 
+        /**
+         * Sets a cache of measured runs to use instead of measuring every run in native code.
+         * Measured runs carry no paint, which the native code needs for hyphenation and for the
+         * font metrics and line penalties of the high quality and balanced strategies, so the
+         * cache is only used for simple breaking without hyphenation.
+         */
+        /* package */ Builder setMeasuredRunCache(MeasuredRunCache cache) {
+            mRunCache = cache;
+            return this;
+        }
+
         /* package */ float addStyleRun(TextPaint paint, int start, int end, boolean isRtl) {
             setLocales(paint.getTextLocales());
+            if (mRunCache != null && mBreakStrategy == Layout.BREAK_STRATEGY_SIMPLE
+                    && mHyphenationFrequency == Layout.HYPHENATION_FREQUENCY_NONE) {
+                final float[] widths = mMeasuredText.mWidths;
+                final float advance = mRunCache.measure(paint, mMeasuredText.mChars, start, end,
+                        isRtl, widths);
+                nAddMeasuredRun(mNativePtr, start, end, widths);
+                return advance;
+            }
             return nAddStyleRun(mNativePtr, paint.getNativeInstance(), paint.mNativeTypeface,
                     start, end, isRtl);
         }
@@ -436,6 +456,8 @@ public class StaticLayout extends Layout {
         // This will go away and be subsumed by native builder code
         MeasuredText mMeasuredText;
 
+        MeasuredRunCache mRunCache;
+
         LocaleList mLocales;
 
         private static final SynchronizedPool<Builder> sPool = new SynchronizedPool<Builder>(3);
@@ -588,6 +610,32 @@ public class StaticLayout extends Layout {
         generate(b, b.mIncludePad, b.mIncludePad);
     }
 
+    /**
+     * Creates a layout with the same lines as {@code source} that draws with {@code paint},
+     * without measuring or breaking the text again. The line arrays are shared, which is safe
+     * because a StaticLayout never changes them once generated. {@code source} must not be
+     * ellipsized.
+     */
+    /* package */ StaticLayout(StaticLayout source, TextPaint paint, int justificationMode) {
+        super(source.getText(), paint, source.getWidth(), source.getAlignment(),
+                source.getTextDirectionHeuristic(), source.getSpacingMultiplier(),
+                source.getSpacingAdd());
+
+        mLineCount = source.mLineCount;
+        mTopPadding = source.mTopPadding;
+        mBottomPadding = source.mBottomPadding;
+        mColumns = source.mColumns;
+        mEllipsizedWidth = source.mEllipsizedWidth;
+        mEllipsized = source.mEllipsized;
+        mMaxLineHeight = source.mMaxLineHeight;
+        mLines = source.mLines;
+        mLineDirections = source.mLineDirections;
+        mMaximumVisibleLineCount = source.mMaximumVisibleLineCount;
+        mLeftIndents = source.mLeftIndents;
+        mRightIndents = source.mRightIndents;
+        setJustificationMode(justificationMode);
+    }
+
     /* package */ void generate(Builder b, boolean includepad, boolean trackpad) {
         CharSequence source = b.mText;
         int bufStart = b.mStart;
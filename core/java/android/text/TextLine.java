@@ -71,6 +71,8 @@ class TextLine {
             new SpanSet<CharacterStyle>(CharacterStyle.class);
     private final SpanSet<ReplacementSpan> mReplacementSpanSpanSet =
             new SpanSet<ReplacementSpan>(ReplacementSpan.class);
+    private final SpanQuery<MetricAffectingSpan> mMetricAffectingSpanQuery =
+            new SpanQuery<MetricAffectingSpan>(MetricAffectingSpan.class);
 
     private final DecorationInfo mDecorationInfo = new DecorationInfo();
     private final ArrayList<DecorationInfo> mDecorations = new ArrayList();
@@ -645,27 +647,29 @@ class TextLine {
                 spanStart = spanLimit;
             }
 
-            MetricAffectingSpan[] spans = mSpanned.getSpans(mStart + spanStart,
-                    mStart + spanLimit, MetricAffectingSpan.class);
-            spans = TextUtils.removeEmptySpans(spans, mSpanned, MetricAffectingSpan.class);
+            final SpanQuery<MetricAffectingSpan> spans = mMetricAffectingSpanQuery;
+            spans.run(mSpanned, mStart + spanStart, mStart + spanLimit);
 
-            if (spans.length > 0) {
-                ReplacementSpan replacement = null;
-                for (int j = 0; j < spans.length; j++) {
-                    MetricAffectingSpan span = spans[j];
-                    if (span instanceof ReplacementSpan) {
-                        replacement = (ReplacementSpan)span;
-                    } else {
-                        span.updateMeasureState(wp);
-                    }
+            ReplacementSpan replacement = null;
+            for (int j = 0; j < spans.size(); j++) {
+                if (spans.getSpanStart(j) == spans.getSpanEnd(j)) {
+                    // Empty spans are ignored, as in TextUtils.removeEmptySpans().
+                    continue;
                 }
-
-                if (replacement != null) {
-                    // If we have a replacement span, we're moving either to
-                    // the start or end of this span.
-                    return after ? spanLimit : spanStart;
+                MetricAffectingSpan span = spans.getSpan(j);
+                if (span instanceof ReplacementSpan) {
+                    replacement = (ReplacementSpan)span;
+                } else {
+                    span.updateMeasureState(wp);
                 }
             }
+            spans.recycle();
+
+            if (replacement != null) {
+                // If we have a replacement span, we're moving either to
+                // the start or end of this span.
+                return after ? spanLimit : spanStart;
+            }
         }
 
         int dir = runIsRtl ? Paint.DIRECTION_RTL : Paint.DIRECTION_LTR;
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view;
+
+import android.content.res.AssetManager;
+import android.util.LruCache;
+import android.util.TypedValue;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+
+/**
+ * What {@link LayoutInflater} learned about the views of a layout resource the last time it
+ * inflated it, so that inflating it again can skip the work that does not depend on the
+ * parent, the context or the theme.
+ *
+ * For each view element, in document order, a compiled layout records its class name and the
+ * constructor that created it. Inflating a compiled layout still walks the XML, which backs the
+ * {@link android.util.AttributeSet} handed to each view, but calls the recorded constructors
+ * directly instead of resolving class names through {@link LayoutInflater#onCreateView} and its
+ * prefix lookups.
+ * Only inflaters without a factory whose onCreateView() comes from the framework use compiled
+ * layouts, since anything else may create different views for the same names.
+ *
+ * A layout is first recorded by an inflation, then published to a per-process cache once that
+ * inflation succeeds, after which it is immutable and can be used by any inflater and thread.
+ * It only matches the layout file and {@link AssetManager} it was recorded from, so a
+ * configuration that selects another file for the same resource simply records again.
+ */
+final class CompiledLayout {
+    private static final int MAX_LAYOUTS = 64;
+
+    private static final LruCache<Integer, CompiledLayout> sLayouts =
+            new LruCache<>(MAX_LAYOUTS);
+
+    static final class Element {
+        final String name;
+        // Null if the view was not created from its class name, e.g. by a factory.
+        final Constructor<? extends View> constructor;
+
+        Element(String name, Constructor<? extends View> constructor) {
+            this.name = name;
+            this.constructor = constructor;
+        }
+    }
+
+    private final int mResource;
+    private final WeakReference<AssetManager> mAssets;
+    private final int mAssetCookie;
+    private final String mFile;
+    private final ArrayList<Element> mElements = new ArrayList<>();
+    private boolean mCompiled;
+
+    private CompiledLayout(int resource, AssetManager assets, TypedValue value) {
+        mResource = resource;
+        mAssets = new WeakReference<>(assets);
+        mAssetCookie = value.assetCookie;
+        mFile = value.string != null ? value.string.toString() : null;
+    }
+
+    /**
+     * Returns the compiled layout for {@code resource}, whose value in {@code assets} is
+     * {@code value}, or a new layout to record if it has not been compiled yet.
+     */
+    static CompiledLayout obtain(int resource, AssetManager assets, TypedValue value) {
+        final CompiledLayout layout = sLayouts.get(resource);
+        if (layout != null && layout.mAssets.get() == assets
+                && layout.mAssetCookie == value.assetCookie && layout.mFile != null
+                && value.string != null && layout.mFile.contentEquals(value.string)) {
+            return layout;
+        }
+        return new CompiledLayout(resource, assets, value);
+    }
+
+    /**
+     * Returns true if the layout has been compiled and can be read with {@link #getElement},
+     * false if it is being recorded with {@link #addElement}.
+     */
+    boolean isCompiled() {
+        return mCompiled;
+    }
+
+    /**
+     * Returns element {@code index} of a compiled layout if it is named {@code name}. Otherwise
+     * the layout did not come from the same XML after all; it is discarded and null is
+     * returned.
+     */
+    Element getElement(int index, String name) {
+        if (index < mElements.size()) {
+            final Element element = mElements.get(index);
+            if (element.name.equals(name)) {
+                return element;
+            }
+        }
+        sLayouts.remove(mResource);
+        return null;
+    }
+
+    /**
+     * Records the next element of a layout being recorded.
+     */
+    void addElement(String name, Constructor<? extends View> constructor) {
+        mElements.add(new Element(name, constructor));
+    }
+
+    /**
+     * Publishes a layout that was recorded by a successful inflation.
+     */
+    void publish() {
+        if (!mCompiled) {
+            mCompiled = true;
+            sLayouts.put(mResource, this);
+        }
+    }
+
+    /**
+     * Drops all compiled layouts.
+     */
+    static void clear() {
+        sLayouts.evictAll();
+    }
+}
@@ -95,8 +95,20 @@ public abstract class LayoutInflater {
 
     private HashMap<String, Boolean> mFilterMap;
 
+    // Inflater classes => whether they map view names to classes like the framework does.
+    private static final HashMap<Class<?>, Boolean> sFrameworkOnCreateViewMap =
+            new HashMap<Class<?>, Boolean>();
+
     private TypedValue mTempValue;
 
+    // The compiled layout being inflated or recorded, if any, and the index of its next element.
+    private CompiledLayout mCompiledLayout;
+    private int mCompiledElement;
+    // The compiled layout for the next call to inflate(XmlPullParser, ViewGroup, boolean).
+    private CompiledLayout mPendingCompiledLayout;
+    // The constructor used by the last call to createView, so that it can be recorded.
+    private Constructor<? extends View> mLastConstructor;
+
     private static final String TAG_MERGE = "merge";
     private static final String TAG_INCLUDE = "include";
     private static final String TAG_1995 = "blink";
@@ -420,12 +432,100 @@ public abstract class LayoutInflater {
 
         final XmlResourceParser parser = res.getLayout(resource);
         try {
-            return inflate(parser, root, attachToRoot);
+            synchronized (mConstructorArgs) {
+                mPendingCompiledLayout = obtainCompiledLayout(res, resource);
+                try {
+                    return inflate(parser, root, attachToRoot);
+                } finally {
+                    mPendingCompiledLayout = null;
+                }
+            }
         } finally {
             parser.close();
         }
     }
 
+    /**
+     * Returns the compiled layout to inflate {@code resource} with, or null if it cannot be
+     * compiled.
+     */
+    private CompiledLayout obtainCompiledLayout(Resources res, int resource) {
+        if (mFilter != null) {
+            // Every class has to be checked against the filter anyway.
+            return null;
+        }
+        if (mFactory != null || mFactory2 != null || !usesFrameworkOnCreateView()) {
+            // The app may create views some other way than the recorded constructors.
+            return null;
+        }
+        if (mTempValue == null) {
+            mTempValue = new TypedValue();
+        }
+        res.getValue(resource, mTempValue, true);
+        return CompiledLayout.obtain(resource, res.getAssets(), mTempValue);
+    }
+
+    /**
+     * Returns true if {@link #onCreateView} is not overridden outside the framework. Framework
+     * inflaters such as PhoneLayoutInflater only try more package prefixes through
+     * {@link #createView}, so the constructor it found is the one they would find again.
+     */
+    private boolean usesFrameworkOnCreateView() {
+        final Class<?> clazz = getClass();
+        synchronized (sFrameworkOnCreateViewMap) {
+            Boolean result = sFrameworkOnCreateViewMap.get(clazz);
+            if (result == null) {
+                result = isDeclaredByFramework(clazz, String.class, AttributeSet.class)
+                        && isDeclaredByFramework(clazz, View.class, String.class,
+                                AttributeSet.class);
+                sFrameworkOnCreateViewMap.put(clazz, result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Returns true if the onCreateView() method of {@code clazz} that takes
+     * {@code parameterTypes} is declared by a framework class.
+     */
+    private static boolean isDeclaredByFramework(Class<?> clazz, Class<?>... parameterTypes) {
+        for (Class<?> c = clazz; c != LayoutInflater.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod("onCreateView", parameterTypes);
+                return c.getClassLoader() == LayoutInflater.class.getClassLoader();
+            } catch (NoSuchMethodException e) {
+                // Not overridden here; look at the superclass.
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the compiled element for the next view of the layout being inflated, or null if
+     * the layout is not compiled.
+     */
+    private CompiledLayout.Element nextCompiledElement(String name) {
+        if (mCompiledLayout == null || !mCompiledLayout.isCompiled()) {
+            return null;
+        }
+        final CompiledLayout.Element element =
+                mCompiledLayout.getElement(mCompiledElement++, name);
+        if (element == null) {
+            // Inflate the rest of the layout the slow way.
+            mCompiledLayout = null;
+        }
+        return element;
+    }
+
+    /**
+     * Drops the compiled layouts of all inflaters in the process.
+     *
+     * @hide
+     */
+    public static void clearCompiledLayouts() {
+        CompiledLayout.clear();
+    }
+
     /**
      * Inflate a new view hierarchy from the specified XML node. Throws
      * {@link InflateException} if there is an error.
@@ -452,6 +552,14 @@ public abstract class LayoutInflater {
         synchronized (mConstructorArgs) {
             Trace.traceBegin(Trace.TRACE_TAG_VIEW, "inflate");
 
+            // Only set when called from inflate(int, ViewGroup, boolean).
+            final CompiledLayout compiledLayout = mPendingCompiledLayout;
+            mPendingCompiledLayout = null;
+            final CompiledLayout lastCompiledLayout = mCompiledLayout;
+            final int lastCompiledElement = mCompiledElement;
+            mCompiledLayout = compiledLayout;
+            mCompiledElement = 0;
+
             final Context inflaterContext = mContext;
             final AttributeSet attrs = Xml.asAttributeSet(parser);
             Context lastContext = (Context) mConstructorArgs[0];
@@ -544,10 +652,16 @@ public abstract class LayoutInflater {
                 // Don't retain static reference on context.
                 mConstructorArgs[0] = lastContext;
                 mConstructorArgs[1] = null;
+                mCompiledLayout = lastCompiledLayout;
+                mCompiledElement = lastCompiledElement;
 
                 Trace.traceEnd(Trace.TRACE_TAG_VIEW);
             }
 
+            if (compiledLayout != null) {
+                // Publish the layout if this inflation recorded it.
+                compiledLayout.publish();
+            }
             return result;
         }
     }
@@ -641,16 +755,9 @@ public abstract class LayoutInflater {
                 // Fill in the context if not already within inflation.
                 mConstructorArgs[0] = mContext;
             }
-            Object[] args = mConstructorArgs;
-            args[1] = attrs;
-
-            final View view = constructor.newInstance(args);
-            if (view instanceof ViewStub) {
-                // Use the same context when inflating ViewStub later.
-                final ViewStub viewStub = (ViewStub) view;
-                viewStub.setLayoutInflater(cloneInContext((Context) args[0]));
-            }
+            final View view = newView(constructor, attrs);
             mConstructorArgs[0] = lastContext;
+            mLastConstructor = constructor;
             return view;
 
         } catch (NoSuchMethodException e) {
@@ -679,6 +786,20 @@ public abstract class LayoutInflater {
         }
     }
 
+    private View newView(Constructor<? extends View> constructor, AttributeSet attrs)
+            throws ReflectiveOperationException {
+        Object[] args = mConstructorArgs;
+        args[1] = attrs;
+
+        final View view = constructor.newInstance(args);
+        if (view instanceof ViewStub) {
+            // Use the same context when inflating ViewStub later.
+            final ViewStub viewStub = (ViewStub) view;
+            viewStub.setLayoutInflater(cloneInContext((Context) args[0]));
+        }
+        return view;
+    }
+
     /**
      * Throw an exception because the specified class is not allowed to be inflated.
      */
@@ -751,6 +872,8 @@ public abstract class LayoutInflater {
             name = attrs.getAttributeValue(null, "class");
         }
 
+        final CompiledLayout.Element element = nextCompiledElement(name);
+
         // Apply a theme wrapper, if allowed and one is specified.
         if (!ignoreThemeAttr) {
             final TypedArray ta = context.obtainStyledAttributes(attrs, ATTRS_THEME);
@@ -763,6 +886,7 @@ public abstract class LayoutInflater {
 
         if (name.equals(TAG_1995)) {
             // Let's party like it's 1995!
+            recordCompiledElement(name, null);
             return new BlinkLayout(context, attrs);
         }
 
@@ -780,20 +904,38 @@ public abstract class LayoutInflater {
                 view = mPrivateFactory.onCreateView(parent, name, context, attrs);
             }
 
+            Constructor<? extends View> constructor = null;
             if (view == null) {
                 final Object lastContext = mConstructorArgs[0];
                 mConstructorArgs[0] = context;
                 try {
-                    if (-1 == name.indexOf('.')) {
-                        view = onCreateView(parent, name, attrs);
+                    if (element != null && element.constructor != null
+                            && verifyClassLoader(element.constructor)) {
+                        Trace.traceBegin(Trace.TRACE_TAG_VIEW, name);
+                        try {
+                            view = newView(element.constructor, attrs);
+                        } finally {
+                            Trace.traceEnd(Trace.TRACE_TAG_VIEW);
+                        }
                     } else {
-                        view = createView(name, null, attrs);
+                        mLastConstructor = null;
+                        if (-1 == name.indexOf('.')) {
+                            view = onCreateView(parent, name, attrs);
+                        } else {
+                            view = createView(name, null, attrs);
+                        }
+                        // Subclasses may create views some other way.
+                        if (view != null && mLastConstructor != null
+                                && view.getClass() == mLastConstructor.getDeclaringClass()) {
+                            constructor = mLastConstructor;
+                        }
                     }
                 } finally {
                     mConstructorArgs[0] = lastContext;
                 }
             }
 
+            recordCompiledElement(name, constructor);
             return view;
         } catch (InflateException e) {
             throw e;
@@ -812,6 +954,15 @@ public abstract class LayoutInflater {
         }
     }
 
+    /**
+     * Records the next view of the layout being recorded, if any.
+     */
+    private void recordCompiledElement(String name, Constructor<? extends View> constructor) {
+        if (mCompiledLayout != null && !mCompiledLayout.isCompiled()) {
+            mCompiledLayout.addElement(name, constructor);
+        }
+    }
+
     /**
      * Recursive method used to inflate internal (non-root) children. This
      * method calls through to {@link #rInflate} using the parent context as
@@ -940,7 +1091,12 @@ public abstract class LayoutInflater {
                 throw new InflateException("You must specify a valid layout "
                         + "reference. The layout ID " + value + " is not valid.");
             } else {
-                final XmlResourceParser childParser = context.getResources().getLayout(layout);
+                final Resources childRes = context.getResources();
+                final XmlResourceParser childParser = childRes.getLayout(layout);
+                final CompiledLayout lastLayout = mCompiledLayout;
+                final int lastElement = mCompiledElement;
+                mCompiledLayout = obtainCompiledLayout(childRes, layout);
+                mCompiledElement = 0;
 
                 try {
                     final AttributeSet childAttrs = Xml.asAttributeSet(childParser);
@@ -1012,7 +1168,12 @@ public abstract class LayoutInflater {
 
                         group.addView(view);
                     }
+                    if (mCompiledLayout != null) {
+                        mCompiledLayout.publish();
+                    }
                 } finally {
+                    mCompiledLayout = lastLayout;
+                    mCompiledElement = lastElement;
                     childParser.close();
                 }
             }
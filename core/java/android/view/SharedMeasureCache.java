@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view;
+
+import android.util.LruCache;
+
+/**
+ * Measurements shared between the item views of a list, such as those of a
+ * {@link com.android.internal.widget.RecyclerView} or an {@link android.widget.AbsListView}.
+ *
+ * <p>The adapter describes the content of each item with a fingerprint: two items of the same
+ * layout with the same fingerprint must measure to the same size for the same measure specs,
+ * whatever else differs between them. The fingerprint says nothing about the sizes of the
+ * item's descendants, which are always measured for the item's own content.
+ *
+ * <p>The list attaches an {@link Item} to each item view with
+ * {@link View#setSharedMeasureItem}. Until the view is laid out, if an item with the same
+ * layout, fingerprint and specs has been measured, {@link View#measure} gives the view that
+ * size and only measures its subtree once, right before it is laid out, however many times its
+ * parent measures it first.
+ * The fingerprint only describes the content the view was bound to, so once the view is laid
+ * out, or a child of it requests a layout, e.g. because an image it shows finished loading, the
+ * view is measured as usual until it is bound again.
+ *
+ * <p>Not thread safe; use it from the UI thread only.
+ *
+ * @hide
+ */
+public final class SharedMeasureCache {
+    private static final int MAX_ENTRIES = 256;
+
+    private final LruCache<Key, Long> mMeasurements = new LruCache<>(MAX_ENTRIES);
+    private final Key mLookupKey = new Key();
+
+    private int mHitCount;
+    private int mMissCount;
+
+    private static final class Key {
+        int layout;
+        long fingerprint;
+        int widthMeasureSpec;
+        int heightMeasureSpec;
+
+        Key set(int layout, long fingerprint, int widthMeasureSpec, int heightMeasureSpec) {
+            this.layout = layout;
+            this.fingerprint = fingerprint;
+            this.widthMeasureSpec = widthMeasureSpec;
+            this.heightMeasureSpec = heightMeasureSpec;
+            return this;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = layout;
+            h = 31 * h + (int) (fingerprint ^ (fingerprint >>> 32));
+            h = 31 * h + widthMeasureSpec;
+            h = 31 * h + heightMeasureSpec;
+            return h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return layout == other.layout && fingerprint == other.fingerprint
+                    && widthMeasureSpec == other.widthMeasureSpec
+                    && heightMeasureSpec == other.heightMeasureSpec;
+        }
+    }
+
+    /**
+     * What a {@link SharedMeasureCache} knows about one item view: the layout it was inflated
+     * from and the fingerprint of the content it currently shows, if any.
+     */
+    public static final class Item {
+        private final SharedMeasureCache mCache;
+        private final int mLayout;
+        private boolean mHasFingerprint;
+        private long mFingerprint;
+        // Whether the view was bound and not laid out or changed since, so that the fingerprint
+        // still describes its content.
+        private boolean mBound;
+
+        Item(SharedMeasureCache cache, int layout) {
+            mCache = cache;
+            mLayout = layout;
+        }
+
+        public SharedMeasureCache getCache() {
+            return mCache;
+        }
+
+        public int getLayout() {
+            return mLayout;
+        }
+
+        /**
+         * Sets the fingerprint of the content the view was just bound to.
+         */
+        public void setFingerprint(long fingerprint) {
+            mHasFingerprint = true;
+            mFingerprint = fingerprint;
+            mBound = true;
+        }
+
+        /**
+         * Tells that the view was just bound to content that must always be measured.
+         */
+        public void clearFingerprint() {
+            mHasFingerprint = false;
+            mBound = false;
+        }
+
+        /**
+         * Called when the view is laid out, or a child of it requests a layout: the content
+         * may not match the fingerprint anymore.
+         */
+        void onViewLaidOutOrChanged() {
+            mBound = false;
+        }
+
+        /**
+         * Returns the size another item measured to for the current content and these specs,
+         * packed like {@link View}'s measure cache, or null if there is none.
+         */
+        Long getSharedMeasurement(int widthMeasureSpec, int heightMeasureSpec) {
+            if (!mBound) {
+                return null;
+            }
+            final Long value = mCache.mMeasurements.get(mCache.mLookupKey.set(mLayout,
+                    mFingerprint, widthMeasureSpec, heightMeasureSpec));
+            if (value == null) {
+                mCache.mMissCount++;
+            } else {
+                mCache.mHitCount++;
+            }
+            return value;
+        }
+
+        /**
+         * Called when the view has run {@link View#onMeasure} for its current content.
+         */
+        void onMeasured(int widthMeasureSpec, int heightMeasureSpec, long measurement) {
+            if (mHasFingerprint) {
+                mCache.mMeasurements.put(new Key().set(mLayout, mFingerprint, widthMeasureSpec,
+                        heightMeasureSpec), measurement);
+            }
+        }
+    }
+
+    /**
+     * Returns a new {@link Item} for a view inflated from {@code layout}, which can be any
+     * value that identifies the view's structure, such as a layout resource or a view type.
+     */
+    public Item newItem(int layout) {
+        return new Item(this, layout);
+    }
+
+    /**
+     * Forgets all measurements, e.g. because the list's configuration changed.
+     */
+    public void clear() {
+        mMeasurements.evictAll();
+    }
+
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    public int getMissCount() {
+        return mMissCount;
+    }
+}
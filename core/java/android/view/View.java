@@ -4011,6 +4011,11 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
 
     private LongSparseLongArray mMeasureCache;
 
+    /**
+     * Set by lists that share measurements between their item views.
+     */
+    private SharedMeasureCache.Item mSharedMeasureItem;
+
     @ViewDebug.ExportedProperty(deepExport = true, prefix = "bg_")
     private Drawable mBackground;
     private TintInfo mBackgroundTint;
@@ -19645,6 +19650,10 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
         if ((mPrivateFlags3 & PFLAG3_MEASURE_NEEDED_BEFORE_LAYOUT) != 0) {
             onMeasure(mOldWidthMeasureSpec, mOldHeightMeasureSpec);
             mPrivateFlags3 &= ~PFLAG3_MEASURE_NEEDED_BEFORE_LAYOUT;
+            onMeasuredForSharedCache(mOldWidthMeasureSpec, mOldHeightMeasureSpec);
+        }
+        if (mSharedMeasureItem != null) {
+            mSharedMeasureItem.onViewLaidOutOrChanged();
         }
 
         int oldL = mLeft;
@@ -21991,6 +22000,13 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
         mPrivateFlags |= PFLAG_FORCE_LAYOUT;
         mPrivateFlags |= PFLAG_INVALIDATED;
 
+        if (mParent instanceof View) {
+            final SharedMeasureCache.Item parentItem = ((View) mParent).mSharedMeasureItem;
+            if (parentItem != null) {
+                // The content of the list item changed since it was bound.
+                parentItem.onViewLaidOutOrChanged();
+            }
+        }
         if (mParent != null && !mParent.isLayoutRequested()) {
             mParent.requestLayout();
         }
@@ -22066,11 +22082,13 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
             resolveRtlPropertiesIfNeeded();
 
             int cacheIndex = forceLayout ? -1 : mMeasureCache.indexOfKey(key);
-            if (cacheIndex < 0 || sIgnoreMeasureCache) {
+            if ((cacheIndex < 0 || sIgnoreMeasureCache)
+                    && !measureFromSharedCache(widthMeasureSpec, heightMeasureSpec)) {
                 // measure ourselves, this should set the measured dimension flag back
                 onMeasure(widthMeasureSpec, heightMeasureSpec);
                 mPrivateFlags3 &= ~PFLAG3_MEASURE_NEEDED_BEFORE_LAYOUT;
-            } else {
+                onMeasuredForSharedCache(widthMeasureSpec, heightMeasureSpec);
+            } else if (cacheIndex >= 0) {
                 long value = mMeasureCache.valueAt(cacheIndex);
                 // Casting a long to int drops the high 32 bits, no mask needed
                 setMeasuredDimensionRaw((int) (value >> 32), (int) value);
@@ -22096,6 +22114,54 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
                 (long) mMeasuredHeight & 0xffffffffL); // suppress sign extension
     }
 
+    /**
+     * Sizes this view from its {@link SharedMeasureCache.Item}, if it has one that knows the
+     * size for these specs.
+     *
+     * @return true if the view was sized, false if it needs to be measured.
+     */
+    private boolean measureFromSharedCache(int widthMeasureSpec, int heightMeasureSpec) {
+        final SharedMeasureCache.Item item = mSharedMeasureItem;
+        if (item == null || sIgnoreMeasureCache) {
+            return false;
+        }
+        final Long value = item.getSharedMeasurement(widthMeasureSpec, heightMeasureSpec);
+        if (value == null) {
+            return false;
+        }
+        final long measurement = value;
+        // Casting a long to int drops the high 32 bits, no mask needed
+        setMeasuredDimensionRaw((int) (measurement >> 32), (int) measurement);
+        mPrivateFlags3 |= PFLAG3_MEASURE_NEEDED_BEFORE_LAYOUT;
+        return true;
+    }
+
+    private void onMeasuredForSharedCache(int widthMeasureSpec, int heightMeasureSpec) {
+        if (mSharedMeasureItem != null) {
+            mSharedMeasureItem.onMeasured(widthMeasureSpec, heightMeasureSpec,
+                    ((long) mMeasuredWidth) << 32 | (long) mMeasuredHeight & 0xffffffffL);
+        }
+    }
+
+    /**
+     * Lets this view share its measurements with the other item views of a list. See
+     * {@link SharedMeasureCache}.
+     *
+     * @param item the item of this view, or null to stop sharing.
+     * @hide
+     */
+    public void setSharedMeasureItem(@Nullable SharedMeasureCache.Item item) {
+        mSharedMeasureItem = item;
+    }
+
+    /**
+     * @hide
+     */
+    @Nullable
+    public SharedMeasureCache.Item getSharedMeasureItem() {
+        return mSharedMeasureItem;
+    }
+
     /**
      * <p>
      * Measure the view and its content to determine the measured width and the
@@ -20,6 +20,7 @@ package android.widget;
 import android.annotation.ColorInt;
 import android.annotation.DrawableRes;
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.Configuration;
@@ -61,6 +62,7 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
 import android.view.PointerIcon;
+import android.view.SharedMeasureCache;
 import android.view.VelocityTracker;
 import android.view.View;
 import android.view.ViewConfiguration;
@@ -313,6 +315,12 @@ public abstract class AbsListView extends AdapterView<ListAdapter> implements Te
      */
     boolean mAdapterHasStableIds;
 
+    /**
+     * Non-null if item views share their measurements.
+     */
+    private SharedMeasureCache mSharedMeasureCache;
+    private ItemMeasureFingerprints mItemMeasureFingerprints;
+
     /**
      * This flag indicates the a full notify is required when the RemoteViewsAdapter connects
      */
@@ -979,6 +987,9 @@ public abstract class AbsListView extends AdapterView<ListAdapter> implements Te
      */
     @Override
     public void setAdapter(ListAdapter adapter) {
+        if (mSharedMeasureCache != null) {
+            mSharedMeasureCache.clear();
+        }
         if (adapter != null) {
             mAdapterHasStableIds = mAdapter.hasStableIds();
             if (mChoiceMode != CHOICE_MODE_NONE && mAdapterHasStableIds &&
@@ -1494,6 +1505,57 @@ public abstract class AbsListView extends AdapterView<ListAdapter> implements Te
         return isFastScrollEnabled();
     }
 
+    /**
+     * Describes the content of the items of a list for
+     * {@link AbsListView#setItemMeasureFingerprints}.
+     *
+     * @hide
+     */
+    public interface ItemMeasureFingerprints {
+        /**
+         * Returns a fingerprint of the content of the item at {@code position} of the adapter:
+         * two items of the same view type with the same fingerprint must measure to the same
+         * size, e.g. because they show the same number of lines of text. Any value is a valid
+         * fingerprint.
+         */
+        long getItemMeasureFingerprint(int position);
+
+        /**
+         * Returns false if the item at {@code position} should always measure itself, in which
+         * case {@link #getItemMeasureFingerprint} isn't called for it.
+         */
+        default boolean hasItemMeasureFingerprint(int position) {
+            return true;
+        }
+    }
+
+    /**
+     * Lets item views share their measurements, so that an item whose content measures like
+     * that of an item measured before only measures its view hierarchy once, right before it
+     * is laid out.
+     *
+     * @param fingerprints describes the content of the items of the adapter, or null to stop
+     *                     sharing measurements.
+     * @see SharedMeasureCache
+     * @hide
+     */
+    public void setItemMeasureFingerprints(@Nullable ItemMeasureFingerprints fingerprints) {
+        mItemMeasureFingerprints = fingerprints;
+        if (fingerprints == null) {
+            if (mSharedMeasureCache != null) {
+                mSharedMeasureCache.clear();
+                mSharedMeasureCache = null;
+                for (int i = getChildCount() - 1; i >= 0; i--) {
+                    getChildAt(i).setSharedMeasureItem(null);
+                }
+            }
+        } else if (mSharedMeasureCache == null) {
+            mSharedMeasureCache = new SharedMeasureCache();
+        } else {
+            mSharedMeasureCache.clear();
+        }
+    }
+
     /**
      * When smooth scrollbar is enabled, the position and size of the scrollbar thumb
      * is computed based on the number of visible pixels in the visible items. This
@@ -2498,6 +2560,31 @@ public abstract class AbsListView extends AdapterView<ListAdapter> implements Te
         if (lp != vlp) {
           child.setLayoutParams(lp);
         }
+        updateSharedMeasureItem(child, position, lp.viewType);
+    }
+
+    /**
+     * Attaches an item view that was just bound to {@code position} to the shared measure cache,
+     * or detaches it if sharing is disabled.
+     */
+    private void updateSharedMeasureItem(View child, int position, int viewType) {
+        SharedMeasureCache.Item item = child.getSharedMeasureItem();
+        if (mSharedMeasureCache == null) {
+            if (item != null) {
+                child.setSharedMeasureItem(null);
+            }
+            return;
+        }
+        if (item == null || item.getCache() != mSharedMeasureCache
+                || item.getLayout() != viewType) {
+            item = mSharedMeasureCache.newItem(viewType);
+            child.setSharedMeasureItem(item);
+        }
+        if (mItemMeasureFingerprints.hasItemMeasureFingerprint(position)) {
+            item.setFingerprint(mItemMeasureFingerprints.getItemMeasureFingerprint(position));
+        } else {
+            item.clearFingerprint();
+        }
     }
 
     private View setAnimation(View view) {
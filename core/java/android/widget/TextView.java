@@ -76,6 +76,7 @@ import android.text.InputFilter;
 import android.text.InputType;
 import android.text.Layout;
 import android.text.ParcelableSpan;
+import android.text.PrecomputedText;
 import android.text.Selection;
 import android.text.SpanWatcher;
 import android.text.Spannable;
@@ -618,6 +619,8 @@ public class TextView extends View implements ViewTreeObserver.OnPreDrawListener
     private CharSequence mText;
     private CharSequence mTransformed;
     private BufferType mBufferType = BufferType.NORMAL;
+    // Layout of mText computed ahead of time, see setPrecomputedText().
+    private PrecomputedText mPrecomputed;
 
     private CharSequence mHint;
     private Layout mHintLayout;
@@ -5207,6 +5210,36 @@ public class TextView extends View implements ViewTreeObserver.OnPreDrawListener
         setText(text, mBufferType);
     }
 
+    /**
+     * Sets text that has already been measured and broken into lines, typically on a
+     * background thread. Same as {@link #setText(CharSequence)} with
+     * {@link PrecomputedText#getText()}, except that as long as this TextView is laid out with
+     * the parameters and width the text was computed for, it uses the precomputed lines
+     * instead of measuring the text itself.
+     *
+     * @param text the precomputed text to display
+     *
+     * @see #getTextMetricsParams()
+     * @hide
+     */
+    public void setPrecomputedText(@NonNull PrecomputedText text) {
+        mPrecomputed = text;
+        setText(text.getText());
+    }
+
+    /**
+     * Returns the parameters this TextView currently lays its text out with, for use with
+     * {@link PrecomputedText#create}.
+     *
+     * @hide
+     */
+    public @NonNull PrecomputedText.Params getTextMetricsParams() {
+        return new PrecomputedText.Params(mTextPaint, getTextDirectionHeuristic(),
+                getLayoutAlignment(), mSpacingAdd, mSpacingMult, mIncludePad, mBreakStrategy,
+                mHyphenationFrequency, mJustificationMode,
+                mMaxMode == LINES ? mMaximum : Integer.MAX_VALUE);
+    }
+
     /**
      * Sets the text to be displayed but retains the cursor position. Same as
      * {@link #setText(CharSequence)} except that the cursor position (if any) is retained in the
@@ -5260,6 +5293,9 @@ public class TextView extends View implements ViewTreeObserver.OnPreDrawListener
         if (text == null) {
             text = "";
         }
+        if (mPrecomputed != null && text != mPrecomputed.getText()) {
+            mPrecomputed = null;
+        }
 
         // If suggestions are not enabled, remove the suggestion spans from the text
         if (!isSuggestionsEnabled()) {
@@ -7956,14 +7992,16 @@ public class TextView extends View implements ViewTreeObserver.OnPreDrawListener
                     mBreakStrategy, mHyphenationFrequency, mJustificationMode,
                     getKeyListener() == null ? effectiveEllipsize : null, ellipsisWidth);
         } else {
-            if (boring == UNKNOWN_BORING) {
+            result = getPrecomputedLayout(wantWidth, alignment, shouldEllipsize);
+
+            if (result == null && boring == UNKNOWN_BORING) {
                 boring = BoringLayout.isBoring(mTransformed, mTextPaint, mTextDir, mBoring);
                 if (boring != null) {
                     mBoring = boring;
                 }
             }
 
-            if (boring != null) {
+            if (result == null && boring != null) {
                 if (boring.width <= wantWidth
                         && (effectiveEllipsize == null || boring.width <= ellipsisWidth)) {
                     if (useSaved && mSavedLayout != null) {
@@ -8015,6 +8053,24 @@ public class TextView extends View implements ViewTreeObserver.OnPreDrawListener
         return result;
     }
 
+    /**
+     * Returns a layout from {@link #mPrecomputed} if it was computed for the text, width and
+     * parameters this TextView is being laid out with, or null.
+     */
+    private Layout getPrecomputedLayout(int wantWidth, Layout.Alignment alignment,
+            boolean shouldEllipsize) {
+        if (mPrecomputed == null || mPrecomputed.getText() != mTransformed
+                || mPrecomputed.getWidth() != wantWidth || shouldEllipsize) {
+            return null;
+        }
+        if (!mPrecomputed.getParams().isCompatibleWith(mTextPaint, mTextDir, alignment,
+                mSpacingAdd, mSpacingMult, mIncludePad, mBreakStrategy, mHyphenationFrequency,
+                mJustificationMode, mMaxMode == LINES ? mMaximum : Integer.MAX_VALUE)) {
+            return null;
+        }
+        return mPrecomputed.getLayout(mTextPaint);
+    }
+
     private boolean compressText(float width) {
         if (isHardwareAccelerated()) return false;
 
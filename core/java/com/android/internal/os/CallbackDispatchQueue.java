@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.os;
+
+import android.os.SystemClock;
+import android.util.Slog;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Delivers events to a single listener on a shared executor instead of the calling thread.
+ * <p>
+ * Events for one queue run one at a time and in the order they were enqueued, so each
+ * listener still sees its events in order, but a slow listener only delays itself. After each
+ * event the queue goes back to the end of the executor's queue, which keeps one busy listener
+ * from holding on to a thread while others wait.
+ * <p>
+ * Events can carry a coalescing key: when an event is enqueued while an older one with an
+ * equal key is still pending, the older one is dropped, so a listener that falls behind only
+ * gets the latest state.
+ *
+ * @hide
+ */
+public final class CallbackDispatchQueue {
+    private static final String TAG = "CallbackDispatchQueue";
+
+    /** Listeners taking longer than this to handle an event are counted as slow. */
+    public static final long DEFAULT_SLOW_DISPATCH_MILLIS = 100;
+
+    private final Executor mExecutor;
+    private final long mSlowDispatchMillis;
+    private final Runnable mDrainOne = this::drainOne;
+
+    @GuardedBy("this")
+    private final ArrayList<Event> mPending = new ArrayList<>();
+    @GuardedBy("this")
+    private boolean mScheduled;
+    @GuardedBy("this")
+    private boolean mClosed;
+
+    @GuardedBy("this")
+    private long mDeliveredCount;
+    @GuardedBy("this")
+    private long mCoalescedCount;
+    @GuardedBy("this")
+    private long mSlowCount;
+    @GuardedBy("this")
+    private long mMaxDispatchMillis;
+    @GuardedBy("this")
+    private long mMaxQueueMillis;
+
+    private static final class Event {
+        final Object key;
+        final Runnable action;
+        final long enqueueTime;
+
+        Event(Object key, Runnable action, long enqueueTime) {
+            this.key = key;
+            this.action = action;
+            this.enqueueTime = enqueueTime;
+        }
+    }
+
+    public CallbackDispatchQueue(Executor executor) {
+        this(executor, DEFAULT_SLOW_DISPATCH_MILLIS);
+    }
+
+    public CallbackDispatchQueue(Executor executor, long slowDispatchMillis) {
+        mExecutor = executor;
+        mSlowDispatchMillis = slowDispatchMillis;
+    }
+
+    /**
+     * Queue {@code action} for delivery.
+     *
+     * @param coalesceKey If not null, any pending event with an equal key is dropped in favor
+     *                    of this one.
+     */
+    public void enqueue(Object coalesceKey, Runnable action) {
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            if (coalesceKey != null) {
+                for (int i = mPending.size() - 1; i >= 0; i--) {
+                    if (coalesceKey.equals(mPending.get(i).key)) {
+                        mPending.remove(i);
+                        mCoalescedCount++;
+                        break;
+                    }
+                }
+            }
+            mPending.add(new Event(coalesceKey, action, SystemClock.uptimeMillis()));
+            if (mScheduled) {
+                return;
+            }
+            mScheduled = true;
+        }
+        mExecutor.execute(mDrainOne);
+    }
+
+    /**
+     * Drop all pending events and ignore any enqueued later, e.g. once the listener is gone.
+     */
+    public void close() {
+        synchronized (this) {
+            mClosed = true;
+            mPending.clear();
+        }
+    }
+
+    private void drainOne() {
+        final Event event;
+        synchronized (this) {
+            if (mClosed || mPending.isEmpty()) {
+                mScheduled = false;
+                return;
+            }
+            event = mPending.remove(0);
+        }
+
+        final long start = SystemClock.uptimeMillis();
+        try {
+            event.action.run();
+        } catch (RuntimeException e) {
+            Slog.w(TAG, "Failure dispatching callback", e);
+        }
+        final long end = SystemClock.uptimeMillis();
+
+        final boolean more;
+        synchronized (this) {
+            mDeliveredCount++;
+            final long dispatchMillis = end - start;
+            if (dispatchMillis >= mSlowDispatchMillis) {
+                mSlowCount++;
+            }
+            mMaxDispatchMillis = Math.max(mMaxDispatchMillis, dispatchMillis);
+            mMaxQueueMillis = Math.max(mMaxQueueMillis, start - event.enqueueTime);
+            more = !mClosed && !mPending.isEmpty();
+            if (!more) {
+                mScheduled = false;
+            }
+        }
+        if (more) {
+            mExecutor.execute(mDrainOne);
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return mPending.size();
+    }
+
+    public synchronized long getDeliveredCount() {
+        return mDeliveredCount;
+    }
+
+    public synchronized long getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    public synchronized long getSlowCount() {
+        return mSlowCount;
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        pw.print("pending="); pw.print(mPending.size());
+        pw.print(" delivered="); pw.print(mDeliveredCount);
+        pw.print(" coalesced="); pw.print(mCoalescedCount);
+        pw.print(" slow="); pw.print(mSlowCount);
+        pw.print(" maxDispatch="); pw.print(mMaxDispatchMillis);
+        pw.print("ms maxQueued="); pw.print(mMaxQueueMillis);
+        pw.println("ms");
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.os;
+
+import android.os.Build;
+import android.os.LockContentionProto;
+import android.os.LockHolderSampleProto;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.util.proto.ProtoOutputStream;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.util.ExponentiallyBucketedHistogram;
+
+import java.io.PrintWriter;
+
+/**
+ * Records how long a heavily shared lock is held, and samples the holders that keep it for
+ * too long. Meant to be fed from the hooks that run right after a monitor is entered and
+ * right after it is exited, such as the system server's lock boosting.
+ * <p>
+ * Profiling is off unless the build is debuggable and {@code persist.sys.lock_contention}
+ * is set; when off, callers should not create or touch instances at all.
+ *
+ * @hide
+ */
+public final class LockContentionStats {
+    public static final boolean ENABLED = Build.IS_DEBUGGABLE
+            && SystemProperties.getBoolean("persist.sys.lock_contention", false);
+
+    private static final int HOLD_HISTOGRAM_BUCKETS = 24;
+    private static final int MAX_HOLDER_SAMPLES = 8;
+    private static final long DEFAULT_SLOW_HOLD_MILLIS = 10;
+
+    private final String mName;
+    private final long mSlowHoldNanos;
+
+    @GuardedBy("this")
+    private final ExponentiallyBucketedHistogram mHoldMicros =
+            new ExponentiallyBucketedHistogram(HOLD_HISTOGRAM_BUCKETS);
+    @GuardedBy("this")
+    private long mAcquisitions;
+    @GuardedBy("this")
+    private long mTotalHoldNanos;
+    @GuardedBy("this")
+    private long mMaxHoldNanos;
+    @GuardedBy("this")
+    private final HolderSample[] mSamples = new HolderSample[MAX_HOLDER_SAMPLES];
+    @GuardedBy("this")
+    private int mNextSample;
+
+    private static final class HolderSample {
+        final String threadName;
+        final long holdNanos;
+        final long releaseUptime;
+        final StackTraceElement[] stack;
+
+        HolderSample(String threadName, long holdNanos, long releaseUptime,
+                StackTraceElement[] stack) {
+            this.threadName = threadName;
+            this.holdNanos = holdNanos;
+            this.releaseUptime = releaseUptime;
+            this.stack = stack;
+        }
+    }
+
+    public LockContentionStats(String name) {
+        this(name, SystemProperties.getLong("persist.sys.lock_contention.slow_ms",
+                DEFAULT_SLOW_HOLD_MILLIS) * 1000000L);
+    }
+
+    public LockContentionStats(String name, long slowHoldNanos) {
+        mName = name;
+        mSlowHoldNanos = slowHoldNanos;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Note that the lock was released after being held since {@code acquiredNanos}, both
+     * taken from {@link System#nanoTime()}. Only the outermost acquisition of a reentrant
+     * lock should be reported.
+     */
+    public void noteHeld(long acquiredNanos, long releasedNanos) {
+        final long holdNanos = releasedNanos - acquiredNanos;
+        HolderSample sample = null;
+        if (holdNanos >= mSlowHoldNanos) {
+            // Only slow holds pay for a stack; this runs on the releasing thread, so the stack
+            // points at the code that kept the lock.
+            final Thread thread = Thread.currentThread();
+            sample = new HolderSample(thread.getName(), holdNanos, SystemClock.uptimeMillis(),
+                    thread.getStackTrace());
+        }
+        synchronized (this) {
+            mAcquisitions++;
+            mTotalHoldNanos += holdNanos;
+            if (holdNanos > mMaxHoldNanos) {
+                mMaxHoldNanos = holdNanos;
+            }
+            mHoldMicros.add((int) Math.min(holdNanos / 1000, Integer.MAX_VALUE));
+            if (sample != null) {
+                mSamples[mNextSample] = sample;
+                mNextSample = (mNextSample + 1) % MAX_HOLDER_SAMPLES;
+            }
+        }
+    }
+
+    public synchronized long getAcquisitions() {
+        return mAcquisitions;
+    }
+
+    public synchronized void reset() {
+        mHoldMicros.reset();
+        mAcquisitions = 0;
+        mTotalHoldNanos = 0;
+        mMaxHoldNanos = 0;
+        for (int i = 0; i < MAX_HOLDER_SAMPLES; i++) {
+            mSamples[i] = null;
+        }
+        mNextSample = 0;
+    }
+
+    public synchronized void dump(PrintWriter pw, String prefix) {
+        pw.print(prefix); pw.print(mName); pw.print(": acquisitions="); pw.print(mAcquisitions);
+        pw.print(" totalHold="); pw.print(mTotalHoldNanos / 1000000); pw.print("ms");
+        pw.print(" maxHold="); pw.print(mMaxHoldNanos / 1000); pw.println("us");
+        pw.print(prefix); pw.print("  hold histogram (us): [");
+        for (int i = 0; i < mHoldMicros.getBucketCount(); i++) {
+            if (i != 0) {
+                pw.print(" ");
+            }
+            pw.print(mHoldMicros.getCount(i));
+        }
+        pw.println("]");
+        for (int i = 0; i < MAX_HOLDER_SAMPLES; i++) {
+            // Oldest first
+            final HolderSample sample = mSamples[(mNextSample + i) % MAX_HOLDER_SAMPLES];
+            if (sample == null) {
+                continue;
+            }
+            pw.print(prefix); pw.print("  slow holder "); pw.print(sample.threadName);
+            pw.print(" held "); pw.print(sample.holdNanos / 1000); pw.print("us, released at ");
+            pw.println(sample.releaseUptime);
+            for (StackTraceElement element : sample.stack) {
+                pw.print(prefix); pw.print("    at "); pw.println(element);
+            }
+        }
+    }
+
+    public synchronized void writeToProto(ProtoOutputStream proto, long fieldId) {
+        final long token = proto.start(fieldId);
+        proto.write(LockContentionProto.NAME, mName);
+        proto.write(LockContentionProto.ACQUISITIONS, mAcquisitions);
+        proto.write(LockContentionProto.TOTAL_HOLD_MICROS, mTotalHoldNanos / 1000);
+        proto.write(LockContentionProto.MAX_HOLD_MICROS, mMaxHoldNanos / 1000);
+        for (int i = 0; i < mHoldMicros.getBucketCount(); i++) {
+            proto.write(LockContentionProto.HOLD_HISTOGRAM, mHoldMicros.getCount(i));
+        }
+        for (int i = 0; i < MAX_HOLDER_SAMPLES; i++) {
+            final HolderSample sample = mSamples[(mNextSample + i) % MAX_HOLDER_SAMPLES];
+            if (sample == null) {
+                continue;
+            }
+            final long sampleToken = proto.start(LockContentionProto.SLOW_HOLDERS);
+            proto.write(LockHolderSampleProto.THREAD_NAME, sample.threadName);
+            proto.write(LockHolderSampleProto.HOLD_MICROS, sample.holdNanos / 1000);
+            proto.write(LockHolderSampleProto.RELEASE_UPTIME_MILLIS, sample.releaseUptime);
+            for (StackTraceElement element : sample.stack) {
+                proto.write(LockHolderSampleProto.STACK, element.toString());
+            }
+            proto.end(sampleToken);
+        }
+        proto.end(token);
+    }
+}
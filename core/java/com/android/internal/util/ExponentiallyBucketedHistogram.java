@@ -57,6 +57,60 @@ public class ExponentiallyBucketedHistogram {
         }
     }
 
+    /**
+     * @return The number of buckets in this histogram
+     */
+    public int getBucketCount() {
+        return mData.length;
+    }
+
+    /**
+     * @param bucket The index of the bucket
+     *
+     * @return The number of values added to the given bucket
+     */
+    public int getCount(int bucket) {
+        return mData[bucket];
+    }
+
+    /**
+     * @return The number of values added to the histogram
+     */
+    public int getTotalCount() {
+        int total = 0;
+        for (int i = 0; i < mData.length; i++) {
+            total += mData[i];
+        }
+        return total;
+    }
+
+    /**
+     * Get the smallest value of the bucket that holds the given percentile. As values are only
+     * tracked per bucket this is exact to within a factor of two.
+     *
+     * @param percentile The percentile to look up, e.g. 99
+     *
+     * @return The lower bound of the bucket containing the percentile, or 0 if the histogram is
+     *         empty
+     */
+    public int getPercentileLowerBound(@IntRange(from = 0, to = 100) int percentile) {
+        final int total = getTotalCount();
+        if (total == 0) {
+            return 0;
+        }
+        // Number of values that must be at or below the percentile bucket
+        final long threshold = ((long) total * percentile + 99) / 100;
+        long seen = 0;
+        int bucket = 0;
+        for (; bucket < mData.length - 1; bucket++) {
+            seen += mData[bucket];
+            if (seen >= threshold && seen > 0) {
+                break;
+            }
+        }
+        return bucket == 0 ? 0 : 1 << (bucket - 1);
+    }
+
     /**
      * Clear all data from the histogram
      */
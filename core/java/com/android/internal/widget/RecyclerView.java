@@ -43,6 +43,7 @@ import android.view.Display;
 import android.view.FocusFinder;
 import android.view.InputDevice;
 import android.view.MotionEvent;
+import android.view.SharedMeasureCache;
 import android.view.VelocityTracker;
 import android.view.View;
 import android.view.ViewConfiguration;
@@ -338,6 +339,8 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
     private OnItemTouchListener mActiveOnItemTouchListener;
     boolean mIsAttached;
     boolean mHasFixedSize;
+    // Non-null if item views share their measurements.
+    private SharedMeasureCache mSharedMeasureCache;
     @VisibleForTesting boolean mFirstLayoutComplete;
 
     // Counting lock to control whether we should ignore requestLayout calls from children or not.
@@ -871,6 +874,68 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
         mHasFixedSize = hasFixedSize;
     }
 
+    /**
+     * Lets item views share their measurements, so that an item whose content measures like
+     * that of an item measured before only measures its view hierarchy once, right before it
+     * is laid out. The adapter
+     * describes the content of each item with {@link Adapter#hasItemMeasureFingerprint(int)}
+     * and {@link Adapter#getItemMeasureFingerprint(int)};
+     * items of the same view type with the same fingerprint must measure to the same size.
+     * <p>
+     * Disabled by default.
+     *
+     * @param enabled true to share measurements between the items with a fingerprint.
+     * @see SharedMeasureCache
+     */
+    public void setItemMeasureSharingEnabled(boolean enabled) {
+        if (enabled == (mSharedMeasureCache != null)) {
+            return;
+        }
+        if (enabled) {
+            mSharedMeasureCache = new SharedMeasureCache();
+        } else {
+            mSharedMeasureCache.clear();
+            mSharedMeasureCache = null;
+            final int childCount = mChildHelper.getUnfilteredChildCount();
+            for (int i = 0; i < childCount; i++) {
+                mChildHelper.getUnfilteredChildAt(i).setSharedMeasureItem(null);
+            }
+        }
+    }
+
+    /**
+     * @return true if item views share their measurements.
+     * @see #setItemMeasureSharingEnabled(boolean)
+     */
+    public boolean isItemMeasureSharingEnabled() {
+        return mSharedMeasureCache != null;
+    }
+
+    /**
+     * Attaches the item view of {@code holder} to the shared measure cache, with the fingerprint
+     * of the item it was just bound to, or detaches it if sharing is disabled.
+     */
+    void updateSharedMeasureItem(ViewHolder holder, int offsetPosition) {
+        final View itemView = holder.itemView;
+        SharedMeasureCache.Item item = itemView.getSharedMeasureItem();
+        if (mSharedMeasureCache == null) {
+            if (item != null) {
+                itemView.setSharedMeasureItem(null);
+            }
+            return;
+        }
+        if (item == null || item.getCache() != mSharedMeasureCache
+                || item.getLayout() != holder.getItemViewType()) {
+            item = mSharedMeasureCache.newItem(holder.getItemViewType());
+            itemView.setSharedMeasureItem(item);
+        }
+        if (mAdapter.hasItemMeasureFingerprint(offsetPosition)) {
+            item.setFingerprint(mAdapter.getItemMeasureFingerprint(offsetPosition));
+        } else {
+            item.clearFingerprint();
+        }
+    }
+
     /**
      * @return true if the app has specified that changes in adapter content cannot change
      * the size of the RecyclerView itself.
@@ -1010,6 +1075,9 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
             removeAndRecycleViews();
         }
         mAdapterHelper.reset();
+        if (mSharedMeasureCache != null) {
+            mSharedMeasureCache.clear();
+        }
         final Adapter oldAdapter = mAdapter;
         mAdapter = adapter;
         if (adapter != null) {
@@ -5279,6 +5347,7 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
                 return false;
             }
             mAdapter.bindViewHolder(holder, offsetPosition);
+            updateSharedMeasureItem(holder, offsetPosition);
             long endBindNs = getNanoTime();
             mRecyclerPool.factorInBindTime(holder.getItemViewType(), endBindNs - startBindNs);
             attachAccessibilityDelegate(holder.itemView);
@@ -6386,6 +6455,32 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
             return NO_ID;
         }
 
+        /**
+         * Return true if the item at <code>position</code> has a fingerprint for
+         * {@link RecyclerView#setItemMeasureSharingEnabled(boolean)}. The default implementation
+         * returns false, which means the items always measure themselves.
+         *
+         * @param position Adapter position to query
+         * @return true if {@link #getItemMeasureFingerprint(int)} describes the item
+         */
+        public boolean hasItemMeasureFingerprint(int position) {
+            return false;
+        }
+
+        /**
+         * Return a fingerprint of the content of the item at <code>position</code> for
+         * {@link RecyclerView#setItemMeasureSharingEnabled(boolean)}: two items of the same
+         * view type with the same fingerprint must measure to the same size, e.g. because they
+         * show the same number of lines of text. Only called if
+         * {@link #hasItemMeasureFingerprint(int)} returns true; any value is a valid fingerprint.
+         *
+         * @param position Adapter position to query
+         * @return the measure fingerprint of the item at position
+         */
+        public long getItemMeasureFingerprint(int position) {
+            return 0;
+        }
+
         /**
          * Returns the total number of items in the data set held by the adapter.
          *
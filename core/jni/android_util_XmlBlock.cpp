@@ -242,6 +242,22 @@ static jint android_content_XmlBlock_nativeGetAttributeData(JNIEnv* env, jobject
     return static_cast<jint>(st->getAttributeData(idx));
 }
 
+static jlong android_content_XmlBlock_nativeGetElementPosition(JNIEnv* env, jobject clazz,
+                                                               jlong token)
+{
+    ResXMLParser* st = reinterpret_cast<ResXMLParser*>(token);
+    if (st == NULL) {
+        jniThrowNullPointerException(env, NULL);
+        return 0;
+    }
+
+    // The address of the current node in the block's data, which identifies the element and
+    // so its attributes for as long as the block exists.
+    ResXMLParser::ResXMLPosition position;
+    st->getPosition(&position);
+    return reinterpret_cast<jlong>(position.curNode);
+}
+
 static jint android_content_XmlBlock_nativeGetAttributeStringValue(JNIEnv* env, jobject clazz,
                                                                    jlong token, jint idx)
 {
@@ -401,6 +417,8 @@ static const JNINativeMethod gXmlBlockMethods[] = {
             (void*) android_content_XmlBlock_nativeGetAttributeDataType },
     { "nativeGetAttributeData",    "(JI)I",
             (void*) android_content_XmlBlock_nativeGetAttributeData },
+    { "nativeGetElementPosition",  "(J)J",
+            (void*) android_content_XmlBlock_nativeGetElementPosition },
     { "nativeGetAttributeStringValue", "(JI)I",
             (void*) android_content_XmlBlock_nativeGetAttributeStringValue },
     { "nativeGetAttributeIndex",    "(JLjava/lang/String;Ljava/lang/String;)I",
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content.res;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ThemeStyledAttributesCacheTest {
+    private static final int[] ATTRS = {
+            android.R.attr.colorBackground, android.R.attr.textColorPrimary };
+
+    private Resources.Theme mTheme;
+
+    @Before
+    public void setUp() {
+        final Resources res = InstrumentationRegistry.getContext().getResources();
+        mTheme = res.newTheme();
+        mTheme.applyStyle(android.R.style.Theme_Material, true);
+    }
+
+    private int obtainBackgroundColor() {
+        return obtainBackgroundColor(ATTRS);
+    }
+
+    private int obtainBackgroundColor(int[] attrs) {
+        final TypedArray a = mTheme.obtainStyledAttributes(attrs);
+        try {
+            return a.getColor(0, 0);
+        } finally {
+            a.recycle();
+        }
+    }
+
+    @Test
+    public void testRepeatedCallHits() {
+        final int first = obtainBackgroundColor();
+        final int[] stats = mTheme.getStyledAttributesCacheStats();
+        assertEquals(first, obtainBackgroundColor());
+
+        final int[] after = mTheme.getStyledAttributesCacheStats();
+        assertEquals(stats[0] + 1, after[0]);
+        assertEquals(stats[1], after[1]);
+    }
+
+    @Test
+    public void testCopiedAttrsHit() {
+        final int first = obtainBackgroundColor();
+        final int[] stats = mTheme.getStyledAttributesCacheStats();
+        assertEquals(first, obtainBackgroundColor(ATTRS.clone()));
+        assertEquals(stats[0] + 1, mTheme.getStyledAttributesCacheStats()[0]);
+    }
+
+    @Test
+    public void testOtherThemeWithSameStyleMisses() {
+        obtainBackgroundColor();
+        mTheme = mTheme.getResources().newTheme();
+        mTheme.applyStyle(android.R.style.Theme_Material, true);
+        obtainBackgroundColor();
+        assertEquals(1, mTheme.getStyledAttributesCacheStats()[1]);
+    }
+
+    @Test
+    public void testSizeIsBounded() {
+        final int[] attrs = new int[64];
+        for (int i = 0; i < 300; i++) {
+            for (int j = 0; j < attrs.length; j++) {
+                attrs[j] = android.R.attr.theme + i + j;
+            }
+            obtainBackgroundColor(attrs);
+        }
+        assertTrue(StyledAttributesCache.getSizeBytes() <= StyledAttributesCache.MAX_BYTES);
+    }
+
+    @Test
+    public void testApplyStyleInvalidates() {
+        final int dark = obtainBackgroundColor();
+        mTheme.applyStyle(android.R.style.Theme_Material_Light, true);
+        final int[] stats = mTheme.getStyledAttributesCacheStats();
+        final int light = obtainBackgroundColor();
+
+        assertNotEquals(dark, light);
+        assertEquals(stats[1] + 1, mTheme.getStyledAttributesCacheStats()[1]);
+    }
+
+    @Test
+    public void testSetToInvalidates() {
+        final Resources.Theme light = mTheme.getResources().newTheme();
+        light.applyStyle(android.R.style.Theme_Material_Light, true);
+        final int dark = obtainBackgroundColor();
+
+        mTheme.setTo(light);
+        assertNotEquals(dark, obtainBackgroundColor());
+    }
+}
@@ -18,6 +18,7 @@ package android.text;
 
 import static android.text.Layout.Alignment.ALIGN_NORMAL;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
@@ -133,4 +134,41 @@ public class DynamicLayoutTest {
             assertTrue("Block index should not be negative", value >= 0);
         }
     }
+
+    private static final int[] BREAK_STRATEGIES = {
+            Layout.BREAK_STRATEGY_SIMPLE,
+            Layout.BREAK_STRATEGY_HIGH_QUALITY,
+            Layout.BREAK_STRATEGY_BALANCED };
+
+    @Test
+    public void testReflow_matchesStaticLayoutForEveryBreakStrategy() {
+        final String words = "The quick brown fox jumps over the lazy dog and keeps on running ";
+        final TextPaint paint = new TextPaint();
+        paint.setTextSize(20);
+        final int width = 300;
+        for (int breakStrategy : BREAK_STRATEGIES) {
+            final SpannableStringBuilder builder = new SpannableStringBuilder(words);
+            final DynamicLayout layout = new DynamicLayout(builder, builder, paint, width,
+                    ALIGN_NORMAL, TextDirectionHeuristics.FIRSTSTRONG_LTR, 1.0f, 0f, false,
+                    breakStrategy, Layout.HYPHENATION_FREQUENCY_NONE,
+                    Layout.JUSTIFICATION_MODE_NONE, null, width);
+            // Reflow the same words over and over, so that the measured run cache is used.
+            for (int i = 0; i < 5; i++) {
+                builder.append(words);
+                builder.insert(words.length() / 2, "edit ");
+            }
+
+            final StaticLayout cold = StaticLayout.Builder
+                    .obtain(builder, 0, builder.length(), paint, width)
+                    .setBreakStrategy(breakStrategy)
+                    .setHyphenationFrequency(Layout.HYPHENATION_FREQUENCY_NONE)
+                    .build();
+            assertEquals("breakStrategy=" + breakStrategy, cold.getLineCount(),
+                    layout.getLineCount());
+            for (int line = 0; line < cold.getLineCount(); line++) {
+                assertEquals("breakStrategy=" + breakStrategy + " line=" + line,
+                        cold.getLineStart(line), layout.getLineStart(line));
+            }
+        }
+    }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.text;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class MeasuredRunCacheTest {
+    private static final String TEXT = "the quick brown fox jumps over the lazy dog";
+
+    private static TextPaint newPaint(float textSize) {
+        final TextPaint paint = new TextPaint();
+        paint.setTextSize(textSize);
+        return paint;
+    }
+
+    @Test
+    public void testMeasure_matchesWholeRunMeasurement() {
+        final TextPaint paint = newPaint(20);
+        final char[] chars = TEXT.toCharArray();
+        final float[] expected = new float[chars.length];
+        final float expectedAdvance = paint.getTextRunAdvances(chars, 0, chars.length, 0,
+                chars.length, false, expected, 0);
+
+        final MeasuredRunCache cache = new MeasuredRunCache();
+        final float[] widths = new float[chars.length];
+        final float advance = cache.measure(paint, chars, 0, chars.length, false, widths);
+
+        assertEquals(expectedAdvance, advance, 0.01f);
+        assertArrayEquals(expected, widths, 0.01f);
+    }
+
+    @Test
+    public void testMeasure_reusesUnchangedWords() {
+        final TextPaint paint = newPaint(20);
+        final MeasuredRunCache cache = new MeasuredRunCache();
+        final char[] chars = TEXT.toCharArray();
+        final float[] widths = new float[chars.length + 1];
+
+        cache.measure(paint, chars, 0, chars.length, false, widths);
+        // Nine words, "the " appears twice.
+        assertEquals(8, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+
+        final char[] edited = (TEXT + "s").toCharArray();
+        cache.measure(paint, edited, 0, edited.length, false, widths);
+        // Only the last word changed.
+        assertEquals(9, cache.getMissCount());
+        assertEquals(9, cache.getHitCount());
+    }
+
+    @Test
+    public void testMeasure_distinguishesPaints() {
+        final MeasuredRunCache cache = new MeasuredRunCache();
+        final char[] chars = "word".toCharArray();
+        final float[] small = new float[chars.length];
+        final float[] large = new float[chars.length];
+
+        final float smallAdvance = cache.measure(newPaint(10), chars, 0, chars.length, false,
+                small);
+        final float largeAdvance = cache.measure(newPaint(40), chars, 0, chars.length, false,
+                large);
+
+        assertEquals(0, cache.getHitCount());
+        assertEquals(4 * smallAdvance, largeAdvance, 0.5f);
+    }
+}
@@ -18,7 +18,9 @@ package android.text;
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import android.text.style.BulletSpan;
 import android.text.style.QuoteSpan;
@@ -58,4 +60,60 @@ public class SpannableStringBuilderTest extends SpannableTest {
         assertEquals(second, spans[2]);
         assertEquals(first, spans[3]);
     }
+
+    @Test
+    public void testGetSpans_spanQueryMatchesGetSpans() {
+        String text = "p_in_s";
+        SpannableStringBuilder builder = new SpannableStringBuilder(text);
+        Object first = new SubscriptSpan();
+        Object second = new UnderlineSpan();
+        Object third = new BulletSpan();
+        Object fourth = new QuoteSpan();
+
+        builder.setSpan(first, 2, 4, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        builder.setSpan(second, 1, text.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        builder.setSpan(third, 2, text.length(), 1 << Spanned.SPAN_PRIORITY_SHIFT);
+        builder.setSpan(fourth, 0, 3, 2 << Spanned.SPAN_PRIORITY_SHIFT);
+        // Move the gap into the middle of the spans.
+        builder.insert(3, "x");
+        builder.delete(3, 4);
+
+        SpanQuery<Object> query = new SpanQuery<>(Object.class);
+        for (int start = 0; start <= text.length(); start++) {
+            for (int end = start; end <= text.length(); end++) {
+                Object[] spans = builder.getSpans(start, end, Object.class);
+                query.run(builder, start, end);
+
+                assertEquals(spans.length, query.size());
+                for (int i = 0; i < spans.length; i++) {
+                    assertEquals(spans[i], query.getSpan(i));
+                    assertEquals(builder.getSpanStart(spans[i]), query.getSpanStart(i));
+                    assertEquals(builder.getSpanEnd(spans[i]), query.getSpanEnd(i));
+                    assertEquals(builder.getSpanFlags(spans[i]), query.getSpanFlags(i));
+                }
+                assertEquals(spans.length > 0, builder.hasSpans(start, end, Object.class));
+            }
+        }
+    }
+
+    @Test
+    public void testGetSpans_spanQueryFiltersByKindAndRecycles() {
+        SpannableStringBuilder builder = new SpannableStringBuilder("abcdef");
+        Object underline = new UnderlineSpan();
+        builder.setSpan(underline, 1, 3, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        builder.setSpan(new SubscriptSpan(), 2, 5, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+
+        SpanQuery<UnderlineSpan> query = new SpanQuery<>(UnderlineSpan.class);
+        query.run(builder, 0, 6);
+        assertEquals(1, query.size());
+        assertEquals(underline, query.getSpan(0));
+
+        query.recycle();
+        assertEquals(0, query.size());
+
+        query.run(builder, 4, 6);
+        assertEquals(0, query.size());
+        assertFalse(builder.hasSpans(4, 6, UnderlineSpan.class));
+        assertTrue(builder.hasSpans(4, 6, SubscriptSpan.class));
+    }
 }
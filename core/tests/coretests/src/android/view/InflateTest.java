@@ -127,6 +127,40 @@ public class InflateTest extends AndroidTestCase implements PerformanceTestCase
         inflateCachedTest(R.layout.layout_six);
     }
 
+    /** Counts the views it creates from unqualified names. */
+    private static class CountingInflater extends LayoutInflater {
+        int mOnCreateViewCount;
+
+        CountingInflater(Context context) {
+            super(context);
+        }
+
+        @Override
+        public LayoutInflater cloneInContext(Context newContext) {
+            return new CountingInflater(newContext);
+        }
+
+        @Override
+        protected View onCreateView(String name, AttributeSet attrs)
+                throws ClassNotFoundException {
+            mOnCreateViewCount++;
+            return createView(name, "android.widget.", attrs);
+        }
+    }
+
+    @SmallTest
+    public void testCompiledLayoutCallsOverriddenOnCreateView() throws Exception {
+        // Let the default inflater compile the layout.
+        inflateCachedTest(R.layout.layout_five);
+
+        final CountingInflater inflater = new CountingInflater(mContext);
+        inflater.inflate(R.layout.layout_five, null);
+        final int count = inflater.mOnCreateViewCount;
+        assertTrue(count > 0);
+        inflater.inflate(R.layout.layout_five, null);
+        assertEquals(2 * count, inflater.mOnCreateViewCount);
+    }
+
 //    public void testLayoutTag() throws Exception {
 //        public void setUp
 //        (Context
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.View.MeasureSpec;
+import android.widget.FrameLayout;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SharedMeasureCacheTest {
+    private static final int WIDTH_SPEC = MeasureSpec.makeMeasureSpec(500, MeasureSpec.EXACTLY);
+    private static final int HEIGHT_SPEC = MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED);
+
+    private static final class CountingView extends View {
+        int measureCount;
+        int height = 100;
+
+        CountingView(Context context) {
+            super(context);
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            measureCount++;
+            setMeasuredDimension(MeasureSpec.getSize(widthMeasureSpec), height);
+        }
+    }
+
+    private Context mContext;
+    private SharedMeasureCache mCache;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getContext();
+        mCache = new SharedMeasureCache();
+    }
+
+    private CountingView createItem(long fingerprint) {
+        final CountingView view = new CountingView(mContext);
+        final SharedMeasureCache.Item item = mCache.newItem(0 /* layout */);
+        item.setFingerprint(fingerprint);
+        view.setSharedMeasureItem(item);
+        return view;
+    }
+
+    @Test
+    public void testSiblingMeasuresOnceBeforeLayout() {
+        final CountingView first = createItem(1);
+        first.measure(WIDTH_SPEC, HEIGHT_SPEC);
+        assertEquals(1, first.measureCount);
+
+        final CountingView second = createItem(1);
+        second.measure(WIDTH_SPEC, HEIGHT_SPEC);
+        second.measure(WIDTH_SPEC, HEIGHT_SPEC);
+        assertEquals(0, second.measureCount);
+        assertEquals(100, second.getMeasuredHeight());
+        assertTrue(mCache.getHitCount() > 0);
+
+        second.layout(0, 0, 500, 100);
+        assertEquals(1, second.measureCount);
+    }
+
+    @Test
+    public void testDifferentFingerprintMeasures() {
+        createItem(1).measure(WIDTH_SPEC, HEIGHT_SPEC);
+        final int missCount = mCache.getMissCount();
+
+        final CountingView other = createItem(2);
+        other.measure(WIDTH_SPEC, HEIGHT_SPEC);
+        assertEquals(1, other.measureCount);
+        assertEquals(missCount + 1, mCache.getMissCount());
+    }
+
+    @Test
+    public void testRebindWithSameFingerprintMeasuresBeforeLayout() {
+        final CountingView view = createItem(1);
+        view.measure(WIDTH_SPEC, HEIGHT_SPEC);
+        view.layout(0, 0, 500, 100);
+
+        view.getSharedMeasureItem().setFingerprint(1);
+        view.requestLayout();
+        view.measure(WIDTH_SPEC, HEIGHT_SPEC);
+        assertEquals(1, view.measureCount);
+        // The subtree is still measured for the new content.
+        view.layout(0, 0, 500, 100);
+        assertEquals(2, view.measureCount);
+
+        view.getSharedMeasureItem().setFingerprint(2);
+        view.requestLayout();
+        view.measure(WIDTH_SPEC, HEIGHT_SPEC);
+        assertEquals(3, view.measureCount);
+    }
+
+    @Test
+    public void testRequestLayoutWithoutRebindMeasures() {
+        final CountingView view = createItem(1);
+        view.measure(WIDTH_SPEC, HEIGHT_SPEC);
+        view.layout(0, 0, 500, 100);
+
+        // E.g. an image loaded after the item was bound.
+        view.height = 200;
+        view.requestLayout();
+        view.measure(WIDTH_SPEC, HEIGHT_SPEC);
+        assertEquals(2, view.measureCount);
+        assertEquals(200, view.getMeasuredHeight());
+    }
+
+    @Test
+    public void testChildRequestLayoutAfterRebindMeasures() {
+        final FrameLayout item = new FrameLayout(mContext);
+        final CountingView child = new CountingView(mContext);
+        item.addView(child);
+        item.setSharedMeasureItem(mCache.newItem(0 /* layout */));
+        item.getSharedMeasureItem().setFingerprint(1);
+        item.measure(WIDTH_SPEC, HEIGHT_SPEC);
+        item.layout(0, 0, 500, 100);
+        assertEquals(1, child.measureCount);
+
+        item.getSharedMeasureItem().setFingerprint(1);
+        child.height = 200;
+        child.requestLayout();
+        item.measure(WIDTH_SPEC, HEIGHT_SPEC);
+        assertEquals(2, child.measureCount);
+        assertEquals(200, item.getMeasuredHeight());
+    }
+
+    @Test
+    public void testRebindMeasuresChildrenForNewContent() {
+        final FrameLayout item = new FrameLayout(mContext);
+        final CountingView child = new CountingView(mContext);
+        item.addView(child, new FrameLayout.LayoutParams(
+                FrameLayout.LayoutParams.MATCH_PARENT, FrameLayout.LayoutParams.WRAP_CONTENT));
+        item.setSharedMeasureItem(mCache.newItem(0 /* layout */));
+        item.getSharedMeasureItem().setFingerprint(1);
+        item.measure(WIDTH_SPEC, HEIGHT_SPEC);
+        item.layout(0, 0, 500, 100);
+        assertEquals(1, child.measureCount);
+
+        // The rebound content measures to the same size, but the child has to measure it.
+        item.getSharedMeasureItem().setFingerprint(1);
+        item.requestLayout();
+        item.measure(WIDTH_SPEC, HEIGHT_SPEC);
+        item.layout(0, 0, 500, 100);
+        assertEquals(2, child.measureCount);
+    }
+
+    @Test
+    public void testAnyValueIsAFingerprint() {
+        final CountingView first = createItem(-1);
+        first.measure(WIDTH_SPEC, HEIGHT_SPEC);
+
+        final CountingView second = createItem(-1);
+        second.measure(WIDTH_SPEC, HEIGHT_SPEC);
+        assertEquals(0, second.measureCount);
+
+        final CountingView unshared = createItem(-1);
+        unshared.getSharedMeasureItem().clearFingerprint();
+        unshared.measure(WIDTH_SPEC, HEIGHT_SPEC);
+        assertEquals(1, unshared.measureCount);
+    }
+
+    @Test
+    public void testClearForgetsMeasurements() {
+        final CountingView view = createItem(1);
+        view.measure(WIDTH_SPEC, HEIGHT_SPEC);
+        view.layout(0, 0, 500, 100);
+        mCache.clear();
+
+        view.getSharedMeasureItem().setFingerprint(1);
+        view.requestLayout();
+        view.measure(WIDTH_SPEC, HEIGHT_SPEC);
+        assertEquals(2, view.measureCount);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.os;
+
+import static org.junit.Assert.assertEquals;
+
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Test class for {@link CallbackDispatchQueue}.
+ *
+ * To run the tests, use
+ *
+ * runtest -c com.android.internal.os.CallbackDispatchQueueTest frameworks-core
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class CallbackDispatchQueueTest {
+    /** Runs the tasks it is given only when asked to, in order, on the test thread. */
+    private static class ManualExecutor implements Executor {
+        final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable task) {
+            mTasks.add(task);
+        }
+
+        boolean runNext() {
+            final Runnable task = mTasks.poll();
+            if (task == null) {
+                return false;
+            }
+            task.run();
+            return true;
+        }
+
+        void runAll() {
+            while (runNext()) {
+            }
+        }
+    }
+
+    private final ManualExecutor mExecutor = new ManualExecutor();
+    private final List<String> mDelivered = new ArrayList<>();
+
+    private void enqueue(CallbackDispatchQueue queue, Object key, String event) {
+        queue.enqueue(key, () -> mDelivered.add(event));
+    }
+
+    @Test
+    public void testEventsDeliveredInOrder() {
+        final CallbackDispatchQueue queue = new CallbackDispatchQueue(mExecutor);
+        for (int i = 0; i < 5; i++) {
+            enqueue(queue, null, "event" + i);
+        }
+        // One drain task at a time, however many events are pending.
+        assertEquals(1, mExecutor.mTasks.size());
+
+        mExecutor.runAll();
+        assertEquals(Arrays.asList("event0", "event1", "event2", "event3", "event4"),
+                mDelivered);
+        assertEquals(5, queue.getDeliveredCount());
+        assertEquals(0, queue.getPendingCount());
+    }
+
+    @Test
+    public void testListenersInterleavedInOrder() {
+        final CallbackDispatchQueue first = new CallbackDispatchQueue(mExecutor);
+        final CallbackDispatchQueue second = new CallbackDispatchQueue(mExecutor);
+        enqueue(first, null, "a0");
+        enqueue(first, null, "a1");
+        enqueue(second, null, "b0");
+        enqueue(first, null, "a2");
+        enqueue(second, null, "b1");
+
+        mExecutor.runAll();
+        // Each queue gives up the executor after every event, and keeps its own order.
+        assertEquals(Arrays.asList("a0", "b0", "a1", "b1", "a2"), mDelivered);
+    }
+
+    @Test
+    public void testPendingEventWithSameKeyReplaced() {
+        final CallbackDispatchQueue queue = new CallbackDispatchQueue(mExecutor);
+        enqueue(queue, "state", "state0");
+        enqueue(queue, "other", "other0");
+        enqueue(queue, null, "event0");
+        enqueue(queue, "state", "state1");
+        enqueue(queue, null, "event1");
+
+        mExecutor.runAll();
+        assertEquals(Arrays.asList("other0", "event0", "state1", "event1"), mDelivered);
+        assertEquals(1, queue.getCoalescedCount());
+        assertEquals(4, queue.getDeliveredCount());
+    }
+
+    @Test
+    public void testDeliveredEventNotReplaced() {
+        final CallbackDispatchQueue queue = new CallbackDispatchQueue(mExecutor);
+        enqueue(queue, "state", "state0");
+        mExecutor.runNext();
+        enqueue(queue, "state", "state1");
+
+        mExecutor.runAll();
+        assertEquals(Arrays.asList("state0", "state1"), mDelivered);
+        assertEquals(0, queue.getCoalescedCount());
+    }
+
+    @Test
+    public void testNothingDeliveredAfterClose() {
+        final CallbackDispatchQueue queue = new CallbackDispatchQueue(mExecutor);
+        enqueue(queue, null, "event0");
+        enqueue(queue, null, "event1");
+        enqueue(queue, null, "event2");
+        mExecutor.runNext();
+
+        queue.close();
+        assertEquals(0, queue.getPendingCount());
+        enqueue(queue, null, "event3");
+        assertEquals(0, queue.getPendingCount());
+
+        mExecutor.runAll();
+        assertEquals(Arrays.asList("event0"), mDelivered);
+        assertEquals(1, queue.getDeliveredCount());
+    }
+
+    @Test
+    public void testFailingEventDoesNotStopQueue() {
+        final CallbackDispatchQueue queue = new CallbackDispatchQueue(mExecutor);
+        queue.enqueue(null, () -> {
+            throw new IllegalStateException("listener failed");
+        });
+        enqueue(queue, null, "event1");
+
+        mExecutor.runAll();
+        assertEquals(Arrays.asList("event1"), mDelivered);
+        assertEquals(2, queue.getDeliveredCount());
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.util;
+
+import junit.framework.TestCase;
+
+public class ExponentiallyBucketedHistogramTest extends TestCase {
+    public void testBuckets() {
+        final ExponentiallyBucketedHistogram histogram = new ExponentiallyBucketedHistogram(18);
+        histogram.add(0);
+        histogram.add(1);
+        histogram.add(3);
+        histogram.add(4);
+        histogram.add(65535);
+        histogram.add(65536);
+        histogram.add(Integer.MAX_VALUE);
+
+        assertEquals(18, histogram.getBucketCount());
+        assertEquals(1, histogram.getCount(0));
+        assertEquals(1, histogram.getCount(1));
+        assertEquals(1, histogram.getCount(2));
+        assertEquals(1, histogram.getCount(3));
+        assertEquals(1, histogram.getCount(16));
+        // The last bucket holds everything from 2^16 up.
+        assertEquals(2, histogram.getCount(17));
+        assertEquals(7, histogram.getTotalCount());
+    }
+
+    public void testPercentileLowerBound() {
+        final ExponentiallyBucketedHistogram histogram = new ExponentiallyBucketedHistogram(18);
+        assertEquals(0, histogram.getPercentileLowerBound(99));
+
+        for (int i = 0; i < 98; i++) {
+            histogram.add(3);
+        }
+        histogram.add(600);
+        histogram.add(600);
+
+        assertEquals(2, histogram.getPercentileLowerBound(50));
+        assertEquals(2, histogram.getPercentileLowerBound(98));
+        assertEquals(512, histogram.getPercentileLowerBound(99));
+        assertEquals(512, histogram.getPercentileLowerBound(100));
+    }
+
+    public void testPercentileLowerBoundOfZeros() {
+        final ExponentiallyBucketedHistogram histogram = new ExponentiallyBucketedHistogram(18);
+        histogram.add(0);
+        assertEquals(0, histogram.getPercentileLowerBound(99));
+    }
+}
@@ -54,6 +54,7 @@ import android.os.ParcelFileDescriptor;
 import android.os.Process;
 import android.os.RemoteException;
 import android.os.SELinux;
+import android.os.SystemClock;
 import android.os.ServiceManager;
 import android.os.UserHandle;
 import android.os.UserManager;
@@ -183,6 +184,14 @@ public class SettingsProvider extends ContentProvider {
     private static final Bundle NULL_SETTING_BUNDLE = Bundle.forPair(
             Settings.NameValueTable.VALUE, null);
 
+    // Indices in the per-method stats of call().
+    private static final int CALL_STATS_COUNT = 0;
+    private static final int CALL_STATS_TOTAL_NANOS = 1;
+    private static final int CALL_STATS_MAX_NANOS = 2;
+    private static final int CALL_STATS_SIZE = 3;
+    // Calls of methods this provider does not know, which callers can make up freely.
+    private static final String CALL_STATS_OTHER = "other";
+
     // Overlay specified settings whitelisted for Instant Apps
     private static final Set<String> OVERLAY_ALLOWED_GLOBAL_INSTANT_APP_SETTINGS = new ArraySet<>();
     private static final Set<String> OVERLAY_ALLOWED_SYSTEM_INSTANT_APP_SETTINGS = new ArraySet<>();
@@ -275,6 +284,10 @@ public class SettingsProvider extends ContentProvider {
     // We have to call in the package manager with no lock held,
     private volatile IPackageManager mPackageManager;
 
+    // How many times, and for how long, call() ran for each known method and for all others.
+    @GuardedBy("mCallStats")
+    private final ArrayMap<String, long[]> mCallStats = new ArrayMap<>();
+
     public static int makeKey(int type, int userId) {
         return (type << SETTINGS_TYPE_SHIFT) | userId;
     }
@@ -334,8 +347,39 @@ public class SettingsProvider extends ContentProvider {
 
     @Override
     public Bundle call(String method, String name, Bundle args) {
+        final long startTime = SystemClock.elapsedRealtimeNanos();
+        try {
+            return callInternal(method, name, args);
+        } finally {
+            noteCall(method, SystemClock.elapsedRealtimeNanos() - startTime);
+        }
+    }
+
+    private Bundle callInternal(String method, String name, Bundle args) {
         final int requestingUserId = getRequestingUserId(args);
         switch (method) {
+            case Settings.CALL_METHOD_LIST_GLOBAL: {
+                Bundle result = newTableCallResult(SETTINGS_TYPE_GLOBAL, UserHandle.USER_SYSTEM,
+                        isTrackingGeneration(args));
+                return packageTableForCallResult(result, getAllGlobalSettings(null));
+            }
+
+            case Settings.CALL_METHOD_LIST_SECURE: {
+                final int userId = resolveCallingUserIdEnforcingPermissionsLocked(
+                        requestingUserId);
+                Bundle result = newTableCallResult(SETTINGS_TYPE_SECURE, userId,
+                        isTrackingGeneration(args));
+                return packageTableForCallResult(result, getAllSecureSettings(userId, null));
+            }
+
+            case Settings.CALL_METHOD_LIST_SYSTEM: {
+                final int userId = resolveCallingUserIdEnforcingPermissionsLocked(
+                        requestingUserId);
+                Bundle result = newTableCallResult(SETTINGS_TYPE_SYSTEM, userId,
+                        isTrackingGeneration(args));
+                return packageTableForCallResult(result, getAllSystemSettings(userId, null));
+            }
+
             case Settings.CALL_METHOD_GET_GLOBAL: {
                 Setting setting = getGlobalSetting(name);
                 return packageValueForCallResult(setting, isTrackingGeneration(args));
@@ -672,6 +716,7 @@ public class SettingsProvider extends ContentProvider {
                 for (int i = 0; i < userCount; i++) {
                     dumpForUserLocked(users.keyAt(i), pw);
                 }
+                dumpCallStats(pw);
             } finally {
                 Binder.restoreCallingIdentity(identity);
             }
@@ -685,6 +730,7 @@ public class SettingsProvider extends ContentProvider {
                     SETTINGS_TYPE_GLOBAL, UserHandle.USER_SYSTEM);
             if (globalSettings != null) {
                 dumpSettingsLocked(globalSettings, pw);
+                globalSettings.dumpLog(pw);
                 pw.println();
                 globalSettings.dumpHistoricalOperations(pw);
             }
@@ -695,6 +741,7 @@ public class SettingsProvider extends ContentProvider {
                 SETTINGS_TYPE_SECURE, userId);
         if (secureSettings != null) {
             dumpSettingsLocked(secureSettings, pw);
+            secureSettings.dumpLog(pw);
             pw.println();
             secureSettings.dumpHistoricalOperations(pw);
         }
@@ -704,6 +751,7 @@ public class SettingsProvider extends ContentProvider {
                 SETTINGS_TYPE_SYSTEM, userId);
         if (systemSettings != null) {
             dumpSettingsLocked(systemSettings, pw);
+            systemSettings.dumpLog(pw);
             pw.println();
             systemSettings.dumpHistoricalOperations(pw);
         }
@@ -1900,6 +1948,92 @@ public class SettingsProvider extends ContentProvider {
         return result;
     }
 
+    /**
+     * Returns the bundle to answer a LIST call with. The generation, if requested, is added
+     * before the table is read, so that a change made meanwhile makes the client's copy stale
+     * rather than going unnoticed.
+     */
+    private Bundle newTableCallResult(int type, int userId, boolean trackingGeneration) {
+        Bundle result = new Bundle();
+        if (trackingGeneration) {
+            mSettingsRegistry.mGenerationRegistry.addGenerationData(result,
+                    makeKey(type, userId));
+        }
+        return result;
+    }
+
+    private static Bundle packageTableForCallResult(Bundle result, Cursor cursor) {
+        try {
+            final int nameColumn = cursor.getColumnIndexOrThrow(Settings.NameValueTable.NAME);
+            final int valueColumn = cursor.getColumnIndexOrThrow(Settings.NameValueTable.VALUE);
+            final String[] names = new String[cursor.getCount()];
+            final String[] values = new String[names.length];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                names[i] = cursor.getString(nameColumn);
+                values[i] = cursor.getString(valueColumn);
+            }
+            result.putStringArray(Settings.CALL_METHOD_NAMES_KEY, names);
+            result.putStringArray(Settings.CALL_METHOD_VALUES_KEY, values);
+            return result;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void noteCall(String method, long durationNanos) {
+        final String statsName = getCallStatsName(method);
+        synchronized (mCallStats) {
+            long[] stats = mCallStats.get(statsName);
+            if (stats == null) {
+                stats = new long[CALL_STATS_SIZE];
+                mCallStats.put(statsName, stats);
+            }
+            stats[CALL_STATS_COUNT]++;
+            stats[CALL_STATS_TOTAL_NANOS] += durationNanos;
+            if (durationNanos > stats[CALL_STATS_MAX_NANOS]) {
+                stats[CALL_STATS_MAX_NANOS] = durationNanos;
+            }
+        }
+    }
+
+    private static String getCallStatsName(String method) {
+        if (method == null) {
+            return CALL_STATS_OTHER;
+        }
+        switch (method) {
+            case Settings.CALL_METHOD_LIST_GLOBAL:
+            case Settings.CALL_METHOD_LIST_SECURE:
+            case Settings.CALL_METHOD_LIST_SYSTEM:
+            case Settings.CALL_METHOD_GET_GLOBAL:
+            case Settings.CALL_METHOD_GET_SECURE:
+            case Settings.CALL_METHOD_GET_SYSTEM:
+            case Settings.CALL_METHOD_PUT_GLOBAL:
+            case Settings.CALL_METHOD_PUT_SECURE:
+            case Settings.CALL_METHOD_PUT_SYSTEM:
+            case Settings.CALL_METHOD_RESET_GLOBAL:
+            case Settings.CALL_METHOD_RESET_SECURE: {
+                return method;
+            }
+            default: {
+                return CALL_STATS_OTHER;
+            }
+        }
+    }
+
+    private void dumpCallStats(PrintWriter pw) {
+        synchronized (mCallStats) {
+            pw.println("CALL STATS");
+            for (int i = 0; i < mCallStats.size(); i++) {
+                final long[] stats = mCallStats.valueAt(i);
+                pw.print("  "); pw.print(mCallStats.keyAt(i));
+                pw.print(": count="); pw.print(stats[CALL_STATS_COUNT]);
+                pw.print(" avgUs="); pw.print(
+                        stats[CALL_STATS_TOTAL_NANOS] / stats[CALL_STATS_COUNT] / 1000);
+                pw.print(" maxUs="); pw.println(stats[CALL_STATS_MAX_NANOS] / 1000);
+            }
+        }
+    }
+
     private static int getRequestingUserId(Bundle args) {
         final int callingUserId = UserHandle.getCallingUserId();
         return (args != null) ? args.getInt(Settings.CALL_METHOD_USER_KEY, callingUserId)
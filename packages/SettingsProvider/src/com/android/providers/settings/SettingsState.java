@@ -37,6 +37,7 @@ import android.providers.settings.GlobalSettingsProto;
 import android.providers.settings.SettingsOperationProto;
 import android.text.TextUtils;
 import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.AtomicFile;
 import android.util.Base64;
 import android.util.Slog;
@@ -46,6 +47,7 @@ import android.util.Xml;
 import android.util.proto.ProtoOutputStream;
 
 import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.server.LocalServices;
 
 import libcore.io.IoUtils;
@@ -58,7 +60,6 @@ import org.xmlpull.v1.XmlSerializer;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
@@ -68,8 +69,10 @@ import java.util.Set;
 
 /**
  * This class contains the state for one type of settings. It is responsible
- * for saving the state asynchronously to an XML file after a mutation and
- * loading the from an XML file on construction.
+ * for saving the state asynchronously to a {@link SettingsStateLog} after a
+ * mutation and loading it from there on construction. Only the settings that
+ * changed since the last write are appended to the log. State persisted to an
+ * XML file by earlier releases is read once and moved to the log.
  * <p>
  * This class uses the same lock as the settings provider to ensure that
  * multiple changes made by the settings provider, e,g, upgrade, bulk insert,
@@ -161,9 +164,34 @@ final class SettingsState {
     @GuardedBy("mLock")
     private final int mMaxBytesPerAppPackage;
 
+    // Where the state was persisted before the log; only read, to migrate it.
     @GuardedBy("mLock")
     private final File mStatePersistFile;
 
+    @GuardedBy("mWriteLock")
+    private final SettingsStateLog mLog;
+
+    @GuardedBy("mWriteLock")
+    private boolean mStatePersistFileExists;
+
+    // Names of the settings put or deleted since they were last taken to be written.
+    @GuardedBy("mLock")
+    private final ArraySet<String> mChangedSettingNames = new ArraySet<>();
+
+    @GuardedBy("mLock")
+    private boolean mVersionChanged;
+
+    // Writes taken from the state but not made to the log yet, in order. A thread that
+    // persists the state takes them all, so writes are made in the order they were taken
+    // whichever thread makes them.
+    @GuardedBy("mPendingWrites")
+    private final ArrayList<PendingWrite> mPendingWrites = new ArrayList<>();
+
+    // How many records the log will hold once the pending writes are made, or -1 if unknown,
+    // in which case the next write must compact it.
+    @GuardedBy("mPendingWrites")
+    private int mPendingLogRecordCount = -1;
+
     private final Setting mNullSetting = new Setting(null, null, false, null, null) {
         @Override
         public boolean isNull() {
@@ -203,6 +231,7 @@ final class SettingsState {
         mContext = context;
         mLock = lock;
         mStatePersistFile = file;
+        mLog = new SettingsStateLog(SettingsStateLog.getLogFile(file));
         mKey = key;
         mHandler = new MyHandler(looper);
         if (maxBytesPerAppPackage == MAX_BYTES_PER_APP_PACKAGE_LIMITED) {
@@ -236,6 +265,7 @@ final class SettingsState {
             return;
         }
         mVersion = version;
+        mVersionChanged = true;
 
         scheduleWriteIfNeededLocked();
     }
@@ -255,6 +285,7 @@ final class SettingsState {
             Setting setting = mSettings.valueAt(i);
             if (packageName.equals(setting.packageName)) {
                 mSettings.removeAt(i);
+                mChangedSettingNames.add(name);
                 removedSomething = true;
             }
         }
@@ -307,6 +338,7 @@ final class SettingsState {
                     oldSetting.getPackageName(), oldSetting.getTag(), false,
                     oldSetting.getId());
             mSettings.put(name, newSetting);
+            mChangedSettingNames.add(name);
             updateMemoryUsagePerPackageLocked(newSetting.getPackageName(), oldValue,
                     newSetting.getValue(), oldDefaultValue, newSetting.getDefaultValue());
             scheduleWriteIfNeededLocked();
@@ -335,6 +367,7 @@ final class SettingsState {
             mSettings.put(name, newState);
         }
 
+        mChangedSettingNames.add(name);
         addHistoricalOperationLocked(HISTORICAL_OPERATION_UPDATE, newState);
 
         updateMemoryUsagePerPackageLocked(packageName, oldValue, value,
@@ -358,6 +391,7 @@ final class SettingsState {
         }
 
         Setting oldState = mSettings.remove(name);
+        mChangedSettingNames.add(name);
 
         updateMemoryUsagePerPackageLocked(oldState.packageName, oldState.value,
                 null, oldState.defaultValue, null);
@@ -391,6 +425,7 @@ final class SettingsState {
         updateMemoryUsagePerPackageLocked(setting.packageName, oldValue,
                 newValue, oldDefaultValue, newDefaultValue);
 
+        mChangedSettingNames.add(name);
         addHistoricalOperationLocked(HISTORICAL_OPERATION_RESET, oldSetting);
 
         scheduleWriteIfNeededLocked();
@@ -462,6 +497,19 @@ final class SettingsState {
         }
     }
 
+    public void dumpLog(PrintWriter pw) {
+        synchronized (mWriteLock) {
+            mLog.dump(pw);
+        }
+    }
+
+    @VisibleForTesting
+    long getLogBytesWritten() {
+        synchronized (mWriteLock) {
+            return mLog.getBytesWritten();
+        }
+    }
+
     public void dumpHistoricalOperations(PrintWriter pw) {
         synchronized (mLock) {
             if (mHistoricalOperations == null) {
@@ -569,63 +617,50 @@ final class SettingsState {
     }
 
     private void doWriteState() {
-        boolean wroteState = false;
-        final int version;
-        final ArrayMap<String, Setting> settings;
-
         synchronized (mLock) {
-            version = mVersion;
-            settings = new ArrayMap<>(mSettings);
             mDirty = false;
             mWriteScheduled = false;
+            takePendingWriteLocked();
         }
 
+        boolean wroteState = false;
         synchronized (mWriteLock) {
+            final ArrayList<PendingWrite> writes;
+            synchronized (mPendingWrites) {
+                writes = new ArrayList<>(mPendingWrites);
+                mPendingWrites.clear();
+            }
+
             if (DEBUG_PERSISTENCE) {
-                Slog.i(LOG_TAG, "[PERSIST START]");
+                Slog.i(LOG_TAG, "[PERSIST START] " + writes.size() + " writes");
             }
 
-            AtomicFile destination = new AtomicFile(mStatePersistFile);
-            FileOutputStream out = null;
             try {
-                out = destination.startWrite();
-
-                XmlSerializer serializer = Xml.newSerializer();
-                serializer.setOutput(out, StandardCharsets.UTF_8.name());
-                serializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output",
-                        true);
-                serializer.startDocument(null, true);
-                serializer.startTag(null, TAG_SETTINGS);
-                serializer.attribute(null, ATTR_VERSION, String.valueOf(version));
-
-                final int settingCount = settings.size();
-                for (int i = 0; i < settingCount; i++) {
-                    Setting setting = settings.valueAt(i);
-
-                    writeSingleSetting(mVersion, serializer, setting.getId(), setting.getName(),
-                            setting.getValue(), setting.getDefaultValue(), setting.getPackageName(),
-                            setting.getTag(), setting.isDefaultFromSystem());
-
-                    if (DEBUG_PERSISTENCE) {
-                        Slog.i(LOG_TAG, "[PERSISTED]" + setting.getName() + "="
-                                + setting.getValue());
+                for (int i = 0; i < writes.size(); i++) {
+                    final PendingWrite write = writes.get(i);
+                    if (write.compact) {
+                        mLog.compact(write.records);
+                        if (mStatePersistFileExists) {
+                            // Migrated, the log is all that is read from now on.
+                            new AtomicFile(mStatePersistFile).delete();
+                            mStatePersistFileExists = false;
+                        }
+                    } else {
+                        mLog.append(write.records);
                     }
+                    wroteState = true;
                 }
 
-                serializer.endTag(null, TAG_SETTINGS);
-                serializer.endDocument();
-                destination.finishWrite(out);
-
-                wroteState = true;
-
                 if (DEBUG_PERSISTENCE) {
                     Slog.i(LOG_TAG, "[PERSIST END]");
                 }
             } catch (Throwable t) {
-                Slog.wtf(LOG_TAG, "Failed to write settings, restoring backup", t);
-                destination.failWrite(out);
-            } finally {
-                IoUtils.closeQuietly(out);
+                Slog.wtf(LOG_TAG, "Failed to write settings, rewriting them on next change", t);
+                synchronized (mPendingWrites) {
+                    // Nothing can be appended to the log before it is rewritten.
+                    mPendingWrites.clear();
+                    mPendingLogRecordCount = -1;
+                }
             }
         }
 
@@ -636,6 +671,61 @@ final class SettingsState {
         }
     }
 
+    /**
+     * Queues the records of the settings that changed since the last call, or of all of them if
+     * the log should be compacted.
+     */
+    private void takePendingWriteLocked() {
+        synchronized (mPendingWrites) {
+            final int changedRecords = mChangedSettingNames.size() + (mVersionChanged ? 1 : 0);
+            if (changedRecords == 0 && mPendingLogRecordCount >= 0) {
+                return;
+            }
+            final int settingCount = mSettings.size();
+            // The settings and the version.
+            final int liveRecords = settingCount + 1;
+            final boolean compact = SettingsStateLog.shouldCompact(mPendingLogRecordCount < 0
+                    ? -1 : mPendingLogRecordCount + changedRecords, liveRecords);
+            final ArrayList<SettingsStateLog.Record> records;
+            if (compact) {
+                records = new ArrayList<>(liveRecords);
+                records.add(SettingsStateLog.Record.version(mVersion));
+                for (int i = 0; i < settingCount; i++) {
+                    records.add(toLogRecord(mSettings.valueAt(i)));
+                }
+                // Whatever was still to be written is part of the snapshot.
+                mPendingWrites.clear();
+                mPendingLogRecordCount = records.size();
+            } else {
+                records = new ArrayList<>(changedRecords);
+                if (mVersionChanged) {
+                    records.add(SettingsStateLog.Record.version(mVersion));
+                }
+                final int changedCount = mChangedSettingNames.size();
+                for (int i = 0; i < changedCount; i++) {
+                    final String name = mChangedSettingNames.valueAt(i);
+                    final Setting setting = mSettings.get(name);
+                    records.add(setting != null ? toLogRecord(setting)
+                            : SettingsStateLog.Record.delete(name));
+                }
+                mPendingLogRecordCount += records.size();
+            }
+            mPendingWrites.add(new PendingWrite(compact, records));
+            mChangedSettingNames.clear();
+            mVersionChanged = false;
+        }
+    }
+
+    private static SettingsStateLog.Record toLogRecord(Setting setting) {
+        return SettingsStateLog.Record.put(setting.getName(), setting.getId(),
+                setting.getValue(), setting.getDefaultValue(), setting.getPackageName(),
+                setting.getTag(), setting.isDefaultFromSystem());
+    }
+
+    /**
+     * Used to persist the state as XML before {@link SettingsStateLog}; kept to write test input
+     * for the migration.
+     */
     static void writeSingleSetting(int version, XmlSerializer serializer, String id,
             String name, String value, String defaultValue, String packageName,
             String tag, boolean defaultSysSet) throws IOException {
@@ -704,6 +794,14 @@ final class SettingsState {
     }
 
     private void readStateSyncLocked() {
+        synchronized (mWriteLock) {
+            mStatePersistFileExists = new AtomicFile(mStatePersistFile).exists();
+            if (mLog.exists()) {
+                readLogLocked();
+                return;
+            }
+        }
+
         FileInputStream in;
         try {
             in = new AtomicFile(mStatePersistFile).openRead();
@@ -723,16 +821,54 @@ final class SettingsState {
         } finally {
             IoUtils.closeQuietly(in);
         }
+
+        // Move the settings over to the log.
+        scheduleWriteIfNeededLocked();
+    }
+
+    @GuardedBy("mWriteLock")
+    private void readLogLocked() {
+        final SettingsStateLog.Contents contents;
+        try {
+            contents = mLog.read();
+        } catch (IOException e) {
+            String message = "Failed reading settings log for: " + mStatePersistFile;
+            Slog.wtf(LOG_TAG, message);
+            throw new IllegalStateException(message, e);
+        }
+
+        mVersion = contents.version;
+        final int settingCount = contents.settings.size();
+        for (int i = 0; i < settingCount; i++) {
+            final SettingsStateLog.Record record = contents.settings.valueAt(i);
+            mSettings.put(record.name, new Setting(record.name, record.value,
+                    record.defaultValue, record.packageName, record.tag,
+                    record.defaultFromSystem, record.id));
+
+            if (DEBUG_PERSISTENCE) {
+                Slog.i(LOG_TAG, "[RESTORED] " + record.name + "=" + record.value);
+            }
+        }
+
+        // A damaged log is left for the next write to compact.
+        if (!contents.damaged) {
+            mLog.setRecordCount(contents.recordCount);
+            synchronized (mPendingWrites) {
+                mPendingLogRecordCount = contents.recordCount;
+            }
+        }
     }
 
     /**
-     * Uses AtomicFile to check if the file or its backup exists.
+     * Uses AtomicFile to check if the state persisted for the file, or its backup, exists,
+     * whether it was migrated to a {@link SettingsStateLog} or not.
      * @param file The file to check for existence
      * @return whether the original or backup exist
      */
     public static boolean stateFileExists(File file) {
         AtomicFile stateFile = new AtomicFile(file);
-        return stateFile.exists();
+        AtomicFile logFile = new AtomicFile(SettingsStateLog.getLogFile(file));
+        return stateFile.exists() || logFile.exists();
     }
 
     private void parseStateLocked(XmlPullParser parser)
@@ -812,6 +948,17 @@ final class SettingsState {
         }
     }
 
+    private static final class PendingWrite {
+        // Whether the records replace the log rather than being appended to it.
+        final boolean compact;
+        final ArrayList<SettingsStateLog.Record> records;
+
+        PendingWrite(boolean compact, ArrayList<SettingsStateLog.Record> records) {
+            this.compact = compact;
+            this.records = records;
+        }
+    }
+
     private class HistoricalOperation {
         final long mTimestamp;
         final String mOperation;
@@ -0,0 +1,418 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.providers.settings;
+
+import android.os.FileUtils;
+import android.util.ArrayMap;
+import android.util.AtomicFile;
+import android.util.Slog;
+
+import libcore.io.IoUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The on-disk copy of a {@link SettingsState}: a binary log to which each setting that was put
+ * or deleted is appended as one record, rewritten from scratch once most of its records are
+ * stale.
+ * <p>
+ * The file is a header (magic, version) followed by records, each of them
+ * <pre>
+ *     int length | int crc32 | byte type | payload
+ * </pre>
+ * where the length and checksum cover everything after the checksum. A put record replaces any
+ * earlier record of the same setting name, a delete record drops it, and a version record sets
+ * the version of the settings. Records are only ever appended after the last complete one, so a
+ * crash while appending can at worst leave a torn last record, which is detected by its length
+ * or checksum and ignored on read. Compaction goes through {@link AtomicFile}, so a crash while
+ * compacting leaves the previous log.
+ * <p>
+ * Not thread safe: {@link SettingsState} only uses it with its write lock held.
+ */
+final class SettingsStateLog {
+    private static final String LOG_TAG = "SettingsState";
+
+    private static final int MAGIC = 0x5354474c; // STGL
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final int RECORD_HEADER_SIZE = 8;
+    // Just the type.
+    private static final int MIN_RECORD_LENGTH = 1;
+
+    static final int TYPE_PUT = 1;
+    static final int TYPE_DELETE = 2;
+    static final int TYPE_VERSION = 3;
+
+    // Strings this short fit writeUTF() whatever their characters.
+    private static final int MAX_UTF_LENGTH = 65535 / 3;
+    private static final int STRING_NULL = 0;
+    private static final int STRING_UTF = 1;
+    private static final int STRING_CHARS = 2;
+
+    /** Don't bother compacting a log with fewer records than this, however many are stale. */
+    private static final int MIN_RECORDS_TO_COMPACT = 64;
+
+    private final AtomicFile mFile;
+
+    // Number of records in the file, or -1 if unknown, in which case it must be compacted
+    // before anything can be appended to it.
+    private int mRecordCount = -1;
+
+    // Stats, for dumpsys.
+    private long mBytesAppended;
+    private long mBytesCompacted;
+    private int mAppendCount;
+    private int mCompactionCount;
+
+    /** One change to the settings, as stored in the log. */
+    static final class Record {
+        final int type;
+        final String name;
+        final String id;
+        final String value;
+        final String defaultValue;
+        final String packageName;
+        final String tag;
+        final boolean defaultFromSystem;
+        final int version;
+
+        private Record(int type, String name, String id, String value, String defaultValue,
+                String packageName, String tag, boolean defaultFromSystem, int version) {
+            this.type = type;
+            this.name = name;
+            this.id = id;
+            this.value = value;
+            this.defaultValue = defaultValue;
+            this.packageName = packageName;
+            this.tag = tag;
+            this.defaultFromSystem = defaultFromSystem;
+            this.version = version;
+        }
+
+        static Record put(String name, String id, String value, String defaultValue,
+                String packageName, String tag, boolean defaultFromSystem) {
+            return new Record(TYPE_PUT, name, id, value, defaultValue, packageName, tag,
+                    defaultFromSystem, 0);
+        }
+
+        static Record delete(String name) {
+            return new Record(TYPE_DELETE, name, null, null, null, null, null, false, 0);
+        }
+
+        static Record version(int version) {
+            return new Record(TYPE_VERSION, null, null, null, null, null, null, false, version);
+        }
+    }
+
+    /** What {@link #read} found in the log. */
+    static final class Contents {
+        // The put record of each setting, by name.
+        final ArrayMap<String, Record> settings = new ArrayMap<>();
+        int version = SettingsState.VERSION_UNDEFINED;
+        int recordCount;
+        // Reading stopped at a record that was torn or corrupt, or the file wasn't a log at all.
+        boolean damaged;
+    }
+
+    SettingsStateLog(File file) {
+        mFile = new AtomicFile(file);
+    }
+
+    /**
+     * Returns where the log of the settings that used to be persisted as xml to
+     * {@code legacyFile} goes.
+     */
+    static File getLogFile(File legacyFile) {
+        String name = legacyFile.getName();
+        if (name.endsWith(".xml")) {
+            name = name.substring(0, name.length() - ".xml".length());
+        }
+        return new File(legacyFile.getParentFile(), name + ".log");
+    }
+
+    boolean exists() {
+        return mFile.exists();
+    }
+
+    int getRecordCount() {
+        return mRecordCount;
+    }
+
+    /** Sets the number of records the file holds, as found by {@link #read}. */
+    void setRecordCount(int recordCount) {
+        mRecordCount = recordCount;
+    }
+
+    long getBytesWritten() {
+        return mBytesAppended + mBytesCompacted;
+    }
+
+    /**
+     * Returns true if a log that will hold {@code records} records, or an unknown number if
+     * negative, should be rewritten from the {@code liveRecords} records that matter.
+     */
+    static boolean shouldCompact(int records, int liveRecords) {
+        return records < 0 || (records > MIN_RECORDS_TO_COMPACT && records > 2 * liveRecords);
+    }
+
+    /**
+     * Appends records to the log, and makes sure they reached the disk.
+     */
+    void append(List<Record> records) throws IOException {
+        if (mRecordCount < 0) {
+            throw new IllegalStateException("Appending to a log that must be compacted");
+        }
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        for (int i = 0; i < records.size(); i++) {
+            writeRecord(baos, records.get(i));
+        }
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(mFile.getBaseFile(), true /* append */);
+            fos.write(baos.toByteArray());
+            FileUtils.sync(fos);
+        } catch (IOException e) {
+            // Part of the records may have made it; only a rewrite gets back to a known state.
+            mRecordCount = -1;
+            throw e;
+        } finally {
+            IoUtils.closeQuietly(fos);
+        }
+        mRecordCount += records.size();
+        mBytesAppended += baos.size();
+        mAppendCount++;
+    }
+
+    /**
+     * Replaces the log with one that holds just {@code records}.
+     */
+    void compact(List<Record> records) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final DataOutputStream header = new DataOutputStream(baos);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.flush();
+        for (int i = 0; i < records.size(); i++) {
+            writeRecord(baos, records.get(i));
+        }
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            fos.write(baos.toByteArray());
+            mFile.finishWrite(fos);
+        } catch (IOException e) {
+            mFile.failWrite(fos);
+            mRecordCount = -1;
+            throw e;
+        }
+        mRecordCount = records.size();
+        mBytesCompacted += baos.size();
+        mCompactionCount++;
+    }
+
+    /**
+     * Replays the log.
+     */
+    Contents read() throws IOException {
+        final byte[] data = mFile.readFully();
+        final Contents contents = new Contents();
+        if (data.length < HEADER_SIZE || readInt(data, 0) != MAGIC
+                || readInt(data, 4) != VERSION) {
+            Slog.wtf(LOG_TAG, "Unknown settings log format, ignoring its " + data.length
+                    + " bytes");
+            contents.damaged = true;
+            return contents;
+        }
+
+        final CRC32 crc = new CRC32();
+        int pos = HEADER_SIZE;
+        while (pos < data.length) {
+            final int start = pos + RECORD_HEADER_SIZE;
+            final int length = start <= data.length ? readInt(data, pos) : -1;
+            if (length < MIN_RECORD_LENGTH || length > data.length - start) {
+                contents.damaged = true;
+                break;
+            }
+            crc.reset();
+            crc.update(data, start, length);
+            if ((int) crc.getValue() != readInt(data, pos + 4)) {
+                contents.damaged = true;
+                break;
+            }
+            final Record record;
+            try {
+                record = readRecord(new DataInputStream(
+                        new ByteArrayInputStream(data, start, length)));
+            } catch (IOException e) {
+                contents.damaged = true;
+                break;
+            }
+            switch (record.type) {
+                case TYPE_PUT:
+                    contents.settings.put(record.name, record);
+                    break;
+                case TYPE_DELETE:
+                    contents.settings.remove(record.name);
+                    break;
+                case TYPE_VERSION:
+                    contents.version = record.version;
+                    break;
+            }
+            contents.recordCount++;
+            pos = start + length;
+        }
+        if (contents.damaged) {
+            Slog.w(LOG_TAG, "Settings log " + mFile.getBaseFile() + " damaged at offset " + pos
+                    + ", ignoring the rest");
+        }
+        return contents;
+    }
+
+    void dump(PrintWriter pw) {
+        pw.print("Settings log: records=");
+        pw.print(mRecordCount);
+        pw.print(" appends=");
+        pw.print(mAppendCount);
+        pw.print(" (");
+        pw.print(mBytesAppended);
+        pw.print(" bytes) compactions=");
+        pw.print(mCompactionCount);
+        pw.print(" (");
+        pw.print(mBytesCompacted);
+        pw.println(" bytes)");
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
+    private static void writeRecord(ByteArrayOutputStream dest, Record record)
+            throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(body);
+        out.writeByte(record.type);
+        switch (record.type) {
+            case TYPE_PUT:
+                writeString(out, record.name);
+                writeString(out, record.id);
+                writeString(out, record.value);
+                writeString(out, record.defaultValue);
+                writeString(out, record.packageName);
+                writeString(out, record.tag);
+                out.writeBoolean(record.defaultFromSystem);
+                break;
+            case TYPE_DELETE:
+                writeString(out, record.name);
+                break;
+            case TYPE_VERSION:
+                out.writeInt(record.version);
+                break;
+        }
+        out.flush();
+
+        final CRC32 crc = new CRC32();
+        crc.update(body.toByteArray(), 0, body.size());
+        final DataOutputStream header = new DataOutputStream(dest);
+        header.writeInt(body.size());
+        header.writeInt((int) crc.getValue());
+        header.flush();
+        body.writeTo(dest);
+    }
+
+    private static Record readRecord(DataInputStream in) throws IOException {
+        final int type = in.readByte();
+        switch (type) {
+            case TYPE_PUT: {
+                final String name = readString(in);
+                final String id = readString(in);
+                final String value = readString(in);
+                final String defaultValue = readString(in);
+                final String packageName = readString(in);
+                final String tag = readString(in);
+                final boolean defaultFromSystem = in.readBoolean();
+                if (name == null || id == null) {
+                    throw new IOException("Setting without a name or id");
+                }
+                return Record.put(name, id, value, defaultValue, packageName, tag,
+                        defaultFromSystem);
+            }
+            case TYPE_DELETE: {
+                final String name = readString(in);
+                if (name == null) {
+                    throw new IOException("Setting without a name");
+                }
+                return Record.delete(name);
+            }
+            case TYPE_VERSION:
+                return Record.version(in.readInt());
+            default:
+                throw new IOException("Unknown record type " + type);
+        }
+    }
+
+    /**
+     * Settings values are arbitrary strings, broken surrogate pairs included, so they are kept
+     * char for char: as modified UTF-8, which round-trips any char, when short enough for
+     * {@link DataOutputStream#writeUTF}, or else as UTF-16.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeByte(STRING_NULL);
+        } else if (value.length() <= MAX_UTF_LENGTH) {
+            out.writeByte(STRING_UTF);
+            out.writeUTF(value);
+        } else {
+            out.writeByte(STRING_CHARS);
+            out.writeInt(value.length());
+            out.writeChars(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        final int encoding = in.readByte();
+        switch (encoding) {
+            case STRING_NULL:
+                return null;
+            case STRING_UTF:
+                return in.readUTF();
+            case STRING_CHARS: {
+                final int length = in.readInt();
+                if (length < 0 || length > in.available() / 2) {
+                    throw new IOException("Bad string length " + length);
+                }
+                final char[] chars = new char[length];
+                for (int i = 0; i < length; i++) {
+                    chars[i] = in.readChar();
+                }
+                return new String(chars);
+            }
+            default:
+                throw new IOException("Unknown string encoding " + encoding);
+        }
+    }
+}
@@ -8,6 +8,7 @@ LOCAL_MODULE_TAGS := tests
 # because this test is not an instrumentation test. (because the target runs in the system process.)
 LOCAL_SRC_FILES := $(call all-subdir-java-files) \
     ../src/com/android/providers/settings/SettingsState.java \
+    ../src/com/android/providers/settings/SettingsStateLog.java \
     ../src/com/android/providers/settings/SettingsHelper.java
 
 LOCAL_STATIC_JAVA_LIBRARIES := android-support-test
@@ -17,6 +17,7 @@
 package com.android.providers.settings;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertNull;
 import static junit.framework.Assert.fail;
@@ -26,6 +27,7 @@ import android.content.ContentValues;
 import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.SystemClock;
@@ -151,6 +153,21 @@ public class SettingsProviderTest extends BaseSettingsProviderTest {
         }
     }
 
+    @Test
+    public void testListGlobalViaCall() throws Exception {
+        doTestListViaCall(SETTING_TYPE_GLOBAL, Settings.CALL_METHOD_LIST_GLOBAL);
+    }
+
+    @Test
+    public void testListSecureViaCall() throws Exception {
+        doTestListViaCall(SETTING_TYPE_SECURE, Settings.CALL_METHOD_LIST_SECURE);
+    }
+
+    @Test
+    public void testListSystemViaCall() throws Exception {
+        doTestListViaCall(SETTING_TYPE_SYSTEM, Settings.CALL_METHOD_LIST_SYSTEM);
+    }
+
     @Test
     public void testQueryUpdateDeleteGlobalViaProviderApi() throws Exception {
         doTestQueryUpdateDeleteGlobalViaProviderApiForType(SETTING_TYPE_GLOBAL);
@@ -662,6 +679,28 @@ public class SettingsProviderTest extends BaseSettingsProviderTest {
         }
     }
 
+    private void doTestListViaCall(int type, String method) throws Exception {
+        setSettingViaProviderApiAndAssertSuccessfulChange(type, FAKE_SETTING_NAME,
+                FAKE_SETTING_VALUE, type == SETTING_TYPE_SYSTEM);
+        try {
+            Bundle result = getContext().getContentResolver().call(getBaseUriForType(type),
+                    method, null, null);
+            assertNotNull(result);
+            String[] names = result.getStringArray(Settings.CALL_METHOD_NAMES_KEY);
+            String[] values = result.getStringArray(Settings.CALL_METHOD_VALUES_KEY);
+            assertEquals(names.length, values.length);
+            for (int i = 0; i < names.length; i++) {
+                if (FAKE_SETTING_NAME.equals(names[i])) {
+                    assertEquals(FAKE_SETTING_VALUE, values[i]);
+                    return;
+                }
+            }
+            fail("Not found setting: " + FAKE_SETTING_NAME);
+        } finally {
+            deleteStringViaProviderApi(type, FAKE_SETTING_NAME);
+        }
+    }
+
     private void queryAllSettingsViaProviderApiSettingAndAssertSettingPresent(int type,
             String name) {
         Uri uri = getBaseUriForType(type);
@@ -17,6 +17,7 @@ package com.android.providers.settings;
 
 import android.os.Looper;
 import android.test.AndroidTestCase;
+import android.util.Log;
 import android.util.Xml;
 
 import org.xmlpull.v1.XmlSerializer;
@@ -25,9 +26,13 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.PrintStream;
+import java.io.RandomAccessFile;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 public class SettingsStateTest extends AndroidTestCase {
+    private static final String LOG_TAG = "SettingsStateTest";
+
     public static final String CRAZY_STRING =
             "\u0000\u0001\u0002\u0003\u0004\u0005\u0006\u0007\u0008\u0009\n\u000b\u000c\r" +
             "\u000e\u000f\u0010\u0011\u0012\u0013\u0014\u0015\u0016\u0017\u0018\u0019\u001a" +
@@ -123,7 +128,7 @@ public class SettingsStateTest extends AndroidTestCase {
      */
     public void testReadWrite() {
         final File file = new File(getContext().getCacheDir(), "setting.xml");
-        file.delete();
+        deleteStateFiles(file);
         final Object lock = new Object();
 
         final SettingsState ssWriter = new SettingsState(getContext(), lock, file, 1,
@@ -153,7 +158,7 @@ public class SettingsStateTest extends AndroidTestCase {
      */
     public void testUpgrade() throws Exception {
         final File file = new File(getContext().getCacheDir(), "setting.xml");
-        file.delete();
+        deleteStateFiles(file);
         final Object lock = new Object();
         final PrintStream os = new PrintStream(new FileOutputStream(file));
         os.print(
@@ -182,4 +187,211 @@ public class SettingsStateTest extends AndroidTestCase {
             assertEquals("p2", s.getPackageName());
         }
     }
+
+    private static void deleteStateFiles(File file) {
+        file.delete();
+        SettingsStateLog.getLogFile(file).delete();
+    }
+
+    private SettingsState newSettingsState(Object lock, File file) {
+        return new SettingsState(getContext(), lock, file, 1,
+                SettingsState.MAX_BYTES_PER_APP_PACKAGE_UNLIMITED, Looper.getMainLooper());
+    }
+
+    private void populate(SettingsState ss) {
+        ss.setVersionLocked(SettingsState.SETTINGS_VERSION_NEW_ENCODING);
+        ss.insertSettingLocked("k1", "\u0000", null, false, "package");
+        ss.insertSettingLocked("k2", "abc", null, false, "p2");
+        ss.insertSettingLocked("k3", null, null, false, "p2");
+        ss.insertSettingLocked("k4", CRAZY_STRING, null, false, "p3");
+        ss.insertSettingLocked("k5", "v5", "tag5", true, "p5");
+        ss.insertSettingLocked("k6", "", null, true, SettingsState.SYSTEM_PACKAGE_NAME);
+        ss.insertSettingLocked("k7", "gone", null, false, "p7");
+        ss.deleteSettingLocked("k7");
+        ss.insertSettingLocked("k2", "abcd", null, false, "p2");
+    }
+
+    /**
+     * Writes the state in the XML format settings were persisted in before the log.
+     */
+    private void writeXml(SettingsState ss, File file) throws Exception {
+        final FileOutputStream out = new FileOutputStream(file);
+        final XmlSerializer serializer = Xml.newSerializer();
+        serializer.setOutput(out, StandardCharsets.UTF_8.name());
+        serializer.startDocument(null, true);
+        serializer.startTag(null, "settings");
+        serializer.attribute(null, "version", String.valueOf(ss.getVersionLocked()));
+        for (String name : ss.getSettingNamesLocked()) {
+            final SettingsState.Setting setting = ss.getSettingLocked(name);
+            SettingsState.writeSingleSetting(ss.getVersionLocked(), serializer, setting.getId(),
+                    setting.getName(), setting.getValue(), setting.getDefaultValue(),
+                    setting.getPackageName(), setting.getTag(), setting.isDefaultFromSystem());
+        }
+        serializer.endTag(null, "settings");
+        serializer.endDocument();
+        out.close();
+    }
+
+    private static void assertSameState(SettingsState expected, SettingsState actual) {
+        assertEquals(expected.getVersionLocked(), actual.getVersionLocked());
+        final List<String> names = expected.getSettingNamesLocked();
+        assertEquals(names.size(), actual.getSettingNamesLocked().size());
+        for (String name : names) {
+            final SettingsState.Setting e = expected.getSettingLocked(name);
+            final SettingsState.Setting a = actual.getSettingLocked(name);
+            assertFalse(name, a.isNull());
+            assertEquals(name, e.getId(), a.getId());
+            assertEquals(name, e.getValue(), a.getValue());
+            assertEquals(name, e.getDefaultValue(), a.getDefaultValue());
+            assertEquals(name, e.getPackageName(), a.getPackageName());
+            assertEquals(name, e.getTag(), a.getTag());
+            assertEquals(name, e.isDefaultFromSystem(), a.isDefaultFromSystem());
+        }
+    }
+
+    /**
+     * Make sure the log and the XML format restore the same settings.
+     */
+    public void testLogMatchesXml() throws Exception {
+        final File logFile = new File(getContext().getCacheDir(), "setting_log.xml");
+        final File xmlFile = new File(getContext().getCacheDir(), "setting_xml.xml");
+        deleteStateFiles(logFile);
+        deleteStateFiles(xmlFile);
+        final Object lock = new Object();
+
+        synchronized (lock) {
+            final SettingsState ssWriter = newSettingsState(lock, logFile);
+            populate(ssWriter);
+            ssWriter.persistSyncLocked();
+            writeXml(ssWriter, xmlFile);
+
+            final SettingsState ssFromLog = newSettingsState(lock, logFile);
+            final SettingsState ssFromXml = newSettingsState(lock, xmlFile);
+            assertSameState(ssWriter, ssFromLog);
+            assertSameState(ssFromXml, ssFromLog);
+            assertTrue(ssFromLog.getSettingLocked("k7").isNull());
+        }
+    }
+
+    /**
+     * Make sure settings persisted as XML are moved over to the log.
+     */
+    public void testMigrateFromXml() throws Exception {
+        final File sourceFile = new File(getContext().getCacheDir(), "setting_source.xml");
+        final File file = new File(getContext().getCacheDir(), "setting.xml");
+        deleteStateFiles(sourceFile);
+        deleteStateFiles(file);
+        final Object lock = new Object();
+
+        synchronized (lock) {
+            final SettingsState ssWriter = newSettingsState(lock, sourceFile);
+            populate(ssWriter);
+            ssWriter.persistSyncLocked();
+            writeXml(ssWriter, file);
+            assertTrue(SettingsState.stateFileExists(file));
+
+            final SettingsState ssMigrated = newSettingsState(lock, file);
+            ssMigrated.persistSyncLocked();
+            assertFalse(file.exists());
+            assertTrue(SettingsStateLog.getLogFile(file).exists());
+            assertTrue(SettingsState.stateFileExists(file));
+
+            assertSameState(ssWriter, newSettingsState(lock, file));
+        }
+    }
+
+    /**
+     * Make sure a record torn by a crash while appending is ignored, and the log is repaired by
+     * the next write.
+     */
+    public void testTornLogRecordIgnored() throws Exception {
+        final File file = new File(getContext().getCacheDir(), "setting.xml");
+        deleteStateFiles(file);
+        final Object lock = new Object();
+
+        synchronized (lock) {
+            final SettingsState ssWriter = newSettingsState(lock, file);
+            populate(ssWriter);
+            ssWriter.persistSyncLocked();
+            ssWriter.insertSettingLocked("k8", "v8", null, false, "p8");
+            ssWriter.persistSyncLocked();
+
+            // Cut the last record short.
+            final File logFile = SettingsStateLog.getLogFile(file);
+            final RandomAccessFile raf = new RandomAccessFile(logFile, "rw");
+            raf.setLength(raf.length() - 3);
+            raf.close();
+
+            final SettingsState ssReader = newSettingsState(lock, file);
+            assertTrue(ssReader.getSettingLocked("k8").isNull());
+            assertEquals("abcd", ssReader.getSettingLocked("k2").getValue());
+            assertEquals(CRAZY_STRING, ssReader.getSettingLocked("k4").getValue());
+
+            ssReader.insertSettingLocked("k8", "v8", null, false, "p8");
+            ssReader.persistSyncLocked();
+            assertSameState(ssReader, newSettingsState(lock, file));
+        }
+    }
+
+    /**
+     * Make sure a log that keeps growing with changes to the same settings is compacted.
+     */
+    public void testLogCompaction() {
+        final File file = new File(getContext().getCacheDir(), "setting.xml");
+        deleteStateFiles(file);
+        final Object lock = new Object();
+
+        synchronized (lock) {
+            final SettingsState ssWriter = newSettingsState(lock, file);
+            populate(ssWriter);
+            ssWriter.persistSyncLocked();
+            final long compactedLength = SettingsStateLog.getLogFile(file).length();
+            for (int i = 0; i < 1000; i++) {
+                ssWriter.insertSettingLocked("k2", "value" + i, null, false, "p2");
+                ssWriter.persistSyncLocked();
+            }
+            assertTrue(SettingsStateLog.getLogFile(file).length() < 10 * compactedLength);
+            final SettingsState ssReader = newSettingsState(lock, file);
+            assertEquals("value999", ssReader.getSettingLocked("k2").getValue());
+            assertSameState(ssWriter, ssReader);
+        }
+    }
+
+    /**
+     * Compares how many bytes changing one setting of a table the size of global settings
+     * writes to the log, against rewriting the whole table as XML.
+     */
+    public void testLogBytesWrittenPerChange() throws Exception {
+        final int settingCount = 400;
+        final int changeCount = 500;
+        final File file = new File(getContext().getCacheDir(), "setting.xml");
+        final File xmlFile = new File(getContext().getCacheDir(), "setting_xml.xml");
+        deleteStateFiles(file);
+        final Object lock = new Object();
+
+        synchronized (lock) {
+            final SettingsState ss = newSettingsState(lock, file);
+            ss.setVersionLocked(SettingsState.SETTINGS_VERSION_NEW_ENCODING);
+            for (int i = 0; i < settingCount; i++) {
+                ss.insertSettingLocked("setting_" + i, "value_" + i, null, false, "package");
+            }
+            ss.persistSyncLocked();
+
+            final long bytesBefore = ss.getLogBytesWritten();
+            for (int i = 0; i < changeCount; i++) {
+                ss.insertSettingLocked("setting_" + (i % settingCount), "changed_" + i, null,
+                        false, "package");
+                ss.persistSyncLocked();
+            }
+            final long logBytesPerChange = (ss.getLogBytesWritten() - bytesBefore) / changeCount;
+
+            writeXml(ss, xmlFile);
+            final long xmlBytesPerChange = xmlFile.length();
+            xmlFile.delete();
+
+            Log.i(LOG_TAG, "Bytes written per change: " + logBytesPerChange + " to the log, "
+                    + xmlBytesPerChange + " as XML");
+            assertTrue(logBytesPerChange * 10 < xmlBytesPerChange);
+        }
+    }
 }
@@ -16,9 +16,13 @@
 
 package com.android.server;
 
+import android.os.LockContentionDumpProto;
 import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.Slog;
+import android.util.proto.ProtoOutputStream;
+
+import com.android.internal.os.LockContentionStats;
 
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
@@ -56,6 +60,10 @@ import java.io.PrintWriter;
  * <p>
  * This class also supports a second simpler mode of operation where well-known
  * locks are explicitly registered and checked via indexes.
+ * <p>
+ * Separately from ordering checks, the well-known locks can have their hold
+ * times profiled when {@link LockContentionStats#ENABLED} is set; see
+ * {@link #getContentionStats(int)}.
  */
 public class LockGuard {
     private static final String TAG = "LockGuard";
@@ -76,6 +84,9 @@ public class LockGuard {
 
     private static Object[] sKnownFixed = new Object[INDEX_ACTIVITY + 1];
 
+    private static final LockContentionStats[] sContentionStats =
+            new LockContentionStats[INDEX_ACTIVITY + 1];
+
     private static ArrayMap<Object, LockInfo> sKnown = new ArrayMap<>(0, true);
 
     private static class LockInfo {
@@ -175,6 +186,22 @@ public class LockGuard {
         return lock;
     }
 
+    /**
+     * Return the hold time stats of the well-known lock with the given index, or
+     * {@code null} if lock contention profiling is disabled.
+     */
+    public static LockContentionStats getContentionStats(int index) {
+        if (!LockContentionStats.ENABLED) {
+            return null;
+        }
+        synchronized (sContentionStats) {
+            if (sContentionStats[index] == null) {
+                sContentionStats[index] = new LockContentionStats(lockToString(index));
+            }
+            return sContentionStats[index];
+        }
+    }
+
     private static String lockToString(Object lock) {
         final LockInfo info = sKnown.get(lock);
         if (info != null) {
@@ -198,6 +225,31 @@ public class LockGuard {
     }
 
     public static void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        for (String arg : args) {
+            if ("--proto".equals(arg)) {
+                final ProtoOutputStream proto = new ProtoOutputStream(fd);
+                synchronized (sContentionStats) {
+                    for (LockContentionStats stats : sContentionStats) {
+                        if (stats != null) {
+                            stats.writeToProto(proto, LockContentionDumpProto.LOCKS);
+                        }
+                    }
+                }
+                proto.flush();
+                return;
+            }
+        }
+        if (LockContentionStats.ENABLED) {
+            pw.println("Lock contention:");
+            synchronized (sContentionStats) {
+                for (LockContentionStats stats : sContentionStats) {
+                    if (stats != null) {
+                        stats.dump(pw, "  ");
+                    }
+                }
+            }
+            pw.println();
+        }
         for (int i = 0; i < sKnown.size(); i++) {
             final Object lock = sKnown.keyAt(i);
             final LockInfo info = sKnown.valueAt(i);
@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server;
+
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.ArrayMap;
+import android.util.Slog;
+import android.util.TimingsTraceLog;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.Preconditions;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Dependency graph of system server startup work.
+ * <p>Each node is a named task that declares the nodes it depends on. A node is handed to
+ * the executor (by default {@link SystemServerInitThreadPool}) as soon as all of its
+ * dependencies have finished, so independent work runs in parallel while every declared edge
+ * is honored. Dependencies must be added before their dependents, which keeps the graph
+ * acyclic by construction.
+ * <p>Work that has to happen on the main system server thread (for example anything that
+ * creates a {@link android.os.Handler} on the current looper) should not be added here;
+ * instead the main thread can {@link #await} the nodes it needs.
+ * <p>A node that throws is logged and does not stop the other nodes, as with tasks submitted
+ * to {@link SystemServerInitThreadPool} directly. The nodes that depend on it, directly or
+ * not, are skipped, and only callers that {@link #await} one of these nodes see the failure.
+ *
+ * @hide
+ */
+public class SystemServiceStartGraph {
+    private static final String TAG = SystemServiceStartGraph.class.getSimpleName();
+    private static final String TIMING_TAG = "SystemServerTimingAsync";
+
+    private final String mName;
+    private final Executor mExecutor;
+    private final long mStartTime;
+
+    @GuardedBy("this")
+    private final ArrayMap<String, Node> mNodes = new ArrayMap<>();
+
+    private static final class Node {
+        final String name;
+        final Runnable task;
+        final ArrayList<Node> dependents = new ArrayList<>();
+        int pendingDependencies;
+        // The dependency that finished last, i.e. the one this node actually waited for.
+        Node criticalDependency;
+        long startTime;
+        long endTime;
+        boolean done;
+        Throwable failure;
+        // A dependency that failed or was skipped, so this node is skipped.
+        Node failedDependency;
+
+        Node(String name, Runnable task) {
+            this.name = name;
+            this.task = task;
+        }
+    }
+
+    public SystemServiceStartGraph(String name) {
+        this(name, null);
+    }
+
+    /**
+     * @param executor runs the nodes, or null to submit them to
+     *                 {@link SystemServerInitThreadPool} under their own names.
+     */
+    @VisibleForTesting
+    SystemServiceStartGraph(String name, Executor executor) {
+        mName = name;
+        mExecutor = executor;
+        mStartTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Adds a task to the graph. It is scheduled once every node in {@code dependencies} has
+     * finished, or immediately if there are none.
+     *
+     * @throws IllegalStateException if {@code name} is already in the graph.
+     * @throws IllegalArgumentException if a dependency has not been added yet.
+     */
+    public void add(String name, Runnable task, String... dependencies) {
+        final Node node = new Node(name, task);
+        synchronized (this) {
+            Preconditions.checkState(!mNodes.containsKey(name), name + " already added");
+            for (String dependency : dependencies) {
+                final Node dep = mNodes.get(dependency);
+                if (dep == null) {
+                    throw new IllegalArgumentException(name + " depends on unknown node "
+                            + dependency);
+                }
+                if (!dep.done) {
+                    dep.dependents.add(node);
+                    node.pendingDependencies++;
+                } else {
+                    if (node.criticalDependency == null
+                            || node.criticalDependency.endTime < dep.endTime) {
+                        node.criticalDependency = dep;
+                    }
+                    if (dep.failure != null) {
+                        node.failedDependency = dep;
+                    }
+                }
+            }
+            mNodes.put(name, node);
+            if (node.pendingDependencies > 0) {
+                return;
+            }
+        }
+        schedule(node);
+    }
+
+    private void schedule(Node node) {
+        if (mExecutor != null) {
+            mExecutor.execute(() -> run(node));
+        } else {
+            SystemServerInitThreadPool.get().submit(() -> run(node), node.name);
+        }
+    }
+
+    private void run(Node node) {
+        final Node failedDependency;
+        synchronized (this) {
+            node.startTime = SystemClock.elapsedRealtime();
+            failedDependency = node.failedDependency;
+        }
+        Throwable failure = null;
+        if (failedDependency != null) {
+            Slog.e(TAG, "Skipping " + node.name + " because " + failedDependency.name
+                    + " failed");
+            failure = new IllegalStateException(node.name + " skipped because "
+                    + failedDependency.name + " failed", failedDependency.failure);
+        } else {
+            final TimingsTraceLog traceLog = new TimingsTraceLog(
+                    TIMING_TAG, Trace.TRACE_TAG_SYSTEM_SERVER);
+            traceLog.traceBegin(node.name);
+            try {
+                node.task.run();
+            } catch (Throwable t) {
+                Slog.e(TAG, "Failure in " + node.name, t);
+                failure = t;
+            } finally {
+                traceLog.traceEnd();
+            }
+        }
+
+        final ArrayList<Node> ready = new ArrayList<>();
+        synchronized (this) {
+            node.endTime = SystemClock.elapsedRealtime();
+            node.failure = failure;
+            node.done = true;
+            for (int i = 0; i < node.dependents.size(); i++) {
+                final Node dependent = node.dependents.get(i);
+                dependent.criticalDependency = node;
+                if (failure != null) {
+                    dependent.failedDependency = node;
+                }
+                if (--dependent.pendingDependencies == 0) {
+                    ready.add(dependent);
+                }
+            }
+            node.dependents.clear();
+            notifyAll();
+        }
+        for (int i = 0; i < ready.size(); i++) {
+            schedule(ready.get(i));
+        }
+    }
+
+    /**
+     * Blocks until the given node has finished.
+     *
+     * @throws IllegalStateException if the node's task threw, or the node was skipped because
+     *                               one of its dependencies failed.
+     */
+    public void await(String name) {
+        synchronized (this) {
+            final Node node = mNodes.get(name);
+            Preconditions.checkArgument(node != null, "Unknown node " + name);
+            waitForLocked(node);
+            if (node.failure != null) {
+                throw new IllegalStateException(node.name + " failed", node.failure);
+            }
+        }
+    }
+
+    /**
+     * Blocks until every node added so far has finished, then logs the critical path, i.e. the
+     * chain of nodes that determined when the last one completed. Nodes that failed were logged
+     * when they did and do not make this throw.
+     */
+    public void awaitAllAndReport(TimingsTraceLog traceLog) {
+        int failed = 0;
+        synchronized (this) {
+            // Waiting releases the lock, so nodes may be added while iterating.
+            final ArrayList<Node> nodes = new ArrayList<>(mNodes.values());
+            for (int i = 0; i < nodes.size(); i++) {
+                final Node node = nodes.get(i);
+                waitForLocked(node);
+                if (node.failure != null) {
+                    failed++;
+                }
+            }
+        }
+        if (failed > 0) {
+            Slog.w(TAG, mName + ": " + failed + " nodes failed or were skipped");
+        }
+        traceLog.logDuration(mName + " critical path [" + getCriticalPath() + "]",
+                getCriticalPathDuration());
+    }
+
+    private void waitForLocked(Node node) {
+        boolean interrupted = false;
+        while (!node.done) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @VisibleForTesting
+    synchronized String getCriticalPath() {
+        final StringBuilder sb = new StringBuilder();
+        for (Node node = getLastFinishedLocked(); node != null; node = node.criticalDependency) {
+            if (sb.length() > 0) {
+                sb.insert(0, " -> ");
+            }
+            sb.insert(0, node.name + " " + (node.endTime - node.startTime) + "ms");
+        }
+        return sb.toString();
+    }
+
+    private synchronized long getCriticalPathDuration() {
+        final Node last = getLastFinishedLocked();
+        return last != null ? last.endTime - mStartTime : 0;
+    }
+
+    private Node getLastFinishedLocked() {
+        Node last = null;
+        for (int i = mNodes.size() - 1; i >= 0; i--) {
+            final Node node = mNodes.valueAt(i);
+            if (node.done && (last == null || node.endTime > last.endTime)) {
+                last = node;
+            }
+        }
+        return last;
+    }
+}
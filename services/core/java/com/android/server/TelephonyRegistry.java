@@ -30,6 +30,7 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Message;
+import android.os.Process;
 import android.os.RemoteException;
 import android.os.UserHandle;
 import android.telephony.CellInfo;
@@ -47,14 +48,17 @@ import android.telephony.TelephonyManager;
 import android.telephony.VoLteServiceState;
 import android.text.TextUtils;
 import android.util.LocalLog;
+import android.util.Pair;
 
 import com.android.internal.app.IBatteryStats;
+import com.android.internal.os.CallbackDispatchQueue;
 import com.android.internal.telephony.IOnSubscriptionsChangedListener;
 import com.android.internal.telephony.IPhoneStateListener;
 import com.android.internal.telephony.ITelephonyRegistry;
 import com.android.internal.telephony.PhoneConstantConversions;
 import com.android.internal.telephony.PhoneConstants;
 import com.android.internal.telephony.TelephonyIntents;
+import com.android.internal.util.ConcurrentUtils;
 import com.android.internal.util.DumpUtils;
 import com.android.internal.util.IndentingPrintWriter;
 import com.android.server.am.BatteryStatsService;
@@ -64,6 +68,7 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * Since phone process can be restarted, this class provides a centralized place
@@ -103,6 +108,9 @@ class TelephonyRegistry extends ITelephonyRegistry.Stub {
 
         boolean canReadPhoneState;
 
+        // Created on first use by dispatchAsyncLocked().
+        CallbackDispatchQueue dispatchQueue;
+
         boolean matchPhoneStateListenerEvent(int events) {
             return (callback != null) && ((events & this.events) != 0);
         }
@@ -129,6 +137,15 @@ class TelephonyRegistry extends ITelephonyRegistry.Stub {
     private final ArrayList<IBinder> mRemoveList = new ArrayList<IBinder>();
     private final ArrayList<Record> mRecords = new ArrayList<Record>();
 
+    // Delivers the high-frequency events (signal strength, cell info, data activity) so that
+    // a slow listener does not hold up the caller or the other listeners.
+    private final Executor mListenerExecutor = ConcurrentUtils.newFixedThreadPool(2,
+            "TelephonyRegistryListener", Process.THREAD_PRIORITY_FOREGROUND);
+
+    private interface ListenerCall {
+        void call(IPhoneStateListener callback) throws RemoteException;
+    }
+
     private final IBatteryStats mBatteryStats;
 
     private final AppOpsManager mAppOps;
@@ -695,13 +712,36 @@ class TelephonyRegistry extends ITelephonyRegistry.Stub {
                         log("remove: binder=" + binder + "r.callingPackage" + r.callingPackage
                                 + "r.callback" + r.callback);
                     }
-                    mRecords.remove(i);
+                    final Record r = mRecords.remove(i);
+                    if (r.dispatchQueue != null) {
+                        r.dispatchQueue.close();
+                    }
                     return;
                 }
             }
         }
     }
 
+    /**
+     * Delivers {@code call} to the record's listener on {@link #mListenerExecutor}. A pending
+     * call for the same {@code coalesceKey} is replaced, so a listener that falls behind only
+     * gets the latest state.
+     */
+    private void dispatchAsyncLocked(Record r, Object coalesceKey, ListenerCall call) {
+        if (r.dispatchQueue == null) {
+            r.dispatchQueue = new CallbackDispatchQueue(mListenerExecutor);
+        }
+        final IPhoneStateListener callback = r.callback;
+        final IBinder binder = r.binder;
+        r.dispatchQueue.enqueue(coalesceKey, () -> {
+            try {
+                call.call(callback);
+            } catch (RemoteException ex) {
+                remove(binder);
+            }
+        });
+    }
+
     public void notifyCallState(int state, String incomingNumber) {
         if (!checkNotifyPermission("notifyCallState()")) {
             return;
@@ -889,31 +929,28 @@ class TelephonyRegistry extends ITelephonyRegistry.Stub {
                     if (r.matchPhoneStateListenerEvent(
                                 PhoneStateListener.LISTEN_SIGNAL_STRENGTHS) &&
                             idMatch(r.subId, subId, phoneId)) {
-                        try {
-                            if (DBG) {
-                                log("notifySignalStrengthForPhoneId: callback.onSsS r=" + r
-                                        + " subId=" + subId + " phoneId=" + phoneId
-                                        + " ss=" + signalStrength);
-                            }
-                            r.callback.onSignalStrengthsChanged(new SignalStrength(signalStrength));
-                        } catch (RemoteException ex) {
-                            mRemoveList.add(r.binder);
+                        if (DBG) {
+                            log("notifySignalStrengthForPhoneId: callback.onSsS r=" + r
+                                    + " subId=" + subId + " phoneId=" + phoneId
+                                    + " ss=" + signalStrength);
                         }
+                        final SignalStrength copy = new SignalStrength(signalStrength);
+                        dispatchAsyncLocked(r,
+                                Pair.create(PhoneStateListener.LISTEN_SIGNAL_STRENGTHS, phoneId),
+                                callback -> callback.onSignalStrengthsChanged(copy));
                     }
                     if (r.matchPhoneStateListenerEvent(PhoneStateListener.LISTEN_SIGNAL_STRENGTH) &&
                             idMatch(r.subId, subId, phoneId)){
-                        try {
-                            int gsmSignalStrength = signalStrength.getGsmSignalStrength();
-                            int ss = (gsmSignalStrength == 99 ? -1 : gsmSignalStrength);
-                            if (DBG) {
-                                log("notifySignalStrengthForPhoneId: callback.onSS r=" + r
-                                        + " subId=" + subId + " phoneId=" + phoneId
-                                        + " gsmSS=" + gsmSignalStrength + " ss=" + ss);
-                            }
-                            r.callback.onSignalStrengthChanged(ss);
-                        } catch (RemoteException ex) {
-                            mRemoveList.add(r.binder);
+                        int gsmSignalStrength = signalStrength.getGsmSignalStrength();
+                        int ss = (gsmSignalStrength == 99 ? -1 : gsmSignalStrength);
+                        if (DBG) {
+                            log("notifySignalStrengthForPhoneId: callback.onSS r=" + r
+                                    + " subId=" + subId + " phoneId=" + phoneId
+                                    + " gsmSS=" + gsmSignalStrength + " ss=" + ss);
                         }
+                        dispatchAsyncLocked(r,
+                                Pair.create(PhoneStateListener.LISTEN_SIGNAL_STRENGTH, phoneId),
+                                callback -> callback.onSignalStrengthChanged(ss));
                     }
                 }
             } else {
@@ -967,14 +1004,12 @@ class TelephonyRegistry extends ITelephonyRegistry.Stub {
                 for (Record r : mRecords) {
                     if (validateEventsAndUserLocked(r, PhoneStateListener.LISTEN_CELL_INFO) &&
                             idMatch(r.subId, subId, phoneId)) {
-                        try {
-                            if (DBG_LOC) {
-                                log("notifyCellInfo: mCellInfo=" + cellInfo + " r=" + r);
-                            }
-                            r.callback.onCellInfoChanged(cellInfo);
-                        } catch (RemoteException ex) {
-                            mRemoveList.add(r.binder);
+                        if (DBG_LOC) {
+                            log("notifyCellInfo: mCellInfo=" + cellInfo + " r=" + r);
                         }
+                        dispatchAsyncLocked(r,
+                                Pair.create(PhoneStateListener.LISTEN_CELL_INFO, phoneId),
+                                callback -> callback.onCellInfoChanged(cellInfo));
                     }
                 }
             }
@@ -1058,11 +1093,9 @@ class TelephonyRegistry extends ITelephonyRegistry.Stub {
                     // Notify by correct subId.
                     if (r.matchPhoneStateListenerEvent(PhoneStateListener.LISTEN_DATA_ACTIVITY) &&
                             idMatch(r.subId, subId, phoneId)) {
-                        try {
-                            r.callback.onDataActivity(state);
-                        } catch (RemoteException ex) {
-                            mRemoveList.add(r.binder);
-                        }
+                        dispatchAsyncLocked(r,
+                                Pair.create(PhoneStateListener.LISTEN_DATA_ACTIVITY, phoneId),
+                                callback -> callback.onDataActivity(state));
                     }
                 }
             }
@@ -1428,6 +1461,12 @@ class TelephonyRegistry extends ITelephonyRegistry.Stub {
             pw.increaseIndent();
             for (Record r : mRecords) {
                 pw.println(r);
+                if (r.dispatchQueue != null) {
+                    pw.increaseIndent();
+                    pw.print("async dispatch: ");
+                    r.dispatchQueue.dump(pw);
+                    pw.decreaseIndent();
+                }
             }
             pw.decreaseIndent();
         }
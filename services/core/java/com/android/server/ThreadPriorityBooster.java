@@ -20,13 +20,19 @@ import static android.os.Process.getThreadPriority;
 import static android.os.Process.myTid;
 import static android.os.Process.setThreadPriority;
 
+import com.android.internal.os.LockContentionStats;
+
 /**
  * Utility class to boost threads in sections where important locks are held.
+ * <p>
+ * As {@link #boost} and {@link #reset} run right after the lock is taken and released, this is
+ * also where hold times are fed to {@link LockContentionStats} when lock profiling is enabled.
  */
 public class ThreadPriorityBooster {
 
     private volatile int mBoostToPriority;
     private final int mLockGuardIndex;
+    private final LockContentionStats mContentionStats;
 
     private final ThreadLocal<PriorityState> mThreadState = new ThreadLocal<PriorityState>() {
         @Override protected PriorityState initialValue() {
@@ -37,6 +43,7 @@ public class ThreadPriorityBooster {
     public ThreadPriorityBooster(int boostToPriority, int lockGuardIndex) {
         mBoostToPriority = boostToPriority;
         mLockGuardIndex = lockGuardIndex;
+        mContentionStats = LockGuard.getContentionStats(lockGuardIndex);
     }
 
     public void boost() {
@@ -48,6 +55,9 @@ public class ThreadPriorityBooster {
             if (prevPriority > mBoostToPriority) {
                 setThreadPriority(tid, mBoostToPriority);
             }
+            if (mContentionStats != null) {
+                state.acquiredNanos = System.nanoTime();
+            }
         }
         state.regionCounter++;
         if (LockGuard.ENABLED) {
@@ -58,6 +68,9 @@ public class ThreadPriorityBooster {
     public void reset() {
         final PriorityState state = mThreadState.get();
         state.regionCounter--;
+        if (state.regionCounter == 0 && mContentionStats != null) {
+            mContentionStats.noteHeld(state.acquiredNanos, System.nanoTime());
+        }
         final int currentPriority = getThreadPriority(myTid());
         if (state.regionCounter == 0 && state.prevPriority != currentPriority) {
             setThreadPriority(myTid(), state.prevPriority);
@@ -94,5 +107,10 @@ public class ThreadPriorityBooster {
          * The thread's previous priority before boosting.
          */
         int prevPriority;
+
+        /**
+         * When the outermost locked region was entered, if lock profiling is enabled.
+         */
+        long acquiredNanos;
     }
 }
\ No newline at end of file
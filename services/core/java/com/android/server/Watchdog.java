@@ -40,13 +40,23 @@ import android.os.Process;
 import android.os.ServiceManager;
 import android.os.SystemClock;
 import android.os.SystemProperties;
+import android.service.watchdog.WatchdogHandlerCheckerProto;
+import android.service.watchdog.WatchdogLatencyHistogramProto;
+import android.service.watchdog.WatchdogMonitorProto;
+import android.service.watchdog.WatchdogServiceDumpProto;
 import android.util.EventLog;
 import android.util.Log;
 import android.util.Slog;
+import android.util.proto.ProtoOutputStream;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.ExponentiallyBucketedHistogram;
 
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -77,6 +87,25 @@ public class Watchdog extends Thread {
     static final int WAITED_HALF = 2;
     static final int OVERDUE = 3;
 
+    // Bucket 0 of the latency histograms holds 0ms, bucket i holds [2^(i-1), 2^i)ms and the
+    // last one everything from 2^16ms (about 65s) up, which is past the default timeout.
+    static final int LATENCY_HISTOGRAM_BUCKETS = 18;
+
+    // Checks slower than this at the configured percentile get an early warning stack sample,
+    // well before the half-way dump of the hard timeout.
+    static final long DEFAULT_WARN_LATENCY = 500;
+    static final int DEFAULT_WARN_PERCENTILE = 99;
+
+    // Don't judge a percentile until we have seen this many checks.
+    static final int MIN_WARN_SAMPLES = 100;
+
+    // The percentile is judged on the checks since the last early warning, and at most this
+    // many of the most recent ones, so that old slow checks stop counting.
+    static final int WARN_WINDOW_SAMPLES = 2 * MIN_WARN_SAMPLES;
+
+    // Rate limit for percentile based early warnings, per checker.
+    static final long EARLY_WARNING_INTERVAL = 10*60*1000;
+
     // Which native processes to dump into dropbox's stack traces
     public static final String[] NATIVE_STACKS_OF_INTEREST = new String[] {
         "/system/bin/audioserver",
@@ -113,6 +142,92 @@ public class Watchdog extends Thread {
     IActivityController mController;
     boolean mAllowRestart = true;
     final OpenFdMonitor mOpenFdMonitor;
+    final long mWarnLatency;
+    final int mWarnPercentile;
+
+    /**
+     * Completion latencies of a handler check or a monitor, in milliseconds, since boot and
+     * over a window of recent checks.
+     */
+    static final class LatencyStats {
+        private final ExponentiallyBucketedHistogram mHistogram =
+                new ExponentiallyBucketedHistogram(LATENCY_HISTOGRAM_BUCKETS);
+        // The recent checks are the current window if it has enough of them, otherwise the
+        // previous one, which ended when the current one started.
+        private ExponentiallyBucketedHistogram mWindow =
+                new ExponentiallyBucketedHistogram(LATENCY_HISTOGRAM_BUCKETS);
+        private ExponentiallyBucketedHistogram mPreviousWindow =
+                new ExponentiallyBucketedHistogram(LATENCY_HISTOGRAM_BUCKETS);
+        private long mMax;
+
+        void add(long latency) {
+            final int value = (int) Math.min(latency, Integer.MAX_VALUE);
+            mHistogram.add(value);
+            if (mWindow.getTotalCount() >= WARN_WINDOW_SAMPLES) {
+                final ExponentiallyBucketedHistogram previous = mPreviousWindow;
+                mPreviousWindow = mWindow;
+                mWindow = previous;
+                mWindow.reset();
+            }
+            mWindow.add(value);
+            if (latency > mMax) {
+                mMax = latency;
+            }
+        }
+
+        private ExponentiallyBucketedHistogram getRecent() {
+            return mWindow.getTotalCount() >= MIN_WARN_SAMPLES ? mWindow : mPreviousWindow;
+        }
+
+        int getRecentCount() {
+            return getRecent().getTotalCount();
+        }
+
+        int getRecentPercentile(int percentile) {
+            return getRecent().getPercentileLowerBound(percentile);
+        }
+
+        /**
+         * Forgets the recent checks, e.g. once they have been reported.
+         */
+        void resetRecent() {
+            mWindow.reset();
+            mPreviousWindow.reset();
+        }
+
+        int getCount() {
+            return mHistogram.getTotalCount();
+        }
+
+        int getPercentile(int percentile) {
+            return mHistogram.getPercentileLowerBound(percentile);
+        }
+
+        void dump(PrintWriter pw) {
+            pw.print("count="); pw.print(getCount());
+            pw.print(" p50>="); pw.print(getPercentile(50));
+            pw.print("ms p99>="); pw.print(getPercentile(99));
+            pw.print("ms max="); pw.print(mMax); pw.print("ms [");
+            for (int i = 0; i < mHistogram.getBucketCount(); i++) {
+                if (i != 0) {
+                    pw.print(" ");
+                }
+                pw.print(mHistogram.getCount(i));
+            }
+            pw.println("]");
+        }
+
+        void writeToProto(ProtoOutputStream proto, long fieldId) {
+            final long token = proto.start(fieldId);
+            for (int i = 0; i < mHistogram.getBucketCount(); i++) {
+                proto.write(WatchdogLatencyHistogramProto.BUCKET_COUNTS, mHistogram.getCount(i));
+            }
+            proto.write(WatchdogLatencyHistogramProto.P50_MILLIS, getPercentile(50));
+            proto.write(WatchdogLatencyHistogramProto.P99_MILLIS, getPercentile(99));
+            proto.write(WatchdogLatencyHistogramProto.MAX_MILLIS, mMax);
+            proto.end(token);
+        }
+    }
 
     /**
      * Used for checking status of handle threads and scheduling monitor callbacks.
@@ -122,9 +237,14 @@ public class Watchdog extends Thread {
         private final String mName;
         private final long mWaitMax;
         private final ArrayList<Monitor> mMonitors = new ArrayList<Monitor>();
+        private final LatencyStats mLatencies = new LatencyStats();
+        private final ArrayList<LatencyStats> mMonitorLatencies = new ArrayList<>();
         private boolean mCompleted;
         private Monitor mCurrentMonitor;
         private long mStartTime;
+        private boolean mSampledCurrentCheck;
+        private long mLastEarlyWarningTime;
+        private int mEarlyWarningCount;
 
         HandlerChecker(Handler handler, String name, long waitMaxMillis) {
             mHandler = handler;
@@ -135,6 +255,7 @@ public class Watchdog extends Thread {
 
         public void addMonitor(Monitor monitor) {
             mMonitors.add(monitor);
+            mMonitorLatencies.add(new LatencyStats());
         }
 
         public void scheduleCheckLocked() {
@@ -157,6 +278,7 @@ public class Watchdog extends Thread {
             mCompleted = false;
             mCurrentMonitor = null;
             mStartTime = SystemClock.uptimeMillis();
+            mSampledCurrentCheck = false;
             mHandler.postAtFrontOfQueue(this);
         }
 
@@ -195,6 +317,76 @@ public class Watchdog extends Thread {
             }
         }
 
+        /**
+         * Takes a stack sample of the checked thread if it is slow but not yet near the
+         * hard timeout: either the check in flight has already taken longer than the warning
+         * latency, or the recent checks are over it at the warning percentile. The recent checks
+         * are forgotten once reported, so the next warning needs new slow checks.
+         */
+        boolean maybeReportSlowLocked(long now) {
+            final String reason;
+            if (!mCompleted && !mSampledCurrentCheck && now - mStartTime >= mWarnLatency) {
+                mSampledCurrentCheck = true;
+                reason = "check in flight for " + (now - mStartTime) + "ms";
+            } else if (mLatencies.getRecentCount() >= MIN_WARN_SAMPLES
+                    && mLatencies.getRecentPercentile(mWarnPercentile) >= mWarnLatency
+                    && (mLastEarlyWarningTime == 0
+                            || now - mLastEarlyWarningTime >= EARLY_WARNING_INTERVAL)) {
+                reason = "p" + mWarnPercentile + " latency >= "
+                        + mLatencies.getRecentPercentile(mWarnPercentile) + "ms over the last "
+                        + mLatencies.getRecentCount() + " checks";
+                mLatencies.resetRecent();
+            } else {
+                return false;
+            }
+            mLastEarlyWarningTime = now;
+            mEarlyWarningCount++;
+            Slog.w(TAG, "Early warning: " + mName + " (" + getThread().getName() + ") is slow, "
+                    + reason);
+            for (StackTraceElement element : getThread().getStackTrace()) {
+                Slog.w(TAG, "    at " + element);
+            }
+            return true;
+        }
+
+        /**
+         * Returns whether a check is in flight that will need an early warning if it takes
+         * longer than the warning latency.
+         */
+        boolean isAwaitingSlowCheckLocked() {
+            return !mCompleted && !mSampledCurrentCheck;
+        }
+
+        @VisibleForTesting
+        LatencyStats getLatencyStatsLocked() {
+            return mLatencies;
+        }
+
+        void dumpLocked(PrintWriter pw) {
+            pw.print("  "); pw.print(mName); pw.print(" (timeout "); pw.print(mWaitMax);
+            pw.print("ms, early warnings "); pw.print(mEarlyWarningCount); pw.println("):");
+            pw.print("    "); mLatencies.dump(pw);
+            for (int i = 0; i < mMonitors.size(); i++) {
+                pw.print("    monitor "); pw.print(mMonitors.get(i).getClass().getName());
+                pw.print(": "); mMonitorLatencies.get(i).dump(pw);
+            }
+        }
+
+        void writeToProtoLocked(ProtoOutputStream proto, long fieldId) {
+            final long token = proto.start(fieldId);
+            proto.write(WatchdogHandlerCheckerProto.NAME, mName);
+            proto.write(WatchdogHandlerCheckerProto.TIMEOUT_MILLIS, mWaitMax);
+            mLatencies.writeToProto(proto, WatchdogHandlerCheckerProto.LATENCY);
+            proto.write(WatchdogHandlerCheckerProto.EARLY_WARNING_COUNT, mEarlyWarningCount);
+            for (int i = 0; i < mMonitors.size(); i++) {
+                final long monitorToken = proto.start(WatchdogHandlerCheckerProto.MONITORS);
+                proto.write(WatchdogMonitorProto.NAME, mMonitors.get(i).getClass().getName());
+                mMonitorLatencies.get(i).writeToProto(proto, WatchdogMonitorProto.LATENCY);
+                proto.end(monitorToken);
+            }
+            proto.end(token);
+        }
+
         @Override
         public void run() {
             final int size = mMonitors.size();
@@ -202,12 +394,18 @@ public class Watchdog extends Thread {
                 synchronized (Watchdog.this) {
                     mCurrentMonitor = mMonitors.get(i);
                 }
+                final long monitorStart = SystemClock.uptimeMillis();
                 mCurrentMonitor.monitor();
+                final long monitorLatency = SystemClock.uptimeMillis() - monitorStart;
+                synchronized (Watchdog.this) {
+                    mMonitorLatencies.get(i).add(monitorLatency);
+                }
             }
 
             synchronized (Watchdog.this) {
                 mCompleted = true;
                 mCurrentMonitor = null;
+                mLatencies.add(SystemClock.uptimeMillis() - mStartTime);
             }
         }
     }
@@ -277,6 +475,11 @@ public class Watchdog extends Thread {
 
         mOpenFdMonitor = OpenFdMonitor.create();
 
+        mWarnLatency = Math.max(1, SystemProperties.getLong(
+                "persist.sys.watchdog.warn_latency_ms", DEFAULT_WARN_LATENCY));
+        mWarnPercentile = SystemProperties.getInt("persist.sys.watchdog.warn_percentile",
+                DEFAULT_WARN_PERCENTILE);
+
         // See the notes on DEFAULT_TIMEOUT.
         assert DB ||
                 DEFAULT_TIMEOUT > ZygoteConnectionConstants.WRAPPED_PID_TIMEOUT_MILLIS;
@@ -366,6 +569,64 @@ public class Watchdog extends Thread {
         return checkers;
     }
 
+    private boolean isAwaitingSlowCheckLocked() {
+        for (int i=0; i<mHandlerCheckers.size(); i++) {
+            if (mHandlerCheckers.get(i).isAwaitingSlowCheckLocked()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void reportSlowCheckersLocked() {
+        final long now = SystemClock.uptimeMillis();
+        for (int i=0; i<mHandlerCheckers.size(); i++) {
+            mHandlerCheckers.get(i).maybeReportSlowLocked(now);
+        }
+    }
+
+    /**
+     * Dumps the check latencies, as text or with --proto as a WatchdogServiceDumpProto. Called
+     * for dumpsys activity watchdog.
+     */
+    public void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        boolean asProto = false;
+        for (String arg : args) {
+            if ("--proto".equals(arg)) {
+                asProto = true;
+            }
+        }
+        synchronized (this) {
+            if (asProto) {
+                final ProtoOutputStream proto = new ProtoOutputStream(fd);
+                writeToProtoLocked(proto);
+                proto.flush();
+            } else {
+                dumpLocked(pw);
+            }
+        }
+    }
+
+    void dumpLocked(PrintWriter pw) {
+        pw.println("WATCHDOG (dumpsys activity watchdog)");
+        pw.print("  Warn latency: "); pw.print(mWarnLatency); pw.print("ms at p");
+        pw.println(mWarnPercentile);
+        pw.println("  Check latencies: count, percentiles, then per-bucket counts"
+                + " (0ms, <2ms, <4ms, ...)");
+        for (int i=0; i<mHandlerCheckers.size(); i++) {
+            mHandlerCheckers.get(i).dumpLocked(pw);
+        }
+    }
+
+    void writeToProtoLocked(ProtoOutputStream proto) {
+        proto.write(WatchdogServiceDumpProto.WARN_LATENCY_MILLIS, mWarnLatency);
+        proto.write(WatchdogServiceDumpProto.WARN_PERCENTILE, mWarnPercentile);
+        for (int i=0; i<mHandlerCheckers.size(); i++) {
+            mHandlerCheckers.get(i).writeToProtoLocked(proto,
+                    WatchdogServiceDumpProto.HANDLER_CHECKERS);
+        }
+    }
+
     private String describeCheckersLocked(List<HandlerChecker> checkers) {
         StringBuilder builder = new StringBuilder(128);
         for (int i=0; i<checkers.size(); i++) {
@@ -445,7 +706,10 @@ public class Watchdog extends Thread {
                         debuggerWasConnected = 2;
                     }
                     try {
-                        wait(timeout);
+                        // While checks are in flight, wake up when they would become slow, so
+                        // that the early warning doesn't come a whole check interval late.
+                        wait(isAwaitingSlowCheckLocked() ? Math.min(timeout, mWarnLatency)
+                                : timeout);
                     } catch (InterruptedException e) {
                         Log.wtf(TAG, e);
                     }
@@ -453,6 +717,7 @@ public class Watchdog extends Thread {
                         debuggerWasConnected = 2;
                     }
                     timeout = CHECK_INTERVAL - (SystemClock.uptimeMillis() - start);
+                    reportSlowCheckersLocked();
                 }
 
                 boolean fdLimitTriggered = false;
@@ -10107,6 +10107,15 @@ public class ActivityManagerService extends IActivityManager.Stub
                     maxNum--;
                 }
             }
+            if (allowed) {
+                // Callers without GET_TASKS only see their own tasks, which is not the order
+                // Recents shows.
+                final int[] taskIds = new int[res.size()];
+                for (int i = 0; i < taskIds.length; i++) {
+                    taskIds[i] = res.get(i).persistentId;
+                }
+                mWindowManager.notifyRecentTaskOrder(taskIds, userId);
+            }
             return new ParceledListSlice<>(res);
         }
     }
@@ -15347,6 +15356,8 @@ public class ActivityManagerService extends IActivityManager.Stub
                 }
             } else if ("locks".equals(cmd)) {
                 LockGuard.dump(fd, pw, args);
+            } else if ("watchdog".equals(cmd)) {
+                Watchdog.getInstance().dump(fd, pw, args);
             } else {
                 // Dumping a single activity?
                 if (!dumpActivity(fd, pw, cmd, args, opti, dumpAll, dumpVisibleStacksOnly,
@@ -19712,6 +19723,7 @@ public class ActivityManagerService extends IActivityManager.Stub
                     && (queue.replaceParallelBroadcastLocked(r) != null);
             // Note: We assume resultTo is null for non-ordered broadcasts.
             if (!replaced) {
+                queue.coalescePendingBroadcastsLocked(r);
                 queue.enqueueParallelBroadcastLocked(r);
                 queue.scheduleBroadcastsLocked();
             }
@@ -19828,6 +19840,7 @@ public class ActivityManagerService extends IActivityManager.Stub
                     }
                 }
             } else {
+                queue.coalescePendingBroadcastsLocked(r);
                 queue.enqueueOrderedBroadcastLocked(r);
                 queue.scheduleBroadcastsLocked();
             }
@@ -19875,6 +19888,11 @@ public class ActivityManagerService extends IActivityManager.Stub
         mCurBroadcastStats.addBroadcast(action, srcPackage, receiveCount, skipCount, dispatchTime);
     }
 
+    final void addBroadcastCoalescedStatLocked(String action, int coalescedCount) {
+        rotateBroadcastStatsIfNeededLocked();
+        mCurBroadcastStats.addCoalescedBroadcast(action, coalescedCount);
+    }
+
     final void addBackgroundCheckViolationLocked(String action, String targetPackage) {
         rotateBroadcastStatsIfNeededLocked();
         mCurBroadcastStats.addBackgroundCheckViolation(action, targetPackage);
@@ -23,7 +23,9 @@ import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 import java.util.Set;
 
 import android.app.ActivityManager;
@@ -269,6 +271,109 @@ public final class BroadcastQueue {
         return null;
     }
 
+    /**
+     * Whether {@code r} only carries "latest value" state, so receivers that already have a
+     * pending copy of the same intent can be handed the newer one instead.  This is the case
+     * for sticky broadcasts and for those sent with {@link Intent#FLAG_RECEIVER_REPLACE_PENDING}.
+     * Broadcasts that want a result back are never coalesced.
+     */
+    static boolean isCoalescableBroadcast(BroadcastRecord r) {
+        if (r.resultTo != null || r.receivers == null || r.receivers.isEmpty()) {
+            return false;
+        }
+        return r.sticky || (r.intent.getFlags() & Intent.FLAG_RECEIVER_REPLACE_PENDING) != 0;
+    }
+
+    /**
+     * Coalescing stage run before {@code r} is enqueued: every receiver of {@code r} that is
+     * still waiting on an older, not yet dispatched broadcast of the same intent, from the same
+     * sender and with the same options, is removed from that older record, since it is going
+     * to see the newer value from {@code r}.  Older records left without receivers are dropped
+     * from the queue.  This covers both registered and manifest receivers, on the parallel as
+     * well as the ordered list.
+     *
+     * @return the number of deliveries that were coalesced away.
+     */
+    public final int coalescePendingBroadcastsLocked(BroadcastRecord r) {
+        if (!isCoalescableBroadcast(r)) {
+            return 0;
+        }
+        int coalesced = coalesceBroadcastsLocked(mParallelBroadcasts, 0, r, "PARALLEL");
+        // The head of the ordered list may already be in flight, so leave it alone.
+        coalesced += coalesceBroadcastsLocked(mOrderedBroadcasts, 1, r, "ORDERED");
+        if (coalesced > 0) {
+            mService.addBroadcastCoalescedStatLocked(r.intent.getAction(), coalesced);
+        }
+        return coalesced;
+    }
+
+    private int coalesceBroadcastsLocked(ArrayList<BroadcastRecord> queue, int firstIndex,
+            BroadcastRecord r, String typeForLogging) {
+        final Intent intent = r.intent;
+        int coalesced = 0;
+        for (int i = queue.size() - 1; i >= firstIndex; i--) {
+            final BroadcastRecord old = queue.get(i);
+            if (old == r || old.userId != r.userId || old.callingUid != r.callingUid
+                    || old.ordered != r.ordered
+                    || old.resultTo != null || old.receivers == null
+                    || old.nextReceiver != 0 || old.dispatchTime != 0
+                    || old.appOp != r.appOp
+                    || !Arrays.equals(old.requiredPermissions, r.requiredPermissions)
+                    || !optionsEqual(old.options, r.options)
+                    || !intent.filterEquals(old.intent)) {
+                continue;
+            }
+            for (int j = old.receivers.size() - 1; j >= 0; j--) {
+                if (containsReceiver(r.receivers, old.receivers.get(j))) {
+                    // Nothing has been delivered yet, so the delivery states are all still
+                    // pending and removing the receiver does not need to touch them.
+                    old.receivers.remove(j);
+                    coalesced++;
+                }
+            }
+            if (old.receivers.isEmpty()) {
+                if (DEBUG_BROADCAST) {
+                    Slog.v(TAG_BROADCAST, "***** COALESCED "
+                            + typeForLogging + " [" + mQueueName + "]: " + old.intent);
+                }
+                queue.remove(i);
+                if (Trace.isTagEnabled(Trace.TRACE_TAG_ACTIVITY_MANAGER)) {
+                    Trace.asyncTraceEnd(Trace.TRACE_TAG_ACTIVITY_MANAGER,
+                            createBroadcastTraceTitle(old, BroadcastRecord.DELIVERY_PENDING),
+                            System.identityHashCode(old));
+                }
+            }
+        }
+        return coalesced;
+    }
+
+    private static boolean optionsEqual(BroadcastOptions a, BroadcastOptions b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return a.getTemporaryAppWhitelistDuration() == b.getTemporaryAppWhitelistDuration()
+                && a.getMinManifestReceiverApiLevel() == b.getMinManifestReceiverApiLevel()
+                && a.getMaxManifestReceiverApiLevel() == b.getMaxManifestReceiverApiLevel();
+    }
+
+    private static boolean containsReceiver(List receivers, Object target) {
+        for (int i = receivers.size() - 1; i >= 0; i--) {
+            final Object o = receivers.get(i);
+            if (o == target) {
+                return true;
+            }
+            if (o instanceof ResolveInfo && target instanceof ResolveInfo) {
+                final ActivityInfo a = ((ResolveInfo) o).activityInfo;
+                final ActivityInfo b = ((ResolveInfo) target).activityInfo;
+                if (a.applicationInfo.uid == b.applicationInfo.uid
+                        && a.packageName.equals(b.packageName) && a.name.equals(b.name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     private final void processCurBroadcastLocked(BroadcastRecord r,
             ProcessRecord app) throws RemoteException {
         if (DEBUG_BROADCAST)  Slog.v(TAG_BROADCAST,
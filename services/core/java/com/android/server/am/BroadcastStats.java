@@ -50,6 +50,7 @@ public final class BroadcastStats {
         final ArrayMap<String, ViolationEntry> mBackgroundCheckViolations = new ArrayMap<>();
         int mReceiveCount;
         int mSkipCount;
+        int mCoalescedCount;
         long mTotalDispatchTime;
         long mMaxDispatchTime;
 
@@ -92,6 +93,15 @@ public final class BroadcastStats {
         pe.mSendCount++;
     }
 
+    public void addCoalescedBroadcast(String action, int coalescedCount) {
+        ActionEntry ae = mActions.get(action);
+        if (ae == null) {
+            ae = new ActionEntry(action);
+            mActions.put(action, ae);
+        }
+        ae.mCoalescedCount += coalescedCount;
+    }
+
     public void addBackgroundCheckViolation(String action, String targetPackage) {
         ActionEntry ae = mActions.get(action);
         if (ae == null) {
@@ -126,7 +136,9 @@ public final class BroadcastStats {
             pw.print("  Number received: ");
             pw.print(ae.mReceiveCount);
             pw.print(", skipped: ");
-            pw.println(ae.mSkipCount);
+            pw.print(ae.mSkipCount);
+            pw.print(", coalesced: ");
+            pw.println(ae.mCoalescedCount);
             pw.print(prefix);
             pw.print("  Total dispatch time: ");
             TimeUtils.formatDuration(ae.mTotalDispatchTime, pw);
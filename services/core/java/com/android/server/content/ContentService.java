@@ -60,6 +60,7 @@ import android.util.SparseArray;
 import android.util.SparseIntArray;
 
 import com.android.internal.annotations.GuardedBy;
+import com.android.internal.os.BackgroundThread;
 import com.android.internal.util.ArrayUtils;
 import com.android.internal.util.DumpUtils;
 import com.android.internal.util.IndentingPrintWriter;
@@ -131,6 +132,8 @@ public final class ContentService extends IContentService.Stub {
     private boolean mFactoryTest;
 
     private final ObserverNode mRootNode = new ObserverNode("");
+    private final ObserverNotifier mObserverNotifier = new ObserverNotifier(
+            BackgroundThread.get().getLooper(), this::removeDeadObserver);
 
     private SyncManager mSyncManager = null;
     private final Object mSyncManagerLock = new Object();
@@ -241,6 +244,8 @@ public final class ContentService extends IContentService.Stub {
                 pw.print(" Total number of nodes: "); pw.println(counts[0]);
                 pw.print(" Total number of observers: "); pw.println(counts[1]);
             }
+            pw.println();
+            mObserverNotifier.dump(pw);
 
             synchronized (mCache) {
                 pw.println();
@@ -421,31 +426,7 @@ public final class ContentService extends IContentService.Stub {
                 mRootNode.collectObserversLocked(uri, 0, observer, observerWantsSelfNotifications,
                         flags, userHandle, calls);
             }
-            final int numCalls = calls.size();
-            for (int i=0; i<numCalls; i++) {
-                ObserverCall oc = calls.get(i);
-                try {
-                    oc.mObserver.onChange(oc.mSelfChange, uri, userHandle);
-                    if (DEBUG) Slog.d(TAG, "Notified " + oc.mObserver + " of " + "update at "
-                            + uri);
-                } catch (RemoteException ex) {
-                    synchronized (mRootNode) {
-                        Log.w(TAG, "Found dead observer, removing");
-                        IBinder binder = oc.mObserver.asBinder();
-                        final ArrayList<ObserverNode.ObserverEntry> list
-                                = oc.mNode.mObservers;
-                        int numList = list.size();
-                        for (int j=0; j<numList; j++) {
-                            ObserverNode.ObserverEntry oe = list.get(j);
-                            if (oe.observer.asBinder() == binder) {
-                                list.remove(j);
-                                j--;
-                                numList--;
-                            }
-                        }
-                    }
-                }
-            }
+            mObserverNotifier.notify(calls, uri, userHandle, flags);
             if ((flags&ContentResolver.NOTIFY_SYNC_TO_NETWORK) != 0) {
                 SyncManager syncManager = getSyncManager();
                 if (syncManager != null) {
@@ -466,6 +447,24 @@ public final class ContentService extends IContentService.Stub {
         }
     }
 
+    private void removeDeadObserver(ObserverCall oc) {
+        synchronized (mRootNode) {
+            Log.w(TAG, "Found dead observer, removing");
+            IBinder binder = oc.mObserver.asBinder();
+            final ArrayList<ObserverNode.ObserverEntry> list
+                    = oc.mNode.mObservers;
+            int numList = list.size();
+            for (int j=0; j<numList; j++) {
+                ObserverNode.ObserverEntry oe = list.get(j);
+                if (oe.observer.asBinder() == binder) {
+                    list.remove(j);
+                    j--;
+                    numList--;
+                }
+            }
+        }
+    }
+
     private int checkUriPermission(Uri uri, int pid, int uid, int modeFlags, int userHandle) {
         try {
             return ActivityManager.getService().checkUriPermission(
@@ -1296,7 +1295,8 @@ public final class ContentService extends IContentService.Stub {
         public static final int DELETE_TYPE = 2;
 
         private String mName;
-        private ArrayList<ObserverNode> mChildren = new ArrayList<ObserverNode>();
+        // Keyed by name, so that notifications find the child for each uri segment directly.
+        private ArrayMap<String, ObserverNode> mChildren = new ArrayMap<String, ObserverNode>();
         private ArrayList<ObserverEntry> mObservers = new ArrayList<ObserverEntry>();
 
         public ObserverNode(String name) {
@@ -1328,7 +1328,7 @@ public final class ContentService extends IContentService.Stub {
                 }
                 for (int i=0; i<mChildren.size(); i++) {
                     counts[0]++;
-                    mChildren.get(i).dumpLocked(fd, pw, args, innerName, prefix,
+                    mChildren.valueAt(i).dumpLocked(fd, pw, args, innerName, prefix,
                             counts, pidCounts);
                 }
             }
@@ -1386,36 +1386,26 @@ public final class ContentService extends IContentService.Stub {
             if (segment == null) {
                 throw new IllegalArgumentException("Invalid Uri (" + uri + ") used for observer");
             }
-            int N = mChildren.size();
-            for (int i = 0; i < N; i++) {
-                ObserverNode node = mChildren.get(i);
-                if (node.mName.equals(segment)) {
-                    node.addObserverLocked(uri, index + 1, observer, notifyForDescendants,
-                            observersLock, uid, pid, userHandle);
-                    return;
-                }
+            ObserverNode node = mChildren.get(segment);
+            if (node == null) {
+                // No child found, create one
+                node = new ObserverNode(segment);
+                mChildren.put(segment, node);
             }
-
-            // No child found, create one
-            ObserverNode node = new ObserverNode(segment);
-            mChildren.add(node);
             node.addObserverLocked(uri, index + 1, observer, notifyForDescendants,
                     observersLock, uid, pid, userHandle);
         }
 
         public boolean removeObserverLocked(IContentObserver observer) {
-            int size = mChildren.size();
-            for (int i = 0; i < size; i++) {
-                boolean empty = mChildren.get(i).removeObserverLocked(observer);
+            for (int i = mChildren.size() - 1; i >= 0; i--) {
+                boolean empty = mChildren.valueAt(i).removeObserverLocked(observer);
                 if (empty) {
-                    mChildren.remove(i);
-                    i--;
-                    size--;
+                    mChildren.removeAt(i);
                 }
             }
 
             IBinder observerBinder = observer.asBinder();
-            size = mObservers.size();
+            int size = mObservers.size();
             for (int i = 0; i < size; i++) {
                 ObserverEntry entry = mObservers.get(i);
                 if (entry.observer.asBinder() == observerBinder) {
@@ -1502,17 +1492,19 @@ public final class ContentService extends IContentService.Stub {
                         flags, targetUserHandle, calls);
             }
 
-            int N = mChildren.size();
-            for (int i = 0; i < N; i++) {
-                ObserverNode node = mChildren.get(i);
-                if (segment == null || node.mName.equals(segment)) {
+            if (segment != null) {
+                ObserverNode node = mChildren.get(segment);
+                if (node != null) {
                     // We found the child,
                     node.collectObserversLocked(uri, index + 1, observer,
                             observerWantsSelfNotifications, flags, targetUserHandle, calls);
-                    if (segment != null) {
-                        break;
-                    }
                 }
+                return;
+            }
+            int N = mChildren.size();
+            for (int i = 0; i < N; i++) {
+                mChildren.valueAt(i).collectObserversLocked(uri, index + 1, observer,
+                        observerWantsSelfNotifications, flags, targetUserHandle, calls);
             }
         }
     }
@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import android.content.ContentResolver;
+import android.database.IContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.Slog;
+import android.util.TimeUtils;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+import com.android.server.content.ContentService.ObserverCall;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Delivers content changes to the observers {@link ContentService} collected for them, either
+ * right away or, for changes notified with {@link ContentResolver#NOTIFY_BATCHED}, batched per
+ * observer over {@link #BATCH_WINDOW_MS}:
+ * <ul>
+ *     <li>a change identical to one already pending for the observer is dropped;</li>
+ *     <li>once more than {@link #MAX_PENDING_URIS} different URIs are pending for an observer,
+ *     they are replaced by their closest common ancestor, which the observer would also have
+ *     been notified of, and the rest of the window is merged into it.</li>
+ * </ul>
+ */
+final class ObserverNotifier {
+    private static final String TAG = ContentService.TAG;
+
+    @VisibleForTesting
+    static final long BATCH_WINDOW_MS = 100;
+    @VisibleForTesting
+    static final int MAX_PENDING_URIS = 64;
+
+    /**
+     * Called when an observer turns out to be dead, so that it can be unregistered.
+     */
+    interface DeadObserverCallback {
+        void onObserverDied(ObserverCall call);
+    }
+
+    private static final class Change {
+        Uri uri;
+        boolean selfChange;
+        final int userId;
+
+        Change(Uri uri, boolean selfChange, int userId) {
+            this.uri = uri;
+            this.selfChange = selfChange;
+            this.userId = userId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Change)) {
+                return false;
+            }
+            final Change other = (Change) o;
+            return selfChange == other.selfChange && userId == other.userId
+                    && uri.equals(other.uri);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * uri.hashCode() + userId) + (selfChange ? 1 : 0);
+        }
+    }
+
+    private static final class PendingChanges {
+        final ObserverCall call;
+        final long firstEnqueueTime;
+        final ArrayList<Change> changes = new ArrayList<>();
+        final ArraySet<Change> seen = new ArraySet<>();
+        boolean collapsed;
+
+        PendingChanges(ObserverCall call, long firstEnqueueTime) {
+            this.call = call;
+            this.firstEnqueueTime = firstEnqueueTime;
+        }
+    }
+
+    private final Handler mHandler;
+    private final DeadObserverCallback mDeadObserverCallback;
+
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private ArrayMap<IBinder, PendingChanges> mPending = new ArrayMap<>();
+    @GuardedBy("mLock")
+    private ArrayMap<IBinder, PendingChanges> mDispatching = new ArrayMap<>();
+
+    @GuardedBy("mLock")
+    private long mDirectCount;
+    @GuardedBy("mLock")
+    private long mDirectTimeNanos;
+    @GuardedBy("mLock")
+    private long mMaxDirectTimeNanos;
+    @GuardedBy("mLock")
+    private long mBatchedCount;
+    @GuardedBy("mLock")
+    private long mCollapsedCount;
+    @GuardedBy("mLock")
+    private long mBatchedDeliveredCount;
+    @GuardedBy("mLock")
+    private long mBatchedObserverCount;
+    @GuardedBy("mLock")
+    private long mBatchLatencyTotal;
+    @GuardedBy("mLock")
+    private long mMaxBatchLatency;
+    @GuardedBy("mLock")
+    private long mBatchCount;
+
+    private final Runnable mFlushRunnable = this::flush;
+
+    ObserverNotifier(Looper looper, DeadObserverCallback deadObserverCallback) {
+        mHandler = new Handler(looper);
+        mDeadObserverCallback = deadObserverCallback;
+    }
+
+    /**
+     * Tells each of {@code calls} that {@code uri} changed for {@code userId}, now or, if
+     * {@code flags} contain {@link ContentResolver#NOTIFY_BATCHED}, within
+     * {@link #BATCH_WINDOW_MS}.
+     */
+    void notify(List<ObserverCall> calls, Uri uri, int userId, int flags) {
+        final int numCalls = calls.size();
+        if ((flags & ContentResolver.NOTIFY_BATCHED) != 0) {
+            synchronized (mLock) {
+                final long now = SystemClock.uptimeMillis();
+                if (mPending.isEmpty() && numCalls > 0) {
+                    mHandler.postDelayed(mFlushRunnable, BATCH_WINDOW_MS);
+                }
+                for (int i = 0; i < numCalls; i++) {
+                    enqueueLocked(calls.get(i), uri, userId, now);
+                }
+            }
+            return;
+        }
+
+        final long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < numCalls; i++) {
+            final ObserverCall oc = calls.get(i);
+            deliver(oc, oc.mSelfChange, uri, userId);
+        }
+        final long time = SystemClock.elapsedRealtimeNanos() - start;
+        synchronized (mLock) {
+            mDirectCount++;
+            mDirectTimeNanos += time;
+            if (time > mMaxDirectTimeNanos) {
+                mMaxDirectTimeNanos = time;
+            }
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void enqueueLocked(ObserverCall oc, Uri uri, int userId, long now) {
+        mBatchedCount++;
+        final IBinder binder = oc.mObserver.asBinder();
+        PendingChanges pending = mPending.get(binder);
+        if (pending == null) {
+            pending = new PendingChanges(oc, now);
+            mPending.put(binder, pending);
+        }
+        if (pending.collapsed) {
+            mergeLocked(pending, uri, oc.mSelfChange, userId);
+            return;
+        }
+        final Change change = new Change(uri, oc.mSelfChange, userId);
+        if (!pending.seen.add(change)) {
+            mCollapsedCount++;
+            return;
+        }
+        pending.changes.add(change);
+        if (pending.changes.size() > MAX_PENDING_URIS) {
+            final ArrayList<Change> changes = new ArrayList<>(pending.changes);
+            pending.changes.clear();
+            pending.seen.clear();
+            pending.collapsed = true;
+            for (int i = 0; i < changes.size(); i++) {
+                final Change c = changes.get(i);
+                mergeLocked(pending, c.uri, c.selfChange, c.userId);
+            }
+        }
+    }
+
+    /**
+     * Merges a change into the one pending for the same user and authority, if there is one.
+     */
+    @GuardedBy("mLock")
+    private void mergeLocked(PendingChanges pending, Uri uri, boolean selfChange, int userId) {
+        for (int i = 0; i < pending.changes.size(); i++) {
+            final Change c = pending.changes.get(i);
+            if (c.userId == userId && Objects.equals(c.uri.getAuthority(), uri.getAuthority())) {
+                c.uri = getCommonAncestor(c.uri, uri);
+                c.selfChange &= selfChange;
+                mCollapsedCount++;
+                return;
+            }
+        }
+        pending.changes.add(new Change(uri, selfChange, userId));
+    }
+
+    /**
+     * Returns the longest common path prefix of two URIs of the same authority.
+     */
+    @VisibleForTesting
+    static Uri getCommonAncestor(Uri a, Uri b) {
+        final List<String> aSegments = a.getPathSegments();
+        final List<String> bSegments = b.getPathSegments();
+        final int max = Math.min(aSegments.size(), bSegments.size());
+        int common = 0;
+        while (common < max && aSegments.get(common).equals(bSegments.get(common))) {
+            common++;
+        }
+        if (common == aSegments.size()) {
+            return a;
+        }
+        if (common == bSegments.size()) {
+            return b;
+        }
+        final Uri.Builder builder = new Uri.Builder()
+                .scheme(a.getScheme())
+                .encodedAuthority(a.getEncodedAuthority());
+        for (int i = 0; i < common; i++) {
+            builder.appendPath(aSegments.get(i));
+        }
+        return builder.build();
+    }
+
+    private void flush() {
+        final ArrayMap<IBinder, PendingChanges> dispatching;
+        synchronized (mLock) {
+            dispatching = mPending;
+            mPending = mDispatching;
+            mDispatching = dispatching;
+            mBatchCount++;
+        }
+        final long now = SystemClock.uptimeMillis();
+        long latencyTotal = 0;
+        long maxLatency = 0;
+        int delivered = 0;
+        for (int i = 0; i < dispatching.size(); i++) {
+            final PendingChanges pending = dispatching.valueAt(i);
+            final long latency = now - pending.firstEnqueueTime;
+            latencyTotal += latency;
+            if (latency > maxLatency) {
+                maxLatency = latency;
+            }
+            for (int j = 0; j < pending.changes.size(); j++) {
+                final Change c = pending.changes.get(j);
+                delivered++;
+                if (!deliver(pending.call, c.selfChange, c.uri, c.userId)) {
+                    break;
+                }
+            }
+        }
+        synchronized (mLock) {
+            mBatchedDeliveredCount += delivered;
+            mBatchedObserverCount += dispatching.size();
+            mBatchLatencyTotal += latencyTotal;
+            if (maxLatency > mMaxBatchLatency) {
+                mMaxBatchLatency = maxLatency;
+            }
+            dispatching.clear();
+        }
+    }
+
+    private boolean deliver(ObserverCall oc, boolean selfChange, Uri uri, int userId) {
+        try {
+            oc.mObserver.onChange(selfChange, uri, userId);
+            if (ContentService.DEBUG) Slog.d(TAG, "Notified " + oc.mObserver + " of "
+                    + "update at " + uri);
+            return true;
+        } catch (RemoteException ex) {
+            mDeadObserverCallback.onObserverDied(oc);
+            return false;
+        }
+    }
+
+    /**
+     * Delivers the pending batched changes now.
+     */
+    @VisibleForTesting
+    void flushForTesting() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        mHandler.runWithScissors(mFlushRunnable, 0);
+    }
+
+    void dump(IndentingPrintWriter pw) {
+        synchronized (mLock) {
+            pw.println("Observer notifications:");
+            pw.increaseIndent();
+            pw.print("Direct: "); pw.print(mDirectCount); pw.print(" notifications");
+            if (mDirectCount > 0) {
+                pw.print(", avg dispatch ");
+                pw.print(mDirectTimeNanos / mDirectCount / 1000); pw.print("us, max ");
+                pw.print(mMaxDirectTimeNanos / 1000); pw.print("us");
+            }
+            pw.println();
+            pw.print("Batched: "); pw.print(mBatchedCount); pw.print(" changes, ");
+            pw.print(mCollapsedCount); pw.print(" collapsed, ");
+            pw.print(mBatchedDeliveredCount); pw.print(" delivered in ");
+            pw.print(mBatchCount); pw.println(" batches");
+            if (mBatchedObserverCount > 0) {
+                pw.print("Batch latency: avg ");
+                TimeUtils.formatDuration(mBatchLatencyTotal / mBatchedObserverCount, pw);
+                pw.print(", max ");
+                TimeUtils.formatDuration(mMaxBatchLatency, pw);
+                pw.print(" over "); pw.print(mBatchedObserverCount); pw.println(" observers");
+            }
+            pw.print("Observers with pending changes: "); pw.println(mPending.size());
+            pw.decreaseIndent();
+        }
+    }
+}
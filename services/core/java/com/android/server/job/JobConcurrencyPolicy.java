@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.job;
+
+import android.app.job.JobInfo;
+import android.util.IntArray;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import com.android.server.job.controllers.JobStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides which pending jobs get a {@link JobServiceContext}, in two tiers:
+ * <ul>
+ *     <li>Jobs of the foreground app ({@link JobInfo#PRIORITY_TOP_APP} and above) go first, in
+ *     queue order, and may use the slots reserved for the foreground on top of the background
+ *     limit.</li>
+ *     <li>The remaining jobs share the background slots fairly between uids: each free slot goes
+ *     to the uid with the fewest jobs running or already assigned, and among those to the one
+ *     whose oldest pending job is first in the queue. An app that floods the queue therefore
+ *     only delays the jobs of other apps by as many slots as it already holds.</li>
+ * </ul>
+ * In both tiers a job that finds no free slot may still preempt a lower priority job of its
+ * own uid, and a context that prefers a uid is only given jobs of that uid.
+ *
+ * Not thread safe; {@link JobSchedulerService} calls it with its lock held.
+ */
+final class JobConcurrencyPolicy {
+
+    /**
+     * Computes the priority a job should currently run at.
+     */
+    interface PriorityEvaluator {
+        int evaluateJobPriority(JobStatus job);
+    }
+
+    private final PriorityEvaluator mPriorityEvaluator;
+
+    private int mNumActive;
+    private int mNumForeground;
+
+    // Pending background jobs, split by uid, in queue order; reused between assignments.
+    private final SparseArray<ArrayList<JobStatus>> mUidQueues = new SparseArray<>();
+    // Index in each list of mUidQueues of the next job to consider.
+    private final SparseIntArray mUidQueueHeads = new SparseIntArray();
+    // Queue position of each pending background job, in the same layout as mUidQueues.
+    private final SparseArray<IntArray> mUidQueuePositions = new SparseArray<>();
+    // Highest priority of the jobs from each index on, in the same layout as mUidQueues.
+    private final SparseArray<IntArray> mUidQueueMaxPriorities = new SparseArray<>();
+    // How many contexts each uid holds, counting the jobs assigned so far.
+    private final SparseIntArray mUidLoad = new SparseIntArray();
+
+    JobConcurrencyPolicy(PriorityEvaluator priorityEvaluator) {
+        mPriorityEvaluator = priorityEvaluator;
+    }
+
+    /**
+     * Assigns pending jobs to contexts.
+     *
+     * @param pendingJobs the pending jobs, in queue order.
+     * @param contextIdToJobMap the job running on each context on entry, and the job that should
+     *         be on it on return.
+     * @param act set to true for each context whose job should change.
+     * @param preferredUidForContext the uid each context prefers, or
+     *         {@link JobServiceContext#NO_PREFERRED_UID}.
+     * @param maxBgActive how many jobs may run at once outside of the foreground tier.
+     * @param maxFgActive how many foreground jobs may run at once, whatever the background limit.
+     */
+    void assignJobsToContexts(List<JobStatus> pendingJobs, JobStatus[] contextIdToJobMap,
+            boolean[] act, int[] preferredUidForContext, int maxBgActive, int maxFgActive) {
+        mNumActive = 0;
+        mNumForeground = 0;
+        mUidLoad.clear();
+        for (int i = 0; i < contextIdToJobMap.length; i++) {
+            final JobStatus running = contextIdToJobMap[i];
+            act[i] = false;
+            if (running != null) {
+                mNumActive++;
+                if (running.lastEvaluatedPriority >= JobInfo.PRIORITY_TOP_APP) {
+                    mNumForeground++;
+                }
+                mUidLoad.put(running.getUid(), mUidLoad.get(running.getUid()) + 1);
+            }
+        }
+
+        // Keep the queues of uids that had pending jobs last time, and drop the others.
+        for (int i = mUidQueues.size() - 1; i >= 0; i--) {
+            if (mUidQueues.valueAt(i).isEmpty()) {
+                mUidQueues.removeAt(i);
+                mUidQueuePositions.removeAt(i);
+                mUidQueueMaxPriorities.removeAt(i);
+            } else {
+                mUidQueues.valueAt(i).clear();
+                mUidQueuePositions.valueAt(i).clear();
+                mUidQueueMaxPriorities.valueAt(i).clear();
+            }
+        }
+        mUidQueueHeads.clear();
+
+        // Foreground tier, in queue order; background jobs are set aside per uid.
+        for (int i = 0; i < pendingJobs.size(); i++) {
+            final JobStatus pending = pendingJobs.get(i);
+            if (findJobContextId(pending, contextIdToJobMap) != -1) {
+                continue;
+            }
+            final int priority = mPriorityEvaluator.evaluateJobPriority(pending);
+            pending.lastEvaluatedPriority = priority;
+            if (priority >= JobInfo.PRIORITY_TOP_APP) {
+                assignJob(pending, contextIdToJobMap, act, preferredUidForContext, maxBgActive,
+                        maxFgActive);
+                continue;
+            }
+            final int uid = pending.getUid();
+            ArrayList<JobStatus> queue = mUidQueues.get(uid);
+            IntArray positions = mUidQueuePositions.get(uid);
+            if (queue == null) {
+                queue = new ArrayList<>();
+                positions = new IntArray();
+                mUidQueues.put(uid, queue);
+                mUidQueuePositions.put(uid, positions);
+                mUidQueueMaxPriorities.put(uid, new IntArray());
+            }
+            queue.add(pending);
+            positions.add(i);
+        }
+        for (int i = mUidQueues.size() - 1; i >= 0; i--) {
+            final ArrayList<JobStatus> queue = mUidQueues.valueAt(i);
+            final IntArray maxPriorities = mUidQueueMaxPriorities.valueAt(i);
+            maxPriorities.resize(queue.size());
+            int maxPriority = Integer.MIN_VALUE;
+            for (int j = queue.size() - 1; j >= 0; j--) {
+                maxPriority = Math.max(maxPriority, queue.get(j).lastEvaluatedPriority);
+                maxPriorities.set(j, maxPriority);
+            }
+        }
+
+        // Background tier, a job of the least loaded uid at a time.
+        while (true) {
+            int bestIndex = -1;
+            int bestLoad = Integer.MAX_VALUE;
+            int bestPosition = Integer.MAX_VALUE;
+            for (int i = mUidQueues.size() - 1; i >= 0; i--) {
+                final int uid = mUidQueues.keyAt(i);
+                final int head = mUidQueueHeads.get(uid);
+                final ArrayList<JobStatus> queue = mUidQueues.valueAt(i);
+                if (head >= queue.size()) {
+                    continue;
+                }
+                final int load = mUidLoad.get(uid);
+                final int position = mUidQueuePositions.valueAt(i).get(head);
+                if (load < bestLoad || (load == bestLoad && position < bestPosition)) {
+                    bestIndex = i;
+                    bestLoad = load;
+                    bestPosition = position;
+                }
+            }
+            if (bestIndex < 0) {
+                break;
+            }
+            if (!hasFreeContext(contextIdToJobMap, maxBgActive)
+                    && !canPreemptRunningJob(contextIdToJobMap)) {
+                // Contexts only free up between assignments, and what is left can't preempt
+                // anything, so the remaining jobs would all be turned down.
+                break;
+            }
+            final int uid = mUidQueues.keyAt(bestIndex);
+            final int head = mUidQueueHeads.get(uid);
+            mUidQueueHeads.put(uid, head + 1);
+            assignJob(mUidQueues.valueAt(bestIndex).get(head), contextIdToJobMap, act,
+                    preferredUidForContext, maxBgActive, maxFgActive);
+        }
+    }
+
+    /**
+     * Puts {@code pending} on a free context if the limits allow it, or else in place of the
+     * lowest priority job of the same uid that is running at a lower priority than it.
+     */
+    private void assignJob(JobStatus pending, JobStatus[] contextIdToJobMap, boolean[] act,
+            int[] preferredUidForContext, int maxBgActive, int maxFgActive) {
+        final int priority = pending.lastEvaluatedPriority;
+        final int uid = pending.getUid();
+        final boolean foreground = priority >= JobInfo.PRIORITY_TOP_APP;
+        final boolean canUseFreeContext = mNumActive < maxBgActive
+                || (foreground && mNumForeground < maxFgActive);
+        int minPriority = Integer.MAX_VALUE;
+        int contextId = -1;
+        boolean freeContext = false;
+        for (int j = 0; j < contextIdToJobMap.length; j++) {
+            final JobStatus job = contextIdToJobMap[j];
+            if (job == null) {
+                final int preferredUid = preferredUidForContext[j];
+                if (canUseFreeContext && (preferredUid == uid
+                        || preferredUid == JobServiceContext.NO_PREFERRED_UID)) {
+                    contextId = j;
+                    freeContext = true;
+                    break;
+                }
+                continue;
+            }
+            if (job.getUid() != uid) {
+                continue;
+            }
+            final int runningPriority = mPriorityEvaluator.evaluateJobPriority(job);
+            if (runningPriority >= priority) {
+                continue;
+            }
+            if (runningPriority < minPriority) {
+                minPriority = runningPriority;
+                contextId = j;
+            }
+        }
+        if (contextId == -1) {
+            return;
+        }
+        contextIdToJobMap[contextId] = pending;
+        act[contextId] = true;
+        if (freeContext) {
+            mNumActive++;
+            if (foreground) {
+                mNumForeground++;
+            }
+            mUidLoad.put(uid, mUidLoad.get(uid) + 1);
+        }
+    }
+
+    private boolean hasFreeContext(JobStatus[] contextIdToJobMap, int maxBgActive) {
+        if (mNumActive >= maxBgActive) {
+            return false;
+        }
+        for (int j = 0; j < contextIdToJobMap.length; j++) {
+            if (contextIdToJobMap[j] == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether a background job not considered yet runs at a higher priority than a job
+     * of its uid that is running or assigned, and so could preempt it.
+     */
+    private boolean canPreemptRunningJob(JobStatus[] contextIdToJobMap) {
+        for (int j = 0; j < contextIdToJobMap.length; j++) {
+            final JobStatus job = contextIdToJobMap[j];
+            if (job == null) {
+                continue;
+            }
+            final int index = mUidQueues.indexOfKey(job.getUid());
+            if (index < 0) {
+                continue;
+            }
+            final int head = mUidQueueHeads.get(job.getUid());
+            if (head < mUidQueues.valueAt(index).size()
+                    && mUidQueueMaxPriorities.valueAt(index).get(head)
+                            > mPriorityEvaluator.evaluateJobPriority(job)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns how many contexts were running or assigned a job by the last assignment.
+     */
+    int getNumActive() {
+        return mNumActive;
+    }
+
+    /**
+     * Returns how many contexts were running or assigned a foreground job by the last
+     * assignment.
+     */
+    int getNumForeground() {
+        return mNumForeground;
+    }
+
+    static int findJobContextId(JobStatus jobStatus, JobStatus[] map) {
+        for (int i = 0; i < map.length; i++) {
+            if (map[i] != null && map[i].matches(jobStatus.getUid(), jobStatus.getJobId())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
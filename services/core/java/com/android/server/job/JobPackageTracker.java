@@ -82,6 +82,10 @@ public final class JobPackageTracker {
         int pendingNesting;
         int pendingCount;
         boolean hadPending;
+        // How long jobs waited between being made pending and starting to run.
+        int queueLatencyCount;
+        long queueLatencyTotal;
+        long queueLatencyMax;
         final SparseIntArray stopReasons = new SparseIntArray();
 
         public long getActiveTime(long now) {
@@ -195,6 +199,15 @@ public final class JobPackageTracker {
             pe.stopReasons.put(stopReason, count+1);
         }
 
+        void noteQueueLatency(int uid, String pkg, long latency) {
+            PackageEntry pe = getOrCreateEntry(uid, pkg);
+            pe.queueLatencyCount++;
+            pe.queueLatencyTotal += latency;
+            if (latency > pe.queueLatencyMax) {
+                pe.queueLatencyMax = latency;
+            }
+        }
+
         void incActiveTop(int uid, String pkg, long now) {
             PackageEntry pe = getOrCreateEntry(uid, pkg);
             if (pe.activeTopNesting == 0) {
@@ -259,6 +272,11 @@ public final class JobPackageTracker {
                     outPe.activeTopCount += pe.activeTopCount;
                     outPe.pastPendingTime += pe.pastPendingTime;
                     outPe.pendingCount += pe.pendingCount;
+                    outPe.queueLatencyCount += pe.queueLatencyCount;
+                    outPe.queueLatencyTotal += pe.queueLatencyTotal;
+                    if (pe.queueLatencyMax > outPe.queueLatencyMax) {
+                        outPe.queueLatencyMax = pe.queueLatencyMax;
+                    }
                     if (pe.activeNesting > 0) {
                         outPe.pastActiveTime += now - pe.activeStartTime;
                         outPe.hadActive = true;
@@ -343,6 +361,13 @@ public final class JobPackageTracker {
                         pw.print(" (active-top)");
                     }
                     pw.println();
+                    if (pe.queueLatencyCount > 0) {
+                        pw.print(prefix); pw.print("    Queue latency: avg ");
+                        TimeUtils.formatDuration(pe.queueLatencyTotal / pe.queueLatencyCount, pw);
+                        pw.print(", max ");
+                        TimeUtils.formatDuration(pe.queueLatencyMax, pw);
+                        pw.print(" over "); pw.print(pe.queueLatencyCount); pw.println(" starts");
+                    }
                     if (pe.stopReasons.size() > 0) {
                         pw.print(prefix); pw.print("    ");
                         for (int k = 0; k < pe.stopReasons.size(); k++) {
@@ -392,6 +417,10 @@ public final class JobPackageTracker {
         final long now = SystemClock.uptimeMillis();
         job.madeActive = now;
         rebatchIfNeeded(now);
+        if (job.madePending > 0) {
+            mCurDataSet.noteQueueLatency(job.getSourceUid(), job.getSourcePackageName(),
+                    now - job.madePending);
+        }
         if (job.lastEvaluatedPriority >= JobInfo.PRIORITY_TOP_APP) {
             mCurDataSet.incActiveTop(job.getSourceUid(), job.getSourcePackageName(), now);
         } else {
@@ -111,6 +111,11 @@ public final class JobSchedulerService extends com.android.server.SystemService
 
     /** The maximum number of concurrent jobs we run at one time. */
     private static final int MAX_JOB_CONTEXTS_COUNT = 16;
+    /** How often we read the load average when assigning jobs to contexts. */
+    private static final long CPU_LOAD_SAMPLE_INTERVAL = 10 * 1000;
+    private static final int[] LOAD_AVERAGE_FORMAT = new int[] {
+        Process.PROC_SPACE_TERM | Process.PROC_OUT_FLOAT    // 1 min
+    };
     /** Enforce a per-app limit on scheduled jobs? */
     private static final boolean ENFORCE_MAX_JOBS = true;
     /** The maximum number of jobs that we allow an unprivileged app to schedule */
@@ -171,6 +176,20 @@ public final class JobSchedulerService extends com.android.server.SystemService
      */
     int mMaxActiveJobs = 1;
 
+    /**
+     * Hands out the job contexts; see {@link JobConcurrencyPolicy}.
+     */
+    final JobConcurrencyPolicy mConcurrencyPolicy =
+            new JobConcurrencyPolicy(this::evaluateJobPriorityLocked);
+
+    /**
+     * The 1 minute load average divided by the number of cpus, as last sampled at
+     * {@link #mLastCpuLoadSampleTime}, in the uptime base.
+     */
+    float mCpuLoadPerCore;
+    long mLastCpuLoadSampleTime;
+    private final float[] mTmpLoadAverages = new float[1];
+
     /**
      * Which uids are currently in the foreground.
      */
@@ -220,6 +239,7 @@ public final class JobSchedulerService extends com.android.server.SystemService
         private static final String KEY_BG_MODERATE_JOB_COUNT = "bg_moderate_job_count";
         private static final String KEY_BG_LOW_JOB_COUNT = "bg_low_job_count";
         private static final String KEY_BG_CRITICAL_JOB_COUNT = "bg_critical_job_count";
+        private static final String KEY_BG_HIGH_CPU_LOAD = "bg_high_cpu_load";
         private static final String KEY_MAX_STANDARD_RESCHEDULE_COUNT
                 = "max_standard_reschedule_count";
         private static final String KEY_MAX_WORK_RESCHEDULE_COUNT = "max_work_reschedule_count";
@@ -240,6 +260,7 @@ public final class JobSchedulerService extends com.android.server.SystemService
         private static final int DEFAULT_BG_MODERATE_JOB_COUNT = 4;
         private static final int DEFAULT_BG_LOW_JOB_COUNT = 1;
         private static final int DEFAULT_BG_CRITICAL_JOB_COUNT = 1;
+        private static final float DEFAULT_BG_HIGH_CPU_LOAD = 1.5f;
         private static final int DEFAULT_MAX_STANDARD_RESCHEDULE_COUNT = Integer.MAX_VALUE;
         private static final int DEFAULT_MAX_WORK_RESCHEDULE_COUNT = Integer.MAX_VALUE;
         private static final long DEFAULT_MIN_LINEAR_BACKOFF_TIME = JobInfo.MIN_BACKOFF_MILLIS;
@@ -314,6 +335,11 @@ public final class JobSchedulerService extends com.android.server.SystemService
          * memory state.
          */
         int BG_CRITICAL_JOB_COUNT = DEFAULT_BG_CRITICAL_JOB_COUNT;
+        /**
+         * The load average per cpu above which we allow as many background jobs as we would if
+         * the memory state was one level worse.
+         */
+        float BG_HIGH_CPU_LOAD = DEFAULT_BG_HIGH_CPU_LOAD;
         /**
          * The maximum number of times we allow a job to have itself rescheduled before
          * giving up on it, for standard jobs.
@@ -403,6 +429,8 @@ public final class JobSchedulerService extends com.android.server.SystemService
                 if ((FG_JOB_COUNT+BG_CRITICAL_JOB_COUNT) > MAX_JOB_CONTEXTS_COUNT) {
                     BG_CRITICAL_JOB_COUNT = MAX_JOB_CONTEXTS_COUNT - FG_JOB_COUNT;
                 }
+                BG_HIGH_CPU_LOAD = mParser.getFloat(KEY_BG_HIGH_CPU_LOAD,
+                        DEFAULT_BG_HIGH_CPU_LOAD);
                 MAX_STANDARD_RESCHEDULE_COUNT = mParser.getInt(KEY_MAX_STANDARD_RESCHEDULE_COUNT,
                         DEFAULT_MAX_STANDARD_RESCHEDULE_COUNT);
                 MAX_WORK_RESCHEDULE_COUNT = mParser.getInt(KEY_MAX_WORK_RESCHEDULE_COUNT,
@@ -459,6 +487,9 @@ public final class JobSchedulerService extends com.android.server.SystemService
             pw.print("    "); pw.print(KEY_BG_CRITICAL_JOB_COUNT); pw.print("=");
             pw.print(BG_CRITICAL_JOB_COUNT); pw.println();
 
+            pw.print("    "); pw.print(KEY_BG_HIGH_CPU_LOAD); pw.print("=");
+            pw.print(BG_HIGH_CPU_LOAD); pw.println();
+
             pw.print("    "); pw.print(KEY_MAX_STANDARD_RESCHEDULE_COUNT); pw.print("=");
             pw.print(MAX_STANDARD_RESCHEDULE_COUNT); pw.println();
 
@@ -1356,7 +1387,7 @@ public final class JobSchedulerService extends com.android.server.SystemService
     }
 
     /**
-     * Run through list of jobs and execute all possible - at least one is expired so we do
+     * Run through the ready jobs and execute all possible - at least one is expired so we do
      * as many as we can.
      */
     private void queueReadyJobsForExecutionLocked() {
@@ -1366,7 +1397,7 @@ public final class JobSchedulerService extends com.android.server.SystemService
         noteJobsNonpending(mPendingJobs);
         mPendingJobs.clear();
         stopNonReadyActiveJobsLocked();
-        mJobs.forEachJob(mReadyQueueFunctor);
+        mJobs.forEachReadyJob(mReadyQueueFunctor);
         mReadyQueueFunctor.postProcess();
 
         if (DEBUG) {
@@ -1431,7 +1462,7 @@ public final class JobSchedulerService extends com.android.server.SystemService
             reset();
         }
 
-        // Functor method invoked for each job via JobStore.forEachJob()
+        // Functor method invoked for each ready job via JobStore.forEachReadyJob()
         @Override
         public void process(JobStatus job) {
             if (isReadyToBeExecutedLocked(job)) {
@@ -1520,7 +1551,7 @@ public final class JobSchedulerService extends com.android.server.SystemService
         noteJobsNonpending(mPendingJobs);
         mPendingJobs.clear();
         stopNonReadyActiveJobsLocked();
-        mJobs.forEachJob(mMaybeQueueFunctor);
+        mJobs.forEachReadyJob(mMaybeQueueFunctor);
         mMaybeQueueFunctor.postProcess();
     }
 
@@ -1644,107 +1675,26 @@ public final class JobSchedulerService extends com.android.server.SystemService
             Slog.d(TAG, printPendingQueue());
         }
 
-        int memLevel;
-        try {
-            memLevel = ActivityManager.getService().getMemoryTrimLevel();
-        } catch (RemoteException e) {
-            memLevel = ProcessStats.ADJ_MEM_FACTOR_NORMAL;
-        }
-        switch (memLevel) {
-            case ProcessStats.ADJ_MEM_FACTOR_MODERATE:
-                mMaxActiveJobs = mConstants.BG_MODERATE_JOB_COUNT;
-                break;
-            case ProcessStats.ADJ_MEM_FACTOR_LOW:
-                mMaxActiveJobs = mConstants.BG_LOW_JOB_COUNT;
-                break;
-            case ProcessStats.ADJ_MEM_FACTOR_CRITICAL:
-                mMaxActiveJobs = mConstants.BG_CRITICAL_JOB_COUNT;
-                break;
-            default:
-                mMaxActiveJobs = mConstants.BG_NORMAL_JOB_COUNT;
-                break;
-        }
+        mMaxActiveJobs = getMaxBackgroundJobsLocked();
 
         JobStatus[] contextIdToJobMap = mTmpAssignContextIdToJobMap;
         boolean[] act = mTmpAssignAct;
         int[] preferredUidForContext = mTmpAssignPreferredUidForContext;
-        int numActive = 0;
-        int numForeground = 0;
         for (int i=0; i<MAX_JOB_CONTEXTS_COUNT; i++) {
             final JobServiceContext js = mActiveServices.get(i);
-            final JobStatus status = js.getRunningJobLocked();
-            if ((contextIdToJobMap[i] = status) != null) {
-                numActive++;
-                if (status.lastEvaluatedPriority >= JobInfo.PRIORITY_TOP_APP) {
-                    numForeground++;
-                }
-            }
-            act[i] = false;
+            contextIdToJobMap[i] = js.getRunningJobLocked();
             preferredUidForContext[i] = js.getPreferredUid();
         }
         if (DEBUG) {
             Slog.d(TAG, printContextIdToJobMap(contextIdToJobMap, "running jobs initial"));
         }
-        for (int i=0; i<mPendingJobs.size(); i++) {
-            JobStatus nextPending = mPendingJobs.get(i);
-
-            // If job is already running, go to next job.
-            int jobRunningContext = findJobContextIdFromMap(nextPending, contextIdToJobMap);
-            if (jobRunningContext != -1) {
-                continue;
-            }
-
-            final int priority = evaluateJobPriorityLocked(nextPending);
-            nextPending.lastEvaluatedPriority = priority;
-
-            // Find a context for nextPending. The context should be available OR
-            // it should have lowest priority among all running jobs
-            // (sharing the same Uid as nextPending)
-            int minPriority = Integer.MAX_VALUE;
-            int minPriorityContextId = -1;
-            for (int j=0; j<MAX_JOB_CONTEXTS_COUNT; j++) {
-                JobStatus job = contextIdToJobMap[j];
-                int preferredUid = preferredUidForContext[j];
-                if (job == null) {
-                    if ((numActive < mMaxActiveJobs ||
-                            (priority >= JobInfo.PRIORITY_TOP_APP &&
-                                    numForeground < mConstants.FG_JOB_COUNT)) &&
-                            (preferredUid == nextPending.getUid() ||
-                                    preferredUid == JobServiceContext.NO_PREFERRED_UID)) {
-                        // This slot is free, and we haven't yet hit the limit on
-                        // concurrent jobs...  we can just throw the job in to here.
-                        minPriorityContextId = j;
-                        break;
-                    }
-                    // No job on this context, but nextPending can't run here because
-                    // the context has a preferred Uid or we have reached the limit on
-                    // concurrent jobs.
-                    continue;
-                }
-                if (job.getUid() != nextPending.getUid()) {
-                    continue;
-                }
-                if (evaluateJobPriorityLocked(job) >= nextPending.lastEvaluatedPriority) {
-                    continue;
-                }
-                if (minPriority > nextPending.lastEvaluatedPriority) {
-                    minPriority = nextPending.lastEvaluatedPriority;
-                    minPriorityContextId = j;
-                }
-            }
-            if (minPriorityContextId != -1) {
-                contextIdToJobMap[minPriorityContextId] = nextPending;
-                act[minPriorityContextId] = true;
-                numActive++;
-                if (priority >= JobInfo.PRIORITY_TOP_APP) {
-                    numForeground++;
-                }
-            }
-        }
+        mConcurrencyPolicy.assignJobsToContexts(mPendingJobs, contextIdToJobMap, act,
+                preferredUidForContext, mMaxActiveJobs, mConstants.FG_JOB_COUNT);
         if (DEBUG) {
             Slog.d(TAG, printContextIdToJobMap(contextIdToJobMap, "running jobs final"));
         }
-        mJobPackageTracker.noteConcurrency(numActive, numForeground);
+        mJobPackageTracker.noteConcurrency(mConcurrencyPolicy.getNumActive(),
+                mConcurrencyPolicy.getNumForeground());
         for (int i=0; i<MAX_JOB_CONTEXTS_COUNT; i++) {
             boolean preservePreferredUid = false;
             if (act[i]) {
@@ -1779,13 +1729,44 @@ public final class JobSchedulerService extends com.android.server.SystemService
         }
     }
 
-    int findJobContextIdFromMap(JobStatus jobStatus, JobStatus[] map) {
-        for (int i=0; i<map.length; i++) {
-            if (map[i] != null && map[i].matches(jobStatus.getUid(), jobStatus.getJobId())) {
-                return i;
+    /**
+     * Returns how many jobs may run outside of the foreground tier: fewer as memory gets tight,
+     * and one memory level's worth fewer while the cpus are overloaded.
+     */
+    private int getMaxBackgroundJobsLocked() {
+        int memLevel;
+        try {
+            memLevel = ActivityManager.getService().getMemoryTrimLevel();
+        } catch (RemoteException e) {
+            memLevel = ProcessStats.ADJ_MEM_FACTOR_NORMAL;
+        }
+        if (memLevel < ProcessStats.ADJ_MEM_FACTOR_CRITICAL
+                && getCpuLoadPerCoreLocked() > mConstants.BG_HIGH_CPU_LOAD) {
+            memLevel++;
+        }
+        switch (memLevel) {
+            case ProcessStats.ADJ_MEM_FACTOR_MODERATE:
+                return mConstants.BG_MODERATE_JOB_COUNT;
+            case ProcessStats.ADJ_MEM_FACTOR_LOW:
+                return mConstants.BG_LOW_JOB_COUNT;
+            case ProcessStats.ADJ_MEM_FACTOR_CRITICAL:
+                return mConstants.BG_CRITICAL_JOB_COUNT;
+            default:
+                return mConstants.BG_NORMAL_JOB_COUNT;
+        }
+    }
+
+    private float getCpuLoadPerCoreLocked() {
+        final long now = SystemClock.uptimeMillis();
+        if (mLastCpuLoadSampleTime == 0
+                || now - mLastCpuLoadSampleTime >= CPU_LOAD_SAMPLE_INTERVAL) {
+            mLastCpuLoadSampleTime = now;
+            if (Process.readProcFile("/proc/loadavg", LOAD_AVERAGE_FORMAT, null, null,
+                    mTmpLoadAverages)) {
+                mCpuLoadPerCore = mTmpLoadAverages[0] / Runtime.getRuntime().availableProcessors();
             }
         }
-        return -1;
+        return mCpuLoadPerCore;
     }
 
     final class LocalService implements JobSchedulerInternal {
@@ -2091,9 +2072,9 @@ public final class JobSchedulerService extends com.android.server.SystemService
                     return JobSchedulerShellCommand.CMD_ERR_NO_JOB;
                 }
 
-                js.overrideState = (force) ? JobStatus.OVERRIDE_FULL : JobStatus.OVERRIDE_SOFT;
+                js.setOverrideState(force ? JobStatus.OVERRIDE_FULL : JobStatus.OVERRIDE_SOFT);
                 if (!js.isConstraintsSatisfied()) {
-                    js.overrideState = 0;
+                    js.setOverrideState(0);
                     return JobSchedulerShellCommand.CMD_ERR_CONSTRAINTS;
                 }
 
@@ -2321,6 +2302,8 @@ public final class JobSchedulerService extends com.android.server.SystemService
             mConstants.dump(pw);
             pw.println();
             pw.println("Started users: " + Arrays.toString(mStartedUsers));
+            pw.print("Ready jobs: ");
+            pw.println(mJobs.readyCount());
             pw.print("Registered ");
             pw.print(mJobs.size());
             pw.println(" jobs:");
@@ -2468,10 +2451,12 @@ public final class JobSchedulerService extends com.android.server.SystemService
                 pw.print("mReadyToRock="); pw.println(mReadyToRock);
                 pw.print("mReportedActive="); pw.println(mReportedActive);
                 pw.print("mMaxActiveJobs="); pw.println(mMaxActiveJobs);
+                pw.print("mCpuLoadPerCore="); pw.println(mCpuLoadPerCore);
             }
             pw.println();
             pw.print("PersistStats: ");
             pw.println(mJobs.getPersistStats());
+            mJobs.dump(pw);
         }
         pw.println();
     }
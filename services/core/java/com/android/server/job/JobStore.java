@@ -37,35 +37,32 @@ import android.util.Xml;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.util.ArrayUtils;
-import com.android.internal.util.FastXmlSerializer;
 import com.android.server.IoThread;
 import com.android.server.job.JobSchedulerInternal.JobStorePersistStats;
 import com.android.server.job.controllers.JobStatus;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
-import org.xmlpull.v1.XmlSerializer;
 
 /**
  * Maintains the master list of jobs that the job scheduler is tracking. These jobs are compared by
  * reference, so none of the functions in this class should make a copy.
- * Also handles read/write of persisted jobs.
+ * Also handles read/write of persisted jobs, which are kept in a {@link JobStoreLog}: every
+ * change to them is appended to it, and it is only rewritten once it has grown too stale.
  *
  * Note on locking:
  *      All callers to this class must <strong>lock on the class object they are calling</strong>.
- *      This is important b/c {@link com.android.server.job.JobStore.WriteJobsMapToDiskRunnable}
- *      and {@link com.android.server.job.JobStore.ReadJobMapFromDiskRunnable} lock on that
+ *      This is important b/c {@link #mWriteRunnable} and
+ *      {@link com.android.server.job.JobStore.ReadJobMapFromDiskRunnable} lock on that
  *      object.
  */
 public final class JobStore {
@@ -86,7 +83,14 @@ public final class JobStore {
     private int mDirtyOperations;
 
     private static final Object sSingletonLock = new Object();
-    private final AtomicFile mJobsFile;
+    /** Where jobs were persisted before the log; only read, to migrate them. */
+    private final AtomicFile mLegacyJobsFile;
+    /** Only written from {@link #mIoHandler}. */
+    private final JobStoreLog mLog;
+    /** Changes to persisted jobs not yet appended to {@link #mLog}. Guarded by mLock. */
+    private final ArrayList<JobStoreLog.Record> mPendingRecords = new ArrayList<>();
+    /** Set when {@link #mLog} must be rewritten from the jobs rather than appended to. */
+    private boolean mLogNeedsCompaction;
     /** Handler backed by IoThread for writing to disk. */
     private final Handler mIoHandler = IoThread.getHandler();
     private static JobStore sSingleton;
@@ -125,7 +129,8 @@ public final class JobStore {
         File systemDir = new File(dataDir, "system");
         File jobDir = new File(systemDir, "job");
         jobDir.mkdirs();
-        mJobsFile = new AtomicFile(new File(jobDir, "jobs.xml"));
+        mLegacyJobsFile = new AtomicFile(new File(jobDir, "jobs.xml"));
+        mLog = new JobStoreLog(new File(jobDir, "jobs.log"));
 
         mJobSet = new JobSet();
 
@@ -140,10 +145,19 @@ public final class JobStore {
         // an incorrect historical timestamp.  That's fine; at worst we'll reboot with
         // a *correct* timestamp, see a bunch of overdue jobs, and run them; then
         // settle into normal operation.
-        mXmlTimestamp = mJobsFile.getLastModifiedTime();
+        mXmlTimestamp = mLog.exists()
+                ? mLog.getLastModifiedTime() : mLegacyJobsFile.getLastModifiedTime();
         mRtcGood = (System.currentTimeMillis() > mXmlTimestamp);
 
-        readJobMapFromDisk(mJobSet, mRtcGood);
+        final ReadJobMapFromDiskRunnable read = new ReadJobMapFromDiskRunnable(mJobSet, mRtcGood);
+        read.run();
+        mLog.setRecordCount(read.logRecordCount);
+        if (read.logNeedsCompaction) {
+            synchronized (mLock) {
+                mLogNeedsCompaction = true;
+                maybeWriteStatusToDiskAsync();
+            }
+        }
     }
 
     public boolean jobTimesInflatedValid() {
@@ -187,6 +201,7 @@ public final class JobStore {
         boolean replaced = mJobSet.remove(jobStatus);
         mJobSet.add(jobStatus);
         if (jobStatus.isPersisted()) {
+            mPendingRecords.add(JobStoreLog.Record.put(jobStatus));
             maybeWriteStatusToDiskAsync();
         }
         if (DEBUG) {
@@ -213,7 +228,8 @@ public final class JobStore {
 
     /**
      * Remove the provided job. Will also delete the job if it was persisted.
-     * @param writeBack If true, the job will be deleted (if it was persisted) immediately.
+     * @param writeBack If true, the job will be deleted (if it was persisted) immediately,
+     *                  otherwise along with the next change written to disk.
      * @return Whether or not the job existed to be removed.
      */
     public boolean remove(JobStatus jobStatus, boolean writeBack) {
@@ -224,8 +240,11 @@ public final class JobStore {
             }
             return false;
         }
-        if (writeBack && jobStatus.isPersisted()) {
-            maybeWriteStatusToDiskAsync();
+        if (jobStatus.isPersisted()) {
+            mPendingRecords.add(JobStoreLog.Record.remove(jobStatus));
+            if (writeBack) {
+                maybeWriteStatusToDiskAsync();
+            }
         }
         return removed;
     }
@@ -236,11 +255,15 @@ public final class JobStore {
      */
     public void removeJobsOfNonUsers(int[] whitelist) {
         mJobSet.removeJobsOfNonUsers(whitelist);
+        mLogNeedsCompaction = true;
+        maybeWriteStatusToDiskAsync();
     }
 
     @VisibleForTesting
     public void clear() {
         mJobSet.clear();
+        mPendingRecords.clear();
+        mLogNeedsCompaction = true;
         maybeWriteStatusToDiskAsync();
     }
 
@@ -283,6 +306,18 @@ public final class JobStore {
         mJobSet.forEachJob(uid, functor);
     }
 
+    /**
+     * Iterate over the jobs whose constraints are currently satisfied, as per
+     * {@link JobStatus#isReady()}. This does not look at any other job, however many there are.
+     */
+    public void forEachReadyJob(JobStatusFunctor functor) {
+        mJobSet.forEachReadyJob(functor);
+    }
+
+    public int readyCount() {
+        return mJobSet.readyCount();
+    }
+
     public interface JobStatusFunctor {
         public void process(JobStatus jobStatus);
     }
@@ -297,8 +332,8 @@ public final class JobStore {
     private static final String XML_TAG_EXTRAS = "extras";
 
     /**
-     * Every time the state changes we write all the jobs in one swath, instead of trying to
-     * track incremental changes.
+     * Every time the state changes we append the pending changes to the log, or rewrite it
+     * with all the jobs if it holds too many stale records.
      */
     private void maybeWriteStatusToDiskAsync() {
         mDirtyOperations++;
@@ -317,7 +352,30 @@ public final class JobStore {
     }
 
     /**
-     * Runnable that writes {@link #mJobSet} out to xml.
+     * Writes the pending changes to disk now, and waits for the IO thread to be done with it.
+     */
+    @VisibleForTesting
+    public void writeStatusToDiskForTesting() {
+        mIoHandler.removeCallbacks(mWriteRunnable);
+        mIoHandler.runWithScissors(mWriteRunnable, 0 /* no timeout */);
+    }
+
+    @VisibleForTesting
+    public int getLogRecordCount() {
+        return mLog.getRecordCount();
+    }
+
+    @VisibleForTesting
+    public long getLogBytesWritten() {
+        return mLog.getBytesWritten();
+    }
+
+    public void dump(PrintWriter pw) {
+        mLog.dump(pw);
+    }
+
+    /**
+     * Runnable that writes the changes made to {@link #mJobSet} out to the log.
      * NOTE: This Runnable locks on mLock
      */
     private final Runnable mWriteRunnable = new Runnable() {
@@ -325,206 +383,67 @@ public final class JobStore {
         public void run() {
             final long startElapsed = SystemClock.elapsedRealtime();
             final List<JobStatus> storeCopy = new ArrayList<JobStatus>();
-            synchronized (mLock) {
-                // Clone the jobs so we can release the lock before writing.
-                mJobSet.forEachJob(new JobStatusFunctor() {
-                    @Override
-                    public void process(JobStatus job) {
-                        if (job.isPersisted()) {
-                            storeCopy.add(new JobStatus(job));
-                        }
-                    }
-                });
-            }
-            writeJobsMapImpl(storeCopy);
-            if (DEBUG) {
-                Slog.v(TAG, "Finished writing, took " + (SystemClock.elapsedRealtime()
-                        - startElapsed) + "ms");
-            }
-        }
-
-        private void writeJobsMapImpl(List<JobStatus> jobList) {
+            final ArrayList<JobStoreLog.Record> records;
+            final boolean compact;
             int numJobs = 0;
             int numSystemJobs = 0;
             int numSyncJobs = 0;
-            try {
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                XmlSerializer out = new FastXmlSerializer();
-                out.setOutput(baos, StandardCharsets.UTF_8.name());
-                out.startDocument(null, true);
-                out.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
-
-                out.startTag(null, "job-info");
-                out.attribute(null, "version", Integer.toString(JOBS_FILE_VERSION));
-                for (int i=0; i<jobList.size(); i++) {
-                    JobStatus jobStatus = jobList.get(i);
-                    if (DEBUG) {
-                        Slog.d(TAG, "Saving job " + jobStatus.getJobId());
+            synchronized (mLock) {
+                // Count the jobs, and clone them if the log is to be rewritten, so we can release
+                // the lock before writing.
+                final List<JobStatus> jobs = new ArrayList<JobStatus>();
+                mJobSet.forEachJob(job -> {
+                    if (job.isPersisted()) {
+                        jobs.add(job);
                     }
-                    out.startTag(null, "job");
-                    addAttributesToJobTag(out, jobStatus);
-                    writeConstraintsToXml(out, jobStatus);
-                    writeExecutionCriteriaToXml(out, jobStatus);
-                    writeBundleToXml(jobStatus.getJob().getExtras(), out);
-                    out.endTag(null, "job");
-
+                });
+                for (int i = 0; i < jobs.size(); i++) {
+                    final JobStatus job = jobs.get(i);
                     numJobs++;
-                    if (jobStatus.getUid() == Process.SYSTEM_UID) {
+                    if (job.getUid() == Process.SYSTEM_UID) {
                         numSystemJobs++;
-                        if (isSyncJob(jobStatus)) {
+                        if (isSyncJob(job)) {
                             numSyncJobs++;
                         }
                     }
                 }
-                out.endTag(null, "job-info");
-                out.endDocument();
-
-                // Write out to disk in one fell swoop.
-                FileOutputStream fos = mJobsFile.startWrite();
-                fos.write(baos.toByteArray());
-                mJobsFile.finishWrite(fos);
-                mDirtyOperations = 0;
-            } catch (IOException e) {
-                if (DEBUG) {
-                    Slog.v(TAG, "Error writing out job data.", e);
+                compact = mLogNeedsCompaction
+                        || mLog.shouldCompact(mPendingRecords.size(), numJobs);
+                if (compact) {
+                    for (int i = 0; i < jobs.size(); i++) {
+                        storeCopy.add(new JobStatus(jobs.get(i)));
+                    }
+                    records = null;
+                    mLogNeedsCompaction = false;
+                } else {
+                    records = new ArrayList<>(mPendingRecords);
                 }
-            } catch (XmlPullParserException e) {
-                if (DEBUG) {
-                    Slog.d(TAG, "Error persisting bundle.", e);
+                mPendingRecords.clear();
+            }
+            try {
+                if (compact) {
+                    mLog.compact(storeCopy);
+                    if (mLegacyJobsFile.exists()) {
+                        // The jobs it held are in the log now.
+                        mLegacyJobsFile.delete();
+                    }
+                } else if (!records.isEmpty()) {
+                    mLog.append(records);
                 }
-            } finally {
+                mDirtyOperations = 0;
                 mPersistInfo.countAllJobsSaved = numJobs;
                 mPersistInfo.countSystemServerJobsSaved = numSystemJobs;
                 mPersistInfo.countSystemSyncManagerJobsSaved = numSyncJobs;
-            }
-        }
-
-        /** Write out a tag with data comprising the required fields and priority of this job and
-         * its client.
-         */
-        private void addAttributesToJobTag(XmlSerializer out, JobStatus jobStatus)
-                throws IOException {
-            out.attribute(null, "jobid", Integer.toString(jobStatus.getJobId()));
-            out.attribute(null, "package", jobStatus.getServiceComponent().getPackageName());
-            out.attribute(null, "class", jobStatus.getServiceComponent().getClassName());
-            if (jobStatus.getSourcePackageName() != null) {
-                out.attribute(null, "sourcePackageName", jobStatus.getSourcePackageName());
-            }
-            if (jobStatus.getSourceTag() != null) {
-                out.attribute(null, "sourceTag", jobStatus.getSourceTag());
-            }
-            out.attribute(null, "sourceUserId", String.valueOf(jobStatus.getSourceUserId()));
-            out.attribute(null, "uid", Integer.toString(jobStatus.getUid()));
-            out.attribute(null, "priority", String.valueOf(jobStatus.getPriority()));
-            out.attribute(null, "flags", String.valueOf(jobStatus.getFlags()));
-
-            out.attribute(null, "lastSuccessfulRunTime",
-                    String.valueOf(jobStatus.getLastSuccessfulRunTime()));
-            out.attribute(null, "lastFailedRunTime",
-                    String.valueOf(jobStatus.getLastFailedRunTime()));
-        }
-
-        private void writeBundleToXml(PersistableBundle extras, XmlSerializer out)
-                throws IOException, XmlPullParserException {
-            out.startTag(null, XML_TAG_EXTRAS);
-            PersistableBundle extrasCopy = deepCopyBundle(extras, 10);
-            extrasCopy.saveToXml(out);
-            out.endTag(null, XML_TAG_EXTRAS);
-        }
-
-        private PersistableBundle deepCopyBundle(PersistableBundle bundle, int maxDepth) {
-            if (maxDepth <= 0) {
-                return null;
-            }
-            PersistableBundle copy = (PersistableBundle) bundle.clone();
-            Set<String> keySet = bundle.keySet();
-            for (String key: keySet) {
-                Object o = copy.get(key);
-                if (o instanceof PersistableBundle) {
-                    PersistableBundle bCopy = deepCopyBundle((PersistableBundle) o, maxDepth-1);
-                    copy.putPersistableBundle(key, bCopy);
+            } catch (IOException e) {
+                Slog.e(TAG, "Error writing out job data.", e);
+                synchronized (mLock) {
+                    // The changes that didn't make it are only known from the jobs themselves.
+                    mLogNeedsCompaction = true;
                 }
             }
-            return copy;
-        }
-
-        /**
-         * Write out a tag with data identifying this job's constraints. If the constraint isn't here
-         * it doesn't apply.
-         */
-        private void writeConstraintsToXml(XmlSerializer out, JobStatus jobStatus) throws IOException {
-            out.startTag(null, XML_TAG_PARAMS_CONSTRAINTS);
-            if (jobStatus.needsAnyConnectivity()) {
-                out.attribute(null, "connectivity", Boolean.toString(true));
-            }
-            if (jobStatus.needsMeteredConnectivity()) {
-                out.attribute(null, "metered", Boolean.toString(true));
-            }
-            if (jobStatus.needsUnmeteredConnectivity()) {
-                out.attribute(null, "unmetered", Boolean.toString(true));
-            }
-            if (jobStatus.needsNonRoamingConnectivity()) {
-                out.attribute(null, "not-roaming", Boolean.toString(true));
-            }
-            if (jobStatus.hasIdleConstraint()) {
-                out.attribute(null, "idle", Boolean.toString(true));
-            }
-            if (jobStatus.hasChargingConstraint()) {
-                out.attribute(null, "charging", Boolean.toString(true));
-            }
-            if (jobStatus.hasBatteryNotLowConstraint()) {
-                out.attribute(null, "battery-not-low", Boolean.toString(true));
-            }
-            out.endTag(null, XML_TAG_PARAMS_CONSTRAINTS);
-        }
-
-        private void writeExecutionCriteriaToXml(XmlSerializer out, JobStatus jobStatus)
-                throws IOException {
-            final JobInfo job = jobStatus.getJob();
-            if (jobStatus.getJob().isPeriodic()) {
-                out.startTag(null, XML_TAG_PERIODIC);
-                out.attribute(null, "period", Long.toString(job.getIntervalMillis()));
-                out.attribute(null, "flex", Long.toString(job.getFlexMillis()));
-            } else {
-                out.startTag(null, XML_TAG_ONEOFF);
-            }
-
-            // If we still have the persisted times, we need to record those directly because
-            // we haven't yet been able to calculate the usual elapsed-timebase bounds
-            // correctly due to wall-clock uncertainty.
-            Pair <Long, Long> utcJobTimes = jobStatus.getPersistedUtcTimes();
-            if (DEBUG && utcJobTimes != null) {
-                Slog.i(TAG, "storing original UTC timestamps for " + jobStatus);
-            }
-
-            final long nowRTC = System.currentTimeMillis();
-            final long nowElapsed = SystemClock.elapsedRealtime();
-            if (jobStatus.hasDeadlineConstraint()) {
-                // Wall clock deadline.
-                final long deadlineWallclock = (utcJobTimes == null)
-                        ? nowRTC + (jobStatus.getLatestRunTimeElapsed() - nowElapsed)
-                        : utcJobTimes.second;
-                out.attribute(null, "deadline", Long.toString(deadlineWallclock));
-            }
-            if (jobStatus.hasTimingDelayConstraint()) {
-                final long delayWallclock = (utcJobTimes == null)
-                        ? nowRTC + (jobStatus.getEarliestRunTime() - nowElapsed)
-                        : utcJobTimes.first;
-                out.attribute(null, "delay", Long.toString(delayWallclock));
-            }
-
-            // Only write out back-off policy if it differs from the default.
-            // This also helps the case where the job is idle -> these aren't allowed to specify
-            // back-off.
-            if (jobStatus.getJob().getInitialBackoffMillis() != JobInfo.DEFAULT_INITIAL_BACKOFF_MILLIS
-                    || jobStatus.getJob().getBackoffPolicy() != JobInfo.DEFAULT_BACKOFF_POLICY) {
-                out.attribute(null, "backoff-policy", Integer.toString(job.getBackoffPolicy()));
-                out.attribute(null, "initial-backoff", Long.toString(job.getInitialBackoffMillis()));
-            }
-            if (job.isPeriodic()) {
-                out.endTag(null, XML_TAG_PERIODIC);
-            } else {
-                out.endTag(null, XML_TAG_ONEOFF);
+            if (DEBUG) {
+                Slog.v(TAG, "Finished " + (compact ? "compacting" : "appending") + ", took "
+                        + (SystemClock.elapsedRealtime() - startElapsed) + "ms");
             }
         }
     };
@@ -536,7 +455,7 @@ public final class JobStore {
      *     allowable runtime for the job, and {@code second} is the "deadline" time at which
      *     the job becomes overdue.
      */
-    private static Pair<Long, Long> convertRtcBoundsToElapsed(Pair<Long, Long> rtcTimes,
+    static Pair<Long, Long> convertRtcBoundsToElapsed(Pair<Long, Long> rtcTimes,
             long nowElapsed) {
         final long nowWallclock = System.currentTimeMillis();
         final long earliest = (rtcTimes.first > JobStatus.NO_EARLIEST_RUNTIME)
@@ -548,19 +467,70 @@ public final class JobStore {
         return Pair.create(earliest, latest);
     }
 
+    /**
+     * As a sanity check, cap the recreated run time of a periodic job to be no later than
+     * flex+period from now. This is the latest the periodic could be pushed out. This could
+     * happen if the periodic ran early (at flex time before period), and then the device
+     * rebooted.
+     */
+    static Pair<Long, Long> clampPeriodicRuntimes(int uid, long periodMillis, long flexMillis,
+            Pair<Long, Long> elapsedRuntimes, long elapsedNow) {
+        if (elapsedRuntimes.second > elapsedNow + periodMillis + flexMillis) {
+            final long clampedLateRuntimeElapsed = elapsedNow + flexMillis
+                    + periodMillis;
+            final long clampedEarlyRuntimeElapsed = clampedLateRuntimeElapsed
+                    - flexMillis;
+            Slog.w(TAG,
+                    String.format("Periodic job for uid='%d' persisted run-time is" +
+                                    " too big [%s, %s]. Clamping to [%s,%s]",
+                            uid,
+                            DateUtils.formatElapsedTime(elapsedRuntimes.first / 1000),
+                            DateUtils.formatElapsedTime(elapsedRuntimes.second / 1000),
+                            DateUtils.formatElapsedTime(
+                                    clampedEarlyRuntimeElapsed / 1000),
+                            DateUtils.formatElapsedTime(
+                                    clampedLateRuntimeElapsed / 1000))
+            );
+            return Pair.create(clampedEarlyRuntimeElapsed, clampedLateRuntimeElapsed);
+        }
+        return elapsedRuntimes;
+    }
+
+    /**
+     * Migrate sync jobs forward from earlier, incomplete representation.
+     */
+    static String fixUpSyncJobSourcePackage(String sourcePackageName, PersistableBundle extras) {
+        if ("android".equals(sourcePackageName)
+                && extras != null
+                && extras.getBoolean("SyncManagerJob", false)) {
+            sourcePackageName = extras.getString("owningPackage", sourcePackageName);
+            if (DEBUG) {
+                Slog.i(TAG, "Fixing up sync job source package name from 'android' to '"
+                        + sourcePackageName + "'");
+            }
+        }
+        return sourcePackageName;
+    }
+
     private static boolean isSyncJob(JobStatus status) {
         return com.android.server.content.SyncJobService.class.getName()
                 .equals(status.getServiceComponent().getClassName());
     }
 
     /**
-     * Runnable that reads list of persisted job from xml. This is run once at start up, so doesn't
-     * need to go through {@link JobStore#add(com.android.server.job.controllers.JobStatus)}.
+     * Runnable that reads list of persisted job from the log, or from the xml file jobs were
+     * persisted to before it. This is run once at start up, so doesn't need to go through
+     * {@link JobStore#add(com.android.server.job.controllers.JobStatus)}.
      */
     private final class ReadJobMapFromDiskRunnable implements Runnable {
         private final JobSet jobSet;
         private final boolean rtcGood;
 
+        /** Number of records found in the log. */
+        int logRecordCount = -1;
+        /** Whether the log must be rewritten before anything is appended to it. */
+        boolean logNeedsCompaction;
+
         /**
          * @param jobSet Reference to the (empty) set of JobStatus objects that back the JobStore,
          *               so that after disk read we can populate it directly.
@@ -577,9 +547,22 @@ public final class JobStore {
             int numSyncJobs = 0;
             try {
                 List<JobStatus> jobs;
-                FileInputStream fis = mJobsFile.openRead();
+                if (mLog.exists()) {
+                    final JobStoreLog.Contents contents = mLog.read(rtcGood);
+                    jobs = contents.jobs;
+                    logRecordCount = contents.recordCount;
+                    logNeedsCompaction = contents.damaged;
+                } else {
+                    // Migrate the jobs persisted before the log; they are written to it next.
+                    logNeedsCompaction = true;
+                    FileInputStream fis = mLegacyJobsFile.openRead();
+                    try {
+                        jobs = readJobMapImpl(fis, rtcGood);
+                    } finally {
+                        fis.close();
+                    }
+                }
                 synchronized (mLock) {
-                    jobs = readJobMapImpl(fis, rtcGood);
                     if (jobs != null) {
                         long now = SystemClock.elapsedRealtime();
                         IActivityManager am = ActivityManager.getService();
@@ -599,7 +582,6 @@ public final class JobStore {
                         }
                     }
                 }
-                fis.close();
             } catch (FileNotFoundException e) {
                 if (DEBUG) {
                     Slog.d(TAG, "Could not find jobs file, probably there was nothing to load.");
@@ -764,29 +746,8 @@ public final class JobStore {
                     val = parser.getAttributeValue(null, "flex");
                     final long flexMillis = (val != null) ? Long.valueOf(val) : periodMillis;
                     jobBuilder.setPeriodic(periodMillis, flexMillis);
-                    // As a sanity check, cap the recreated run time to be no later than flex+period
-                    // from now. This is the latest the periodic could be pushed out. This could
-                    // happen if the periodic ran early (at flex time before period), and then the
-                    // device rebooted.
-                    if (elapsedRuntimes.second > elapsedNow + periodMillis + flexMillis) {
-                        final long clampedLateRuntimeElapsed = elapsedNow + flexMillis
-                                + periodMillis;
-                        final long clampedEarlyRuntimeElapsed = clampedLateRuntimeElapsed
-                                - flexMillis;
-                        Slog.w(TAG,
-                                String.format("Periodic job for uid='%d' persisted run-time is" +
-                                                " too big [%s, %s]. Clamping to [%s,%s]",
-                                        uid,
-                                        DateUtils.formatElapsedTime(elapsedRuntimes.first / 1000),
-                                        DateUtils.formatElapsedTime(elapsedRuntimes.second / 1000),
-                                        DateUtils.formatElapsedTime(
-                                                clampedEarlyRuntimeElapsed / 1000),
-                                        DateUtils.formatElapsedTime(
-                                                clampedLateRuntimeElapsed / 1000))
-                        );
-                        elapsedRuntimes =
-                                Pair.create(clampedEarlyRuntimeElapsed, clampedLateRuntimeElapsed);
-                    }
+                    elapsedRuntimes = clampPeriodicRuntimes(uid, periodMillis, flexMillis,
+                            elapsedRuntimes, elapsedNow);
                 } catch (NumberFormatException e) {
                     Slog.d(TAG, "Error reading periodic execution criteria, skipping.");
                     return null;
@@ -831,16 +792,7 @@ public final class JobStore {
             jobBuilder.setExtras(extras);
             parser.nextTag(); // Consume </extras>
 
-            // Migrate sync jobs forward from earlier, incomplete representation
-            if ("android".equals(sourcePackageName)
-                    && extras != null
-                    && extras.getBoolean("SyncManagerJob", false)) {
-                sourcePackageName = extras.getString("owningPackage", sourcePackageName);
-                if (DEBUG) {
-                    Slog.i(TAG, "Fixing up sync job source package name from 'android' to '"
-                            + sourcePackageName + "'");
-                }
-            }
+            sourcePackageName = fixUpSyncJobSourcePackage(sourcePackageName, extras);
 
             // And now we're done
             JobStatus js = new JobStatus(
@@ -961,14 +913,28 @@ public final class JobStore {
         }
     }
 
-    static final class JobSet {
+    static final class JobSet implements JobStatus.ReadinessListener {
         // Key is the getUid() originator of the jobs in each sheaf
         private SparseArray<ArraySet<JobStatus>> mJobs;
 
+        // The jobs of mJobs whose constraints are currently met, i.e. JobStatus#isReady().
+        // Controllers flip constraint bits one job at a time, and each flip only re-evaluates
+        // the job it was made on, so finding the ready jobs never needs to look at the others.
+        private final ArraySet<JobStatus> mReadyJobs = new ArraySet<>();
+
         public JobSet() {
             mJobs = new SparseArray<ArraySet<JobStatus>>();
         }
 
+        @Override
+        public void onReadinessChanged(JobStatus job) {
+            if (job.isReady()) {
+                mReadyJobs.add(job);
+            } else {
+                mReadyJobs.remove(job);
+            }
+        }
+
         public List<JobStatus> getJobsByUid(int uid) {
             ArrayList<JobStatus> matchingJobs = new ArrayList<JobStatus>();
             ArraySet<JobStatus> jobs = mJobs.get(uid);
@@ -999,13 +965,21 @@ public final class JobStore {
                 jobs = new ArraySet<JobStatus>();
                 mJobs.put(uid, jobs);
             }
-            return jobs.add(job);
+            final boolean added = jobs.add(job);
+            if (added) {
+                job.setReadinessListener(this);
+                onReadinessChanged(job);
+            }
+            return added;
         }
 
         public boolean remove(JobStatus job) {
             final int uid = job.getUid();
             ArraySet<JobStatus> jobs = mJobs.get(uid);
             boolean didRemove = (jobs != null) ? jobs.remove(job) : false;
+            if (didRemove) {
+                untrackReadiness(job);
+            }
             if (didRemove && jobs.size() == 0) {
                 // no more jobs for this uid; let the now-empty set object be GC'd.
                 mJobs.remove(uid);
@@ -1013,12 +987,23 @@ public final class JobStore {
             return didRemove;
         }
 
+        private void untrackReadiness(JobStatus job) {
+            mReadyJobs.remove(job);
+            if (job.getReadinessListener() == this) {
+                job.setReadinessListener(null);
+            }
+        }
+
         // Remove the jobs all users not specified by the whitelist of user ids
         public void removeJobsOfNonUsers(int[] whitelist) {
             for (int jobIndex = mJobs.size() - 1; jobIndex >= 0; jobIndex--) {
                 int jobUserId = UserHandle.getUserId(mJobs.keyAt(jobIndex));
                 // check if job's user id is not in the whitelist
                 if (!ArrayUtils.contains(whitelist, jobUserId)) {
+                    final ArraySet<JobStatus> jobs = mJobs.valueAt(jobIndex);
+                    for (int i = jobs.size() - 1; i >= 0; i--) {
+                        untrackReadiness(jobs.valueAt(i));
+                    }
                     mJobs.removeAt(jobIndex);
                 }
             }
@@ -1061,6 +1046,12 @@ public final class JobStore {
         }
 
         public void clear() {
+            for (int i = mJobs.size() - 1; i >= 0; i--) {
+                final ArraySet<JobStatus> jobs = mJobs.valueAt(i);
+                for (int j = jobs.size() - 1; j >= 0; j--) {
+                    untrackReadiness(jobs.valueAt(j));
+                }
+            }
             mJobs.clear();
         }
 
@@ -1105,5 +1096,15 @@ public final class JobStore {
                 }
             }
         }
+
+        public void forEachReadyJob(JobStatusFunctor functor) {
+            for (int i = mReadyJobs.size() - 1; i >= 0; i--) {
+                functor.process(mReadyJobs.valueAt(i));
+            }
+        }
+
+        public int readyCount() {
+            return mReadyJobs.size();
+        }
     }
 }
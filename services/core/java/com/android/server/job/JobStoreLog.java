@@ -0,0 +1,536 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.job;
+
+import android.app.job.JobInfo;
+import android.content.ComponentName;
+import android.os.FileUtils;
+import android.os.PersistableBundle;
+import android.os.SystemClock;
+import android.util.AtomicFile;
+import android.util.LongSparseLongArray;
+import android.util.Pair;
+import android.util.Slog;
+import android.util.Xml;
+
+import com.android.internal.util.FastXmlSerializer;
+import com.android.server.job.controllers.JobStatus;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import libcore.io.IoUtils;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlSerializer;
+
+/**
+ * The on-disk copy of the persisted jobs of a {@link JobStore}: a binary log to which each job
+ * added or removed is appended as one record, rewritten from scratch once most of its records
+ * are stale.
+ * <p>
+ * The file is a header (magic, version) followed by records, each of them
+ * <pre>
+ *     int length | int crc32 | byte type | int uid | int jobId | job (put records only)
+ * </pre>
+ * where the length and checksum cover everything after the checksum. A put record replaces any
+ * earlier record of the same uid and job id, and a remove record drops it. Records are only ever
+ * appended after the last complete one, so a crash while appending can at worst leave a torn
+ * last record, which is detected by its length or checksum and ignored on read. Compaction goes
+ * through {@link AtomicFile}, so a crash while compacting leaves the previous log.
+ * <p>
+ * Not thread safe: {@link JobStore} only writes it from the IO thread.
+ */
+final class JobStoreLog {
+    private static final String TAG = "JobStore";
+
+    private static final int MAGIC = 0x4a4f424c; // JOBL
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final int RECORD_HEADER_SIZE = 8;
+    // Type, uid and job id.
+    private static final int MIN_RECORD_LENGTH = 9;
+
+    static final int TYPE_PUT = 1;
+    static final int TYPE_REMOVE = 2;
+
+    /** Don't bother compacting a log with fewer records than this, however many are stale. */
+    private static final int MIN_RECORDS_TO_COMPACT = 64;
+
+    private static final String XML_TAG_EXTRAS = "extras";
+
+    private final AtomicFile mFile;
+
+    // Number of records in the file, or -1 if unknown, in which case it must be compacted
+    // before anything can be appended to it.
+    private int mRecordCount = -1;
+
+    // Stats, for dumpsys.
+    private long mBytesAppended;
+    private long mBytesCompacted;
+    private int mAppendCount;
+    private int mCompactionCount;
+
+    /** A record waiting to be appended to the log. */
+    static final class Record {
+        final int type;
+        final int uid;
+        final int jobId;
+        // A copy of the job, for put records.
+        final JobStatus job;
+
+        private Record(int type, int uid, int jobId, JobStatus job) {
+            this.type = type;
+            this.uid = uid;
+            this.jobId = jobId;
+            this.job = job;
+        }
+
+        static Record put(JobStatus job) {
+            return new Record(TYPE_PUT, job.getUid(), job.getJobId(), new JobStatus(job));
+        }
+
+        static Record remove(JobStatus job) {
+            return new Record(TYPE_REMOVE, job.getUid(), job.getJobId(), null);
+        }
+    }
+
+    /** What {@link #read} found in the log. */
+    static final class Contents {
+        final ArrayList<JobStatus> jobs = new ArrayList<>();
+        int recordCount;
+        // Reading stopped at a record that was torn or corrupt, or the file wasn't a log at all.
+        boolean damaged;
+    }
+
+    JobStoreLog(File file) {
+        mFile = new AtomicFile(file);
+    }
+
+    boolean exists() {
+        return mFile.exists();
+    }
+
+    long getLastModifiedTime() {
+        return mFile.getLastModifiedTime();
+    }
+
+    int getRecordCount() {
+        return mRecordCount;
+    }
+
+    /** Sets the number of records the file holds, as found by {@link #read}. */
+    void setRecordCount(int recordCount) {
+        mRecordCount = recordCount;
+    }
+
+    long getBytesWritten() {
+        return mBytesAppended + mBytesCompacted;
+    }
+
+    /**
+     * Returns true if the log should be rewritten rather than appended to, given that it is
+     * about to receive {@code pendingRecords} more records and that {@code liveJobs} jobs are
+     * persisted.
+     */
+    boolean shouldCompact(int pendingRecords, int liveJobs) {
+        if (mRecordCount < 0) {
+            return true;
+        }
+        final int records = mRecordCount + pendingRecords;
+        return records > MIN_RECORDS_TO_COMPACT && records > 2 * liveJobs;
+    }
+
+    /**
+     * Appends records to the log, and makes sure they reached the disk.
+     */
+    void append(List<Record> records) throws IOException {
+        if (mRecordCount < 0) {
+            throw new IllegalStateException("Appending to a log that must be compacted");
+        }
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final long nowRtc = System.currentTimeMillis();
+        final long nowElapsed = SystemClock.elapsedRealtime();
+        for (int i = 0; i < records.size(); i++) {
+            writeRecord(baos, records.get(i), nowRtc, nowElapsed);
+        }
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(mFile.getBaseFile(), true /* append */);
+            fos.write(baos.toByteArray());
+            FileUtils.sync(fos);
+        } catch (IOException e) {
+            // Part of the records may have made it; only a rewrite gets back to a known state.
+            mRecordCount = -1;
+            throw e;
+        } finally {
+            IoUtils.closeQuietly(fos);
+        }
+        mRecordCount += records.size();
+        mBytesAppended += baos.size();
+        mAppendCount++;
+    }
+
+    /**
+     * Replaces the log with one that holds a put record for each of {@code jobs}, which must
+     * not be modified while this runs.
+     */
+    void compact(List<JobStatus> jobs) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final DataOutputStream header = new DataOutputStream(baos);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.flush();
+        final long nowRtc = System.currentTimeMillis();
+        final long nowElapsed = SystemClock.elapsedRealtime();
+        for (int i = 0; i < jobs.size(); i++) {
+            final JobStatus job = jobs.get(i);
+            writeRecord(baos, new Record(TYPE_PUT, job.getUid(), job.getJobId(), job), nowRtc,
+                    nowElapsed);
+        }
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            fos.write(baos.toByteArray());
+            mFile.finishWrite(fos);
+        } catch (IOException e) {
+            mFile.failWrite(fos);
+            throw e;
+        }
+        mRecordCount = jobs.size();
+        mBytesCompacted += baos.size();
+        mCompactionCount++;
+    }
+
+    /**
+     * Reads back the jobs of the log. Only the last record of each job is decoded, so jobs that
+     * were rescheduled many times since the last compaction, and their extras in particular,
+     * are only parsed once.
+     */
+    Contents read(boolean rtcIsGood) throws IOException {
+        final byte[] data = mFile.readFully();
+        final Contents contents = new Contents();
+        if (data.length < HEADER_SIZE || readInt(data, 0) != MAGIC
+                || readInt(data, 4) != VERSION) {
+            Slog.wtf(TAG, "Unknown job log format, ignoring its " + data.length + " bytes");
+            contents.damaged = true;
+            return contents;
+        }
+
+        // Key is uid and job id, value is the offset and length of the job's last put record.
+        final LongSparseLongArray lastPuts = new LongSparseLongArray();
+        final CRC32 crc = new CRC32();
+        int pos = HEADER_SIZE;
+        while (pos < data.length) {
+            final int start = pos + RECORD_HEADER_SIZE;
+            final int length = start <= data.length ? readInt(data, pos) : -1;
+            if (length < MIN_RECORD_LENGTH || length > data.length - start) {
+                contents.damaged = true;
+                break;
+            }
+            crc.reset();
+            crc.update(data, start, length);
+            if ((int) crc.getValue() != readInt(data, pos + 4)) {
+                contents.damaged = true;
+                break;
+            }
+            final long key = ((long) readInt(data, start + 1) << 32)
+                    | (readInt(data, start + 5) & 0xffffffffL);
+            final int type = data[start];
+            if (type == TYPE_PUT) {
+                lastPuts.put(key, ((long) start << 32) | length);
+            } else if (type == TYPE_REMOVE) {
+                lastPuts.delete(key);
+            } else {
+                contents.damaged = true;
+                break;
+            }
+            contents.recordCount++;
+            pos = start + length;
+        }
+        if (contents.damaged) {
+            Slog.w(TAG, "Job log damaged at offset " + pos + ", ignoring the rest");
+        }
+
+        for (int i = 0; i < lastPuts.size(); i++) {
+            final long location = lastPuts.valueAt(i);
+            final int start = (int) (location >>> 32);
+            final int length = (int) location;
+            try {
+                final JobStatus job = readJob(new DataInputStream(new ByteArrayInputStream(data,
+                        start + 1, length - 1)), rtcIsGood);
+                if (job != null) {
+                    contents.jobs.add(job);
+                }
+            } catch (IOException | XmlPullParserException | IllegalArgumentException e) {
+                Slog.w(TAG, "Error reading job from log, skipping", e);
+            }
+        }
+        return contents;
+    }
+
+    void dump(PrintWriter pw) {
+        pw.print("Job log: records=");
+        pw.print(mRecordCount);
+        pw.print(" appends=");
+        pw.print(mAppendCount);
+        pw.print(" (");
+        pw.print(mBytesAppended);
+        pw.print(" bytes) compactions=");
+        pw.print(mCompactionCount);
+        pw.print(" (");
+        pw.print(mBytesCompacted);
+        pw.println(" bytes)");
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
+    private static void writeRecord(ByteArrayOutputStream dest, Record record, long nowRtc,
+            long nowElapsed) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(body);
+        out.writeByte(record.type);
+        out.writeInt(record.uid);
+        out.writeInt(record.jobId);
+        if (record.type == TYPE_PUT) {
+            writeJob(out, record.job, nowRtc, nowElapsed);
+        }
+        out.flush();
+
+        final CRC32 crc = new CRC32();
+        crc.update(body.toByteArray(), 0, body.size());
+        final DataOutputStream header = new DataOutputStream(dest);
+        header.writeInt(body.size());
+        header.writeInt((int) crc.getValue());
+        header.flush();
+        body.writeTo(dest);
+    }
+
+    /**
+     * Writes what {@link #readJob} needs to restore a job, after its uid and job id. As in the
+     * xml format, the delay and deadline are stored in wall clock time.
+     */
+    private static void writeJob(DataOutputStream out, JobStatus jobStatus, long nowRtc,
+            long nowElapsed) throws IOException {
+        final JobInfo job = jobStatus.getJob();
+        out.writeUTF(jobStatus.getServiceComponent().getPackageName());
+        out.writeUTF(jobStatus.getServiceComponent().getClassName());
+        writeNullableString(out, jobStatus.getSourcePackageName());
+        writeNullableString(out, jobStatus.getSourceTag());
+        out.writeInt(jobStatus.getSourceUserId());
+        out.writeInt(jobStatus.getPriority());
+        out.writeInt(jobStatus.getFlags());
+        out.writeInt(job.getConstraintFlags());
+        out.writeInt(job.getNetworkType());
+
+        out.writeBoolean(job.isPeriodic());
+        out.writeLong(job.getIntervalMillis());
+        out.writeLong(job.getFlexMillis());
+
+        // If we still have the persisted times, we need to record those directly because
+        // we haven't yet been able to calculate the usual elapsed-timebase bounds
+        // correctly due to wall-clock uncertainty.
+        final Pair<Long, Long> utcJobTimes = jobStatus.getPersistedUtcTimes();
+        long delayWallclock = JobStatus.NO_EARLIEST_RUNTIME;
+        if (jobStatus.hasTimingDelayConstraint()) {
+            delayWallclock = (utcJobTimes == null)
+                    ? nowRtc + (jobStatus.getEarliestRunTime() - nowElapsed)
+                    : utcJobTimes.first;
+        }
+        long deadlineWallclock = JobStatus.NO_LATEST_RUNTIME;
+        if (jobStatus.hasDeadlineConstraint()) {
+            deadlineWallclock = (utcJobTimes == null)
+                    ? nowRtc + (jobStatus.getLatestRunTimeElapsed() - nowElapsed)
+                    : utcJobTimes.second;
+        }
+        out.writeLong(delayWallclock);
+        out.writeLong(deadlineWallclock);
+
+        // Only write out back-off policy if it differs from the default, as idle jobs are not
+        // allowed to specify one.
+        final boolean hasBackoff =
+                job.getInitialBackoffMillis() != JobInfo.DEFAULT_INITIAL_BACKOFF_MILLIS
+                || job.getBackoffPolicy() != JobInfo.DEFAULT_BACKOFF_POLICY;
+        out.writeBoolean(hasBackoff);
+        out.writeInt(job.getBackoffPolicy());
+        out.writeLong(job.getInitialBackoffMillis());
+
+        out.writeLong(jobStatus.getLastSuccessfulRunTime());
+        out.writeLong(jobStatus.getLastFailedRunTime());
+
+        final byte[] extras = extrasToBytes(job.getExtras());
+        out.writeInt(extras.length);
+        out.write(extras);
+    }
+
+    /**
+     * Restores a job written by {@link #writeJob}, starting right after its record type.
+     */
+    private static JobStatus readJob(DataInputStream in, boolean rtcIsGood)
+            throws IOException, XmlPullParserException {
+        final int uid = in.readInt();
+        final int jobId = in.readInt();
+        final String packageName = in.readUTF();
+        final String className = in.readUTF();
+        final JobInfo.Builder jobBuilder =
+                new JobInfo.Builder(jobId, new ComponentName(packageName, className));
+        jobBuilder.setPersisted(true);
+        String sourcePackageName = readNullableString(in);
+        final String sourceTag = readNullableString(in);
+        final int sourceUserId = in.readInt();
+        jobBuilder.setPriority(in.readInt());
+        jobBuilder.setFlags(in.readInt());
+        final int constraintFlags = in.readInt();
+        jobBuilder.setRequiresCharging(
+                (constraintFlags & JobInfo.CONSTRAINT_FLAG_CHARGING) != 0);
+        jobBuilder.setRequiresBatteryNotLow(
+                (constraintFlags & JobInfo.CONSTRAINT_FLAG_BATTERY_NOT_LOW) != 0);
+        jobBuilder.setRequiresDeviceIdle(
+                (constraintFlags & JobInfo.CONSTRAINT_FLAG_DEVICE_IDLE) != 0);
+        jobBuilder.setRequiresStorageNotLow(
+                (constraintFlags & JobInfo.CONSTRAINT_FLAG_STORAGE_NOT_LOW) != 0);
+        jobBuilder.setRequiredNetworkType(in.readInt());
+
+        final boolean periodic = in.readBoolean();
+        final long periodMillis = in.readLong();
+        final long flexMillis = in.readLong();
+
+        // Tuple of (earliest runtime, latest runtime) in UTC.
+        final Pair<Long, Long> rtcRuntimes = Pair.create(in.readLong(), in.readLong());
+        final long elapsedNow = SystemClock.elapsedRealtime();
+        Pair<Long, Long> elapsedRuntimes =
+                JobStore.convertRtcBoundsToElapsed(rtcRuntimes, elapsedNow);
+        if (periodic) {
+            jobBuilder.setPeriodic(periodMillis, flexMillis);
+            elapsedRuntimes = JobStore.clampPeriodicRuntimes(uid, periodMillis, flexMillis,
+                    elapsedRuntimes, elapsedNow);
+        } else {
+            if (elapsedRuntimes.first != JobStatus.NO_EARLIEST_RUNTIME) {
+                jobBuilder.setMinimumLatency(elapsedRuntimes.first - elapsedNow);
+            }
+            if (elapsedRuntimes.second != JobStatus.NO_LATEST_RUNTIME) {
+                jobBuilder.setOverrideDeadline(elapsedRuntimes.second - elapsedNow);
+            }
+        }
+
+        final boolean hasBackoff = in.readBoolean();
+        final int backoffPolicy = in.readInt();
+        final long initialBackoff = in.readLong();
+        if (hasBackoff) {
+            jobBuilder.setBackoffCriteria(initialBackoff, backoffPolicy);
+        }
+
+        final long lastSuccessfulRunTime = in.readLong();
+        final long lastFailedRunTime = in.readLong();
+
+        final byte[] extrasBytes = new byte[in.readInt()];
+        in.readFully(extrasBytes);
+        final PersistableBundle extras = extrasFromBytes(extrasBytes);
+        jobBuilder.setExtras(extras);
+        sourcePackageName = JobStore.fixUpSyncJobSourcePackage(sourcePackageName, extras);
+
+        return new JobStatus(
+                jobBuilder.build(), uid, sourcePackageName, sourceUserId, sourceTag,
+                elapsedRuntimes.first, elapsedRuntimes.second,
+                lastSuccessfulRunTime, lastFailedRunTime,
+                (rtcIsGood) ? null : rtcRuntimes);
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value)
+            throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Extras are kept in the xml form {@link PersistableBundle} defines, which is stable across
+     * releases; an empty bundle takes no bytes.
+     */
+    private static byte[] extrasToBytes(PersistableBundle extras) throws IOException {
+        if (extras == null || extras.isEmpty()) {
+            return new byte[0];
+        }
+        try {
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            final XmlSerializer out = new FastXmlSerializer();
+            out.setOutput(baos, StandardCharsets.UTF_8.name());
+            out.startDocument(null, true);
+            out.startTag(null, XML_TAG_EXTRAS);
+            deepCopyBundle(extras, 10).saveToXml(out);
+            out.endTag(null, XML_TAG_EXTRAS);
+            out.endDocument();
+            return baos.toByteArray();
+        } catch (XmlPullParserException e) {
+            throw new IOException("Error persisting bundle", e);
+        }
+    }
+
+    private static PersistableBundle extrasFromBytes(byte[] bytes)
+            throws IOException, XmlPullParserException {
+        if (bytes.length == 0) {
+            return new PersistableBundle();
+        }
+        final XmlPullParser parser = Xml.newPullParser();
+        parser.setInput(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8.name());
+        int eventType;
+        do {
+            eventType = parser.next();
+        } while (eventType != XmlPullParser.START_TAG && eventType != XmlPullParser.END_DOCUMENT);
+        if (eventType != XmlPullParser.START_TAG || !XML_TAG_EXTRAS.equals(parser.getName())) {
+            throw new XmlPullParserException("Expected <" + XML_TAG_EXTRAS + ">");
+        }
+        return PersistableBundle.restoreFromXml(parser);
+    }
+
+    private static PersistableBundle deepCopyBundle(PersistableBundle bundle, int maxDepth) {
+        if (maxDepth <= 0) {
+            return null;
+        }
+        PersistableBundle copy = (PersistableBundle) bundle.clone();
+        Set<String> keySet = bundle.keySet();
+        for (String key: keySet) {
+            Object o = copy.get(key);
+            if (o instanceof PersistableBundle) {
+                PersistableBundle bCopy = deepCopyBundle((PersistableBundle) o, maxDepth-1);
+                copy.putPersistableBundle(key, bCopy);
+            }
+        }
+        return copy;
+    }
+}
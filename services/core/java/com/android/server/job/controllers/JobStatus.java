@@ -177,9 +177,20 @@ public final class JobStatus {
 
     public int nextPendingWorkId = 1;
 
-    // Used by shell commands
+    // Used by shell commands; set with setOverrideState().
     public int overrideState = 0;
 
+    /**
+     * Told whenever {@link #isReady()} may have changed. Set by the {@link
+     * com.android.server.job.JobStore.JobSet} holding the job, so that it can keep track of its
+     * ready jobs without looking at all the others.
+     */
+    public interface ReadinessListener {
+        void onReadinessChanged(JobStatus job);
+    }
+
+    private ReadinessListener readinessListener;
+
     // When this job was enqueued, for ordering.  (in elapsedRealtimeMillis)
     public long enqueueTime;
 
@@ -713,9 +724,29 @@ public final class JobStatus {
             return false;
         }
         satisfiedConstraints = (satisfiedConstraints&~constraint) | (state ? constraint : 0);
+        if (readinessListener != null) {
+            readinessListener.onReadinessChanged(this);
+        }
         return true;
     }
 
+    public void setOverrideState(int state) {
+        if (overrideState != state) {
+            overrideState = state;
+            if (readinessListener != null) {
+                readinessListener.onReadinessChanged(this);
+            }
+        }
+    }
+
+    public ReadinessListener getReadinessListener() {
+        return readinessListener;
+    }
+
+    public void setReadinessListener(ReadinessListener listener) {
+        readinessListener = listener;
+    }
+
     boolean isConstraintSatisfied(int constraint) {
         return (satisfiedConstraints&constraint) != 0;
     }
@@ -186,6 +186,7 @@ import com.android.internal.telephony.PhoneConstants;
 import com.android.internal.util.ArrayUtils;
 import com.android.internal.util.DumpUtils;
 import com.android.internal.util.FastXmlSerializer;
+import com.android.internal.util.ConcurrentUtils;
 import com.android.internal.util.IndentingPrintWriter;
 import com.android.internal.util.Preconditions;
 import com.android.server.DeviceIdleController;
@@ -218,6 +219,7 @@ import java.util.Calendar;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -454,6 +456,13 @@ public class NetworkPolicyManagerService extends INetworkPolicyManager.Stub {
     private final RemoteCallbackList<INetworkPolicyListener>
             mListeners = new RemoteCallbackList<>();
 
+    /**
+     * Delivers the high-frequency listener callbacks, so that a slow listener does not hold
+     * up the others or the handler.
+     */
+    private final Executor mListenerExecutor = ConcurrentUtils.newFixedThreadPool(2,
+            "NetworkPolicyListener", Process.THREAD_PRIORITY_FOREGROUND);
+
     final Handler mHandler;
     @VisibleForTesting
     public final Handler mUidEventHandler;
@@ -2875,6 +2884,12 @@ public class NetworkPolicyManagerService extends INetworkPolicyManager.Stub {
                 fout.print("Device idle: "); fout.println(mDeviceIdleMode);
                 fout.print("Metered ifaces: "); fout.println(String.valueOf(mMeteredIfaces));
 
+                fout.println();
+                fout.println("Listener dispatch:");
+                fout.increaseIndent();
+                mListeners.dumpAsyncDispatchStats(fout, "");
+                fout.decreaseIndent();
+
                 fout.println();
                 fout.println("Network policies:");
                 fout.increaseIndent();
@@ -3861,22 +3876,15 @@ public class NetworkPolicyManagerService extends INetworkPolicyManager.Stub {
                 case MSG_RULES_CHANGED: {
                     final int uid = msg.arg1;
                     final int uidRules = msg.arg2;
-                    final int length = mListeners.beginBroadcast();
-                    for (int i = 0; i < length; i++) {
-                        final INetworkPolicyListener listener = mListeners.getBroadcastItem(i);
-                        dispatchUidRulesChanged(listener, uid, uidRules);
-                    }
-                    mListeners.finishBroadcast();
+                    // Listeners that fall behind only need the latest rules for each uid.
+                    mListeners.broadcastAsync(mListenerExecutor, Pair.create(msg.what, uid),
+                            listener -> dispatchUidRulesChanged(listener, uid, uidRules));
                     return true;
                 }
                 case MSG_METERED_IFACES_CHANGED: {
                     final String[] meteredIfaces = (String[]) msg.obj;
-                    final int length = mListeners.beginBroadcast();
-                    for (int i = 0; i < length; i++) {
-                        final INetworkPolicyListener listener = mListeners.getBroadcastItem(i);
-                        dispatchMeteredIfacesChanged(listener, meteredIfaces);
-                    }
-                    mListeners.finishBroadcast();
+                    mListeners.broadcastAsync(mListenerExecutor, msg.what,
+                            listener -> dispatchMeteredIfacesChanged(listener, meteredIfaces));
                     return true;
                 }
                 case MSG_LIMIT_REACHED: {
@@ -61,4 +61,9 @@ public class BadgeExtractor implements NotificationSignalExtractor {
     public void setConfig(RankingConfig config) {
         mConfig = config;
     }
+
+    @Override
+    public Class<?>[] getDependencies() {
+        return new Class<?>[] { NotificationChannelExtractor.class };
+    }
 }
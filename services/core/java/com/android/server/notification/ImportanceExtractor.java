@@ -50,4 +50,9 @@ public class ImportanceExtractor implements NotificationSignalExtractor {
     public void setConfig(RankingConfig config) {
         mConfig = config;
     }
+
+    @Override
+    public Class<?>[] getDependencies() {
+        return new Class<?>[] { NotificationChannelExtractor.class };
+    }
 }
@@ -45,4 +45,9 @@ public class NotificationAdjustmentExtractor implements NotificationSignalExtrac
     public void setConfig(RankingConfig config) {
         // config is not used
     }
+
+    @Override
+    public Class<?>[] getDependencies() {
+        return new Class<?>[] { NotificationChannelExtractor.class };
+    }
 }
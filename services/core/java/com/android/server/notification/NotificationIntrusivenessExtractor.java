@@ -85,4 +85,9 @@ public class NotificationIntrusivenessExtractor implements NotificationSignalExt
     public void setConfig(RankingConfig config) {
         // ignore: config has no relevant information yet.
     }
+
+    @Override
+    public Class<?>[] getDependencies() {
+        return new Class<?>[] { ImportanceExtractor.class };
+    }
 }
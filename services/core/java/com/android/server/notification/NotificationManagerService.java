@@ -146,6 +146,7 @@ import android.text.TextUtils;
 import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.AtomicFile;
+import android.util.IntArray;
 import android.util.Log;
 import android.util.Slog;
 import android.util.SparseArray;
@@ -196,7 +197,6 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -212,6 +212,8 @@ import java.util.List;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /** {@hide} */
@@ -234,6 +236,12 @@ public class NotificationManagerService extends SystemService {
     // ranking thread messages
     private static final int MESSAGE_RECONSIDER_RANKING = 1000;
     private static final int MESSAGE_RANKING_SORT = 1001;
+    private static final int MESSAGE_APPLY_RANKING_RECONSIDERATION = 1002;
+
+    // The work of ranking reconsiderations, such as contact lookups, runs on a pool of this
+    // many threads, so that a slow one doesn't hold up the others.
+    private static final int RANKING_WORKER_COUNT = 2;
+    private static final long RANKING_WORKER_KEEP_ALIVE_MS = 30 * 1000;
 
     static final int LONG_DELAY = PhoneWindowManager.TOAST_WINDOW_TIMEOUT;
     static final int SHORT_DELAY = 2000; // 2 seconds
@@ -293,6 +301,7 @@ public class NotificationManagerService extends SystemService {
     private WorkerHandler mHandler;
     private final HandlerThread mRankingThread = new HandlerThread("ranker",
             Process.THREAD_PRIORITY_BACKGROUND);
+    private final ThreadPoolExecutor mRankingExecutor = createRankingExecutor();
 
     private Light mNotificationLight;
     Light mAttentionLight;
@@ -354,8 +363,13 @@ public class NotificationManagerService extends SystemService {
 
     private Archive mArchive;
 
-    // Persistent storage for notification policy
+    // Persistent storage for notification policy; only read to migrate it to mPolicyStore
     private AtomicFile mPolicyFile;
+    private NotificationPolicyStore mPolicyStore;
+    // Whether mPolicyFile is to be deleted once its contents are in mPolicyStore
+    private boolean mMigratingPolicyFile;
+    // Checksum of the global segment of mPolicyStore, if it was written since boot
+    private Long mGlobalPolicyChecksum;
 
     private static final int DB_VERSION = 1;
 
@@ -505,10 +519,21 @@ public class NotificationManagerService extends SystemService {
     private void loadPolicyFile() {
         if (DBG) Slog.d(TAG, "loadPolicyFile");
         synchronized (mPolicyFile) {
+            // A notification_policy.xml that is still around wasn't migrated yet, or was put
+            // back by a downgrade followed by an upgrade; either way it is the latest policy.
+            final boolean migrate = mPolicyFile.exists() || !mPolicyStore.exists();
+            mRankingHelper.setPolicyStore(mPolicyStore, !migrate /* readSegments */);
 
             InputStream infile = null;
             try {
-                infile = mPolicyFile.openRead();
+                if (migrate) {
+                    mPolicyStore.clear();
+                    mMigratingPolicyFile = true;
+                    infile = mPolicyFile.openRead();
+                } else {
+                    // The package settings are read as the packages are first asked about.
+                    infile = mPolicyStore.getGlobalFile().openRead();
+                }
                 readPolicyXml(infile, false /*forRestore*/);
             } catch (FileNotFoundException e) {
                 // No data yet
@@ -523,6 +548,9 @@ public class NotificationManagerService extends SystemService {
             } finally {
                 IoUtils.closeQuietly(infile);
             }
+            if (migrate) {
+                savePolicyFile();
+            }
         }
     }
 
@@ -534,20 +562,24 @@ public class NotificationManagerService extends SystemService {
     private void handleSavePolicyFile() {
         if (DBG) Slog.d(TAG, "handleSavePolicyFile");
         synchronized (mPolicyFile) {
-            final FileOutputStream stream;
             try {
-                stream = mPolicyFile.startWrite();
+                // The global segment goes last: once it exists, the store is complete.
+                final int segments = mRankingHelper.writeChangedSegments();
+                final ByteArrayOutputStream global = new ByteArrayOutputStream();
+                writePolicyXml(global, false /*forBackup*/);
+                final byte[] data = global.toByteArray();
+                final long checksum = NotificationPolicyStore.checksum(data);
+                if (mGlobalPolicyChecksum == null || mGlobalPolicyChecksum != checksum) {
+                    mPolicyStore.writeGlobal(data);
+                    mGlobalPolicyChecksum = checksum;
+                }
+                if (mMigratingPolicyFile) {
+                    mPolicyFile.delete();
+                    mMigratingPolicyFile = false;
+                }
+                if (DBG) Slog.d(TAG, "Wrote " + segments + " package policy segments");
             } catch (IOException e) {
                 Slog.w(TAG, "Failed to save policy file", e);
-                return;
-            }
-
-            try {
-                writePolicyXml(stream, false /*forBackup*/);
-                mPolicyFile.finishWrite(stream);
-            } catch (IOException e) {
-                Slog.w(TAG, "Failed to save policy file, restoring backup", e);
-                mPolicyFile.failWrite(stream);
             }
         }
         BackupManager.dataChanged(getContext().getPackageName());
@@ -1326,6 +1358,8 @@ public class NotificationManagerService extends SystemService {
         mAssistants = notificationAssistants;
 
         mPolicyFile = policyFile;
+        mPolicyStore = new NotificationPolicyStore(
+                NotificationPolicyStore.getStoreDir(policyFile.getBaseFile()));
         loadPolicyFile();
 
         mStatusBar = getLocalService(StatusBarManagerInternal.class);
@@ -3511,7 +3545,7 @@ public class NotificationManagerService extends SystemService {
             sbn.getNotification().flags =
                     (r.mOriginalFlags & ~Notification.FLAG_FOREGROUND_SERVICE);
             if (needPosted) {
-                mRankingHelper.sort(mNotificationList);
+                mRankingHelper.resort(mNotificationList, r);
                 mListeners.notifyPostedLocked(sbn, sbn /* oldSbn */);
             }
         }
@@ -3975,7 +4009,7 @@ public class NotificationManagerService extends SystemService {
                     }
 
                     applyZenModeLocked(r);
-                    mRankingHelper.sort(mNotificationList);
+                    mRankingHelper.resort(mNotificationList, r);
 
                     if (notification.getSmallIcon() != null) {
                         StatusBarNotification oldSbn = (old != null) ? old.sbn : null;
@@ -4505,26 +4539,33 @@ public class NotificationManagerService extends SystemService {
     private void handleRankingReconsideration(Message message) {
         if (!(message.obj instanceof RankingReconsideration)) return;
         RankingReconsideration recon = (RankingReconsideration) message.obj;
-        recon.run();
         boolean changed;
         synchronized (mNotificationLock) {
             final NotificationRecord record = mNotificationsByKey.get(recon.getKey());
             if (record == null) {
+                // A notification that is still enqueued will be ranked when it is posted.
+                final NotificationRecord enqueued =
+                        findNotificationByListLocked(mEnqueuedNotifications, recon.getKey());
+                if (enqueued != null) {
+                    recon.applyChangesLocked(enqueued);
+                }
                 return;
             }
             int indexBefore = findNotificationRecordIndexLocked(record);
             boolean interceptBefore = record.isIntercepted();
             float contactAffinityBefore = record.getContactAffinity();
             int visibilityBefore = record.getPackageVisibilityOverride();
+            boolean showBadgeBefore = record.canShowBadge();
             recon.applyChangesLocked(record);
             applyZenModeLocked(record);
-            mRankingHelper.sort(mNotificationList);
+            mRankingHelper.resort(mNotificationList, record);
             int indexAfter = findNotificationRecordIndexLocked(record);
             boolean interceptAfter = record.isIntercepted();
             float contactAffinityAfter = record.getContactAffinity();
             int visibilityAfter = record.getPackageVisibilityOverride();
+            boolean showBadgeAfter = record.canShowBadge();
             changed = indexBefore != indexAfter || interceptBefore != interceptAfter
-                    || visibilityBefore != visibilityAfter;
+                    || visibilityBefore != visibilityAfter || showBadgeBefore != showBadgeAfter;
             if (interceptBefore && !interceptAfter
                     && Float.compare(contactAffinityBefore, contactAffinityAfter) != 0) {
                 buzzBeepBlinkLocked(record);
@@ -4673,6 +4714,11 @@ public class NotificationManagerService extends SystemService {
 
     private final class RankingHandlerWorker extends Handler implements RankingHandler
     {
+        // key => reconsiderations waiting for the one of that key that is running; only used on
+        // this thread
+        private final ArrayMap<String, ArrayDeque<RankingReconsideration>> mReconsiderationQueues =
+                new ArrayMap<>();
+
         public RankingHandlerWorker(Looper looper) {
             super(looper);
         }
@@ -4681,7 +4727,13 @@ public class NotificationManagerService extends SystemService {
         public void handleMessage(Message msg) {
             switch (msg.what) {
                 case MESSAGE_RECONSIDER_RANKING:
+                    if (msg.obj instanceof RankingReconsideration) {
+                        runRankingReconsideration((RankingReconsideration) msg.obj);
+                    }
+                    break;
+                case MESSAGE_APPLY_RANKING_RECONSIDERATION:
                     handleRankingReconsideration(msg);
+                    runNextRankingReconsideration((RankingReconsideration) msg.obj);
                     break;
                 case MESSAGE_RANKING_SORT:
                     handleRankingSort();
@@ -4689,6 +4741,50 @@ public class NotificationManagerService extends SystemService {
             }
         }
 
+        /**
+         * Does the work of {@code recon} on a ranking worker, then applies it on this thread.
+         * Reconsiderations of the same notification run one at a time, in the order they were
+         * requested, so that an older one can't be applied over the result of a newer one.
+         */
+        private void runRankingReconsideration(RankingReconsideration recon) {
+            final ArrayDeque<RankingReconsideration> queue =
+                    mReconsiderationQueues.get(recon.getKey());
+            if (queue != null) {
+                queue.addLast(recon);
+                return;
+            }
+            mReconsiderationQueues.put(recon.getKey(), new ArrayDeque<>());
+            executeRankingReconsideration(recon);
+        }
+
+        /**
+         * Starts the reconsideration that was waiting for {@code applied}, which has just been
+         * applied, if there is one.
+         */
+        private void runNextRankingReconsideration(RankingReconsideration applied) {
+            final ArrayDeque<RankingReconsideration> queue =
+                    mReconsiderationQueues.get(applied.getKey());
+            if (queue == null) {
+                return;
+            }
+            final RankingReconsideration next = queue.pollFirst();
+            if (next == null) {
+                mReconsiderationQueues.remove(applied.getKey());
+                return;
+            }
+            executeRankingReconsideration(next);
+        }
+
+        private void executeRankingReconsideration(RankingReconsideration recon) {
+            mRankingExecutor.execute(() -> {
+                final long start = SystemClock.elapsedRealtimeNanos();
+                recon.run();
+                mRankingHelper.noteReconsiderationLatency(recon,
+                        SystemClock.elapsedRealtimeNanos() - start);
+                obtainMessage(MESSAGE_APPLY_RANKING_RECONSIDERATION, recon).sendToTarget();
+            });
+        }
+
         public void requestSort() {
             removeMessages(MESSAGE_RANKING_SORT);
             Message msg = Message.obtain();
@@ -4704,6 +4800,17 @@ public class NotificationManagerService extends SystemService {
         }
     }
 
+    private static ThreadPoolExecutor createRankingExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(RANKING_WORKER_COUNT,
+                RANKING_WORKER_COUNT, RANKING_WORKER_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), r -> new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }, "ranker-worker"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     // Notifications
     // ============================================================================
     static int clamp(int x, int low, int high) {
@@ -5427,6 +5534,69 @@ public class NotificationManagerService extends SystemService {
                 channels, overridePeople, snoozeCriteria, showBadge);
     }
 
+    /**
+     * Builds the ranking updates sent to a batch of listeners. Listeners only differ in which
+     * users' notifications are visible to them, so the update built for one listener is handed
+     * to the next ones that see the notifications of the same users instead of being rebuilt,
+     * which with hundreds of notifications is most of the cost of notifying a listener.
+     */
+    private final class RankingUpdateBuilder {
+        // Users that have notifications.
+        private final IntArray mUserIds = new IntArray();
+        // By the users whose notifications are visible, as in visibleUsersKey().
+        private final ArrayMap<String, NotificationRankingUpdate> mUpdates = new ArrayMap<>();
+        private final StringBuilder mKey = new StringBuilder();
+
+        // Must be created with mNotificationLock held.
+        RankingUpdateBuilder() {
+            final int N = mNotificationList.size();
+            for (int i = 0; i < N; i++) {
+                final int userId = mNotificationList.get(i).sbn.getUserId();
+                if (mUserIds.indexOf(userId) < 0) {
+                    mUserIds.add(userId);
+                }
+            }
+        }
+
+        @GuardedBy("mNotificationLock")
+        NotificationRankingUpdate buildLocked(ManagedServiceInfo info) {
+            final String key = visibleUsersKey(info);
+            NotificationRankingUpdate update = mUpdates.get(key);
+            if (update == null) {
+                update = makeRankingUpdateLocked(info);
+                mUpdates.put(key, update);
+            }
+            return update;
+        }
+
+        /**
+         * Frees the shared memory of the updates once the listener calls already posted to
+         * mHandler have sent them.
+         */
+        void releaseWhenSent() {
+            if (mUpdates.isEmpty()) {
+                return;
+            }
+            mHandler.post(() -> {
+                for (int i = 0; i < mUpdates.size(); i++) {
+                    mUpdates.valueAt(i).releaseSharedMemory();
+                }
+            });
+        }
+
+        // Must agree with isVisibleToListener().
+        private String visibleUsersKey(ManagedServiceInfo info) {
+            mKey.setLength(0);
+            for (int i = 0; i < mUserIds.size(); i++) {
+                final int userId = mUserIds.get(i);
+                if (info.enabledAndUserMatches(userId)) {
+                    mKey.append(userId).append(',');
+                }
+            }
+            return mKey.toString();
+        }
+    }
+
     boolean hasCompanionDevice(ManagedServiceInfo info) {
         if (mCompanionManager == null) {
             mCompanionManager = getCompanionManager();
@@ -5656,6 +5826,8 @@ public class NotificationManagerService extends SystemService {
                 listener.onListenerConnected(update);
             } catch (RemoteException e) {
                 // we tried
+            } finally {
+                update.releaseSharedMemory();
             }
         }
 
@@ -5693,6 +5865,7 @@ public class NotificationManagerService extends SystemService {
         public void notifyPostedLocked(StatusBarNotification sbn, StatusBarNotification oldSbn) {
             // Lazily initialized snapshots of the notification.
             TrimCache trimCache = new TrimCache(sbn);
+            final RankingUpdateBuilder updateBuilder = new RankingUpdateBuilder();
 
             for (final ManagedServiceInfo info : getServices()) {
                 boolean sbnVisible = isVisibleToListener(sbn, info);
@@ -5701,7 +5874,7 @@ public class NotificationManagerService extends SystemService {
                 if (!oldSbnVisible && !sbnVisible) {
                     continue;
                 }
-                final NotificationRankingUpdate update = makeRankingUpdateLocked(info);
+                final NotificationRankingUpdate update = updateBuilder.buildLocked(info);
 
                 // This notification became invisible -> remove the old one.
                 if (oldSbnVisible && !sbnVisible) {
@@ -5723,6 +5896,7 @@ public class NotificationManagerService extends SystemService {
                     }
                 });
             }
+            updateBuilder.releaseWhenSent();
         }
 
         /**
@@ -5734,11 +5908,12 @@ public class NotificationManagerService extends SystemService {
             // NOTE: this copy is lightweight: it doesn't include heavyweight parts of the
             // notification
             final StatusBarNotification sbnLight = sbn.cloneLight();
+            final RankingUpdateBuilder updateBuilder = new RankingUpdateBuilder();
             for (final ManagedServiceInfo info : getServices()) {
                 if (!isVisibleToListener(sbn, info)) {
                     continue;
                 }
-                final NotificationRankingUpdate update = makeRankingUpdateLocked(info);
+                final NotificationRankingUpdate update = updateBuilder.buildLocked(info);
                 mHandler.post(new Runnable() {
                     @Override
                     public void run() {
@@ -5746,6 +5921,7 @@ public class NotificationManagerService extends SystemService {
                     }
                 });
             }
+            updateBuilder.releaseWhenSent();
         }
 
         /**
@@ -5753,11 +5929,12 @@ public class NotificationManagerService extends SystemService {
          */
         @GuardedBy("mNotificationLock")
         public void notifyRankingUpdateLocked() {
+            final RankingUpdateBuilder updateBuilder = new RankingUpdateBuilder();
             for (final ManagedServiceInfo serviceInfo : getServices()) {
                 if (!serviceInfo.isEnabledForCurrentProfiles()) {
                     continue;
                 }
-                final NotificationRankingUpdate update = makeRankingUpdateLocked(serviceInfo);
+                final NotificationRankingUpdate update = updateBuilder.buildLocked(serviceInfo);
                 mHandler.post(new Runnable() {
                     @Override
                     public void run() {
@@ -5765,6 +5942,7 @@ public class NotificationManagerService extends SystemService {
                     }
                 });
             }
+            updateBuilder.releaseWhenSent();
         }
 
         @GuardedBy("mNotificationLock")
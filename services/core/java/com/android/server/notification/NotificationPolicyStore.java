@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.notification;
+
+import android.util.AtomicFile;
+import android.util.Slog;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the notification policy in segments under one directory, so that a change only rewrites
+ * the segment it is in, instead of all of notification_policy.xml:
+ * <ul>
+ *     <li>{@code global.xml} holds everything but the per-package ranking settings, in the
+ *     notification_policy.xml format;</li>
+ *     <li>{@code packages/<package>-<uid>.xml} holds the channels, groups and settings of one
+ *     package, as a {@code <ranking>} element with a single {@code <package>} in it.</li>
+ * </ul>
+ * Each segment is written through an {@link AtomicFile}.
+ */
+final class NotificationPolicyStore {
+    private static final String TAG = "NotificationPolicyStore";
+
+    private static final String GLOBAL_FILE = "global.xml";
+    private static final String PACKAGES_DIR = "packages";
+    private static final String SEGMENT_SUFFIX = ".xml";
+    // Left behind by AtomicFile while a segment is being replaced.
+    private static final String BACKUP_SUFFIX = ".bak";
+    // Package names can't contain it, so it splits the package from the uid.
+    private static final char UID_SEPARATOR = '-';
+
+    /** Identifies the segment of one package. */
+    static final class PackageSegment {
+        final String pkg;
+        final int uid;
+
+        PackageSegment(String pkg, int uid) {
+            this.pkg = pkg;
+            this.uid = uid;
+        }
+    }
+
+    private final File mDir;
+    private final File mPackagesDir;
+
+    NotificationPolicyStore(File dir) {
+        mDir = dir;
+        mPackagesDir = new File(dir, PACKAGES_DIR);
+    }
+
+    /**
+     * Returns the directory the store for {@code policyFile} lives in: notification_policy.xml
+     * is replaced by notification_policy/.
+     */
+    static File getStoreDir(File policyFile) {
+        String name = policyFile.getName();
+        if (name.endsWith(SEGMENT_SUFFIX)) {
+            name = name.substring(0, name.length() - SEGMENT_SUFFIX.length());
+        }
+        return new File(policyFile.getParentFile(), name);
+    }
+
+    /**
+     * Returns the checksum {@link RankingHelper} and {@link NotificationManagerService} compare
+     * to find out whether a segment changed.
+     */
+    static long checksum(byte[] data) {
+        final CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+    }
+
+    AtomicFile getGlobalFile() {
+        return new AtomicFile(new File(mDir, GLOBAL_FILE));
+    }
+
+    /**
+     * Returns whether the global segment was ever written, which is the last step of migrating
+     * to this store.
+     */
+    boolean exists() {
+        return getGlobalFile().exists();
+    }
+
+    private AtomicFile getPackageFile(String pkg, int uid) {
+        return new AtomicFile(new File(mPackagesDir, pkg + UID_SEPARATOR + uid + SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Lists the package segments, without reading them.
+     */
+    ArrayList<PackageSegment> listPackages() {
+        final ArrayList<PackageSegment> segments = new ArrayList<>();
+        final String[] names = mPackagesDir.list();
+        if (names == null) {
+            return segments;
+        }
+        for (String name : names) {
+            if (name.endsWith(BACKUP_SUFFIX)) {
+                name = name.substring(0, name.length() - BACKUP_SUFFIX.length());
+                if (new File(mPackagesDir, name).exists()) {
+                    continue;
+                }
+            }
+            final int separator = name.lastIndexOf(UID_SEPARATOR);
+            if (!name.endsWith(SEGMENT_SUFFIX) || separator <= 0) {
+                continue;
+            }
+            try {
+                segments.add(new PackageSegment(name.substring(0, separator),
+                        Integer.parseInt(name.substring(separator + 1,
+                                name.length() - SEGMENT_SUFFIX.length()))));
+            } catch (NumberFormatException e) {
+                Slog.w(TAG, "Ignoring " + name);
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Returns the segment of a package, or null if it has none.
+     */
+    byte[] readPackage(String pkg, int uid) throws IOException {
+        try {
+            return getPackageFile(pkg, uid).readFully();
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    void writePackage(String pkg, int uid, byte[] data) throws IOException {
+        if (!mPackagesDir.exists() && !mPackagesDir.mkdirs()) {
+            throw new IOException("Couldn't create " + mPackagesDir);
+        }
+        writeFile(getPackageFile(pkg, uid), data);
+    }
+
+    void deletePackage(String pkg, int uid) {
+        getPackageFile(pkg, uid).delete();
+    }
+
+    void writeGlobal(byte[] data) throws IOException {
+        if (!mDir.exists() && !mDir.mkdirs()) {
+            throw new IOException("Couldn't create " + mDir);
+        }
+        writeFile(getGlobalFile(), data);
+    }
+
+    private static void writeFile(AtomicFile file, byte[] data) throws IOException {
+        final FileOutputStream stream = file.startWrite();
+        try {
+            stream.write(data);
+            file.finishWrite(stream);
+        } catch (IOException e) {
+            file.failWrite(stream);
+            throw e;
+        }
+    }
+
+    /**
+     * Deletes every segment, before the store is filled again from notification_policy.xml.
+     */
+    void clear() {
+        final String[] names = mPackagesDir.list();
+        if (names != null) {
+            for (String name : names) {
+                new File(mPackagesDir, name).delete();
+            }
+        }
+        getGlobalFile().delete();
+    }
+}
@@ -44,4 +44,12 @@ public interface NotificationSignalExtractor {
      * @param config information about which signals are important.
      */
     void setConfig(RankingConfig config);
+
+    /**
+     * Returns the extractors whose signals {@link #process} reads, which {@link RankingHelper}
+     * runs before this one.
+     */
+    default Class<?>[] getDependencies() {
+        return new Class<?>[0];
+    }
 }
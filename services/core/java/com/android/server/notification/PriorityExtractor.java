@@ -53,4 +53,9 @@ public class PriorityExtractor implements NotificationSignalExtractor {
     public void setConfig(RankingConfig config) {
         mConfig = config;
     }
+
+    @Override
+    public Class<?>[] getDependencies() {
+        return new Class<?>[] { NotificationChannelExtractor.class };
+    }
 }
@@ -16,9 +16,11 @@
 package com.android.server.notification;
 
 import com.android.internal.R;
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.logging.MetricsLogger;
 import com.android.internal.logging.nano.MetricsProto;
+import com.android.internal.util.FastXmlSerializer;
 import com.android.internal.util.Preconditions;
 import com.android.internal.util.XmlUtils;
 
@@ -33,13 +35,16 @@ import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.ParceledListSlice;
 import android.metrics.LogMaker;
 import android.os.Build;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.provider.Settings.Secure;
 import android.service.notification.NotificationListenerService.Ranking;
 import android.text.TextUtils;
 import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.Slog;
 import android.util.SparseBooleanArray;
+import android.util.Xml;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -48,8 +53,11 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlSerializer;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -85,6 +93,8 @@ public class RankingHelper implements RankingConfig {
     private static final boolean DEFAULT_SHOW_BADGE = true;
 
     private final NotificationSignalExtractor[] mSignalExtractors;
+    private final String[] mExtractorNames;
+    private final SignalExtractorStats mExtractorStats = new SignalExtractorStats();
     private final NotificationComparator mPreliminaryComparator;
     private final GlobalSortKeyComparator mFinalComparator = new GlobalSortKeyComparator();
 
@@ -92,6 +102,18 @@ public class RankingHelper implements RankingConfig {
     private final ArrayMap<String, NotificationRecord> mProxyByGroupTmp = new ArrayMap<>();
     private final ArrayMap<String, Record> mRestoredWithoutUids = new ArrayMap<>(); // pkg => Record
 
+    // Where the records are kept, one segment per record, if they aren't kept in writeXml().
+    private NotificationPolicyStore mPolicyStore;
+    // Records whose segments haven't been read yet, by recordKey().
+    @GuardedBy("mRecords")
+    private final ArraySet<String> mUnloadedSegments = new ArraySet<>();
+    // Records that were handed out or changed since writeChangedSegments().
+    @GuardedBy("mRecords")
+    private final ArraySet<String> mChangedRecords = new ArraySet<>();
+    // Checksums of the segments on disk, by recordKey().
+    @GuardedBy("mRecords")
+    private final ArrayMap<String, Long> mSegmentChecksums = new ArrayMap<>();
+
     private final Context mContext;
     private final RankingHandler mRankingHandler;
     private final PackageManager mPm;
@@ -108,7 +130,7 @@ public class RankingHelper implements RankingConfig {
         updateBadgingEnabled();
 
         final int N = extractorNames.length;
-        mSignalExtractors = new NotificationSignalExtractor[N];
+        final ArrayList<NotificationSignalExtractor> extractors = new ArrayList<>(N);
         for (int i = 0; i < N; i++) {
             try {
                 Class<?> extractorClass = mContext.getClassLoader().loadClass(extractorNames[i]);
@@ -116,7 +138,7 @@ public class RankingHelper implements RankingConfig {
                         (NotificationSignalExtractor) extractorClass.newInstance();
                 extractor.initialize(mContext, usageStats);
                 extractor.setConfig(this);
-                mSignalExtractors[i] = extractor;
+                extractors.add(extractor);
             } catch (ClassNotFoundException e) {
                 Slog.w(TAG, "Couldn't find extractor " + extractorNames[i] + ".", e);
             } catch (InstantiationException e) {
@@ -125,6 +147,59 @@ public class RankingHelper implements RankingConfig {
                 Slog.w(TAG, "Problem accessing extractor " + extractorNames[i] + ".", e);
             }
         }
+        mSignalExtractors = orderByDependencies(extractors);
+
+        final int M = mSignalExtractors.length;
+        mExtractorNames = new String[M];
+        for (int i = 0; i < M; i++) {
+            mExtractorNames[i] = mSignalExtractors[i].getClass().getSimpleName();
+        }
+    }
+
+    /**
+     * Orders the extractors so that each one comes after the extractors it depends on, and
+     * otherwise keeps them in their configured order.
+     */
+    @VisibleForTesting
+    static NotificationSignalExtractor[] orderByDependencies(
+            ArrayList<NotificationSignalExtractor> extractors) {
+        final int N = extractors.size();
+        final NotificationSignalExtractor[] ordered = new NotificationSignalExtractor[N];
+        final boolean[] placed = new boolean[N];
+        int count = 0;
+        while (count < N) {
+            int next = -1;
+            for (int i = 0; i < N && next < 0; i++) {
+                if (!placed[i] && dependenciesPlaced(extractors, placed, i)) {
+                    next = i;
+                }
+            }
+            if (next < 0) {
+                Slog.w(TAG, "Circular extractor dependencies, keeping configured order");
+                for (int i = 0; i < N; i++) {
+                    if (!placed[i]) {
+                        ordered[count++] = extractors.get(i);
+                    }
+                }
+                break;
+            }
+            placed[next] = true;
+            ordered[count++] = extractors.get(next);
+        }
+        return ordered;
+    }
+
+    private static boolean dependenciesPlaced(ArrayList<NotificationSignalExtractor> extractors,
+            boolean[] placed, int index) {
+        final int N = extractors.size();
+        for (Class<?> dependency : extractors.get(index).getDependencies()) {
+            for (int j = 0; j < N; j++) {
+                if (!placed[j] && j != index && dependency.equals(extractors.get(j).getClass())) {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 
     @SuppressWarnings("unchecked")
@@ -142,18 +217,33 @@ public class RankingHelper implements RankingConfig {
     public void extractSignals(NotificationRecord r) {
         final int N = mSignalExtractors.length;
         for (int i = 0; i < N; i++) {
-            NotificationSignalExtractor extractor = mSignalExtractors[i];
+            final long start = SystemClock.elapsedRealtimeNanos();
             try {
-                RankingReconsideration recon = extractor.process(r);
+                RankingReconsideration recon = mSignalExtractors[i].process(r);
                 if (recon != null) {
                     mRankingHandler.requestReconsideration(recon);
                 }
             } catch (Throwable t) {
                 Slog.w(TAG, "NotificationSignalExtractor failed.", t);
             }
+            mExtractorStats.noteLatency(mExtractorNames[i],
+                    SystemClock.elapsedRealtimeNanos() - start);
         }
     }
 
+    /**
+     * Records how long the work of {@code recon} took on a ranking worker thread.
+     */
+    public void noteReconsiderationLatency(RankingReconsideration recon, long durationNanos) {
+        final String name = recon.getClass().getName();
+        mExtractorStats.noteLatency(name.substring(name.lastIndexOf('.') + 1), durationNanos);
+    }
+
+    @VisibleForTesting
+    SignalExtractorStats getExtractorStats() {
+        return mExtractorStats;
+    }
+
     public void readXml(XmlPullParser parser, boolean forRestore)
             throws XmlPullParserException, IOException {
         int type = parser.getEventType();
@@ -163,6 +253,16 @@ public class RankingHelper implements RankingConfig {
         // Clobber groups and channels with the xml, but don't delete other data that wasn't present
         // at the time of serialization.
         mRestoredWithoutUids.clear();
+        readPackagesXml(parser, forRestore);
+    }
+
+    /**
+     * Reads the {@code <package>} elements up to the end of the current {@code <ranking>}.
+     */
+    private void readPackagesXml(XmlPullParser parser, boolean forRestore)
+            throws XmlPullParserException, IOException {
+        int type;
+        String tag;
         while ((type = parser.next()) != XmlPullParser.END_DOCUMENT) {
             tag = parser.getName();
             if (type == XmlPullParser.END_TAG && TAG_RANKING.equals(tag)) {
@@ -242,6 +342,7 @@ public class RankingHelper implements RankingConfig {
                         } catch (NameNotFoundException e) {
                             Slog.e(TAG, "deleteDefaultChannelIfNeeded - Exception: " + e);
                         }
+                        onRecordChanged(r);
                     }
                 }
             }
@@ -256,6 +357,8 @@ public class RankingHelper implements RankingConfig {
     private Record getRecord(String pkg, int uid) {
         final String key = recordKey(pkg, uid);
         synchronized (mRecords) {
+            loadSegmentLocked(key, pkg, uid);
+            noteChangedLocked(key);
             return mRecords.get(key);
         }
     }
@@ -269,6 +372,10 @@ public class RankingHelper implements RankingConfig {
             int visibility, boolean showBadge) {
         final String key = recordKey(pkg, uid);
         synchronized (mRecords) {
+            if (uid != Record.UNKNOWN_UID) {
+                loadSegmentLocked(key, pkg, uid);
+                noteChangedLocked(key);
+            }
             Record r = (uid == Record.UNKNOWN_UID) ? mRestoredWithoutUids.get(pkg) : mRecords.get(
                     key);
             if (r == null) {
@@ -355,59 +462,232 @@ public class RankingHelper implements RankingConfig {
         r.channels.put(channel.getId(), channel);
     }
 
+    /**
+     * Writes the ranking settings. Once a {@link NotificationPolicyStore} is set, the package
+     * settings are only written here for backups, as the store holds them otherwise.
+     */
     public void writeXml(XmlSerializer out, boolean forBackup) throws IOException {
         out.startTag(null, TAG_RANKING);
         out.attribute(null, ATT_VERSION, Integer.toString(XML_VERSION));
 
+        if (forBackup || mPolicyStore == null) {
+            synchronized (mRecords) {
+                loadAllSegmentsLocked();
+                final int N = mRecords.size();
+                for (int i = 0; i < N; i++) {
+                    final Record r = mRecords.valueAt(i);
+                    //TODO: http://b/22388012
+                    if (forBackup && UserHandle.getUserId(r.uid) != UserHandle.USER_SYSTEM) {
+                        continue;
+                    }
+                    writeRecordXml(out, r, forBackup);
+                }
+            }
+        }
+        out.endTag(null, TAG_RANKING);
+    }
+
+    private static boolean hasNonDefaultSettings(Record r) {
+        return r.importance != DEFAULT_IMPORTANCE
+                || r.priority != DEFAULT_PRIORITY || r.visibility != DEFAULT_VISIBILITY
+                || r.showBadge != DEFAULT_SHOW_BADGE || r.channels.size() > 0
+                || r.groups.size() > 0;
+    }
+
+    private void writeRecordXml(XmlSerializer out, Record r, boolean forBackup)
+            throws IOException {
+        if (!hasNonDefaultSettings(r)) {
+            return;
+        }
+        out.startTag(null, TAG_PACKAGE);
+        out.attribute(null, ATT_NAME, r.pkg);
+        if (r.importance != DEFAULT_IMPORTANCE) {
+            out.attribute(null, ATT_IMPORTANCE, Integer.toString(r.importance));
+        }
+        if (r.priority != DEFAULT_PRIORITY) {
+            out.attribute(null, ATT_PRIORITY, Integer.toString(r.priority));
+        }
+        if (r.visibility != DEFAULT_VISIBILITY) {
+            out.attribute(null, ATT_VISIBILITY, Integer.toString(r.visibility));
+        }
+        out.attribute(null, ATT_SHOW_BADGE, Boolean.toString(r.showBadge));
+
+        if (!forBackup) {
+            out.attribute(null, ATT_UID, Integer.toString(r.uid));
+        }
+
+        for (NotificationChannelGroup group : r.groups.values()) {
+            group.writeXml(out);
+        }
+
+        for (NotificationChannel channel : r.channels.values()) {
+            if (forBackup) {
+                if (!channel.isDeleted()) {
+                    channel.writeXmlForBackup(out, mContext);
+                }
+            } else {
+                channel.writeXml(out);
+            }
+        }
+
+        out.endTag(null, TAG_PACKAGE);
+    }
+
+    /**
+     * Keeps the package settings in {@code store}, one segment per package, from now on. With
+     * {@code readSegments}, the settings already in it are read from it as the packages are
+     * first asked about; otherwise they are expected to come from {@link #readXml}, and will all
+     * be written to it.
+     */
+    public void setPolicyStore(NotificationPolicyStore store, boolean readSegments) {
         synchronized (mRecords) {
-            final int N = mRecords.size();
-            for (int i = 0; i < N; i++) {
-                final Record r = mRecords.valueAt(i);
-                //TODO: http://b/22388012
-                if (forBackup && UserHandle.getUserId(r.uid) != UserHandle.USER_SYSTEM) {
-                    continue;
+            mPolicyStore = store;
+            mUnloadedSegments.clear();
+            mSegmentChecksums.clear();
+            if (readSegments) {
+                for (NotificationPolicyStore.PackageSegment segment : store.listPackages()) {
+                    mUnloadedSegments.add(recordKey(segment.pkg, segment.uid));
                 }
-                final boolean hasNonDefaultSettings = r.importance != DEFAULT_IMPORTANCE
-                        || r.priority != DEFAULT_PRIORITY || r.visibility != DEFAULT_VISIBILITY
-                        || r.showBadge != DEFAULT_SHOW_BADGE || r.channels.size() > 0
-                        || r.groups.size() > 0;
-                if (hasNonDefaultSettings) {
-                    out.startTag(null, TAG_PACKAGE);
-                    out.attribute(null, ATT_NAME, r.pkg);
-                    if (r.importance != DEFAULT_IMPORTANCE) {
-                        out.attribute(null, ATT_IMPORTANCE, Integer.toString(r.importance));
-                    }
-                    if (r.priority != DEFAULT_PRIORITY) {
-                        out.attribute(null, ATT_PRIORITY, Integer.toString(r.priority));
-                    }
-                    if (r.visibility != DEFAULT_VISIBILITY) {
-                        out.attribute(null, ATT_VISIBILITY, Integer.toString(r.visibility));
-                    }
-                    out.attribute(null, ATT_SHOW_BADGE, Boolean.toString(r.showBadge));
+            } else {
+                mChangedRecords.addAll(mRecords.keySet());
+            }
+        }
+    }
 
-                    if (!forBackup) {
-                        out.attribute(null, ATT_UID, Integer.toString(r.uid));
-                    }
+    @GuardedBy("mRecords")
+    private void noteChangedLocked(String key) {
+        if (mPolicyStore != null) {
+            mChangedRecords.add(key);
+        }
+    }
 
-                    for (NotificationChannelGroup group : r.groups.values()) {
-                        group.writeXml(out);
-                    }
+    /**
+     * Called once {@code r} was changed. Records are also noted as changed when they are handed
+     * out, but a write can run between that and the change.
+     */
+    private void onRecordChanged(Record r) {
+        if (r.uid == Record.UNKNOWN_UID) {
+            return;
+        }
+        synchronized (mRecords) {
+            noteChangedLocked(recordKey(r.pkg, r.uid));
+        }
+    }
 
-                    for (NotificationChannel channel : r.channels.values()) {
-                        if (forBackup) {
-                            if (!channel.isDeleted()) {
-                                channel.writeXmlForBackup(out, mContext);
-                            }
-                        } else {
-                            channel.writeXml(out);
-                        }
-                    }
+    @GuardedBy("mRecords")
+    private void loadSegmentLocked(String key, String pkg, int uid) {
+        if (!mUnloadedSegments.remove(key)) {
+            return;
+        }
+        try {
+            final byte[] data = mPolicyStore.readPackage(pkg, uid);
+            if (data == null) {
+                return;
+            }
+            // Recorded even if the segment doesn't parse, so that it is replaced or deleted.
+            mSegmentChecksums.put(key, NotificationPolicyStore.checksum(data));
+            final XmlPullParser parser = Xml.newPullParser();
+            parser.setInput(new ByteArrayInputStream(data), StandardCharsets.UTF_8.name());
+            XmlUtils.beginDocument(parser, TAG_RANKING);
+            readPackagesXml(parser, false /* forRestore */);
+            // Matches what is on disk.
+            mChangedRecords.remove(key);
+        } catch (IOException | XmlPullParserException | RuntimeException e) {
+            Slog.wtf(TAG, "Unable to read notification settings of " + pkg, e);
+        }
+    }
+
+    @GuardedBy("mRecords")
+    private void loadAllSegmentsLocked() {
+        for (int i = mUnloadedSegments.size() - 1; i >= 0; i--) {
+            final String key = mUnloadedSegments.valueAt(i);
+            final int separator = key.lastIndexOf('|');
+            loadSegmentLocked(key, key.substring(0, separator),
+                    Integer.parseInt(key.substring(separator + 1)));
+        }
+    }
 
-                    out.endTag(null, TAG_PACKAGE);
+    /**
+     * Writes the segments of the packages whose settings changed since the last call, and
+     * deletes those of the packages that are gone.
+     *
+     * @return the number of segments written or deleted
+     */
+    public int writeChangedSegments() throws IOException {
+        final ArrayList<String> keys = new ArrayList<>();
+        final ArrayList<Record> records = new ArrayList<>();
+        final ArrayList<byte[]> segments = new ArrayList<>();
+        synchronized (mRecords) {
+            if (mPolicyStore == null) {
+                return 0;
+            }
+            for (int i = 0; i < mChangedRecords.size(); i++) {
+                final String key = mChangedRecords.valueAt(i);
+                final Record r = mRecords.get(key);
+                final byte[] data = (r != null && hasNonDefaultSettings(r))
+                        ? writeSegmentLocked(r) : null;
+                final Long checksum = mSegmentChecksums.get(key);
+                if (data == null ? checksum == null
+                        : checksum != null && checksum == NotificationPolicyStore.checksum(data)) {
+                    continue;
                 }
+                keys.add(key);
+                records.add(r);
+                segments.add(data);
             }
+            mChangedRecords.clear();
         }
-        out.endTag(null, TAG_RANKING);
+
+        final int N = keys.size();
+        for (int i = 0; i < N; i++) {
+            final String key = keys.get(i);
+            final byte[] data = segments.get(i);
+            final int separator = key.lastIndexOf('|');
+            final String pkg = key.substring(0, separator);
+            final int uid = Integer.parseInt(key.substring(separator + 1));
+            try {
+                if (data != null) {
+                    mPolicyStore.writePackage(pkg, uid, data);
+                } else {
+                    mPolicyStore.deletePackage(pkg, uid);
+                }
+            } catch (IOException e) {
+                synchronized (mRecords) {
+                    // Try again next time.
+                    for (int j = i; j < N; j++) {
+                        mChangedRecords.add(keys.get(j));
+                    }
+                }
+                throw e;
+            }
+            synchronized (mRecords) {
+                if (data != null) {
+                    mSegmentChecksums.put(key, NotificationPolicyStore.checksum(data));
+                } else {
+                    mSegmentChecksums.remove(key);
+                }
+            }
+        }
+        return N;
+    }
+
+    @GuardedBy("mRecords")
+    private byte[] writeSegmentLocked(Record r) {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try {
+            final XmlSerializer out = new FastXmlSerializer();
+            out.setOutput(stream, StandardCharsets.UTF_8.name());
+            out.startDocument(null, true);
+            out.startTag(null, TAG_RANKING);
+            out.attribute(null, ATT_VERSION, Integer.toString(XML_VERSION));
+            writeRecordXml(out, r, false /* forBackup */);
+            out.endTag(null, TAG_RANKING);
+            out.endDocument();
+        } catch (IOException e) {
+            // Can't happen when writing to memory.
+            throw new IllegalStateException(e);
+        }
+        return stream.toByteArray();
     }
 
     private void updateConfig() {
@@ -428,10 +708,86 @@ public class RankingHelper implements RankingConfig {
         // rank each record individually
         Collections.sort(notificationList, mPreliminaryComparator);
 
+        assignGlobalSortKeys(notificationList);
+
+        // Do a second ranking pass, using group proxies
+        Collections.sort(notificationList, mFinalComparator);
+    }
+
+    /**
+     * Re-ranks a list ranked by an earlier {@link #sort} or {@link #resort}, after only
+     * {@code changed} was added to it, replaced a record of it, or changed in a way that affects
+     * its ranking. The individual ranking of the other records is restored from their
+     * authoritative ranks rather than recomputed, so {@code changed} is the only record run
+     * through the {@link NotificationComparator}, with a binary search.
+     * <p>
+     * Falls back to a full {@link #sort} if the list doesn't look like it was ranked before.
+     */
+    public void resort(ArrayList<NotificationRecord> notificationList,
+            NotificationRecord changed) {
+        final int N = notificationList.size();
+        // Authoritative ranks are unique, but have gaps where records were removed since.
+        int maxRank = -1;
+        for (int i = 0; i < N; i++) {
+            final NotificationRecord record = notificationList.get(i);
+            if (record != changed) {
+                maxRank = Math.max(maxRank, record.getAuthoritativeRank());
+            }
+        }
+        if (maxRank >= 2 * N) {
+            // Mostly gaps, or not ranked by us.
+            sort(notificationList);
+            return;
+        }
+        final NotificationRecord[] byRank = new NotificationRecord[maxRank + 1];
+        boolean foundChanged = false;
+        for (int i = 0; i < N; i++) {
+            final NotificationRecord record = notificationList.get(i);
+            if (record == changed) {
+                foundChanged = true;
+                continue;
+            }
+            final int rank = record.getAuthoritativeRank();
+            if (rank < 0 || byRank[rank] != null) {
+                sort(notificationList);
+                return;
+            }
+            byRank[rank] = record;
+        }
+        if (!foundChanged) {
+            sort(notificationList);
+            return;
+        }
+
+        final ArrayList<NotificationRecord> preliminaryOrder = new ArrayList<>(N);
+        for (int i = 0; i <= maxRank; i++) {
+            if (byRank[i] != null) {
+                preliminaryOrder.add(byRank[i]);
+            }
+        }
+        int index = Collections.binarySearch(preliminaryOrder, changed, mPreliminaryComparator);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        preliminaryOrder.add(index, changed);
+
+        assignGlobalSortKeys(preliminaryOrder);
+
+        // The global sort keys of the other records keep their relative order, except for the
+        // groups whose proxy moved, so this is mostly a single pass over a sorted list.
+        Collections.sort(notificationList, mFinalComparator);
+    }
+
+    /**
+     * Records the rank of each record of a list in attention-relevant order, and gives it a
+     * global sort key that places it with the other records of its group.
+     */
+    private void assignGlobalSortKeys(ArrayList<NotificationRecord> preliminaryOrder) {
+        final int N = preliminaryOrder.size();
         synchronized (mProxyByGroupTmp) {
             // record individual ranking result and nominate proxies for each group
             for (int i = N - 1; i >= 0; i--) {
-                final NotificationRecord record = notificationList.get(i);
+                final NotificationRecord record = preliminaryOrder.get(i);
                 record.setAuthoritativeRank(i);
                 final String groupKey = record.getGroupKey();
                 NotificationRecord existingProxy = mProxyByGroupTmp.get(groupKey);
@@ -441,8 +797,9 @@ public class RankingHelper implements RankingConfig {
             }
             // assign global sort key:
             //   is_recently_intrusive:group_rank:is_group_summary:group_sort_key:rank
+            final StringBuilder sb = new StringBuilder();
             for (int i = 0; i < N; i++) {
-                final NotificationRecord record = notificationList.get(i);
+                final NotificationRecord record = preliminaryOrder.get(i);
                 NotificationRecord groupProxy = mProxyByGroupTmp.get(record.getGroupKey());
                 String groupSortKey = record.getNotification().getSortKey();
 
@@ -461,21 +818,31 @@ public class RankingHelper implements RankingConfig {
                 }
 
                 boolean isGroupSummary = record.getNotification().isGroupSummary();
-                record.setGlobalSortKey(
-                        String.format("intrsv=%c:grnk=0x%04x:gsmry=%c:%s:rnk=0x%04x",
-                        record.isRecentlyIntrusive()
-                                && record.getImportance() > NotificationManager.IMPORTANCE_MIN
-                                ? '0' : '1',
-                        groupProxy.getAuthoritativeRank(),
-                        isGroupSummary ? '0' : '1',
-                        groupSortKeyPortion,
-                        record.getAuthoritativeRank()));
+                // Same as String.format("intrsv=%c:grnk=0x%04x:gsmry=%c:%s:rnk=0x%04x", ...),
+                // which takes most of the time of a sort otherwise.
+                sb.setLength(0);
+                sb.append("intrsv=").append(record.isRecentlyIntrusive()
+                        && record.getImportance() > NotificationManager.IMPORTANCE_MIN
+                        ? '0' : '1');
+                sb.append(":grnk=0x");
+                appendHex4(sb, groupProxy.getAuthoritativeRank());
+                sb.append(":gsmry=").append(isGroupSummary ? '0' : '1');
+                sb.append(':').append(groupSortKeyPortion);
+                sb.append(":rnk=0x");
+                appendHex4(sb, record.getAuthoritativeRank());
+                record.setGlobalSortKey(sb.toString());
             }
             mProxyByGroupTmp.clear();
         }
+    }
 
-        // Do a second ranking pass, using group proxies
-        Collections.sort(notificationList, mFinalComparator);
+    /** Appends a non-negative value as lower case hex, padded with zeroes to 4 digits. */
+    private static void appendHex4(StringBuilder sb, int value) {
+        final String hex = Integer.toHexString(value);
+        for (int i = hex.length(); i < 4; i++) {
+            sb.append('0');
+        }
+        sb.append(hex);
     }
 
     public int indexOf(ArrayList<NotificationRecord> notificationList, NotificationRecord target) {
@@ -497,7 +864,9 @@ public class RankingHelper implements RankingConfig {
 
     @Override
     public void setShowBadge(String packageName, int uid, boolean showBadge) {
-        getOrCreateRecord(packageName, uid).showBadge = showBadge;
+        final Record r = getOrCreateRecord(packageName, uid);
+        r.showBadge = showBadge;
+        onRecordChanged(r);
         updateConfig();
     }
 
@@ -526,6 +895,7 @@ public class RankingHelper implements RankingConfig {
             MetricsLogger.action(getChannelGroupLog(group.getId(), pkg));
         }
         r.groups.put(group.getId(), group);
+        onRecordChanged(r);
     }
 
     @Override
@@ -568,6 +938,7 @@ public class RankingHelper implements RankingConfig {
                 existing.setImportance(channel.getImportance());
             }
 
+            onRecordChanged(r);
             updateConfig();
             return;
         }
@@ -588,6 +959,7 @@ public class RankingHelper implements RankingConfig {
             channel.setShowBadge(false);
         }
         r.channels.put(channel.getId(), channel);
+        onRecordChanged(r);
         MetricsLogger.action(getChannelLog(channel, pkg).setType(
                 MetricsProto.MetricsEvent.TYPE_OPEN));
     }
@@ -628,6 +1000,7 @@ public class RankingHelper implements RankingConfig {
             r.visibility = updatedChannel.getLockscreenVisibility();
             r.showBadge = updatedChannel.canShowBadge();
         }
+        onRecordChanged(r);
 
         if (!channel.equals(updatedChannel)) {
             // only log if there are real changes
@@ -663,6 +1036,7 @@ public class RankingHelper implements RankingConfig {
         NotificationChannel channel = r.channels.get(channelId);
         if (channel != null) {
             channel.setDeleted(true);
+            onRecordChanged(r);
             LogMaker lm = getChannelLog(channel, pkg);
             lm.setType(MetricsProto.MetricsEvent.TYPE_CLOSE);
             MetricsLogger.action(lm);
@@ -679,6 +1053,7 @@ public class RankingHelper implements RankingConfig {
             return;
         }
         r.channels.remove(channelId);
+        onRecordChanged(r);
     }
 
     @Override
@@ -695,6 +1070,7 @@ public class RankingHelper implements RankingConfig {
                 r.channels.remove(key);
             }
         }
+        onRecordChanged(r);
     }
 
     public NotificationChannelGroup getNotificationChannelGroup(String groupId, String pkg,
@@ -757,6 +1133,7 @@ public class RankingHelper implements RankingConfig {
                 deletedChannels.add(nc);
             }
         }
+        onRecordChanged(r);
         return deletedChannels;
     }
 
@@ -826,7 +1203,9 @@ public class RankingHelper implements RankingConfig {
      */
     @Override
     public void setImportance(String pkgName, int uid, int importance) {
-        getOrCreateRecord(pkgName, uid).importance = importance;
+        final Record r = getOrCreateRecord(pkgName, uid);
+        r.importance = importance;
+        onRecordChanged(r);
         updateConfig();
     }
 
@@ -877,6 +1256,7 @@ public class RankingHelper implements RankingConfig {
                 pw.print("  ");
                 pw.println(mSignalExtractors[i]);
             }
+            mExtractorStats.dump(pw, prefix);
         }
         if (filter == null) {
             pw.print(prefix);
@@ -884,6 +1264,7 @@ public class RankingHelper implements RankingConfig {
         }
         pw.println("Records:");
         synchronized (mRecords) {
+            loadAllSegmentsLocked();
             dumpRecords(pw, prefix, filter, mRecords);
         }
         pw.println("Restored without uid:");
@@ -942,6 +1323,7 @@ public class RankingHelper implements RankingConfig {
            // pass
         }
         synchronized (mRecords) {
+            loadAllSegmentsLocked();
             final int N = mRecords.size();
             for (int i = 0; i < N; i++) {
                 final Record r = mRecords.valueAt(i);
@@ -1014,6 +1396,7 @@ public class RankingHelper implements RankingConfig {
 
     public Map<Integer, String> getPackageBans() {
         synchronized (mRecords) {
+            loadAllSegmentsLocked();
             final int N = mRecords.size();
             ArrayMap<Integer, String> packageBans = new ArrayMap<>(N);
             for (int i = 0; i < N; i++) {
@@ -1058,6 +1441,7 @@ public class RankingHelper implements RankingConfig {
     private Map<String, Integer> getPackageChannels() {
         ArrayMap<String, Integer> packageChannels = new ArrayMap<>();
         synchronized (mRecords) {
+            loadAllSegmentsLocked();
             for (int i = 0; i < mRecords.size(); i++) {
                 final Record r = mRecords.valueAt(i);
                 int channelCount = 0;
@@ -1074,10 +1458,12 @@ public class RankingHelper implements RankingConfig {
 
     public void onUserRemoved(int userId) {
         synchronized (mRecords) {
+            loadAllSegmentsLocked();
             int N = mRecords.size();
             for (int i = N - 1; i >= 0 ; i--) {
                 Record record = mRecords.valueAt(i);
                 if (UserHandle.getUserId(record.uid) == userId) {
+                    noteChangedLocked(mRecords.keyAt(i));
                     mRecords.removeAt(i);
                 }
             }
@@ -1086,10 +1472,12 @@ public class RankingHelper implements RankingConfig {
 
     protected void onLocaleChanged(Context context, int userId) {
         synchronized (mRecords) {
+            loadAllSegmentsLocked();
             int N = mRecords.size();
             for (int i = 0; i < N; i++) {
                 Record record = mRecords.valueAt(i);
                 if (UserHandle.getUserId(record.uid) == userId) {
+                    noteChangedLocked(mRecords.keyAt(i));
                     if (record.channels.containsKey(NotificationChannel.DEFAULT_CHANNEL_ID)) {
                         record.channels.get(NotificationChannel.DEFAULT_CHANNEL_ID).setName(
                                 context.getResources().getString(
@@ -1113,7 +1501,11 @@ public class RankingHelper implements RankingConfig {
                 final String pkg = pkgList[i];
                 final int uid = uidList[i];
                 synchronized (mRecords) {
-                    mRecords.remove(recordKey(pkg, uid));
+                    final String key = recordKey(pkg, uid);
+                    // Read so that its segment is known to be there, and gets deleted.
+                    loadSegmentLocked(key, pkg, uid);
+                    noteChangedLocked(key);
+                    mRecords.remove(key);
                 }
                 mRestoredWithoutUids.remove(pkg);
                 updated = true;
@@ -1127,7 +1519,10 @@ public class RankingHelper implements RankingConfig {
                         r.uid = mPm.getPackageUidAsUser(r.pkg, changeUserId);
                         mRestoredWithoutUids.remove(pkg);
                         synchronized (mRecords) {
-                            mRecords.put(recordKey(r.pkg, r.uid), r);
+                            final String key = recordKey(r.pkg, r.uid);
+                            loadSegmentLocked(key, r.pkg, r.uid);
+                            noteChangedLocked(key);
+                            mRecords.put(key, r);
                         }
                         updated = true;
                     } catch (NameNotFoundException e) {
@@ -1141,6 +1536,7 @@ public class RankingHelper implements RankingConfig {
                     if (fullRecord != null) {
                         createDefaultChannelIfNeeded(fullRecord);
                         deleteDefaultChannelIfNeeded(fullRecord);
+                        onRecordChanged(fullRecord);
                     }
                 } catch (NameNotFoundException e) {}
             }
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.notification;
+
+import android.util.ArrayMap;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+
+/**
+ * Latency histograms of the {@link NotificationSignalExtractor}s and of the work of the
+ * {@link RankingReconsideration}s they return, for {@code dumpsys notification}.
+ */
+final class SignalExtractorStats {
+    /** Upper bounds of the histogram buckets, in microseconds; the last bucket is unbounded. */
+    @VisibleForTesting
+    static final long[] BUCKET_LIMITS_US = { 10, 100, 1000, 10 * 1000, 100 * 1000 };
+
+    private static final class Histogram {
+        final long[] buckets = new long[BUCKET_LIMITS_US.length + 1];
+        long count;
+        long totalNanos;
+        long maxNanos;
+    }
+
+    @GuardedBy("this")
+    private final ArrayMap<String, Histogram> mHistograms = new ArrayMap<>();
+
+    @GuardedBy("this")
+    private Histogram getOrCreateLocked(String name) {
+        Histogram histogram = mHistograms.get(name);
+        if (histogram == null) {
+            histogram = new Histogram();
+            mHistograms.put(name, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * Adds one run of {@code name} that took {@code durationNanos}.
+     */
+    synchronized void noteLatency(String name, long durationNanos) {
+        final Histogram histogram = getOrCreateLocked(name);
+        final long durationUs = durationNanos / 1000;
+        int bucket = 0;
+        while (bucket < BUCKET_LIMITS_US.length && durationUs >= BUCKET_LIMITS_US[bucket]) {
+            bucket++;
+        }
+        histogram.buckets[bucket]++;
+        histogram.count++;
+        histogram.totalNanos += durationNanos;
+        if (durationNanos > histogram.maxNanos) {
+            histogram.maxNanos = durationNanos;
+        }
+    }
+
+    @VisibleForTesting
+    synchronized long getCount(String name) {
+        final Histogram histogram = mHistograms.get(name);
+        return histogram != null ? histogram.count : 0;
+    }
+
+    synchronized void dump(PrintWriter pw, String prefix) {
+        pw.print(prefix);
+        pw.print("Signal extractor latency (buckets <");
+        for (int i = 0; i < BUCKET_LIMITS_US.length; i++) {
+            if (i > 0) {
+                pw.print(",<");
+            }
+            pw.print(BUCKET_LIMITS_US[i]);
+        }
+        pw.println("us,more):");
+        final int N = mHistograms.size();
+        for (int i = 0; i < N; i++) {
+            final Histogram histogram = mHistograms.valueAt(i);
+            pw.print(prefix);
+            pw.print("  ");
+            pw.print(mHistograms.keyAt(i));
+            pw.print(": count=");
+            pw.print(histogram.count);
+            if (histogram.count > 0) {
+                pw.print(" avg=");
+                pw.print(histogram.totalNanos / histogram.count / 1000);
+                pw.print("us max=");
+                pw.print(histogram.maxNanos / 1000);
+                pw.print("us");
+            }
+            pw.print(" [");
+            for (int j = 0; j < histogram.buckets.length; j++) {
+                if (j > 0) {
+                    pw.print(",");
+                }
+                pw.print(histogram.buckets[j]);
+            }
+            pw.println("]");
+        }
+    }
+}
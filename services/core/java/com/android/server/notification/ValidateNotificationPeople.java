@@ -144,6 +144,11 @@ public class ValidateNotificationPeople implements NotificationSignalExtractor {
         // ignore: config has no relevant information yet.
     }
 
+    @Override
+    public Class<?>[] getDependencies() {
+        return new Class<?>[] { NotificationAdjustmentExtractor.class };
+    }
+
     /**
      * @param extras extras of the notification with EXTRA_PEOPLE populated
      * @param timeoutMs timeout in milliseconds to wait for contacts response
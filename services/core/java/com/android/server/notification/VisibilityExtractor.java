@@ -52,4 +52,9 @@ public class VisibilityExtractor implements NotificationSignalExtractor {
     public void setConfig(RankingConfig config) {
         mConfig = config;
     }
+
+    @Override
+    public Class<?>[] getDependencies() {
+        return new Class<?>[] { NotificationChannelExtractor.class };
+    }
 }
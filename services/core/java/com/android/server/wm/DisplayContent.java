@@ -318,6 +318,23 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
             new TaskForResizePointSearchResult();
     private final ApplySurfaceChangesTransactionState mTmpApplySurfaceChangesTransactionState =
             new ApplySurfaceChangesTransactionState();
+
+    // What the last full surface placement computed, replayed by incremental placements.
+    private boolean mLastSurfacePlacementValid;
+    private final RootWindowContainer.PlacementState mLastPlacementRootStateBefore =
+            new RootWindowContainer.PlacementState();
+    private final RootWindowContainer.PlacementState mLastPlacementRootState =
+            new RootWindowContainer.PlacementState();
+    private boolean mLastPlacementDisplayHasContent;
+    private float mLastPlacementPreferredRefreshRate;
+    private int mLastPlacementPreferredModeId;
+
+    // Surface placement statistics, for dumpsys.
+    private int mFullSurfacePlacements;
+    private int mIncrementalSurfacePlacements;
+    private long mSurfacePlacementWindowsVisited;
+    private long mSurfacePlacementWindowsSkipped;
+    private long mSurfacePlacementSubtreesSkipped;
     private final ScreenshotApplicationState mScreenshotApplicationState =
             new ScreenshotApplicationState();
 
@@ -537,6 +554,7 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
                 final boolean firstLayout = !w.isLaidOut();
                 mService.mPolicy.layoutWindowLw(w, null);
                 w.mLayoutSeq = mService.mLayoutSeq;
+                w.setSurfacePlacementDirtyIfMovedByLayout();
 
                 // If this is the first layout, we need to initialize the last inset values as
                 // otherwise we'd immediately cause an unnecessary resize.
@@ -578,6 +596,7 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
                 w.prelayout();
                 mService.mPolicy.layoutWindowLw(w, w.getParentWindow());
                 w.mLayoutSeq = mService.mLayoutSeq;
+                w.setSurfacePlacementDirtyIfMovedByLayout();
                 if (DEBUG_LAYOUT) Slog.v(TAG, " LAYOUT: mFrame=" + w.mFrame
                         + " mContainingFrame=" + w.mContainingFrame
                         + " mDisplayFrame=" + w.mDisplayFrame);
@@ -600,7 +619,6 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
                     mService.mInputMethodTarget);
 
     private final Consumer<WindowState> mApplySurfaceChangesTransaction = w -> {
-        final WindowSurfacePlacer surfacePlacer = mService.mWindowPlacerLocked;
         final boolean obscuredChanged = w.mObscured !=
                 mTmpApplySurfaceChangesTransactionState.obscured;
         final RootWindowContainer root = mService.mRoot;
@@ -652,6 +670,49 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
             mWallpaperController.updateWallpaperVisibility();
         }
 
+        applySurfaceChangesToWindow(w);
+
+        if (isDefaultDisplay && someoneLosingFocus && w == mService.mCurrentFocus
+                && w.isDisplayedLw()) {
+            mTmpApplySurfaceChangesTransactionState.focusDisplayed = true;
+        }
+
+        w.updateResizingWindowIfNeeded();
+        w.recordSurfacePlacement();
+    };
+
+    /**
+     * Used instead of {@link #mApplySurfaceChangesTransaction} for the windows that changed when
+     * the rest of the display is known to be as it was in the last full placement.
+     */
+    private final Consumer<WindowState> mApplySurfaceChangesIncrementally = w -> {
+        applySurfaceChangesToWindow(w);
+        w.updateResizingWindowIfNeeded();
+    };
+
+    private final WindowContainer.DirtyWindowsTraversal mIncrementalSurfacePlacement =
+            new WindowContainer.DirtyWindowsTraversal(mApplySurfaceChangesIncrementally);
+
+    // Whether an incremental placement is currently possible, see
+    // canPlaceSurfacesIncrementally().
+    private boolean mTmpAllDirtyWindowsPlacedAsRecorded;
+
+    private final WindowContainer.DirtyWindowsTraversal mCheckDirtyWindowsPlacedAsRecorded =
+            new WindowContainer.DirtyWindowsTraversal(w -> {
+                if (!w.isPlacedAsRecorded()) {
+                    mTmpAllDirtyWindowsPlacedAsRecorded = false;
+                }
+            });
+
+    /**
+     * Updates the surface of a window after layout. This does not depend on other windows, so
+     * unlike the rest of {@link #mApplySurfaceChangesTransaction} it can be applied to only
+     * the windows that changed.
+     */
+    private void applySurfaceChangesToWindow(WindowState w) {
+        final WindowSurfacePlacer surfacePlacer = mService.mWindowPlacerLocked;
+        final RootWindowContainer root = mService.mRoot;
+
         w.handleWindowMovedIfNeeded();
 
         final WindowStateAnimator winAnimator = w.mWinAnimator;
@@ -713,14 +774,7 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
                 mTmpUpdateAllDrawn.add(atoken);
             }
         }
-
-        if (isDefaultDisplay && someoneLosingFocus && w == mService.mCurrentFocus
-                && w.isDisplayedLw()) {
-            mTmpApplySurfaceChangesTransactionState.focusDisplayed = true;
-        }
-
-        w.updateResizingWindowIfNeeded();
-    };
+    }
 
     /**
      * Create new {@link DisplayContent} instance, add itself to the root window container and
@@ -1520,6 +1574,9 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
 
     @Override
     boolean forAllWindows(ToBooleanFunction<WindowState> callback, boolean traverseTopToBottom) {
+        if (skipIfClean(callback)) {
+            return false;
+        }
         // Special handling so we can process IME windows with #forAllImeWindows above their IME
         // target, or here in order if there isn't an IME target.
         if (traverseTopToBottom) {
@@ -2142,6 +2199,11 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
             pw.print(subPrefix + "deferred=" + mDeferredRemoval
                     + " mLayoutNeeded=" + mLayoutNeeded);
             pw.println(" mTouchExcludeRegion=" + mTouchExcludeRegion);
+            pw.println(subPrefix + "surfacePlacements full=" + mFullSurfacePlacements
+                    + " incremental=" + mIncrementalSurfacePlacements
+                    + " windowsVisited=" + mSurfacePlacementWindowsVisited
+                    + " windowsSkipped=" + mSurfacePlacementWindowsSkipped
+                    + " subtreesSkipped=" + mSurfacePlacementSubtreesSkipped);
 
         pw.println();
         pw.println(prefix + "Application tokens in top down Z order:");
@@ -2726,6 +2788,9 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
 
         mTmpUpdateAllDrawn.clear();
 
+        // Set for changes to the wallpaper, the configuration or the layout policy, which are
+        // display-wide.
+        final boolean hadPendingLayoutChanges = pendingLayoutChanges != 0;
         int repeats = 0;
         do {
             repeats++;
@@ -2777,11 +2842,44 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
             }
         } while (pendingLayoutChanges != 0);
 
-        mTmpApplySurfaceChangesTransactionState.reset();
-        resetDimming();
-
         mTmpRecoveringMemory = recoveringMemory;
-        forAllWindows(mApplySurfaceChangesTransaction, true /* traverseTopToBottom */);
+        final RootWindowContainer root = mService.mRoot;
+        if (canPlaceSurfacesIncrementally(hadPendingLayoutChanges || repeats > 1)) {
+            // Nothing that the display-wide state depends on changed, so replay it and only
+            // update the surfaces of the windows that changed.
+            mLastPlacementRootState.applyTo(root);
+            mTmpApplySurfaceChangesTransactionState.reset();
+            mTmpApplySurfaceChangesTransactionState.displayHasContent =
+                    mLastPlacementDisplayHasContent;
+            mTmpApplySurfaceChangesTransactionState.preferredRefreshRate =
+                    mLastPlacementPreferredRefreshRate;
+            mTmpApplySurfaceChangesTransactionState.preferredModeId =
+                    mLastPlacementPreferredModeId;
+
+            mIncrementalSurfacePlacement.resetCounts();
+            forAllDirtyWindows(mIncrementalSurfacePlacement, true /* traverseTopToBottom */);
+            mIncrementalSurfacePlacements++;
+            mSurfacePlacementWindowsVisited += mIncrementalSurfacePlacement.mWindowsVisited;
+            mSurfacePlacementWindowsSkipped += mIncrementalSurfacePlacement.mWindowsSkipped;
+            mSurfacePlacementSubtreesSkipped += mIncrementalSurfacePlacement.mSubtreesSkipped;
+        } else {
+            mLastPlacementRootStateBefore.captureFrom(root);
+            mTmpApplySurfaceChangesTransactionState.reset();
+            resetDimming();
+
+            forAllWindows(mApplySurfaceChangesTransaction, true /* traverseTopToBottom */);
+
+            mLastPlacementRootState.captureFrom(root);
+            mLastPlacementDisplayHasContent =
+                    mTmpApplySurfaceChangesTransactionState.displayHasContent;
+            mLastPlacementPreferredRefreshRate =
+                    mTmpApplySurfaceChangesTransactionState.preferredRefreshRate;
+            mLastPlacementPreferredModeId =
+                    mTmpApplySurfaceChangesTransactionState.preferredModeId;
+            mLastSurfacePlacementValid = true;
+            mFullSurfacePlacements++;
+        }
+        clearSurfacePlacementDirty();
 
         mService.mDisplayManagerInternal.setDisplayProperties(mDisplayId,
                 mTmpApplySurfaceChangesTransactionState.displayHasContent,
@@ -2807,6 +2905,50 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
         return mTmpApplySurfaceChangesTransactionState.focusDisplayed;
     }
 
+    @VisibleForTesting
+    int getFullSurfacePlacementCount() {
+        return mFullSurfacePlacements;
+    }
+
+    @VisibleForTesting
+    int getIncrementalSurfacePlacementCount() {
+        return mIncrementalSurfacePlacements;
+    }
+
+    /**
+     * Returns true if this display's surfaces can be placed by visiting only the windows that
+     * changed since the last placement. That is the case when nothing that affects the
+     * display-wide state computed by a full placement has changed: the layout only moved or
+     * resized individual windows, which marks them as changed, no animation or dim is running,
+     * and every changed window still contributes to that state what it did in the last full
+     * placement.
+     *
+     * @param displayWideLayoutChanges whether the layout policy asked for the layout, the
+     *                                 wallpaper or the configuration to be updated.
+     */
+    private boolean canPlaceSurfacesIncrementally(boolean displayWideLayoutChanges) {
+        if (!mLastSurfacePlacementValid || displayWideLayoutChanges || pendingLayoutChanges != 0
+                || mService.mAnimator.isAnimating() || mService.mAppTransition.isRunning()
+                || mService.mAppTransition.isReady() || mService.mDisplayFrozen
+                || mService.mRoot.mWallpaperMayChange || !mService.mLosingFocus.isEmpty()
+                || isDimming()) {
+            return false;
+        }
+        if (!mLastPlacementRootStateBefore.matches(mService.mRoot)) {
+            // A display placed before this one contributed something else this time.
+            return false;
+        }
+        mTmpAllDirtyWindowsPlacedAsRecorded = true;
+        forAllDirtyWindows(mCheckDirtyWindowsPlacedAsRecorded, true /* traverseTopToBottom */);
+        return mTmpAllDirtyWindowsPlacedAsRecorded;
+    }
+
+    @Override
+    void invalidateSurfacePlacement() {
+        super.invalidateSurfacePlacement();
+        mLastSurfacePlacementValid = false;
+    }
+
     void performLayout(boolean initial, boolean updateInputWindows) {
         if (!isLayoutNeeded()) {
             return;
@@ -2829,7 +2971,12 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
             mService.mScreenRect.set(0, 0, dw, dh);
         }
 
+        mTmpRect.set(mContentRect);
         mService.mPolicy.getContentRectLw(mContentRect);
+        if (!mTmpRect.equals(mContentRect)) {
+            // The system bars moved, which changes what the whole display looks like.
+            invalidateSurfacePlacement();
+        }
 
         int seq = mService.mLayoutSeq + 1;
         if (seq < 0) seq = 0;
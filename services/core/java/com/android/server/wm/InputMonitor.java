@@ -81,6 +81,10 @@ final class InputMonitor implements InputManagerService.WindowManagerCallbacks {
     private int mInputWindowHandleCount;
     private InputWindowHandle mFocusedInputWindowHandle;
 
+    // The input windows last sent to the input dispatcher.
+    private InputWindowSnapshot mPublishedInputWindows = InputWindowSnapshot.EMPTY;
+    private int mSkippedInputWindowPublishes;
+
     private boolean mAddInputConsumerHandle;
     private boolean mAddPipInputConsumerHandle;
     private boolean mAddWallpaperInputConsumerHandle;
@@ -348,6 +352,24 @@ final class InputMonitor implements InputManagerService.WindowManagerCallbacks {
         mFocusedInputWindowHandle = null;
     }
 
+    /**
+     * Sends the input windows that were just added to the input dispatcher, unless it already
+     * has the same windows with the same values. The dispatcher reads every handle it is sent, so
+     * this saves a pass over all windows in native code when e.g. a relayout did not change
+     * anything input related.
+     */
+    private void publishInputWindowsLw() {
+        final InputWindowSnapshot published = mPublishedInputWindows;
+        if (published.matches(mInputWindowHandles, mInputWindowHandleCount,
+                mFocusedInputWindowHandle)) {
+            mSkippedInputWindowPublishes++;
+            return;
+        }
+        mService.mInputManager.setInputWindows(mInputWindowHandles, mFocusedInputWindowHandle);
+        mPublishedInputWindows = published.next(mInputWindowHandles, mInputWindowHandleCount,
+                mFocusedInputWindowHandle);
+    }
+
     void setUpdateInputWindowsNeededLw() {
         mUpdateInputWindowsNeeded = true;
     }
@@ -589,6 +611,10 @@ final class InputMonitor implements InputManagerService.WindowManagerCallbacks {
         if (mInputFreezeReason != null) {
             pw.println(prefix + "mInputFreezeReason=" + mInputFreezeReason);
         }
+        final InputWindowSnapshot published = mPublishedInputWindows;
+        pw.println(prefix + "mPublishedInputWindows version=" + published.version
+                + " size=" + published.size() + " lastChanged=" + published.changedCount
+                + " skipped=" + mSkippedInputWindowPublishes);
         final Set<String> inputConsumerKeys = mInputConsumers.keySet();
         if (!inputConsumerKeys.isEmpty()) {
             pw.println(prefix + "InputConsumers:");
@@ -629,7 +655,7 @@ final class InputMonitor implements InputManagerService.WindowManagerCallbacks {
             }
 
             // Send windows to native code.
-            mService.mInputManager.setInputWindows(mInputWindowHandles, mFocusedInputWindowHandle);
+            publishInputWindowsLw();
 
             clearInputWindowHandlesLw();
         }
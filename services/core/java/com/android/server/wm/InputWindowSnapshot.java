@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wm;
+
+import android.graphics.Region;
+import android.view.InputChannel;
+
+import com.android.server.input.InputWindowHandle;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * An immutable copy of the input windows {@link InputMonitor} last sent to the input dispatcher,
+ * in order, together with the values their handles had at the time.
+ * <p>
+ * {@link InputWindowHandle}s are updated in place by the window manager, and the dispatcher only
+ * reads them when a new list is sent, so the copy is what tells whether a list that was just
+ * built differs from what the dispatcher has.
+ */
+final class InputWindowSnapshot {
+
+    static final InputWindowSnapshot EMPTY = new InputWindowSnapshot(0, new InputWindowHandle[0],
+            new HandleState[0], null, 0);
+
+    /** Incremented by one for every list sent to the dispatcher. */
+    final int version;
+    /** How many handles were added or changed their values since the previous snapshot. */
+    final int changedCount;
+    private final InputWindowHandle[] mHandles;
+    private final HandleState[] mStates;
+    private final InputWindowHandle mFocusedHandle;
+
+    private InputWindowSnapshot(int version, InputWindowHandle[] handles, HandleState[] states,
+            InputWindowHandle focusedHandle, int changedCount) {
+        this.version = version;
+        mHandles = handles;
+        mStates = states;
+        mFocusedHandle = focusedHandle;
+        this.changedCount = changedCount;
+    }
+
+    /**
+     * Returns true if the first {@code count} handles of {@code handles} are the handles of this
+     * snapshot, in the same order and with the same values.
+     */
+    boolean matches(InputWindowHandle[] handles, int count, InputWindowHandle focusedHandle) {
+        if (count != mHandles.length || focusedHandle != mFocusedHandle) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            if (handles[i] != mHandles[i] || !mStates[i].matches(handles[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the snapshot that follows this one once the first {@code count} handles of
+     * {@code handles} have been sent to the dispatcher. The values of handles that did not
+     * change are shared with this snapshot.
+     */
+    InputWindowSnapshot next(InputWindowHandle[] handles, int count,
+            InputWindowHandle focusedHandle) {
+        final InputWindowHandle[] newHandles = Arrays.copyOf(handles, count);
+        final HandleState[] newStates = new HandleState[count];
+        int changed = 0;
+        for (int i = 0; i < count; i++) {
+            final HandleState state = findState(handles[i], i);
+            if (state != null && state.matches(handles[i])) {
+                newStates[i] = state;
+            } else {
+                newStates[i] = new HandleState(handles[i]);
+                changed++;
+            }
+        }
+        return new InputWindowSnapshot(version + 1, newHandles, newStates, focusedHandle,
+                changed);
+    }
+
+    private HandleState findState(InputWindowHandle handle, int expectedIndex) {
+        // Most handles keep their position, so look there first.
+        if (expectedIndex < mHandles.length && mHandles[expectedIndex] == handle) {
+            return mStates[expectedIndex];
+        }
+        for (int i = mHandles.length - 1; i >= 0; i--) {
+            if (mHandles[i] == handle) {
+                return mStates[i];
+            }
+        }
+        return null;
+    }
+
+    int size() {
+        return mHandles.length;
+    }
+
+    /**
+     * The values of an {@link InputWindowHandle} that the input dispatcher reads.
+     */
+    private static final class HandleState {
+        final InputChannel inputChannel;
+        final String name;
+        final int layoutParamsFlags;
+        final int layoutParamsType;
+        final long dispatchingTimeoutNanos;
+        final int frameLeft;
+        final int frameTop;
+        final int frameRight;
+        final int frameBottom;
+        final float scaleFactor;
+        final Region touchableRegion;
+        final boolean visible;
+        final boolean canReceiveKeys;
+        final boolean hasFocus;
+        final boolean hasWallpaper;
+        final boolean paused;
+        final int layer;
+        final int ownerPid;
+        final int ownerUid;
+        final int inputFeatures;
+
+        HandleState(InputWindowHandle handle) {
+            inputChannel = handle.inputChannel;
+            name = handle.name;
+            layoutParamsFlags = handle.layoutParamsFlags;
+            layoutParamsType = handle.layoutParamsType;
+            dispatchingTimeoutNanos = handle.dispatchingTimeoutNanos;
+            frameLeft = handle.frameLeft;
+            frameTop = handle.frameTop;
+            frameRight = handle.frameRight;
+            frameBottom = handle.frameBottom;
+            scaleFactor = handle.scaleFactor;
+            touchableRegion = new Region(handle.touchableRegion);
+            visible = handle.visible;
+            canReceiveKeys = handle.canReceiveKeys;
+            hasFocus = handle.hasFocus;
+            hasWallpaper = handle.hasWallpaper;
+            paused = handle.paused;
+            layer = handle.layer;
+            ownerPid = handle.ownerPid;
+            ownerUid = handle.ownerUid;
+            inputFeatures = handle.inputFeatures;
+        }
+
+        boolean matches(InputWindowHandle handle) {
+            return inputChannel == handle.inputChannel
+                    && layoutParamsFlags == handle.layoutParamsFlags
+                    && layoutParamsType == handle.layoutParamsType
+                    && dispatchingTimeoutNanos == handle.dispatchingTimeoutNanos
+                    && frameLeft == handle.frameLeft
+                    && frameTop == handle.frameTop
+                    && frameRight == handle.frameRight
+                    && frameBottom == handle.frameBottom
+                    && scaleFactor == handle.scaleFactor
+                    && visible == handle.visible
+                    && canReceiveKeys == handle.canReceiveKeys
+                    && hasFocus == handle.hasFocus
+                    && hasWallpaper == handle.hasWallpaper
+                    && paused == handle.paused
+                    && layer == handle.layer
+                    && ownerPid == handle.ownerPid
+                    && ownerUid == handle.ownerUid
+                    && inputFeatures == handle.inputFeatures
+                    && Objects.equals(name, handle.name)
+                    && touchableRegion.equals(handle.touchableRegion);
+        }
+    }
+}
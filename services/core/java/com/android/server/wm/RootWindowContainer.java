@@ -1097,4 +1097,57 @@ class RootWindowContainer extends WindowContainer<DisplayContent> {
     String getName() {
         return "ROOT";
     }
+
+    /**
+     * The state that displays accumulate into the root while placing their windows' surfaces,
+     * so that a display that did not change can replay what it contributed last time.
+     */
+    static final class PlacementState {
+        private Session mHoldScreen;
+        private WindowState mHoldScreenWindow;
+        private WindowState mObscuringWindow;
+        private float mScreenBrightness;
+        private long mUserActivityTimeout;
+        private boolean mObscureApplicationContentOnSecondaryDisplays;
+        private boolean mSustainedPerformanceModeCurrent;
+
+        void captureFrom(RootWindowContainer root) {
+            mHoldScreen = root.mHoldScreen;
+            mHoldScreenWindow = root.mHoldScreenWindow;
+            mObscuringWindow = root.mObscuringWindow;
+            mScreenBrightness = root.mScreenBrightness;
+            mUserActivityTimeout = root.mUserActivityTimeout;
+            mObscureApplicationContentOnSecondaryDisplays =
+                    root.mObscureApplicationContentOnSecondaryDisplays;
+            mSustainedPerformanceModeCurrent = root.mSustainedPerformanceModeCurrent;
+        }
+
+        void applyTo(RootWindowContainer root) {
+            root.mHoldScreen = mHoldScreen;
+            root.mHoldScreenWindow = mHoldScreenWindow;
+            root.mObscuringWindow = mObscuringWindow;
+            root.mScreenBrightness = mScreenBrightness;
+            root.mUserActivityTimeout = mUserActivityTimeout;
+            root.mObscureApplicationContentOnSecondaryDisplays =
+                    mObscureApplicationContentOnSecondaryDisplays;
+            root.mSustainedPerformanceModeCurrent = mSustainedPerformanceModeCurrent;
+        }
+
+        boolean matches(RootWindowContainer root) {
+            return mHoldScreen == root.mHoldScreen
+                    && mHoldScreenWindow == root.mHoldScreenWindow
+                    && mObscuringWindow == root.mObscuringWindow
+                    && mScreenBrightness == root.mScreenBrightness
+                    && mUserActivityTimeout == root.mUserActivityTimeout
+                    && mObscureApplicationContentOnSecondaryDisplays
+                            == root.mObscureApplicationContentOnSecondaryDisplays
+                    && mSustainedPerformanceModeCurrent == root.mSustainedPerformanceModeCurrent;
+        }
+
+        void clear() {
+            mHoldScreen = null;
+            mHoldScreenWindow = null;
+            mObscuringWindow = null;
+        }
+    }
 }
@@ -17,10 +17,19 @@
 package com.android.server.wm;
 
 import android.annotation.Nullable;
+import android.app.ActivityManager;
 import android.app.ActivityManager.TaskSnapshot;
+import android.graphics.GraphicBuffer;
+import android.graphics.PixelFormat;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.util.ArrayMap;
 import android.util.LruCache;
 
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.os.BackgroundThread;
+
 import java.io.PrintWriter;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -28,18 +37,83 @@ import java.util.Map.Entry;
 /**
  * Caches snapshots. See {@link TaskSnapshotController}.
  * <p>
- * Access to this class should be guarded by the global window manager lock.
+ * Snapshots are kept in three tiers:
+ * <ul>
+ *     <li>The running cache holds the latest snapshot of each task whose top app is still
+ *     around. These are used for starting windows and never evicted for space.</li>
+ *     <li>The restored cache holds snapshots restored from disk, mostly at reduced resolution,
+ *     and the reduced resolution snapshots of tasks whose app went away. It is bounded by
+ *     {@link #RESTORED_CACHE_BYTES}, or {@link #LOW_RAM_RESTORED_CACHE_BYTES} on low-RAM devices,
+ *     where it only holds reduced resolution snapshots, and only consulted by callers that would
+ *     otherwise read from disk.</li>
+ *     <li>The disk, written by {@link TaskSnapshotPersister}.</li>
+ * </ul>
+ * Reading a snapshot from disk also prefetches the reduced resolution snapshots of the tasks
+ * around it in the recents order, since Recents usually asks for them next.
+ * <p>
+ * Access to the running cache should be guarded by the global window manager lock. The restored
+ * cache has its own lock, which may be taken while holding the window manager lock.
  */
 class TaskSnapshotCache {
 
+    @VisibleForTesting
+    static final int RESTORED_CACHE_BYTES = 24 * 1024 * 1024;
+
+    /**
+     * Low-RAM devices take all snapshots at reduced resolution; this holds those of a restored
+     * task and the tasks prefetched around it at typical low-RAM display sizes.
+     */
+    @VisibleForTesting
+    static final int LOW_RAM_RESTORED_CACHE_BYTES = 4 * 1024 * 1024;
+
+    /** How many tasks on each side of a restored task to prefetch. */
+    @VisibleForTesting
+    static final int PREFETCH_DISTANCE = 2;
+
     private final WindowManagerService mService;
     private final TaskSnapshotLoader mLoader;
+    private final Handler mPrefetchHandler;
+    private final boolean mReducedResolutionOnly;
     private final ArrayMap<AppWindowToken, Integer> mAppTaskMap = new ArrayMap<>();
     private final ArrayMap<Integer, CacheEntry> mRunningCache = new ArrayMap<>();
 
+    private final Object mRestoredLock = new Object();
+    @GuardedBy("mRestoredLock")
+    private final LruCache<Integer, RestoredEntry> mRestoredCache;
+
+    /**
+     * Incremented whenever a snapshot is invalidated, so that loads started before are not put
+     * into the restored cache.
+     */
+    @GuardedBy("mRestoredLock")
+    private int mRestoredGeneration;
+    @GuardedBy("mRestoredLock")
+    private int[] mRecentTaskIds;
+    @GuardedBy("mRestoredLock")
+    private int mRecentTasksUserId;
+
+    @GuardedBy("mRestoredLock")
+    private final Stats mStats = new Stats();
+
     TaskSnapshotCache(WindowManagerService service, TaskSnapshotLoader loader) {
+        this(service, loader, BackgroundThread.getHandler(),
+                ActivityManager.isLowRamDeviceStatic());
+    }
+
+    @VisibleForTesting
+    TaskSnapshotCache(WindowManagerService service, TaskSnapshotLoader loader,
+            Handler prefetchHandler, boolean lowRam) {
         mService = service;
         mLoader = loader;
+        mPrefetchHandler = prefetchHandler;
+        mReducedResolutionOnly = lowRam;
+        mRestoredCache = new LruCache<Integer, RestoredEntry>(
+                lowRam ? LOW_RAM_RESTORED_CACHE_BYTES : RESTORED_CACHE_BYTES) {
+            @Override
+            protected int sizeOf(Integer taskId, RestoredEntry entry) {
+                return getByteCount(entry.snapshot);
+            }
+        };
     }
 
     void putSnapshot(Task task, TaskSnapshot snapshot) {
@@ -49,7 +123,9 @@ class TaskSnapshotCache {
         }
         final AppWindowToken top = task.getTopChild();
         mAppTaskMap.put(top, task.mTaskId);
-        mRunningCache.put(task.mTaskId, new CacheEntry(snapshot, task.getTopChild()));
+        mRunningCache.put(task.mTaskId, new CacheEntry(snapshot, task.getTopChild(),
+                task.mUserId));
+        removeRestoredEntry(task.mTaskId);
     }
 
     /**
@@ -62,6 +138,11 @@ class TaskSnapshotCache {
             // Try the running cache.
             final CacheEntry entry = mRunningCache.get(taskId);
             if (entry != null) {
+                if (restoreFromDisk) {
+                    synchronized (mRestoredLock) {
+                        mStats.runningHits++;
+                    }
+                }
                 return entry.snapshot;
             }
         }
@@ -70,27 +151,138 @@ class TaskSnapshotCache {
         if (!restoreFromDisk) {
             return null;
         }
-        return tryRestoreFromDisk(taskId, userId, reducedResolution);
+        TaskSnapshot snapshot = getRestoredSnapshot(taskId, userId, reducedResolution);
+        if (snapshot == null) {
+            snapshot = tryRestoreFromDisk(taskId, userId, reducedResolution);
+            schedulePrefetch(taskId, userId);
+        }
+        return snapshot;
+    }
+
+    private TaskSnapshot getRestoredSnapshot(int taskId, int userId, boolean reducedResolution) {
+        synchronized (mRestoredLock) {
+            final RestoredEntry entry = mRestoredCache.get(taskId);
+            if (entry == null || entry.userId != userId
+                    || (!reducedResolution && entry.snapshot.isReducedResolution())) {
+                return null;
+            }
+            mStats.restoredHits++;
+            if (entry.prefetched) {
+                entry.prefetched = false;
+                mStats.prefetchHits++;
+            }
+            return entry.snapshot;
+        }
     }
 
     /**
      * DO NOT HOLD THE WINDOW MANAGER LOCK WHEN CALLING THIS METHOD!
      */
     private TaskSnapshot tryRestoreFromDisk(int taskId, int userId, boolean reducedResolution) {
+        final int generation;
+        synchronized (mRestoredLock) {
+            generation = mRestoredGeneration;
+        }
+        final long startTime = SystemClock.elapsedRealtimeNanos();
         final TaskSnapshot snapshot = mLoader.loadTask(taskId, userId, reducedResolution);
-        if (snapshot == null) {
-            return null;
+        final long loadTimeUs = (SystemClock.elapsedRealtimeNanos() - startTime) / 1000;
+        synchronized (mRestoredLock) {
+            mStats.onDiskLoad(loadTimeUs, snapshot != null);
+            if (snapshot == null) {
+                return null;
+            }
+            if (canRestore(snapshot) && generation == mRestoredGeneration) {
+                mRestoredCache.put(taskId, new RestoredEntry(snapshot, userId,
+                        false /* prefetched */));
+            }
         }
         return snapshot;
     }
 
+    /**
+     * Called when the order of the recent tasks of {@param userId} has been reported, most
+     * recent first.
+     */
+    void onRecentTaskOrderChanged(int[] taskIds, int userId) {
+        synchronized (mRestoredLock) {
+            mRecentTaskIds = taskIds;
+            mRecentTasksUserId = userId;
+        }
+    }
+
+    private void schedulePrefetch(int taskId, int userId) {
+        final int[] taskIds;
+        synchronized (mRestoredLock) {
+            if (mRecentTaskIds == null || mRecentTasksUserId != userId) {
+                return;
+            }
+            taskIds = mRecentTaskIds;
+        }
+        int index = -1;
+        for (int i = 0; i < taskIds.length; i++) {
+            if (taskIds[i] == taskId) {
+                index = i;
+                break;
+            }
+        }
+        if (index == -1) {
+            return;
+        }
+        // Recents scrolls towards older tasks, so prefetch those first.
+        for (int distance = 1; distance <= PREFETCH_DISTANCE; distance++) {
+            if (index + distance < taskIds.length) {
+                final int prefetchTaskId = taskIds[index + distance];
+                mPrefetchHandler.post(() -> prefetchSnapshot(prefetchTaskId, userId));
+            }
+            if (index - distance >= 0) {
+                final int prefetchTaskId = taskIds[index - distance];
+                mPrefetchHandler.post(() -> prefetchSnapshot(prefetchTaskId, userId));
+            }
+        }
+    }
+
+    /**
+     * Restores the reduced resolution snapshot of a task from disk into the restored cache,
+     * unless it is already cached.
+     * <p>
+     * DO NOT HOLD THE WINDOW MANAGER LOCK WHEN CALLING THIS METHOD!
+     */
+    @VisibleForTesting
+    void prefetchSnapshot(int taskId, int userId) {
+        synchronized (mService.mWindowMap) {
+            if (mRunningCache.containsKey(taskId)) {
+                return;
+            }
+        }
+        final int generation;
+        synchronized (mRestoredLock) {
+            final RestoredEntry entry = mRestoredCache.get(taskId);
+            if (entry != null && entry.userId == userId) {
+                return;
+            }
+            generation = mRestoredGeneration;
+        }
+        final TaskSnapshot snapshot = mLoader.loadTask(taskId, userId,
+                true /* reducedResolution */);
+        if (snapshot == null) {
+            return;
+        }
+        synchronized (mRestoredLock) {
+            mStats.prefetches++;
+            if (generation == mRestoredGeneration) {
+                mRestoredCache.put(taskId, new RestoredEntry(snapshot, userId,
+                        true /* prefetched */));
+            }
+        }
+    }
+
     /**
      * Called when an app token has been removed
      */
     void onAppRemoved(AppWindowToken wtoken) {
         final Integer taskId = mAppTaskMap.get(wtoken);
         if (taskId != null) {
-            removeRunningEntry(taskId);
+            demoteRunningEntry(taskId);
         }
     }
 
@@ -100,12 +292,34 @@ class TaskSnapshotCache {
     void onAppDied(AppWindowToken wtoken) {
         final Integer taskId = mAppTaskMap.get(wtoken);
         if (taskId != null) {
-            removeRunningEntry(taskId);
+            demoteRunningEntry(taskId);
         }
     }
 
     void onTaskRemoved(int taskId) {
         removeRunningEntry(taskId);
+        removeRestoredEntry(taskId);
+    }
+
+    /**
+     * Moves the snapshot of a task whose app went away to the restored cache if it is at reduced
+     * resolution, as on low-RAM devices. It is what the persister wrote to disk, so Recents can
+     * still show it without reading it back. A full resolution snapshot is just dropped; Recents
+     * only needs the much smaller reduced resolution one, which it reads from disk.
+     */
+    private void demoteRunningEntry(int taskId) {
+        final CacheEntry entry = mRunningCache.get(taskId);
+        if (entry == null) {
+            return;
+        }
+        removeRunningEntry(taskId);
+        if (!entry.snapshot.isReducedResolution()) {
+            return;
+        }
+        synchronized (mRestoredLock) {
+            mRestoredCache.put(taskId, new RestoredEntry(entry.snapshot, entry.userId,
+                    false /* prefetched */));
+        }
     }
 
     private void removeRunningEntry(int taskId) {
@@ -116,6 +330,45 @@ class TaskSnapshotCache {
         }
     }
 
+    private void removeRestoredEntry(int taskId) {
+        synchronized (mRestoredLock) {
+            mRestoredGeneration++;
+            mRestoredCache.remove(taskId);
+        }
+    }
+
+    /**
+     * Returns whether a snapshot loaded from disk may be kept in the restored cache.
+     */
+    private boolean canRestore(TaskSnapshot snapshot) {
+        return !mReducedResolutionOnly || snapshot.isReducedResolution();
+    }
+
+    private static int getByteCount(TaskSnapshot snapshot) {
+        final GraphicBuffer buffer = snapshot.getSnapshot();
+        final PixelFormat info = new PixelFormat();
+        try {
+            PixelFormat.getPixelFormatInfo(buffer.getFormat(), info);
+        } catch (IllegalArgumentException e) {
+            info.bytesPerPixel = 4;
+        }
+        return buffer.getWidth() * buffer.getHeight() * info.bytesPerPixel;
+    }
+
+    @VisibleForTesting
+    int getRestoredCacheSize() {
+        synchronized (mRestoredLock) {
+            return mRestoredCache.size();
+        }
+    }
+
+    @VisibleForTesting
+    boolean isRestored(int taskId) {
+        synchronized (mRestoredLock) {
+            return mRestoredCache.get(taskId) != null;
+        }
+    }
+
     void dump(PrintWriter pw, String prefix) {
         final String doublePrefix = prefix + "  ";
         final String triplePrefix = doublePrefix + "  ";
@@ -126,6 +379,17 @@ class TaskSnapshotCache {
             pw.println(triplePrefix + "topApp=" + entry.topApp);
             pw.println(triplePrefix + "snapshot=" + entry.snapshot);
         }
+        synchronized (mRestoredLock) {
+            pw.println(doublePrefix + "Restored bytes=" + mRestoredCache.size()
+                    + "/" + mRestoredCache.maxSize() + " evictions="
+                    + mRestoredCache.evictionCount());
+            for (Entry<Integer, RestoredEntry> e : mRestoredCache.snapshot().entrySet()) {
+                pw.println(triplePrefix + "taskId=" + e.getKey()
+                        + " userId=" + e.getValue().userId
+                        + " snapshot=" + e.getValue().snapshot);
+            }
+            mStats.dump(pw, doublePrefix);
+        }
     }
 
     private static final class CacheEntry {
@@ -136,9 +400,70 @@ class TaskSnapshotCache {
         /** The app token that was on top of the task when the snapshot was taken */
         final AppWindowToken topApp;
 
-        CacheEntry(TaskSnapshot snapshot, AppWindowToken topApp) {
+        /** The user the task belongs to. */
+        final int userId;
+
+        CacheEntry(TaskSnapshot snapshot, AppWindowToken topApp, int userId) {
             this.snapshot = snapshot;
             this.topApp = topApp;
+            this.userId = userId;
+        }
+    }
+
+    private static final class RestoredEntry {
+
+        final TaskSnapshot snapshot;
+        final int userId;
+
+        /** Whether the snapshot was prefetched and has not been asked for yet. */
+        boolean prefetched;
+
+        RestoredEntry(TaskSnapshot snapshot, int userId, boolean prefetched) {
+            this.snapshot = snapshot;
+            this.userId = userId;
+            this.prefetched = prefetched;
+        }
+    }
+
+    /**
+     * Counts how snapshot requests that may read from disk are served.
+     */
+    private static final class Stats {
+        int runningHits;
+        int restoredHits;
+        int prefetchHits;
+        int prefetches;
+        int diskLoads;
+        int diskLoadFailures;
+        long totalDiskLoadTimeUs;
+        long maxDiskLoadTimeUs;
+
+        void onDiskLoad(long loadTimeUs, boolean success) {
+            diskLoads++;
+            if (!success) {
+                diskLoadFailures++;
+            }
+            totalDiskLoadTimeUs += loadTimeUs;
+            maxDiskLoadTimeUs = Math.max(maxDiskLoadTimeUs, loadTimeUs);
+        }
+
+        void dump(PrintWriter pw, String prefix) {
+            final int requests = runningHits + restoredHits + diskLoads;
+            pw.print(prefix + "Stats requests=" + requests);
+            pw.print(" runningHits=" + runningHits);
+            pw.print(" restoredHits=" + restoredHits);
+            pw.print(" diskLoads=" + diskLoads);
+            pw.print(" diskLoadFailures=" + diskLoadFailures);
+            if (requests > 0) {
+                pw.print(" hitRate=" + (100 * (runningHits + restoredHits) / requests) + "%");
+            }
+            pw.println();
+            pw.print(prefix + "  prefetches=" + prefetches + " prefetchHits=" + prefetchHits);
+            if (diskLoads > 0) {
+                pw.print(" avgDiskLoadUs=" + (totalDiskLoadTimeUs / diskLoads));
+                pw.print(" maxDiskLoadUs=" + maxDiskLoadTimeUs);
+            }
+            pw.println();
         }
     }
 }
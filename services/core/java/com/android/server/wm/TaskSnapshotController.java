@@ -323,6 +323,13 @@ class TaskSnapshotController {
         mPersister.onTaskRemovedFromRecents(taskId, userId);
     }
 
+    /**
+     * See {@link TaskSnapshotCache#onRecentTaskOrderChanged}
+     */
+    void notifyRecentTaskOrder(int[] taskIds, int userId) {
+        mCache.onRecentTaskOrderChanged(taskIds, userId);
+    }
+
     /**
      * See {@link TaskSnapshotPersister#removeObsoleteFiles}
      */
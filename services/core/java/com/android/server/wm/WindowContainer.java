@@ -79,6 +79,12 @@ class WindowContainer<E extends WindowContainer> implements Comparable<WindowCon
     // The owner/creator for this container. No controller if null.
     private WindowContainerController mController;
 
+    /**
+     * Whether this container or anything below it changed since the last surface placement. A
+     * dirty container always has dirty ancestors, so clean subtrees can be skipped entirely.
+     */
+    private boolean mSurfacePlacementDirty = true;
+
     final protected WindowContainer getParent() {
         return mParent;
     }
@@ -142,6 +148,7 @@ class WindowContainer<E extends WindowContainer> implements Comparable<WindowCon
         }
         // Set the parent after we've actually added a child in case a subclass depends on this.
         child.setParent(this);
+        invalidateSurfacePlacement();
     }
 
     /** Adds the input window container has a child of this container at the input index. */
@@ -155,6 +162,7 @@ class WindowContainer<E extends WindowContainer> implements Comparable<WindowCon
         mChildren.add(index, child);
         // Set the parent after we've actually added a child in case a subclass depends on this.
         child.setParent(this);
+        invalidateSurfacePlacement();
     }
 
     /**
@@ -166,6 +174,7 @@ class WindowContainer<E extends WindowContainer> implements Comparable<WindowCon
     void removeChild(E child) {
         if (mChildren.remove(child)) {
             child.setParent(null);
+            invalidateSurfacePlacement();
         } else {
             throw new IllegalArgumentException("removeChild: container=" + child.getName()
                     + " is not a child of container=" + getName());
@@ -279,6 +288,7 @@ class WindowContainer<E extends WindowContainer> implements Comparable<WindowCon
                 mChildren.remove(child);
                 mChildren.add(position, child);
         }
+        invalidateSurfacePlacement();
     }
 
     /**
@@ -611,6 +621,9 @@ a     * Returns whether this child is on top of the window hierarchy.
      *          {@link ToBooleanFunction#apply} returning true.
      */
     boolean forAllWindows(ToBooleanFunction<WindowState> callback, boolean traverseTopToBottom) {
+        if (skipIfClean(callback)) {
+            return false;
+        }
         if (traverseTopToBottom) {
             for (int i = mChildren.size() - 1; i >= 0; --i) {
                 if (mChildren.get(i).forAllWindows(callback, traverseTopToBottom)) {
@@ -634,6 +647,67 @@ a     * Returns whether this child is on top of the window hierarchy.
         wrapper.release();
     }
 
+    /**
+     * Like {@link #forAllWindows(Consumer, boolean)}, but only for the windows that may have
+     * changed since {@link #clearSurfacePlacementDirty} was last called on this container.
+     * Subtrees in which nothing changed are not visited.
+     *
+     * @param traversal Holds the callback and counts the windows visited and skipped.
+     */
+    void forAllDirtyWindows(DirtyWindowsTraversal traversal, boolean traverseTopToBottom) {
+        forAllWindows(traversal, traverseTopToBottom);
+    }
+
+    /**
+     * Returns true if {@code callback} is a {@link DirtyWindowsTraversal} and nothing at or
+     * below this container changed, so that the traversal does not need to visit it.
+     */
+    final boolean skipIfClean(ToBooleanFunction<WindowState> callback) {
+        if (mSurfacePlacementDirty || !(callback instanceof DirtyWindowsTraversal)) {
+            return false;
+        }
+        ((DirtyWindowsTraversal) callback).mSubtreesSkipped++;
+        return true;
+    }
+
+    /**
+     * Marks this container, and so all its ancestors, as changed since the last surface
+     * placement.
+     */
+    void setSurfacePlacementDirty() {
+        for (WindowContainer wc = this; wc != null && !wc.mSurfacePlacementDirty;
+                wc = wc.mParent) {
+            wc.mSurfacePlacementDirty = true;
+        }
+    }
+
+    /**
+     * Called when the hierarchy below this container changed, so the next surface placement of
+     * its display has to visit every window.
+     */
+    void invalidateSurfacePlacement() {
+        setSurfacePlacementDirty();
+        if (mParent != null) {
+            mParent.invalidateSurfacePlacement();
+        }
+    }
+
+    boolean isSurfacePlacementDirty() {
+        return mSurfacePlacementDirty;
+    }
+
+    /** Marks this container and everything below it as placed. */
+    void clearSurfacePlacementDirty() {
+        if (!mSurfacePlacementDirty) {
+            // Nothing below can be dirty either.
+            return;
+        }
+        mSurfacePlacementDirty = false;
+        for (int i = mChildren.size() - 1; i >= 0; --i) {
+            mChildren.get(i).clearSurfacePlacementDirty();
+        }
+    }
+
     /**
      * For all tasks at or below this container call the callback.
      *
@@ -766,6 +840,39 @@ a     * Returns whether this child is on top of the window hierarchy.
         return wrapper;
     }
 
+    /**
+     * Visits the dirty windows found by {@link #forAllDirtyWindows} and counts how much of the
+     * hierarchy it could skip.
+     */
+    static final class DirtyWindowsTraversal implements ToBooleanFunction<WindowState> {
+        private final Consumer<WindowState> mConsumer;
+        int mWindowsVisited;
+        int mWindowsSkipped;
+        int mSubtreesSkipped;
+
+        DirtyWindowsTraversal(Consumer<WindowState> consumer) {
+            mConsumer = consumer;
+        }
+
+        @Override
+        public boolean apply(WindowState w) {
+            // Child windows are reached through their parent even if they are clean.
+            if (!w.isSurfacePlacementDirty()) {
+                mWindowsSkipped++;
+                return false;
+            }
+            mWindowsVisited++;
+            mConsumer.accept(w);
+            return false;
+        }
+
+        void resetCounts() {
+            mWindowsVisited = 0;
+            mWindowsSkipped = 0;
+            mSubtreesSkipped = 0;
+        }
+    }
+
     private final class ForAllWindowsConsumerWrapper implements ToBooleanFunction<WindowState> {
 
         private Consumer<WindowState> mConsumer;
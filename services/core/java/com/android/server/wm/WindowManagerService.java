@@ -1973,6 +1973,10 @@ public class WindowManagerService extends IWindowManager.Stub
 
                 flagChanges = win.mAttrs.flags ^= attrs.flags;
                 attrChanges = win.mAttrs.copyFrom(attrs);
+                if (attrChanges != 0) {
+                    // The attributes feed into the display-wide state computed by placement.
+                    win.invalidateSurfacePlacement();
+                }
                 if ((attrChanges & (WindowManager.LayoutParams.LAYOUT_CHANGED
                         | WindowManager.LayoutParams.SYSTEM_UI_VISIBILITY_CHANGED)) != 0) {
                     win.mLayoutNeeded = true;
@@ -6557,6 +6561,16 @@ public class WindowManagerService extends IWindowManager.Stub
         }
     }
 
+    /**
+     * Called when the recent tasks of a user have been listed, with the ids of the tasks in the
+     * order they were returned, most recent first. Used to prefetch task snapshots.
+     * <p>
+     * Does not take the window manager lock.
+     */
+    public void notifyRecentTaskOrder(int[] taskIds, int userId) {
+        mTaskSnapshotController.notifyRecentTaskOrder(taskIds, userId);
+    }
+
     @Override
     public int getDockedDividerInsetsLw() {
         return getDefaultDisplayContentLocked().getDockedDividerController().getContentInsets();
@@ -500,6 +500,19 @@ class WindowState extends WindowContainer<WindowState> implements WindowManagerP
 
     boolean mHasSurface = false;
 
+    // What this window contributed to its display's state in the last full surface placement;
+    // see DisplayContent#canPlaceSurfacesIncrementally.
+    private boolean mLastPlacementDisplayed;
+    private boolean mLastPlacementHasSurface;
+    private boolean mLastPlacementObscuring;
+
+    // The frames and insets that surface placement reads, and what they were before the window
+    // was last laid out; see setSurfacePlacementDirtyIfMovedByLayout().
+    private final Rect[] mPlacementInputs = { mFrame, mCompatFrame, mContainingFrame,
+            mDecorFrame, mVisibleFrame, mContentInsets, mVisibleInsets, mStableInsets,
+            mOverscanInsets, mOutsets };
+    private final Rect[] mPlacementInputsBeforeLayout = new Rect[mPlacementInputs.length];
+
     /** When true this window can be displayed on screens owther than mOwnerUid's */
     private boolean mShowToOwnerOnly;
 
@@ -1342,6 +1355,12 @@ class WindowState extends WindowContainer<WindowState> implements WindowManagerP
     }
 
     void prelayout() {
+        for (int i = mPlacementInputs.length - 1; i >= 0; i--) {
+            if (mPlacementInputsBeforeLayout[i] == null) {
+                mPlacementInputsBeforeLayout[i] = new Rect();
+            }
+            mPlacementInputsBeforeLayout[i].set(mPlacementInputs[i]);
+        }
         if (mEnforceSizeCompat) {
             mGlobalScale = getDisplayContent().mCompatibleScreenScale;
             mInvGlobalScale = 1 / mGlobalScale;
@@ -1580,6 +1599,7 @@ class WindowState extends WindowContainer<WindowState> implements WindowManagerP
     void onMovedByResize() {
         if (DEBUG_RESIZE) Slog.d(TAG, "onMovedByResize: Moving " + this);
         mMovedByResize = true;
+        setSurfacePlacementDirty();
         super.onMovedByResize();
     }
 
@@ -1657,6 +1677,7 @@ class WindowState extends WindowContainer<WindowState> implements WindowManagerP
         // Some windows won't go through the resizing process, if they don't have a surface, so
         // destroy all saved surfaces here.
         destroySavedSurface();
+        setSurfacePlacementDirty();
 
         final ArrayList<WindowState> resizingWindows = mService.mResizingWindows;
         if (mHasSurface && !resizingWindows.contains(this)) {
@@ -1999,6 +2020,55 @@ class WindowState extends WindowContainer<WindowState> implements WindowManagerP
 
     void setHasSurface(boolean hasSurface) {
         mHasSurface = hasSurface;
+        setSurfacePlacementDirty();
+    }
+
+    /**
+     * Called after the window was laid out: marks it as needing its surface placed if the layout
+     * moved or resized it, or changed its insets, since {@link #prelayout}.
+     */
+    void setSurfacePlacementDirtyIfMovedByLayout() {
+        for (int i = mPlacementInputs.length - 1; i >= 0; i--) {
+            if (mPlacementInputsBeforeLayout[i] == null
+                    || !mPlacementInputsBeforeLayout[i].equals(mPlacementInputs[i])) {
+                setSurfacePlacementDirty();
+                return;
+            }
+        }
+    }
+
+    @Override
+    void setSurfacePlacementDirty() {
+        super.setSurfacePlacementDirty();
+        if (mIsImWindow && mService.mInputMethodTarget != null) {
+            // IME windows are traversed from their target, so it has to be visited too.
+            mService.mInputMethodTarget.setSurfacePlacementDirty();
+        }
+    }
+
+    /**
+     * Remembers what this window contributed to its display in a full surface placement.
+     */
+    void recordSurfacePlacement() {
+        mLastPlacementDisplayed = isDisplayedLw();
+        mLastPlacementHasSurface = mHasSurface;
+        mLastPlacementObscuring = isObscuringDisplay();
+    }
+
+    /**
+     * Returns true if this window still contributes to its display what it did in the last full
+     * surface placement, so an incremental placement only needs to update its surface.
+     */
+    boolean isPlacedAsRecorded() {
+        final int drawState = mWinAnimator.mDrawState;
+        if (mOrientationChanging || drawState == WindowStateAnimator.COMMIT_DRAW_PENDING
+                || drawState == WindowStateAnimator.READY_TO_SHOW) {
+            // Committing the draw can show the window.
+            return false;
+        }
+        return mLastPlacementDisplayed == isDisplayedLw()
+                && mLastPlacementHasSurface == mHasSurface
+                && mLastPlacementObscuring == isObscuringDisplay();
     }
 
     int getAnimLayerAdjustment() {
@@ -2214,6 +2284,7 @@ class WindowState extends WindowContainer<WindowState> implements WindowManagerP
     }
 
     void setDisplayLayoutNeeded() {
+        setSurfacePlacementDirty();
         final DisplayContent dc = getDisplayContent();
         if (dc != null) {
             dc.setLayoutNeeded();
@@ -2504,6 +2575,7 @@ class WindowState extends WindowContainer<WindowState> implements WindowManagerP
         }
         mPolicyVisibility = true;
         mPolicyVisibilityAfterAnim = true;
+        setSurfacePlacementDirty();
         if (doAnimation) {
             mWinAnimator.applyAnimationLocked(WindowManagerPolicy.TRANSIT_ENTER, true);
         }
@@ -2539,6 +2611,7 @@ class WindowState extends WindowContainer<WindowState> implements WindowManagerP
             }
         }
         mPolicyVisibilityAfterAnim = false;
+        setSurfacePlacementDirty();
         if (!doAnimation) {
             if (DEBUG_VISIBILITY) Slog.v(TAG, "Policy visibility false: " + this);
             mPolicyVisibility = false;
@@ -4039,6 +4112,9 @@ class WindowState extends WindowContainer<WindowState> implements WindowManagerP
 
     @Override
     boolean forAllWindows(ToBooleanFunction<WindowState> callback, boolean traverseTopToBottom) {
+        if (skipIfClean(callback)) {
+            return false;
+        }
         if (mChildren.isEmpty()) {
             // The window has no children so we just return it.
             return applyInOrderWithImeWindows(callback, traverseTopToBottom);
@@ -57,7 +57,6 @@ import com.android.internal.logging.MetricsLogger;
 import com.android.internal.notification.SystemNotificationChannels;
 import com.android.internal.os.BinderInternal;
 import com.android.internal.util.EmergencyAffordanceManager;
-import com.android.internal.util.ConcurrentUtils;
 import com.android.internal.widget.ILockSettings;
 import com.android.server.accessibility.AccessibilityManagerService;
 import com.android.server.am.ActivityManagerService;
@@ -126,7 +125,6 @@ import java.io.IOException;
 import java.util.Locale;
 import java.util.Timer;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Future;
 
 import static android.view.Display.DEFAULT_DISPLAY;
 
@@ -135,8 +133,6 @@ public final class SystemServer {
 
     // Tag for timing measurement of main thread.
     private static final String SYSTEM_SERVER_TIMING_TAG = "SystemServerTiming";
-    // Tag for timing measurement of non-main asynchronous operations.
-    private static final String SYSTEM_SERVER_TIMING_ASYNC_TAG = SYSTEM_SERVER_TIMING_TAG + "Async";
 
     private static final TimingsTraceLog BOOT_TIMINGS_TRACE_LOG
             = new TimingsTraceLog(SYSTEM_SERVER_TIMING_TAG, Trace.TRACE_TAG_SYSTEM_SERVER);
@@ -253,10 +249,12 @@ public final class SystemServer {
 
     private static final String START_SENSOR_SERVICE = "StartSensorService";
     private static final String START_HIDL_SERVICES = "StartHidlServices";
+    private static final String SECONDARY_ZYGOTE_PRELOAD = "SecondaryZygotePreload";
+    private static final String WEBVIEW_PREPARATION = "WebViewFactoryPreparation";
 
-
-    private Future<?> mSensorServiceStart;
-    private Future<?> mZygotePreload;
+    // Startup work that runs off the main thread, with its ordering constraints declared as
+    // dependencies between the nodes.
+    private SystemServiceStartGraph mStartGraph;
 
     /**
      * Start the sensor service. This is a blocking call and can take time.
@@ -388,6 +386,7 @@ public final class SystemServer {
             LocalServices.addService(SystemServiceManager.class, mSystemServiceManager);
             // Prepare the thread pool for init tasks that can be parallelized
             SystemServerInitThreadPool.get();
+            mStartGraph = new SystemServiceStartGraph("StartServices");
         } finally {
             traceEnd();  // InitBeforeStartServices
         }
@@ -398,6 +397,8 @@ public final class SystemServer {
             startBootstrapServices();
             startCoreServices();
             startOtherServices();
+            mStartGraph.awaitAllAndReport(BOOT_TIMINGS_TRACE_LOG);
+            mStartGraph = null;
             SystemServerInitThreadPool.shutdown();
         } catch (Throwable ex) {
             Slog.e("System", "******************************************");
@@ -509,7 +510,7 @@ public final class SystemServer {
         Slog.i(TAG, "Reading configuration...");
         final String TAG_SYSTEM_CONFIG = "ReadingSystemConfig";
         traceBeginAndSlog(TAG_SYSTEM_CONFIG);
-        SystemServerInitThreadPool.get().submit(SystemConfig::getInstance, TAG_SYSTEM_CONFIG);
+        mStartGraph.add(TAG_SYSTEM_CONFIG, SystemConfig::getInstance);
         traceEnd();
 
         // Wait for installd to finish starting up so that it has a chance to
@@ -657,13 +658,7 @@ public final class SystemServer {
         // service, and permissions service, therefore we start it after them.
         // Start sensor service in a separate thread. Completion should be checked
         // before using it.
-        mSensorServiceStart = SystemServerInitThreadPool.get().submit(() -> {
-            TimingsTraceLog traceLog = new TimingsTraceLog(
-                    SYSTEM_SERVER_TIMING_ASYNC_TAG, Trace.TRACE_TAG_SYSTEM_SERVER);
-            traceLog.traceBegin(START_SENSOR_SERVICE);
-            startSensorService();
-            traceLog.traceEnd();
-        }, START_SENSOR_SERVICE);
+        mStartGraph.add(START_SENSOR_SERVICE, () -> startSensorService());
     }
 
     /**
@@ -748,25 +743,20 @@ public final class SystemServer {
         }
 
         try {
-            final String SECONDARY_ZYGOTE_PRELOAD = "SecondaryZygotePreload";
             // We start the preload ~1s before the webview factory preparation, to
             // ensure that it completes before the 32 bit relro process is forked
             // from the zygote. In the event that it takes too long, the webview
             // RELRO process will block, but it will do so without holding any locks.
-            mZygotePreload = SystemServerInitThreadPool.get().submit(() -> {
+            mStartGraph.add(SECONDARY_ZYGOTE_PRELOAD, () -> {
                 try {
                     Slog.i(TAG, SECONDARY_ZYGOTE_PRELOAD);
-                    TimingsTraceLog traceLog = new TimingsTraceLog(
-                            SYSTEM_SERVER_TIMING_ASYNC_TAG, Trace.TRACE_TAG_SYSTEM_SERVER);
-                    traceLog.traceBegin(SECONDARY_ZYGOTE_PRELOAD);
                     if (!Process.zygoteProcess.preloadDefault(Build.SUPPORTED_32_BIT_ABIS[0])) {
                         Slog.e(TAG, "Unable to preload default resources");
                     }
-                    traceLog.traceEnd();
                 } catch (Exception ex) {
                     Slog.e(TAG, "Exception preloading default resources", ex);
                 }
-            }, SECONDARY_ZYGOTE_PRELOAD);
+            });
 
             traceBeginAndSlog("StartKeyAttestationApplicationIdProviderService");
             ServiceManager.addService("sec_key_att_app_id_provider",
@@ -836,8 +826,7 @@ public final class SystemServer {
 
             traceBeginAndSlog("StartWindowManagerService");
             // WMS needs sensor service ready
-            ConcurrentUtils.waitForFutureNoInterrupt(mSensorServiceStart, START_SENSOR_SERVICE);
-            mSensorServiceStart = null;
+            mStartGraph.await(START_SENSOR_SERVICE);
             wm = WindowManagerService.main(context, inputManager,
                     mFactoryTestMode != FactoryTest.FACTORY_TEST_LOW_LEVEL,
                     !mFirstBoot, mOnlyCore, new PhoneWindowManager());
@@ -848,13 +837,7 @@ public final class SystemServer {
             // Start receiving calls from HIDL services. Start in in a separate thread
             // because it need to connect to SensorManager. This have to start
             // after START_SENSOR_SERVICE is done.
-            SystemServerInitThreadPool.get().submit(() -> {
-                TimingsTraceLog traceLog = new TimingsTraceLog(
-                        SYSTEM_SERVER_TIMING_ASYNC_TAG, Trace.TRACE_TAG_SYSTEM_SERVER);
-                traceLog.traceBegin(START_HIDL_SERVICES);
-                startHidlServices();
-                traceLog.traceEnd();
-            }, START_HIDL_SERVICES);
+            mStartGraph.add(START_HIDL_SERVICES, () -> startHidlServices(), START_SENSOR_SERVICE);
 
             if (!disableVrManager) {
                 traceBeginAndSlog("StartVrManagerService");
@@ -1724,19 +1707,11 @@ public final class SystemServer {
 
             // No dependency on Webview preparation in system server. But this should
             // be completed before allowring 3rd party
-            final String WEBVIEW_PREPARATION = "WebViewFactoryPreparation";
-            Future<?> webviewPrep = null;
             if (!mOnlyCore) {
-                webviewPrep = SystemServerInitThreadPool.get().submit(() -> {
+                mStartGraph.add(WEBVIEW_PREPARATION, () -> {
                     Slog.i(TAG, WEBVIEW_PREPARATION);
-                    TimingsTraceLog traceLog = new TimingsTraceLog(
-                            SYSTEM_SERVER_TIMING_ASYNC_TAG, Trace.TRACE_TAG_SYSTEM_SERVER);
-                    traceLog.traceBegin(WEBVIEW_PREPARATION);
-                    ConcurrentUtils.waitForFutureNoInterrupt(mZygotePreload, "Zygote preload");
-                    mZygotePreload = null;
                     mWebViewUpdateService.prepareWebViewInSystemServer();
-                    traceLog.traceEnd();
-                }, WEBVIEW_PREPARATION);
+                }, SECONDARY_ZYGOTE_PRELOAD);
             }
 
             if (mPackageManager.hasSystemFeature(PackageManager.FEATURE_AUTOMOTIVE)) {
@@ -1806,8 +1781,8 @@ public final class SystemServer {
             // third party code...
             traceBeginAndSlog("PhaseThirdPartyAppsCanStart");
             // confirm webview completion before starting 3rd party
-            if (webviewPrep != null) {
-                ConcurrentUtils.waitForFutureNoInterrupt(webviewPrep, WEBVIEW_PREPARATION);
+            if (!mOnlyCore) {
+                mStartGraph.await(WEBVIEW_PREPARATION);
             }
             mSystemServiceManager.startBootPhase(
                     SystemService.PHASE_THIRD_PARTY_APPS_CAN_START);
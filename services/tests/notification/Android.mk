@@ -14,6 +14,7 @@ LOCAL_SRC_FILES := $(call all-java-files-under, src) \
 
 LOCAL_STATIC_JAVA_LIBRARIES := \
     frameworks-base-testutils \
+    apct-perftests-utils \
     services.accessibility \
     services.core \
     services.devicepolicy \
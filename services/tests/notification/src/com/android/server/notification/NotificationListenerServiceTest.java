@@ -17,12 +17,15 @@
 package com.android.server.notification;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import android.app.NotificationChannel;
 import android.content.Intent;
 import android.os.Binder;
 import android.os.Bundle;
 import android.os.IBinder;
+import android.os.Parcel;
 import android.service.notification.NotificationListenerService;
 import android.service.notification.NotificationListenerService.Ranking;
 import android.service.notification.NotificationRankingUpdate;
@@ -46,10 +49,104 @@ public class NotificationListenerServiceTest extends NotificationTestCase {
     public void testRanking() throws Exception {
         TestListenerService service = new TestListenerService();
         service.applyUpdateLocked(generateUpdate());
+        assertRankings(service.getCurrentRanking());
+    }
+
+    @Test
+    public void testSmallUpdateSentInline() throws Exception {
+        NotificationRankingUpdate update = generateUpdate();
+        assertFalse(update.isShared());
+        TestListenerService service = new TestListenerService();
+        service.applyUpdateLocked(parcelAndUnparcel(update));
+        assertRankings(service.getCurrentRanking());
+    }
+
+    @Test
+    public void testLargeUpdateSentInSharedMemory() throws Exception {
+        mKeys = new String[100];
+        for (int i = 0; i < mKeys.length; i++) {
+            mKeys[i] = "key" + i;
+        }
+        NotificationRankingUpdate update = generateUpdate();
+        assertTrue(update.isShared());
+
+        Parcel parcel = Parcel.obtain();
+        update.writeToParcel(parcel, 0);
+        assertTrue(parcel.hasFileDescriptors());
+        parcel.recycle();
+
+        NotificationRankingUpdate received = parcelAndUnparcel(update);
+        // Listeners that pass the update on share the same memory.
+        assertTrue(received.isShared());
+        update.releaseSharedMemory();
+        TestListenerService service = new TestListenerService();
+        service.applyUpdateLocked(received);
+        assertRankings(service.getCurrentRanking());
+    }
+
+    @Test
+    public void testReceivedSharedMemoryClosedOnceRead() throws Exception {
+        NotificationRankingUpdate update = generateLargeUpdate();
+        NotificationRankingUpdate received = parcelAndUnparcel(update);
+        update.releaseSharedMemory();
+        assertTrue(received.hasSharedMemory());
+
+        TestListenerService service = new TestListenerService();
+        service.applyUpdateLocked(received);
+        assertRankings(service.getCurrentRanking());
+        assertFalse(received.hasSharedMemory());
+    }
+
+    @Test
+    public void testForwardedSharedMemoryKeptOnceRead() throws Exception {
+        NotificationRankingUpdate update = generateLargeUpdate();
+        NotificationRankingUpdate received = parcelAndUnparcel(update);
+        update.releaseSharedMemory();
+
+        Parcel forwarded = Parcel.obtain();
+        try {
+            received.writeToParcel(forwarded, 0);
+            TestListenerService service = new TestListenerService();
+            service.applyUpdateLocked(received);
+            assertRankings(service.getCurrentRanking());
+            assertTrue(received.hasSharedMemory());
+
+            forwarded.setDataPosition(0);
+            service.applyUpdateLocked(
+                    NotificationRankingUpdate.CREATOR.createFromParcel(forwarded));
+            assertRankings(service.getCurrentRanking());
+        } finally {
+            forwarded.recycle();
+        }
+    }
+
+    private NotificationRankingUpdate generateLargeUpdate() {
+        mKeys = new String[100];
+        for (int i = 0; i < mKeys.length; i++) {
+            mKeys[i] = "key" + i;
+        }
+        NotificationRankingUpdate update = generateUpdate();
+        assertTrue(update.isShared());
+        return update;
+    }
+
+    private NotificationRankingUpdate parcelAndUnparcel(NotificationRankingUpdate update) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            update.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            return NotificationRankingUpdate.CREATOR.createFromParcel(parcel);
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private void assertRankings(NotificationListenerService.RankingMap rankingMap) {
         for (int i = 0; i < mKeys.length; i++) {
             String key = mKeys[i];
             Ranking ranking = new Ranking();
-            service.getCurrentRanking().getRanking(key, ranking);
+            assertTrue(rankingMap.getRanking(key, ranking));
+            assertEquals(i, ranking.getRank());
             assertEquals(getVisibilityOverride(i), ranking.getVisibilityOverride());
             assertEquals(getOverrideGroupKey(key), ranking.getOverrideGroupKey());
             assertEquals(!isIntercepted(i), ranking.matchesInterruptionFilter());
@@ -61,6 +158,9 @@ public class NotificationListenerServiceTest extends NotificationTestCase {
             assertEquals(getSnoozeCriteria(key, i), ranking.getSnoozeCriteria());
             assertEquals(getShowBadge(i), ranking.canShowBadge());
         }
+        Ranking missing = new Ranking();
+        assertFalse(rankingMap.getRanking("missing", missing));
+        assertEquals(Ranking.VISIBILITY_NO_OVERRIDE, missing.getVisibilityOverride());
     }
 
     private NotificationRankingUpdate generateUpdate() {
@@ -180,8 +180,6 @@ public class NotificationManagerServiceTest extends NotificationTestCase {
         when(mPackageManagerClient.getApplicationInfoAsUser(anyString(), anyInt(), anyInt()))
                 .thenReturn(applicationInfo);
         when(mPackageManagerClient.getPackageUidAsUser(any(), anyInt())).thenReturn(mUid);
-        final LightsManager mockLightsManager = mock(LightsManager.class);
-        when(mockLightsManager.getLight(anyInt())).thenReturn(mock(Light.class));
         when(mAudioManager.getRingerModeInternal()).thenReturn(AudioManager.RINGER_MODE_NORMAL);
 
         // write to a test file; the system file isn't readable from tests
@@ -208,8 +206,22 @@ public class NotificationManagerServiceTest extends NotificationTestCase {
         dndConfig.xmlTag = ConditionProviders.TAG_ENABLED_DND_APPS;
         when(mConditionProviders.getConfig()).thenReturn(dndConfig);
 
+        initService(mNotificationManagerService);
+
+        // Tests call directly into the Binder.
+        mBinderService = mNotificationManagerService.getBinderService();
+        mInternalService = mNotificationManagerService.getInternalService();
+
+        mBinderService.createNotificationChannels(
+                PKG, new ParceledListSlice(Arrays.asList(mTestNotificationChannel)));
+        assertNotNull(mBinderService.getNotificationChannel(PKG, TEST_CHANNEL_ID));
+    }
+
+    private void initService(NotificationManagerService service) {
+        final LightsManager mockLightsManager = mock(LightsManager.class);
+        when(mockLightsManager.getLight(anyInt())).thenReturn(mock(Light.class));
         try {
-            mNotificationManagerService.init(mTestableLooper.getLooper(),
+            service.init(mTestableLooper.getLooper(),
                     mPackageManager, mPackageManagerClient, mockLightsManager,
                     mListeners, mAssistants, mConditionProviders,
                     mCompanionMgr, mSnoozeHelper, mUsageStats, mPolicyFile, mActivityManager,
@@ -219,20 +231,17 @@ public class NotificationManagerServiceTest extends NotificationTestCase {
                 throw e;
             }
         }
-        mNotificationManagerService.setAudioManager(mAudioManager);
-
-        // Tests call directly into the Binder.
-        mBinderService = mNotificationManagerService.getBinderService();
-        mInternalService = mNotificationManagerService.getInternalService();
-
-        mBinderService.createNotificationChannels(
-                PKG, new ParceledListSlice(Arrays.asList(mTestNotificationChannel)));
-        assertNotNull(mBinderService.getNotificationChannel(PKG, TEST_CHANNEL_ID));
+        service.setAudioManager(mAudioManager);
     }
 
     @After
     public void tearDown() throws Exception {
         mFile.delete();
+        getPolicyStore().clear();
+    }
+
+    private NotificationPolicyStore getPolicyStore() {
+        return new NotificationPolicyStore(NotificationPolicyStore.getStoreDir(mFile));
     }
 
     public void waitForIdle() throws Exception {
@@ -1764,4 +1773,59 @@ public class NotificationManagerServiceTest extends NotificationTestCase {
                 preOPkg, NotificationChannel.DEFAULT_CHANNEL_ID);
         assertEquals(IMPORTANCE_UNSPECIFIED, defaultChannel.getImportance());
     }
+
+    private static boolean hasSegment(NotificationPolicyStore store, String pkg, int uid) {
+        for (NotificationPolicyStore.PackageSegment segment : store.listPackages()) {
+            if (segment.pkg.equals(pkg) && segment.uid == uid) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writePolicyFile(String xml) throws Exception {
+        final FileOutputStream fos = mPolicyFile.startWrite();
+        fos.write(xml.getBytes());
+        mPolicyFile.finishWrite(fos);
+    }
+
+    @Test
+    public void testLoadPolicyFile_migratesToPolicyStore() throws Exception {
+        // setUp read the policy file, and created a channel.
+        waitForIdle();
+        final NotificationPolicyStore store = getPolicyStore();
+        assertFalse(mFile.exists());
+        assertTrue(store.getGlobalFile().exists());
+        assertTrue(hasSegment(store, PKG, mUid));
+
+        // The next boot reads the store.
+        final NotificationManagerService service = new TestableNotificationManagerService(mContext);
+        initService(service);
+        assertNotNull(service.getBinderService().getNotificationChannel(PKG, TEST_CHANNEL_ID));
+    }
+
+    @Test
+    public void testLoadPolicyFile_interruptedMigrationIsRedone() throws Exception {
+        waitForIdle();
+        final NotificationPolicyStore store = getPolicyStore();
+        store.writePackage("com.example.stale", mUid, "<ranking />".getBytes());
+        // The policy file is still there if the migration didn't get to delete it, and it wins
+        // over whatever made it to the store.
+        writePolicyFile("<notification-policy version=\"1\"><ranking version=\"1\">"
+                + "<package name=\"" + PKG + "\" uid=\"" + mUid + "\" show_badge=\"true\">"
+                + "<channel id=\"migrated\" name=\"migrated\" importance=\"3\" />"
+                + "</package></ranking></notification-policy>");
+
+        final NotificationManagerService service = new TestableNotificationManagerService(mContext);
+        initService(service);
+        waitForIdle();
+
+        assertFalse(mFile.exists());
+        assertTrue(store.getGlobalFile().exists());
+        assertTrue(hasSegment(store, PKG, mUid));
+        assertFalse(hasSegment(store, "com.example.stale", mUid));
+        final INotificationManager binder = service.getBinderService();
+        assertNotNull(binder.getNotificationChannel(PKG, "migrated"));
+        assertNull(binder.getNotificationChannel(PKG, TEST_CHANNEL_ID));
+    }
 }
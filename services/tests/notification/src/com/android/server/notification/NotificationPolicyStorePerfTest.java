@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.server.notification;
+
+import static android.app.NotificationManager.IMPORTANCE_HIGH;
+import static android.app.NotificationManager.IMPORTANCE_LOW;
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.app.NotificationChannel;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.AtomicFile;
+import android.util.Xml;
+
+import com.android.internal.util.FastXmlSerializer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compares keeping the channels of {@link #PACKAGE_COUNT} packages in one notification policy
+ * xml with keeping them in a {@link NotificationPolicyStore}, at boot and when one app changes
+ * its settings.
+ *
+ * Build/Install/Run:
+ *  bit FrameworksNotificationTests:com.android.server.notification.NotificationPolicyStorePerfTest
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class NotificationPolicyStorePerfTest {
+    private static final int PACKAGE_COUNT = 300;
+    private static final int CHANNELS_PER_PACKAGE = 5;
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private Context mContext;
+    private PackageManager mPm;
+    private AtomicFile mPolicyFile;
+    private NotificationPolicyStore mStore;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getContext();
+        mPm = mock(PackageManager.class);
+        final ApplicationInfo info = new ApplicationInfo();
+        info.targetSdkVersion = Build.VERSION_CODES.O;
+        when(mPm.getApplicationInfoAsUser(anyString(), anyInt(), anyInt())).thenReturn(info);
+
+        mPolicyFile = new AtomicFile(new File(mContext.getCacheDir(), "perf_policy.xml"));
+        mStore = new NotificationPolicyStore(
+                NotificationPolicyStore.getStoreDir(mPolicyFile.getBaseFile()));
+        mStore.clear();
+
+        final RankingHelper helper = createHelper();
+        for (int i = 0; i < PACKAGE_COUNT; i++) {
+            for (int j = 0; j < CHANNELS_PER_PACKAGE; j++) {
+                helper.createNotificationChannel(getPackage(i), i,
+                        new NotificationChannel("channel" + j, "Channel " + j, IMPORTANCE_LOW),
+                        true);
+            }
+        }
+        writeXml(helper);
+        helper.setPolicyStore(mStore, false /* readSegments */);
+        helper.writeChangedSegments();
+    }
+
+    @After
+    public void tearDown() {
+        mStore.clear();
+        mPolicyFile.delete();
+    }
+
+    private static String getPackage(int i) {
+        return "com.example.app" + i;
+    }
+
+    private RankingHelper createHelper() {
+        return new RankingHelper(mContext, mPm, mock(RankingHandler.class),
+                mock(NotificationUsageStats.class), new String[0]);
+    }
+
+    private RankingHelper createHelperFromStore() {
+        final RankingHelper helper = createHelper();
+        helper.setPolicyStore(mStore, true /* readSegments */);
+        return helper;
+    }
+
+    private void writeXml(RankingHelper helper) throws Exception {
+        final FileOutputStream stream = mPolicyFile.startWrite();
+        final XmlSerializer out = new FastXmlSerializer();
+        out.setOutput(stream, StandardCharsets.UTF_8.name());
+        out.startDocument(null, true);
+        helper.writeXml(out, false /* forBackup */);
+        out.endDocument();
+        out.flush();
+        mPolicyFile.finishWrite(stream);
+    }
+
+    /**
+     * Flips the importance of one package, as the user does from Settings.
+     */
+    private void update(RankingHelper helper, int updates) {
+        final int i = updates % PACKAGE_COUNT;
+        helper.setImportance(getPackage(i), i, (updates / PACKAGE_COUNT) % 2 == 0
+                ? IMPORTANCE_HIGH : IMPORTANCE_LOW);
+    }
+
+    @Test
+    public void testBoot_xml() throws Exception {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            final RankingHelper helper = createHelper();
+            final XmlPullParser parser = Xml.newPullParser();
+            parser.setInput(new ByteArrayInputStream(mPolicyFile.readFully()),
+                    StandardCharsets.UTF_8.name());
+            parser.nextTag();
+            helper.readXml(parser, false /* forRestore */);
+            // The first notification after boot.
+            helper.getImportance(getPackage(0), 0);
+        }
+    }
+
+    @Test
+    public void testBoot_store() throws Exception {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            createHelperFromStore().getImportance(getPackage(0), 0);
+        }
+    }
+
+    @Test
+    public void testChange_xml() throws Exception {
+        final RankingHelper helper = createHelper();
+        final XmlPullParser parser = Xml.newPullParser();
+        parser.setInput(new ByteArrayInputStream(mPolicyFile.readFully()),
+                StandardCharsets.UTF_8.name());
+        parser.nextTag();
+        helper.readXml(parser, false /* forRestore */);
+
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        int updates = 0;
+        while (state.keepRunning()) {
+            update(helper, updates++);
+            writeXml(helper);
+        }
+    }
+
+    @Test
+    public void testChange_store() throws Exception {
+        final RankingHelper helper = createHelperFromStore();
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        int updates = 0;
+        while (state.keepRunning()) {
+            update(helper, updates++);
+            helper.writeChangedSegments();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.server.notification;
+
+import static android.app.NotificationManager.IMPORTANCE_HIGH;
+import static android.app.NotificationManager.IMPORTANCE_LOW;
+
+import static org.mockito.Mockito.mock;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.UserHandle;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.service.notification.StatusBarNotification;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+/**
+ * Measures re-ranking {@link #NOTIFICATION_COUNT} notifications after one of them is updated,
+ * as a chat app posting a new message does.
+ *
+ * Build/Install/Run:
+ *  bit FrameworksNotificationTests:com.android.server.notification.RankingHelperPerfTest
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class RankingHelperPerfTest {
+    private static final String PKG = "com.android.server.notification";
+    private static final int NOTIFICATION_COUNT = 500;
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private RankingHelper mHelper;
+    private final ArrayList<NotificationRecord> mNotificationList = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        final Context context = InstrumentationRegistry.getContext();
+        mHelper = new RankingHelper(context, mock(PackageManager.class),
+                mock(RankingHandler.class), mock(NotificationUsageStats.class), new String[0]);
+        final NotificationChannel channel = new NotificationChannel(
+                NotificationChannel.DEFAULT_CHANNEL_ID, "name", IMPORTANCE_LOW);
+        for (int i = 0; i < NOTIFICATION_COUNT; i++) {
+            final Notification n = new Notification.Builder(context, channel.getId())
+                    .setContentTitle("Message " + i)
+                    .setGroup("conversation" + (i % 50))
+                    .setWhen(1000 + i)
+                    .build();
+            mNotificationList.add(new NotificationRecord(context, new StatusBarNotification(
+                    PKG, PKG, i, null, 0, 0, n, UserHandle.ALL, null, System.currentTimeMillis()),
+                    channel));
+        }
+        mHelper.sort(mNotificationList);
+    }
+
+    /**
+     * Changes the importance of one record, so that it moves in the ranking.
+     */
+    private NotificationRecord update(int updates) {
+        final NotificationRecord record = mNotificationList.get(updates % NOTIFICATION_COUNT);
+        record.setImportance(record.getImportance() == IMPORTANCE_LOW
+                ? IMPORTANCE_HIGH : IMPORTANCE_LOW, null);
+        return record;
+    }
+
+    @Test
+    public void testUpdate_sort() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        int updates = 0;
+        while (state.keepRunning()) {
+            update(updates++);
+            mHelper.sort(mNotificationList);
+        }
+    }
+
+    @Test
+    public void testUpdate_resort() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        int updates = 0;
+        while (state.keepRunning()) {
+            final NotificationRecord record = update(updates++);
+            mHelper.resort(mNotificationList, record);
+        }
+    }
+}
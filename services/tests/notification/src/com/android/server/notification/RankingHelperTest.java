@@ -66,8 +66,10 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -322,6 +324,173 @@ public class RankingHelperTest extends NotificationTestCase {
         mHelper.sort(notificationList);
     }
 
+    private NotificationRecord createRecord(int id, String group, String sortKey, long when) {
+        final Notification n = new Notification.Builder(mContext, TEST_CHANNEL_ID)
+                .setContentTitle("R" + id)
+                .setGroup(group)
+                .setSortKey(sortKey)
+                .setWhen(when)
+                .build();
+        return new NotificationRecord(mContext, new StatusBarNotification(
+                PKG, PKG, id, null, 0, 0, n, UserHandle.ALL,
+                null, System.currentTimeMillis()), getDefaultChannel());
+    }
+
+    private ArrayList<NotificationRecord> createRankedList(int count) {
+        final ArrayList<NotificationRecord> notificationList = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            notificationList.add(createRecord(i, i % 3 == 0 ? null : "G" + (i % 5),
+                    i % 4 == 0 ? null : "S" + (i % 7), 1000 + i));
+        }
+        mHelper.sort(notificationList);
+        return notificationList;
+    }
+
+    /**
+     * Asserts that resort() left the list the way sort() would have.
+     */
+    private void assertSameAsSort(ArrayList<NotificationRecord> resorted) {
+        final ArrayList<String> keys = new ArrayList<>();
+        final ArrayList<String> globalSortKeys = new ArrayList<>();
+        for (NotificationRecord record : resorted) {
+            keys.add(record.getKey());
+            globalSortKeys.add(record.getGlobalSortKey());
+        }
+        final ArrayList<NotificationRecord> sorted = new ArrayList<>(resorted);
+        Collections.shuffle(sorted);
+        mHelper.sort(sorted);
+        for (int i = 0; i < sorted.size(); i++) {
+            assertEquals(keys.get(i), sorted.get(i).getKey());
+            assertEquals(globalSortKeys.get(i), sorted.get(i).getGlobalSortKey());
+        }
+    }
+
+    @Test
+    public void testResortAfterChange() throws Exception {
+        final ArrayList<NotificationRecord> notificationList = createRankedList(40);
+        final NotificationRecord changed = notificationList.get(notificationList.size() - 1);
+        changed.setImportance(IMPORTANCE_HIGH, "test");
+        mHelper.resort(notificationList, changed);
+        assertEquals(0, changed.getAuthoritativeRank());
+        assertSameAsSort(notificationList);
+
+        changed.setImportance(IMPORTANCE_LOW, "test");
+        mHelper.resort(notificationList, changed);
+        assertSameAsSort(notificationList);
+    }
+
+    @Test
+    public void testResortAfterAddAndUpdate() throws Exception {
+        final ArrayList<NotificationRecord> notificationList = createRankedList(40);
+        final NotificationRecord added = createRecord(100, "G1", null, 2000);
+        notificationList.add(added);
+        mHelper.resort(notificationList, added);
+        assertSameAsSort(notificationList);
+
+        final int index = mHelper.indexOf(notificationList, notificationList.get(10));
+        final NotificationRecord old = notificationList.get(index);
+        final NotificationRecord updated = createRecord(old.sbn.getId(), "G2", "S1", 500);
+        updated.copyRankingInformation(old);
+        notificationList.set(index, updated);
+        mHelper.resort(notificationList, updated);
+        assertSameAsSort(notificationList);
+    }
+
+    @Test
+    public void testResortAfterRemovals() throws Exception {
+        final ArrayList<NotificationRecord> notificationList = createRankedList(40);
+        for (int i = 0; i < 10; i++) {
+            notificationList.remove(i * 2);
+        }
+        final NotificationRecord changed = notificationList.get(5);
+        changed.setContactAffinity(ValidateNotificationPeople.STARRED_CONTACT);
+        mHelper.resort(notificationList, changed);
+        assertSameAsSort(notificationList);
+    }
+
+    @Test
+    public void testResortOfUnrankedListSorts() throws Exception {
+        final ArrayList<NotificationRecord> notificationList = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            notificationList.add(createRecord(i, null, null, 1000 + i));
+        }
+        mHelper.resort(notificationList, notificationList.get(3));
+        assertSameAsSort(notificationList);
+    }
+
+    public static class IndependentExtractor implements NotificationSignalExtractor {
+        @Override
+        public void initialize(Context context, NotificationUsageStats usageStats) {}
+
+        @Override
+        public RankingReconsideration process(NotificationRecord record) {
+            return null;
+        }
+
+        @Override
+        public void setConfig(RankingConfig config) {}
+    }
+
+    public static class VisibilityOverrideExtractor extends IndependentExtractor {
+        @Override
+        public RankingReconsideration process(NotificationRecord record) {
+            record.setPackageVisibilityOverride(Notification.VISIBILITY_SECRET);
+            return null;
+        }
+    }
+
+    public static class DependentExtractor extends IndependentExtractor {
+        @Override
+        public RankingReconsideration process(NotificationRecord record) {
+            record.setShowBadge(record.getPackageVisibilityOverride()
+                    == Notification.VISIBILITY_SECRET);
+            return null;
+        }
+
+        @Override
+        public Class<?>[] getDependencies() {
+            return new Class<?>[] { VisibilityOverrideExtractor.class };
+        }
+    }
+
+    private RankingHelper createHelper(Class<?>... extractorClasses) {
+        final String[] names = new String[extractorClasses.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = extractorClasses[i].getName();
+        }
+        return new RankingHelper(getContext(), mPm, mHandler, mUsageStats, names);
+    }
+
+    @Test
+    public void testExtractorsOrderedByDependencies() throws Exception {
+        final ArrayList<NotificationSignalExtractor> extractors = new ArrayList<>();
+        extractors.add(new DependentExtractor());
+        extractors.add(new IndependentExtractor());
+        extractors.add(new VisibilityOverrideExtractor());
+        final NotificationSignalExtractor[] ordered =
+                RankingHelper.orderByDependencies(extractors);
+        assertEquals(3, ordered.length);
+        assertEquals(IndependentExtractor.class, ordered[0].getClass());
+        assertEquals(VisibilityOverrideExtractor.class, ordered[1].getClass());
+        assertEquals(DependentExtractor.class, ordered[2].getClass());
+    }
+
+    @Test
+    public void testExtractSignalsRunsAllExtractorsBeforePosting() throws Exception {
+        final RankingHelper helper = createHelper(DependentExtractor.class,
+                IndependentExtractor.class, VisibilityOverrideExtractor.class);
+        final NotificationRecord r = createRecord(1, null, null, 1000);
+        helper.extractSignals(r);
+        assertEquals(Notification.VISIBILITY_SECRET, r.getPackageVisibilityOverride());
+        assertTrue(r.canShowBadge());
+        verify(mHandler, never()).requestReconsideration(any());
+
+        final SignalExtractorStats stats = helper.getExtractorStats();
+        assertEquals(1, stats.getCount("IndependentExtractor"));
+        assertEquals(1, stats.getCount("VisibilityOverrideExtractor"));
+        assertEquals(1, stats.getCount("DependentExtractor"));
+    }
+
     @Test
     public void testChannelXml() throws Exception {
         NotificationChannelGroup ncg = new NotificationChannelGroup("1", "bye");
@@ -1517,4 +1686,108 @@ public class RankingHelperTest extends NotificationTestCase {
         assertEquals(newLabel, mHelper.getNotificationChannel(PKG, UID,
                 NotificationChannel.DEFAULT_CHANNEL_ID, false).getName());
     }
+
+    private NotificationPolicyStore createPolicyStore() {
+        final NotificationPolicyStore store = new NotificationPolicyStore(
+                new File(getContext().getCacheDir(), "notification_policy"));
+        store.clear();
+        return store;
+    }
+
+    @Test
+    public void testPolicyStore_segmentsReadWhenPackageIsFirstAskedAbout() throws Exception {
+        final NotificationPolicyStore store = createPolicyStore();
+        mHelper.setPolicyStore(store, false /* readSegments */);
+        final NotificationChannel channel =
+                new NotificationChannel("id", "name", IMPORTANCE_HIGH);
+        mHelper.createNotificationChannel(UPDATED_PKG, UID2, channel, true);
+        mHelper.setImportance(PKG, UID, IMPORTANCE_LOW);
+        assertEquals(2, mHelper.writeChangedSegments());
+        assertEquals(2, store.listPackages().size());
+
+        final RankingHelper helper = new RankingHelper(getContext(), mPm, mHandler, mUsageStats,
+                new String[] {ImportanceExtractor.class.getName()});
+        helper.setPolicyStore(store, true /* readSegments */);
+        assertEquals(channel,
+                helper.getNotificationChannel(UPDATED_PKG, UID2, channel.getId(), false));
+        assertEquals(IMPORTANCE_LOW, helper.getImportance(PKG, UID));
+        // Reading a segment doesn't rewrite it.
+        assertEquals(0, helper.writeChangedSegments());
+    }
+
+    @Test
+    public void testPolicyStore_onlyChangedSegmentsWritten() throws Exception {
+        final NotificationPolicyStore store = createPolicyStore();
+        mHelper.setPolicyStore(store, false /* readSegments */);
+        final NotificationChannel channel =
+                new NotificationChannel("id", "name", IMPORTANCE_HIGH);
+        mHelper.createNotificationChannel(UPDATED_PKG, UID2, channel, true);
+        mHelper.setImportance(PKG, UID, IMPORTANCE_LOW);
+        assertEquals(2, mHelper.writeChangedSegments());
+
+        // Apps create their channels every time they start.
+        mHelper.createNotificationChannel(UPDATED_PKG, UID2, channel, true);
+        assertEquals(0, mHelper.writeChangedSegments());
+
+        mHelper.setImportance(PKG, UID, IMPORTANCE_HIGH);
+        assertEquals(1, mHelper.writeChangedSegments());
+    }
+
+    @Test
+    public void testPolicyStore_removedPackageSegmentDeleted() throws Exception {
+        final NotificationPolicyStore store = createPolicyStore();
+        mHelper.setPolicyStore(store, false /* readSegments */);
+        mHelper.setImportance(PKG, UID, IMPORTANCE_LOW);
+        assertEquals(1, mHelper.writeChangedSegments());
+
+        mHelper.onPackagesChanged(true, UserHandle.myUserId(), new String[]{PKG}, new int[]{UID});
+        assertEquals(1, mHelper.writeChangedSegments());
+        assertTrue(store.listPackages().isEmpty());
+    }
+
+    @Test
+    public void testPolicyStore_unreadableSegmentDeletedWithPackage() throws Exception {
+        final NotificationPolicyStore store = createPolicyStore();
+        store.writePackage(PKG, UID, "<ranking><package".getBytes());
+        mHelper.setPolicyStore(store, true /* readSegments */);
+        mHelper.getImportance(PKG, UID);
+
+        mHelper.onPackagesChanged(true, UserHandle.myUserId(), new String[]{PKG}, new int[]{UID});
+        assertEquals(1, mHelper.writeChangedSegments());
+        assertTrue(store.listPackages().isEmpty());
+    }
+
+    @Test
+    public void testPolicyStore_loadedSegmentWrittenOnlyOnceChanged() throws Exception {
+        final NotificationPolicyStore store = createPolicyStore();
+        mHelper.setPolicyStore(store, false /* readSegments */);
+        mHelper.setImportance(PKG, UID, IMPORTANCE_LOW);
+        mHelper.writeChangedSegments();
+
+        final RankingHelper helper = new RankingHelper(getContext(), mPm, mHandler, mUsageStats,
+                new String[] {ImportanceExtractor.class.getName()});
+        helper.setPolicyStore(store, true /* readSegments */);
+        // Reading the segment in doesn't make it look changed, but changing it afterwards does.
+        assertEquals(IMPORTANCE_LOW, helper.getImportance(PKG, UID));
+        assertEquals(0, helper.writeChangedSegments());
+        helper.setImportance(PKG, UID, IMPORTANCE_HIGH);
+        assertEquals(1, helper.writeChangedSegments());
+    }
+
+    @Test
+    public void testPolicyStore_backupIncludesUnreadSegments() throws Exception {
+        final NotificationPolicyStore store = createPolicyStore();
+        mHelper.setPolicyStore(store, false /* readSegments */);
+        final NotificationChannel channel =
+                new NotificationChannel("id", "name", IMPORTANCE_HIGH);
+        mHelper.createNotificationChannel(UPDATED_PKG, UID2, channel, true);
+        mHelper.writeChangedSegments();
+
+        mHelper = new RankingHelper(getContext(), mPm, mHandler, mUsageStats,
+                new String[] {ImportanceExtractor.class.getName()});
+        mHelper.setPolicyStore(store, true /* readSegments */);
+        // Only the package settings of backups are written with the rest of the policy.
+        assertFalse(writeXmlAndPurge(UPDATED_PKG, UID2, false).toString().contains(UPDATED_PKG));
+        assertTrue(writeXmlAndPurge(UPDATED_PKG, UID2, true).toString().contains(UPDATED_PKG));
+    }
 }
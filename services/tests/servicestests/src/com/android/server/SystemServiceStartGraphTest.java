@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.os.Trace;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.TimingsTraceLog;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link SystemServiceStartGraph}.
+ *
+ * Build/Install/Run:
+ *  runtest --path frameworks/base/services/tests/servicestests/src/com/android/server/SystemServiceStartGraphTest.java
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SystemServiceStartGraphTest {
+    private ExecutorService mExecutor;
+    private SystemServiceStartGraph mGraph;
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newFixedThreadPool(4);
+        mGraph = new SystemServiceStartGraph("test", mExecutor);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testDependencyOrderIsHonored() {
+        final List<String> order = Collections.synchronizedList(new ArrayList<>());
+        mGraph.add("a", () -> order.add("a"));
+        mGraph.add("b", () -> order.add("b"), "a");
+        mGraph.add("c", () -> order.add("c"), "a");
+        mGraph.add("d", () -> order.add("d"), "b", "c");
+        mGraph.await("d");
+
+        assertEquals(4, order.size());
+        assertEquals("a", order.get(0));
+        assertEquals("d", order.get(3));
+    }
+
+    @Test
+    public void testIndependentNodesRunInParallel() throws Exception {
+        final CountDownLatch bothStarted = new CountDownLatch(2);
+        final Runnable task = () -> {
+            bothStarted.countDown();
+            try {
+                bothStarted.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        };
+        mGraph.add("a", task);
+        mGraph.add("b", task);
+        mGraph.await("a");
+        mGraph.await("b");
+        assertEquals(0, bothStarted.getCount());
+    }
+
+    @Test
+    public void testCriticalPathFollowsLastFinishedDependency() {
+        final CountDownLatch release = new CountDownLatch(1);
+        mGraph.add("fast", () -> {});
+        mGraph.add("slow", () -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        mGraph.add("join", () -> {}, "fast", "slow");
+        mGraph.await("fast");
+        release.countDown();
+        mGraph.await("join");
+
+        final String path = mGraph.getCriticalPath();
+        assertTrue(path, path.startsWith("slow "));
+        assertTrue(path, path.contains(" -> join "));
+    }
+
+    @Test
+    public void testFailureIsReportedToWaiter() {
+        mGraph.add("broken", () -> {
+            throw new IllegalStateException("boom");
+        });
+        try {
+            mGraph.await("broken");
+            fail("Expected RuntimeException");
+        } catch (RuntimeException expected) {
+            assertTrue(expected.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testFailureDoesNotStopOtherNodes() {
+        final List<String> order = Collections.synchronizedList(new ArrayList<>());
+        mGraph.add("broken", () -> {
+            throw new IllegalStateException("boom");
+        });
+        mGraph.add("independent", () -> order.add("independent"));
+        mGraph.awaitAllAndReport(new TimingsTraceLog("test", Trace.TRACE_TAG_SYSTEM_SERVER));
+
+        assertEquals(Arrays.asList("independent"), order);
+    }
+
+    @Test
+    public void testDependentsOfFailedNodeAreSkipped() {
+        final List<String> order = Collections.synchronizedList(new ArrayList<>());
+        mGraph.add("broken", () -> {
+            throw new IllegalStateException("boom");
+        });
+        mGraph.add("dependent", () -> order.add("dependent"), "broken");
+        mGraph.add("indirect", () -> order.add("indirect"), "dependent");
+        mGraph.awaitAllAndReport(new TimingsTraceLog("test", Trace.TRACE_TAG_SYSTEM_SERVER));
+        // Added once the failure is known.
+        mGraph.add("late", () -> order.add("late"), "broken");
+
+        for (String name : new String[] { "dependent", "indirect", "late" }) {
+            try {
+                mGraph.await(name);
+                fail("Expected " + name + " to be skipped");
+            } catch (IllegalStateException expected) {
+            }
+        }
+        assertTrue(order.toString(), order.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownDependencyIsRejected() {
+        mGraph.add("a", () -> {}, "missing");
+    }
+}
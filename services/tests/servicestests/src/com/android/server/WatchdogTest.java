@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the check latency tracking of {@link Watchdog}.
+ *
+ * Build/Install/Run:
+ *  runtest --path frameworks/base/services/tests/servicestests/src/com/android/server/WatchdogTest.java
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class WatchdogTest {
+    private Watchdog mWatchdog;
+    private HandlerThread mThread;
+    private Watchdog.HandlerChecker mChecker;
+    private final CountDownLatch mUnblock = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        mWatchdog = Watchdog.getInstance();
+        mThread = new HandlerThread("WatchdogTest");
+        mThread.start();
+        mChecker = mWatchdog.new HandlerChecker(new Handler(mThread.getLooper()), "test",
+                Watchdog.DEFAULT_TIMEOUT);
+    }
+
+    @After
+    public void tearDown() {
+        mUnblock.countDown();
+        mThread.quitSafely();
+    }
+
+    private void blockThread() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        mThread.getThreadHandler().post(() -> {
+            blocked.countDown();
+            try {
+                mUnblock.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSlowCheckReportedOnce() throws Exception {
+        blockThread();
+        synchronized (mWatchdog) {
+            mChecker.scheduleCheckLocked();
+            assertTrue(mChecker.isAwaitingSlowCheckLocked());
+            final long now = SystemClock.uptimeMillis();
+
+            assertFalse(mChecker.maybeReportSlowLocked(now));
+            assertTrue(mChecker.maybeReportSlowLocked(now + mWatchdog.mWarnLatency));
+            assertFalse(mChecker.isAwaitingSlowCheckLocked());
+            // The same check is only reported once.
+            assertFalse(mChecker.maybeReportSlowLocked(now + 2 * mWatchdog.mWarnLatency));
+        }
+    }
+
+    @Test
+    public void testFastCheckNotReported() throws Exception {
+        synchronized (mWatchdog) {
+            mChecker.scheduleCheckLocked();
+        }
+        // Wait for the check to complete.
+        final CountDownLatch idle = new CountDownLatch(1);
+        mThread.getThreadHandler().post(idle::countDown);
+        assertTrue(idle.await(10, TimeUnit.SECONDS));
+
+        synchronized (mWatchdog) {
+            assertEquals(Watchdog.COMPLETED, mChecker.getCompletionStateLocked());
+            assertFalse(mChecker.isAwaitingSlowCheckLocked());
+            assertFalse(mChecker.maybeReportSlowLocked(
+                    SystemClock.uptimeMillis() + mWatchdog.mWarnLatency));
+        }
+    }
+
+    @Test
+    public void testPercentileWarningNeedsNewSlowChecks() {
+        synchronized (mWatchdog) {
+            final Watchdog.LatencyStats stats = mChecker.getLatencyStatsLocked();
+            for (int i = 0; i < Watchdog.MIN_WARN_SAMPLES; i++) {
+                stats.add(mWatchdog.mWarnLatency * 4);
+            }
+            final long now = SystemClock.uptimeMillis();
+            assertTrue(mChecker.maybeReportSlowLocked(now));
+            assertEquals(0, stats.getRecentCount());
+
+            // Fast checks after the warning don't bring it back once the rate limit is over.
+            for (int i = 0; i < Watchdog.MIN_WARN_SAMPLES; i++) {
+                stats.add(1);
+            }
+            assertFalse(mChecker.maybeReportSlowLocked(now + Watchdog.EARLY_WARNING_INTERVAL));
+            assertEquals(2 * Watchdog.MIN_WARN_SAMPLES, stats.getCount());
+        }
+    }
+
+    @Test
+    public void testLatencyStatsRecentChecks() {
+        final Watchdog.LatencyStats stats = new Watchdog.LatencyStats();
+        for (int i = 0; i < Watchdog.WARN_WINDOW_SAMPLES; i++) {
+            stats.add(Watchdog.DEFAULT_TIMEOUT);
+        }
+        for (int i = 0; i < Watchdog.WARN_WINDOW_SAMPLES; i++) {
+            stats.add(1);
+        }
+        // The slow checks have aged out of the recent ones.
+        assertEquals(Watchdog.WARN_WINDOW_SAMPLES, stats.getRecentCount());
+        assertEquals(1, stats.getRecentPercentile(99));
+        assertEquals(2 * Watchdog.WARN_WINDOW_SAMPLES, stats.getCount());
+    }
+
+    @Test
+    public void testLatencyStatsPercentile() {
+        final Watchdog.LatencyStats stats = new Watchdog.LatencyStats();
+        for (int i = 0; i < 99; i++) {
+            stats.add(3);
+        }
+        stats.add(Watchdog.DEFAULT_TIMEOUT * 2);
+
+        assertEquals(100, stats.getCount());
+        assertEquals(2, stats.getPercentile(50));
+        assertEquals(2, stats.getPercentile(99));
+        // Slower than the longest timeout still lands in the last bucket.
+        assertEquals(1 << 16, stats.getPercentile(100));
+    }
+}
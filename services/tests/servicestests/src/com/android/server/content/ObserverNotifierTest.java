@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import android.content.ContentResolver;
+import android.database.IContentObserver;
+import android.net.Uri;
+import android.os.HandlerThread;
+import android.os.UserHandle;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.content.ContentService.ObserverCall;
+import com.android.server.content.ContentService.ObserverNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * bit FrameworksServicesTests:com.android.server.content.ObserverNotifierTest
+ */
+@SmallTest
+public class ObserverNotifierTest extends AndroidTestCase {
+    static class RecordingObserver extends IContentObserver.Stub {
+        final ArrayList<Uri> uris = new ArrayList<>();
+        final ArrayList<Boolean> selfChanges = new ArrayList<>();
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri, int userId) {
+            synchronized (this) {
+                uris.add(uri);
+                selfChanges.add(selfChange);
+            }
+        }
+    }
+
+    private HandlerThread mThread;
+    private ObserverNotifier mNotifier;
+    private RecordingObserver mObserver;
+    private ArrayList<ObserverCall> mCalls;
+    private int mUserId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread("ObserverNotifierTest");
+        mThread.start();
+        mNotifier = new ObserverNotifier(mThread.getLooper(), call -> {});
+        mObserver = new RecordingObserver();
+        mCalls = new ArrayList<>(Collections.singletonList(
+                new ObserverCall(new ObserverNode(""), mObserver, false, 0)));
+        mUserId = UserHandle.myUserId();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mThread.quit();
+        super.tearDown();
+    }
+
+    private void notifyBatched(Uri uri) {
+        mNotifier.notify(mCalls, uri, mUserId, ContentResolver.NOTIFY_BATCHED);
+    }
+
+    public void testDirectNotificationIsNotDelayed() {
+        final Uri uri = Uri.parse("content://c/a/1");
+        mNotifier.notify(mCalls, uri, mUserId, 0);
+        mNotifier.notify(mCalls, uri, mUserId, 0);
+        assertEquals(2, mObserver.uris.size());
+    }
+
+    public void testIdenticalChangesDeliveredOnce() {
+        final Uri uri = Uri.parse("content://c/a/1");
+        for (int i = 0; i < 10; i++) {
+            notifyBatched(uri);
+        }
+        mNotifier.flushForTesting();
+        assertEquals(1, mObserver.uris.size());
+        assertEquals(uri, mObserver.uris.get(0));
+    }
+
+    public void testDistinctChangesDeliveredInOrder() {
+        final Uri[] uris = new Uri[] {
+            Uri.parse("content://c/a/2"),
+            Uri.parse("content://c/a/1"),
+            Uri.parse("content://c/b"),
+        };
+        for (Uri uri : uris) {
+            notifyBatched(uri);
+        }
+        notifyBatched(uris[0]);
+        mNotifier.flushForTesting();
+        assertEquals(uris.length, mObserver.uris.size());
+        for (int i = 0; i < uris.length; i++) {
+            assertEquals(uris[i], mObserver.uris.get(i));
+        }
+    }
+
+    public void testTooManyChangesCollapsedToCommonAncestor() {
+        for (int i = 0; i <= ObserverNotifier.MAX_PENDING_URIS + 10; i++) {
+            notifyBatched(Uri.parse("content://media/external/images/media/" + i));
+        }
+        mNotifier.flushForTesting();
+        assertEquals(1, mObserver.uris.size());
+        assertEquals(Uri.parse("content://media/external/images/media"),
+                mObserver.uris.get(0));
+        assertFalse(mObserver.selfChanges.get(0));
+    }
+
+    public void testNextWindowStartsOver() {
+        final Uri uri = Uri.parse("content://c/a/1");
+        notifyBatched(uri);
+        mNotifier.flushForTesting();
+        notifyBatched(uri);
+        mNotifier.flushForTesting();
+        assertEquals(2, mObserver.uris.size());
+    }
+
+    public void testGetCommonAncestor() {
+        assertEquals(Uri.parse("content://c/a"), ObserverNotifier.getCommonAncestor(
+                Uri.parse("content://c/a/1"), Uri.parse("content://c/a/2/x")));
+        assertEquals(Uri.parse("content://c/a"), ObserverNotifier.getCommonAncestor(
+                Uri.parse("content://c/a"), Uri.parse("content://c/a/2")));
+        assertEquals(Uri.parse("content://c"), ObserverNotifier.getCommonAncestor(
+                Uri.parse("content://c/a"), Uri.parse("content://c/b")));
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.job;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.app.job.JobInfo;
+import android.content.ComponentName;
+import android.platform.test.annotations.Presubmit;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.SparseIntArray;
+
+import com.android.server.job.controllers.JobStatus;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Replays job traces through {@link JobConcurrencyPolicy}.
+ *
+ * Build/Install/Run:
+ *  bit FrameworksServicesTests:com.android.server.job.JobConcurrencyPolicyTest
+ */
+@SmallTest
+@Presubmit
+@RunWith(AndroidJUnit4.class)
+public class JobConcurrencyPolicyTest {
+
+    private static final int CONTEXT_COUNT = 16;
+    private static final int MAX_BG_ACTIVE = 6;
+    private static final int MAX_FG_ACTIVE = 4;
+    private static final int UID_FLOOD = 10001;
+    private static final int UID_OTHER = 10002;
+    private static final int UID_TOP = 10003;
+
+    private final ComponentName mComponent = new ComponentName("com.android.test", "TestService");
+    private final JobConcurrencyPolicy mPolicy = new JobConcurrencyPolicy(JobStatus::getPriority);
+    private final ArrayList<JobStatus> mPending = new ArrayList<>();
+    private final JobStatus[] mContexts = new JobStatus[CONTEXT_COUNT];
+    private final boolean[] mAct = new boolean[CONTEXT_COUNT];
+    private final int[] mPreferredUids = new int[CONTEXT_COUNT];
+    private int mNextJobId;
+
+    @Before
+    public void setUp() {
+        Arrays.fill(mPreferredUids, JobServiceContext.NO_PREFERRED_UID);
+    }
+
+    private JobStatus createJob(int uid, int priority) {
+        final JobInfo job = new JobInfo.Builder(mNextJobId++, mComponent)
+                .setPriority(priority)
+                .build();
+        return JobStatus.createFromJobInfo(job, uid, null, -1, null);
+    }
+
+    private void assign() {
+        mPolicy.assignJobsToContexts(mPending, mContexts, mAct, mPreferredUids, MAX_BG_ACTIVE,
+                MAX_FG_ACTIVE);
+    }
+
+    /**
+     * Starts the jobs assigned to free contexts, as JobSchedulerService does, and returns them.
+     */
+    private ArrayList<JobStatus> startAssignedJobs() {
+        final ArrayList<JobStatus> started = new ArrayList<>();
+        for (int i = 0; i < CONTEXT_COUNT; i++) {
+            if (mAct[i] && mPending.remove(mContexts[i])) {
+                started.add(mContexts[i]);
+            }
+        }
+        return started;
+    }
+
+    private int countRunning(int uid) {
+        int count = 0;
+        for (JobStatus job : mContexts) {
+            if (job != null && job.getUid() == uid) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testFloodingUidDoesNotStarveLaterUid() {
+        // uid UID_FLOOD schedules 100 jobs, then UID_OTHER schedules 3; every job runs for
+        // 10 ticks.
+        final int duration = 10;
+        for (int i = 0; i < 100; i++) {
+            mPending.add(createJob(UID_FLOOD, 0));
+        }
+        final long[] endTimes = new long[CONTEXT_COUNT];
+        final SparseIntArray latencies = new SparseIntArray();
+        final ArrayList<JobStatus> otherJobs = new ArrayList<>();
+        for (int tick = 0; tick < 200 && !mPending.isEmpty(); tick++) {
+            if (tick == 1) {
+                for (int i = 0; i < 3; i++) {
+                    final JobStatus job = createJob(UID_OTHER, 0);
+                    job.madePending = tick;
+                    mPending.add(job);
+                    otherJobs.add(job);
+                }
+            }
+            for (int i = 0; i < CONTEXT_COUNT; i++) {
+                if (mContexts[i] != null && endTimes[i] <= tick) {
+                    mContexts[i] = null;
+                }
+            }
+            assign();
+            for (JobStatus job : startAssignedJobs()) {
+                final int contextId = JobConcurrencyPolicy.findJobContextId(job, mContexts);
+                endTimes[contextId] = tick + duration;
+                if (job.getUid() == UID_OTHER) {
+                    latencies.put(job.getJobId(), (int) (tick - job.madePending));
+                }
+            }
+            assertTrue(countRunning(UID_FLOOD) + countRunning(UID_OTHER) <= MAX_BG_ACTIVE);
+        }
+        // In queue order, UID_OTHER would have waited for 100 jobs on 6 contexts.
+        assertEquals(otherJobs.size(), latencies.size());
+        for (int i = 0; i < latencies.size(); i++) {
+            assertTrue("Waited " + latencies.valueAt(i) + " ticks",
+                    latencies.valueAt(i) <= duration);
+        }
+    }
+
+    @Test
+    public void testEqualLoadFollowsQueueOrder() {
+        final JobStatus first = createJob(UID_OTHER, 0);
+        mPending.add(first);
+        for (int i = 0; i < MAX_BG_ACTIVE; i++) {
+            mPending.add(createJob(UID_FLOOD, 0));
+        }
+        assign();
+        assertTrue(startAssignedJobs().contains(first));
+        assertEquals(1, countRunning(UID_OTHER));
+        assertEquals(MAX_BG_ACTIVE - 1, countRunning(UID_FLOOD));
+    }
+
+    @Test
+    public void testForegroundJobsUseReservedContexts() {
+        for (int i = 0; i < MAX_BG_ACTIVE + 2; i++) {
+            mPending.add(createJob(UID_FLOOD, 0));
+        }
+        for (int i = 0; i < MAX_FG_ACTIVE + 2; i++) {
+            mPending.add(createJob(UID_TOP, JobInfo.PRIORITY_TOP_APP));
+        }
+        assign();
+        startAssignedJobs();
+        // Foreground jobs go first; the background ones fill up the rest of the limit.
+        assertEquals(MAX_BG_ACTIVE, countRunning(UID_TOP));
+        assertEquals(0, countRunning(UID_FLOOD));
+        assertEquals(MAX_BG_ACTIVE, mPolicy.getNumActive());
+
+        // Once the background limit is reached, only the reserved contexts are left.
+        Arrays.fill(mContexts, null);
+        mPending.clear();
+        for (int i = 0; i < MAX_BG_ACTIVE; i++) {
+            mContexts[i] = createJob(UID_FLOOD, 0);
+        }
+        for (int i = 0; i < MAX_FG_ACTIVE + 2; i++) {
+            mPending.add(createJob(UID_TOP, JobInfo.PRIORITY_TOP_APP));
+        }
+        assign();
+        startAssignedJobs();
+        assertEquals(MAX_FG_ACTIVE, countRunning(UID_TOP));
+        assertEquals(MAX_FG_ACTIVE, mPolicy.getNumForeground());
+        assertEquals(2, mPending.size());
+    }
+
+    @Test
+    public void testPreferredUidContext() {
+        mPreferredUids[0] = UID_OTHER;
+        final JobStatus flood = createJob(UID_FLOOD, 0);
+        mPending.add(flood);
+        assign();
+        assertNull(mContexts[0]);
+        assertSame(flood, mContexts[1]);
+        assertTrue(mAct[1]);
+
+        mContexts[1] = null;
+        final JobStatus other = createJob(UID_OTHER, 0);
+        mPending.add(other);
+        assign();
+        assertSame(other, mContexts[0]);
+    }
+
+    @Test
+    public void testPreemptsLowerPriorityJobOfSameUidOnly() {
+        for (int i = 0; i < MAX_BG_ACTIVE - 1; i++) {
+            mContexts[i] = createJob(UID_FLOOD, 0);
+        }
+        final JobStatus low = createJob(UID_OTHER, 0);
+        mContexts[MAX_BG_ACTIVE - 1] = low;
+        final JobStatus high = createJob(UID_OTHER, 10);
+        mPending.add(high);
+        mPending.add(createJob(UID_FLOOD, 5));
+        assign();
+        assertSame(high, mContexts[MAX_BG_ACTIVE - 1]);
+        assertTrue(mAct[MAX_BG_ACTIVE - 1]);
+        // The UID_FLOOD job has no free context to go to, and UID_FLOOD's running jobs are of a
+        // lower priority, so it preempts one of them instead of another uid's.
+        int preempted = 0;
+        for (int i = 0; i < MAX_BG_ACTIVE - 1; i++) {
+            if (mAct[i]) {
+                preempted++;
+                assertEquals(5, mContexts[i].getPriority());
+            }
+        }
+        assertEquals(1, preempted);
+        for (int i = MAX_BG_ACTIVE; i < CONTEXT_COUNT; i++) {
+            assertFalse(mAct[i]);
+        }
+    }
+
+    @Test
+    public void testStopsWhenNoContextFreeAndNothingToPreempt() {
+        final int[] evaluations = new int[1];
+        final JobConcurrencyPolicy policy = new JobConcurrencyPolicy(job -> {
+            evaluations[0]++;
+            return job.getPriority();
+        });
+        for (int i = 0; i < MAX_BG_ACTIVE; i++) {
+            mContexts[i] = createJob(UID_FLOOD, 5);
+        }
+        final int pendingCount = 100;
+        for (int i = 0; i < pendingCount; i++) {
+            mPending.add(createJob(UID_FLOOD, 5));
+        }
+        policy.assignJobsToContexts(mPending, mContexts, mAct, mPreferredUids, MAX_BG_ACTIVE,
+                MAX_FG_ACTIVE);
+        for (int i = 0; i < CONTEXT_COUNT; i++) {
+            assertFalse(mAct[i]);
+        }
+        // Each pending job is evaluated once; the running jobs are not evaluated again for
+        // every one of them.
+        assertTrue("Evaluated " + evaluations[0] + " times",
+                evaluations[0] <= pendingCount + MAX_BG_ACTIVE);
+    }
+}
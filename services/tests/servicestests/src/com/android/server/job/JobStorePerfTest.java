@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.job;
+
+import android.app.job.JobInfo;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.PersistableBundle;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.android.server.job.JobStore.JobSet;
+import com.android.server.job.controllers.JobStatus;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * Measures how much {@link JobStore} writes when a persisted job is rescheduled, and how long
+ * reading the persisted jobs back at boot takes, with {@link #JOB_COUNT} persisted jobs.
+ *
+ * Build/Install/Run:
+ *  bit FrameworksServicesTests:com.android.server.job.JobStorePerfTest
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class JobStorePerfTest {
+    private static final String TAG = "JobStorePerfTest";
+
+    private static final int JOB_COUNT = 1000;
+    private static final int SOME_UID = 34234;
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private JobStore mJobStore;
+    private File mDataDir;
+    private final ArrayList<JobStatus> mJobs = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        final Context context = InstrumentationRegistry.getContext();
+        mDataDir = new File(context.getCacheDir(), "job_store_perf");
+        mJobStore = JobStore.initAndGetForTesting(context, mDataDir);
+        final ComponentName component = new ComponentName(context, JobStorePerfTest.class);
+        for (int i = 0; i < JOB_COUNT; i++) {
+            final PersistableBundle extras = new PersistableBundle();
+            extras.putString("account", "user" + i + "@example.com");
+            extras.putLong("since", i);
+            final JobInfo job = new JobInfo.Builder(i, component)
+                    .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                    .setPeriodic(60 * 60 * 1000L)
+                    .setExtras(extras)
+                    .setPersisted(true)
+                    .build();
+            final JobStatus js = JobStatus.createFromJobInfo(job, SOME_UID, null, -1, null);
+            mJobStore.add(js);
+            mJobs.add(js);
+        }
+        mJobStore.writeStatusToDiskForTesting();
+    }
+
+    @After
+    public void tearDown() {
+        mJobStore.clear();
+        mJobStore.writeStatusToDiskForTesting();
+    }
+
+    private void reschedule(int index, long lastSuccessfulRunTime) {
+        final JobStatus js = mJobs.get(index);
+        final JobStatus rescheduled = new JobStatus(js, 0, JobStatus.NO_LATEST_RUNTIME, 0,
+                lastSuccessfulRunTime, 0);
+        mJobStore.remove(js, false);
+        mJobStore.add(rescheduled);
+        mJobs.set(index, rescheduled);
+    }
+
+    @Test
+    public void testRescheduleJob() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        final long logSize = new File(mDataDir, "system/job/jobs.log").length();
+        final long bytesBefore = mJobStore.getLogBytesWritten();
+        int reschedules = 0;
+        while (state.keepRunning()) {
+            reschedule(reschedules % JOB_COUNT, reschedules);
+            mJobStore.writeStatusToDiskForTesting();
+            reschedules++;
+        }
+        Log.i(TAG, "Wrote " + (mJobStore.getLogBytesWritten() - bytesBefore) / reschedules
+                + " bytes per reschedule, for a log of " + logSize + " bytes");
+    }
+
+    @Test
+    public void testReadJobs_compacted() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mJobStore.readJobMapFromDisk(new JobSet(), true);
+        }
+    }
+
+    @Test
+    public void testReadJobs_withStaleRecords() {
+        // Just short of what triggers a compaction.
+        for (int i = 0; i < JOB_COUNT / 2; i++) {
+            reschedule(i, i);
+        }
+        mJobStore.writeStatusToDiskForTesting();
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mJobStore.readJobMapFromDisk(new JobSet(), true);
+        }
+    }
+}
@@ -15,6 +15,9 @@ import android.util.Pair;
 import com.android.server.job.JobStore.JobSet;
 import com.android.server.job.controllers.JobStatus;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
 import java.util.Iterator;
 
 /**
@@ -267,6 +270,139 @@ public class JobStoreTest extends AndroidTestCase {
         assertEquals("Wrong job persisted.", 43, jobStatus.getJobId());
     }
 
+    public void testRemovedJobNotRestored() throws Exception {
+        final JobStatus js1 = createPersistedJob(1);
+        final JobStatus js2 = createPersistedJob(2);
+        mTaskStoreUnderTest.add(js1);
+        mTaskStoreUnderTest.add(js2);
+        mTaskStoreUnderTest.writeStatusToDiskForTesting();
+        mTaskStoreUnderTest.remove(js1, true);
+        mTaskStoreUnderTest.writeStatusToDiskForTesting();
+
+        final JobSet jobStatusSet = new JobSet();
+        mTaskStoreUnderTest.readJobMapFromDisk(jobStatusSet, true);
+        assertEquals("Job count is incorrect.", 1, jobStatusSet.size());
+        assertEquals("Wrong job restored.", 2, jobStatusSet.getAllJobs().get(0).getJobId());
+    }
+
+    /**
+     * Test that a record torn by a crash while appending it is dropped, and the ones before it
+     * are still read.
+     */
+    public void testTornLastRecordIgnored() throws Exception {
+        mTaskStoreUnderTest.add(createPersistedJob(1));
+        mTaskStoreUnderTest.writeStatusToDiskForTesting();
+        mTaskStoreUnderTest.add(createPersistedJob(2));
+        mTaskStoreUnderTest.writeStatusToDiskForTesting();
+
+        try (RandomAccessFile file = new RandomAccessFile(getLogFile(), "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        final JobSet jobStatusSet = new JobSet();
+        mTaskStoreUnderTest.readJobMapFromDisk(jobStatusSet, true);
+        assertEquals("Job count is incorrect.", 1, jobStatusSet.size());
+        assertEquals("Wrong job restored.", 1, jobStatusSet.getAllJobs().get(0).getJobId());
+    }
+
+    /**
+     * Test that a record that doesn't match its checksum is dropped.
+     */
+    public void testCorruptLastRecordIgnored() throws Exception {
+        mTaskStoreUnderTest.add(createPersistedJob(1));
+        mTaskStoreUnderTest.writeStatusToDiskForTesting();
+        mTaskStoreUnderTest.add(createPersistedJob(2));
+        mTaskStoreUnderTest.writeStatusToDiskForTesting();
+
+        try (RandomAccessFile file = new RandomAccessFile(getLogFile(), "rw")) {
+            file.seek(file.length() - 1);
+            final int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 0xff);
+        }
+
+        final JobSet jobStatusSet = new JobSet();
+        mTaskStoreUnderTest.readJobMapFromDisk(jobStatusSet, true);
+        assertEquals("Job count is incorrect.", 1, jobStatusSet.size());
+        assertEquals("Wrong job restored.", 1, jobStatusSet.getAllJobs().get(0).getJobId());
+    }
+
+    /**
+     * Test that a crash in the middle of a compaction leaves the previous log in place.
+     */
+    public void testInterruptedCompactionKeepsPreviousLog() throws Exception {
+        mTaskStoreUnderTest.add(createPersistedJob(1));
+        mTaskStoreUnderTest.writeStatusToDiskForTesting();
+
+        // What AtomicFile leaves behind when interrupted: the previous file as a backup and a
+        // partially written new one.
+        final File log = getLogFile();
+        assertTrue(log.renameTo(new File(log.getPath() + ".bak")));
+        try (FileOutputStream fos = new FileOutputStream(log)) {
+            fos.write(new byte[] { 'J', 'O' });
+        }
+
+        final JobSet jobStatusSet = new JobSet();
+        mTaskStoreUnderTest.readJobMapFromDisk(jobStatusSet, true);
+        assertEquals("Job count is incorrect.", 1, jobStatusSet.size());
+        assertEquals("Wrong job restored.", 1, jobStatusSet.getAllJobs().get(0).getJobId());
+    }
+
+    /**
+     * Test that rescheduling a job over and over doesn't grow the log without bounds.
+     */
+    public void testRescheduledJobCompacted() throws Exception {
+        final int reschedules = 500;
+        JobStatus js = createPersistedJob(1);
+        mTaskStoreUnderTest.add(js);
+        for (int i = 0; i < reschedules; i++) {
+            final JobStatus rescheduled = new JobStatus(js, 0, JobStatus.NO_LATEST_RUNTIME,
+                    0, i, 0);
+            mTaskStoreUnderTest.remove(js, false);
+            mTaskStoreUnderTest.add(rescheduled);
+            mTaskStoreUnderTest.writeStatusToDiskForTesting();
+            js = rescheduled;
+        }
+        assertTrue("Log wasn't compacted.",
+                mTaskStoreUnderTest.getLogRecordCount() < reschedules);
+
+        final JobSet jobStatusSet = new JobSet();
+        mTaskStoreUnderTest.readJobMapFromDisk(jobStatusSet, true);
+        assertEquals("Job count is incorrect.", 1, jobStatusSet.size());
+        assertEquals("Last reschedule not restored.", reschedules - 1,
+                jobStatusSet.getAllJobs().get(0).getLastSuccessfulRunTime());
+    }
+
+    /**
+     * Test that a change only writes the job it is about, not all the jobs.
+     */
+    public void testChangeAppendsOnlyThatJob() throws Exception {
+        final int jobCount = 100;
+        for (int i = 0; i < jobCount; i++) {
+            mTaskStoreUnderTest.add(createPersistedJob(i));
+        }
+        mTaskStoreUnderTest.writeStatusToDiskForTesting();
+        final long logSize = getLogFile().length();
+        final long written = mTaskStoreUnderTest.getLogBytesWritten();
+
+        mTaskStoreUnderTest.add(createPersistedJob(jobCount));
+        mTaskStoreUnderTest.writeStatusToDiskForTesting();
+        assertTrue("Too many bytes written for one job.",
+                mTaskStoreUnderTest.getLogBytesWritten() - written < 2 * logSize / jobCount);
+    }
+
+    private JobStatus createPersistedJob(int jobId) {
+        final JobInfo job = new Builder(jobId, mComponent)
+                .setRequiresCharging(true)
+                .setPersisted(true)
+                .build();
+        return JobStatus.createFromJobInfo(job, SOME_UID, null, -1, null);
+    }
+
+    private File getLogFile() {
+        return new File(mTestContext.getFilesDir(), "system/job/jobs.log");
+    }
+
     /**
      * Helper function to throw an error if the provided task and TaskStatus objects are not equal.
      */
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.job.controllers;
+
+import static org.junit.Assert.assertEquals;
+
+import android.app.job.JobInfo;
+import android.content.ComponentName;
+import android.content.Context;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.android.server.job.JobStore;
+import com.android.server.job.JobStore.JobStatusFunctor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * Measures how long it takes to find the ready jobs of a {@link JobStore} holding
+ * {@link #JOB_COUNT} jobs after a controller changed the constraints of some of them, which is
+ * what {@link com.android.server.job.JobSchedulerService} does on every controller state change.
+ *
+ * Build/Install/Run:
+ *  bit FrameworksServicesTests:com.android.server.job.controllers.JobReadinessPerfTest
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class JobReadinessPerfTest {
+
+    private static final int JOB_COUNT = 10000;
+    private static final int UID_COUNT = 100;
+    private static final int FIRST_UID = 10000;
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private JobStore mJobStore;
+    // The jobs with a connectivity constraint, grouped by uid.
+    private final ArrayList<ArrayList<JobStatus>> mConnectivityJobs = new ArrayList<>();
+    private int mReadyCount;
+
+    private final JobStatusFunctor mCountReady = job -> {
+        if (job.isReady()) {
+            mReadyCount++;
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        final Context context = InstrumentationRegistry.getContext();
+        mJobStore = JobStore.initAndGetForTesting(context,
+                new File(context.getCacheDir(), "job_readiness_perf"));
+        final ComponentName component = new ComponentName(context, JobReadinessPerfTest.class);
+        for (int i = 0; i < UID_COUNT; i++) {
+            mConnectivityJobs.add(new ArrayList<>());
+        }
+        for (int i = 0; i < JOB_COUNT; i++) {
+            final int uidIndex = i % UID_COUNT;
+            final JobInfo.Builder builder = new JobInfo.Builder(i, component);
+            switch (i % 3) {
+                case 0: builder.setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY); break;
+                case 1: builder.setRequiresCharging(true); break;
+                case 2: builder.setRequiresDeviceIdle(true); break;
+            }
+            final JobStatus job = JobStatus.createFromJobInfo(builder.build(),
+                    FIRST_UID + uidIndex, null, -1, null);
+            job.setAppNotIdleConstraintSatisfied(true);
+            job.setDeviceNotDozingConstraintSatisfied(true, false);
+            mJobStore.add(job);
+            if (job.hasConnectivityConstraint()) {
+                mConnectivityJobs.get(uidIndex).add(job);
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mJobStore.clear();
+    }
+
+    /**
+     * Flips the connectivity of the jobs of one uid, as the connectivity controller does when the
+     * network of that uid changes.
+     */
+    private void churn(int uidIndex, boolean connected) {
+        final ArrayList<JobStatus> jobs = mConnectivityJobs.get(uidIndex);
+        for (int i = jobs.size() - 1; i >= 0; i--) {
+            jobs.get(i).setConnectivityConstraintSatisfied(connected);
+        }
+    }
+
+    @Test
+    public void testFindReadyJobs_fullScan() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        int uidIndex = 0;
+        while (state.keepRunning()) {
+            churn(uidIndex, true);
+            mJobStore.forEachJob(mCountReady);
+            churn(uidIndex, false);
+            mJobStore.forEachJob(mCountReady);
+            uidIndex = (uidIndex + 1) % UID_COUNT;
+        }
+    }
+
+    @Test
+    public void testFindReadyJobs_readyIndex() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        int uidIndex = 0;
+        while (state.keepRunning()) {
+            churn(uidIndex, true);
+            mJobStore.forEachReadyJob(mCountReady);
+            churn(uidIndex, false);
+            mJobStore.forEachReadyJob(mCountReady);
+            uidIndex = (uidIndex + 1) % UID_COUNT;
+        }
+    }
+
+    @Test
+    public void testReadyIndexMatchesFullScan() {
+        for (int i = 0; i < UID_COUNT; i += 2) {
+            churn(i, true);
+        }
+        mReadyCount = 0;
+        mJobStore.forEachJob(mCountReady);
+        final int expected = mReadyCount;
+        mReadyCount = 0;
+        mJobStore.forEachReadyJob(mCountReady);
+        assertEquals(expected, mReadyCount);
+        assertEquals(expected, mJobStore.readyCount());
+    }
+}
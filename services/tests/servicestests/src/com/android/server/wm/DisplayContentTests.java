@@ -31,12 +31,14 @@ import static com.android.server.wm.WindowContainer.POSITION_TOP;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import org.junit.After;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import android.annotation.SuppressLint;
 import android.content.res.Configuration;
+import android.graphics.Rect;
 import android.os.SystemClock;
 import android.platform.test.annotations.Presubmit;
 import android.support.test.filters.SmallTest;
@@ -46,8 +48,10 @@ import android.util.SparseIntArray;
 import android.view.MotionEvent;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Tests for the {@link DisplayContent} class.
@@ -60,6 +64,11 @@ import java.util.List;
 @RunWith(AndroidJUnit4.class)
 public class DisplayContentTests extends WindowTestsBase {
 
+    @After
+    public void resetWindowLayout() throws Exception {
+        ((TestWindowManagerPolicy) sWm.mPolicy).windowLayout = null;
+    }
+
     @Test
     public void testForAllWindows() throws Exception {
         final WindowState exitingAppWindow = createWindow(null, TYPE_BASE_APPLICATION,
@@ -435,6 +444,155 @@ public class DisplayContentTests extends WindowTestsBase {
         assertEquals(displayContent.mBaseDisplayDensity, expectedBaseDensity);
     }
 
+    @Test
+    public void testForAllDirtyWindows() throws Exception {
+        mDisplayContent.clearSurfacePlacementDirty();
+        assertDirtyWindows(Arrays.asList());
+
+        mAppWindow.setSurfacePlacementDirty();
+        mStatusBarWindow.setSurfacePlacementDirty();
+        assertDirtyWindows(Arrays.asList(mAppWindow, mStatusBarWindow));
+
+        final WindowContainer.DirtyWindowsTraversal traversal =
+                new WindowContainer.DirtyWindowsTraversal(w -> {});
+        mDisplayContent.forAllDirtyWindows(traversal, true /* traverseTopToBottom */);
+        assertEquals(2, traversal.mWindowsVisited);
+        assertTrue(traversal.mSubtreesSkipped > 0);
+    }
+
+    @Test
+    public void testForAllDirtyWindows_ChildWindow() throws Exception {
+        mDisplayContent.clearSurfacePlacementDirty();
+
+        mChildAppWindowAbove.setSurfacePlacementDirty();
+        // The parent is visited on the way to its child.
+        assertDirtyWindows(Arrays.asList(mAppWindow, mChildAppWindowAbove));
+    }
+
+    @Test
+    public void testForAllDirtyWindows_WithImeTarget() throws Exception {
+        sWm.mInputMethodTarget = mAppWindow;
+        mDisplayContent.clearSurfacePlacementDirty();
+
+        mImeWindow.setSurfacePlacementDirty();
+        assertDirtyWindows(Arrays.asList(mAppWindow, mImeWindow));
+    }
+
+    @Test
+    public void testForAllDirtyWindows_AddWindow() throws Exception {
+        mDisplayContent.clearSurfacePlacementDirty();
+
+        final WindowState newWindow = createWindow(null, TYPE_BASE_APPLICATION, mDisplayContent,
+                "newWindow");
+        assertTrue(mDisplayContent.isSurfacePlacementDirty());
+        assertTrue(getDirtyWindows().contains(newWindow));
+    }
+
+    @Test
+    public void testIncrementalSurfacePlacement_MatchesFullPlacementAfterLayout()
+            throws Exception {
+        final Rect appFrame = new Rect(0, 0, 100, 100);
+        setUpSurfacePlacement(appFrame);
+
+        // The layout only moves the app window.
+        appFrame.offset(10, 20);
+        mDisplayContent.setLayoutNeeded();
+        final int incrementalPlacements = mDisplayContent.getIncrementalSurfacePlacementCount();
+        sWm.mRoot.performSurfacePlacement(false /* recoveringMemory */);
+        assertEquals(incrementalPlacements + 1,
+                mDisplayContent.getIncrementalSurfacePlacementCount());
+        assertEquals(appFrame, mAppWindow.mFrame);
+
+        assertSameAsFullSurfacePlacement();
+    }
+
+    @Test
+    public void testIncrementalSurfacePlacement_FallsBackToFullWhenWindowHidden()
+            throws Exception {
+        setUpSurfacePlacement(new Rect(0, 0, 100, 100));
+
+        // Hiding a window changes what the display shows, so all windows need to be visited.
+        mStatusBarWindow.hideLw(false /* doAnimation */);
+        final int fullPlacements = mDisplayContent.getFullSurfacePlacementCount();
+        sWm.mRoot.performSurfacePlacement(false /* recoveringMemory */);
+        assertEquals(fullPlacements + 1, mDisplayContent.getFullSurfacePlacementCount());
+
+        assertSameAsFullSurfacePlacement();
+    }
+
+    /**
+     * Gives every window a drawn surface, lays the app window out at {@code appFrame} whenever
+     * the display is laid out, and performs a full surface placement to start from.
+     */
+    private void setUpSurfacePlacement(Rect appFrame) {
+        mDisplayContent.forAllWindows(w -> {
+            w.mHasSurface = true;
+            w.mWinAnimator.mDrawState = WindowStateAnimator.HAS_DRAWN;
+        }, true /* traverseTopToBottom */);
+        ((TestWindowManagerPolicy) sWm.mPolicy).windowLayout = win -> {
+            if (win == mAppWindow) {
+                mAppWindow.mFrame.set(appFrame);
+            }
+        };
+
+        mDisplayContent.invalidateSurfacePlacement();
+        mDisplayContent.setLayoutNeeded();
+        sWm.mRoot.performSurfacePlacement(false /* recoveringMemory */);
+    }
+
+    /**
+     * Checks that a full surface placement does not change the surface state of any window, that
+     * is that the placement before it, incremental or not, left every window as a full one would.
+     */
+    private void assertSameAsFullSurfacePlacement() {
+        final Map<WindowState, String> placedState = getSurfaceState();
+        final int fullPlacements = mDisplayContent.getFullSurfacePlacementCount();
+        mDisplayContent.invalidateSurfacePlacement();
+        sWm.mRoot.performSurfacePlacement(false /* recoveringMemory */);
+        assertEquals(fullPlacements + 1, mDisplayContent.getFullSurfacePlacementCount());
+        assertEquals(getSurfaceState(), placedState);
+    }
+
+    private Map<WindowState, String> getSurfaceState() {
+        final Map<WindowState, String> state = new HashMap<>();
+        mDisplayContent.forAllWindows(w -> {
+            state.put(w, "shownPosition=" + w.mShownPosition
+                    + " shownAlpha=" + w.mWinAnimator.mShownAlpha
+                    + " frame=" + w.mFrame
+                    + " lastFrame=" + w.mLastFrame
+                    + " obscured=" + w.mObscured
+                    + " displayed=" + w.isDisplayedLw()
+                    + " resizing=" + sWm.mResizingWindows.contains(w));
+        }, true /* traverseTopToBottom */);
+        return state;
+    }
+
+    private void assertDirtyWindows(List<WindowState> expectedWindows) {
+        assertEquals(expectedWindows, getDirtyWindows());
+    }
+
+    /**
+     * Returns the windows a dirty traversal visits from bottom to top, after checking that they
+     * are exactly the dirty windows a full traversal finds, in the same order.
+     */
+    private List<WindowState> getDirtyWindows() {
+        LinkedList<WindowState> dirtyPass = null;
+        for (boolean topToBottom : new boolean[] { true, false }) {
+            final LinkedList<WindowState> fullPass = new LinkedList();
+            mDisplayContent.forAllWindows(w -> {
+                if (w.isSurfacePlacementDirty()) {
+                    fullPass.addLast(w);
+                }
+            }, topToBottom);
+
+            dirtyPass = new LinkedList();
+            mDisplayContent.forAllDirtyWindows(
+                    new WindowContainer.DirtyWindowsTraversal(dirtyPass::addLast), topToBottom);
+            assertEquals(fullPass, dirtyPass);
+        }
+        return dirtyPass;
+    }
+
     private void assertForAllWindowsOrder(List<WindowState> expectedWindows) {
         final LinkedList<WindowState> actualWindows = new LinkedList();
 
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.wm;
+
+import static android.view.WindowManager.LayoutParams.TYPE_BASE_APPLICATION;
+import static org.mockito.Mockito.clearInvocations;
+
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+/**
+ * Measures how long {@link InputMonitor} takes to publish the input windows of a display with
+ * {@link #WINDOW_COUNT} windows after a reconfiguration.
+ *
+ * Build/Install/Run:
+ *  bit FrameworksServicesTests:com.android.server.wm.InputMonitorPerfTest
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class InputMonitorPerfTest extends WindowTestsBase {
+
+    private static final int WINDOW_COUNT = 50;
+
+    // The input manager is a mock, which records every call.
+    private static final int CLEAR_INVOCATIONS_INTERVAL = 1000;
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private final ArrayList<WindowState> mWindows = new ArrayList<>();
+    private int mIterations;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        synchronized (sWm.mWindowMap) {
+            for (int i = 0; i < WINDOW_COUNT; i++) {
+                final WindowState window = createWindow(null, TYPE_BASE_APPLICATION,
+                        "window" + i);
+                window.openInputChannel(null);
+                window.mFrame.set(0, 0, 100, 100);
+                mWindows.add(window);
+            }
+            sWm.mInputMonitor.updateInputWindowsLw(true /* force */);
+        }
+    }
+
+    private void updateInputWindows(BenchmarkState state) {
+        synchronized (sWm.mWindowMap) {
+            sWm.mInputMonitor.updateInputWindowsLw(true /* force */);
+        }
+        onIterationDone(state);
+    }
+
+    private void onIterationDone(BenchmarkState state) {
+        if (++mIterations % CLEAR_INVOCATIONS_INTERVAL == 0) {
+            state.pauseTiming();
+            clearInvocations(sWm.mInputManager);
+            state.resumeTiming();
+        }
+    }
+
+    @Test
+    public void testUpdateInputWindows_unchanged() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            updateInputWindows(state);
+        }
+    }
+
+    @Test
+    public void testUpdateInputWindows_oneWindowMoved() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        final WindowState window = mWindows.get(WINDOW_COUNT / 2);
+        int offset = 1;
+        while (state.keepRunning()) {
+            window.mFrame.offset(offset, 0);
+            offset = -offset;
+            updateInputWindows(state);
+        }
+    }
+
+    @Test
+    public void testUpdateInputWindows_allWindowsMoved() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        int offset = 1;
+        while (state.keepRunning()) {
+            for (int i = 0; i < WINDOW_COUNT; i++) {
+                mWindows.get(i).mFrame.offset(offset, 0);
+            }
+            offset = -offset;
+            updateInputWindows(state);
+        }
+    }
+
+    @Test
+    public void testSetInputFocus() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        int focus = 0;
+        while (state.keepRunning()) {
+            synchronized (sWm.mWindowMap) {
+                sWm.mInputMonitor.setInputFocusLw(mWindows.get(focus),
+                        true /* updateInputWindows */);
+            }
+            focus = (focus + 1) % WINDOW_COUNT;
+            onIterationDone(state);
+        }
+    }
+}
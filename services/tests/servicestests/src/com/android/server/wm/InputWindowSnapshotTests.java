@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.wm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.platform.test.annotations.Presubmit;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.android.server.input.InputWindowHandle;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests for the {@link InputWindowSnapshot} class.
+ *
+ * Build/Install/Run:
+ *  bit FrameworksServicesTests:com.android.server.wm.InputWindowSnapshotTests
+ */
+@SmallTest
+@Presubmit
+@RunWith(AndroidJUnit4.class)
+public class InputWindowSnapshotTests {
+
+    private final InputWindowHandle[] mHandles = new InputWindowHandle[3];
+    private InputWindowSnapshot mSnapshot;
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < mHandles.length; i++) {
+            mHandles[i] = new InputWindowHandle(null, null, null, 0 /* displayId */);
+            mHandles[i].name = "window" + i;
+            mHandles[i].layer = i;
+            mHandles[i].touchableRegion.set(0, 0, 100, 100);
+        }
+        mSnapshot = InputWindowSnapshot.EMPTY.next(mHandles, mHandles.length, mHandles[0]);
+    }
+
+    @Test
+    public void testMatches_unchanged() throws Exception {
+        assertEquals(1, mSnapshot.version);
+        assertEquals(mHandles.length, mSnapshot.size());
+        assertEquals(mHandles.length, mSnapshot.changedCount);
+        assertTrue(mSnapshot.matches(mHandles, mHandles.length, mHandles[0]));
+        assertEquals(0, mSnapshot.next(mHandles, mHandles.length, mHandles[0]).changedCount);
+    }
+
+    @Test
+    public void testMatches_valueChanged() throws Exception {
+        mHandles[1].frameRight = 50;
+        assertFalse(mSnapshot.matches(mHandles, mHandles.length, mHandles[0]));
+
+        final InputWindowSnapshot next = mSnapshot.next(mHandles, mHandles.length, mHandles[0]);
+        assertEquals(2, next.version);
+        assertEquals(1, next.changedCount);
+        assertTrue(next.matches(mHandles, mHandles.length, mHandles[0]));
+    }
+
+    @Test
+    public void testMatches_touchableRegionChanged() throws Exception {
+        mHandles[2].touchableRegion.set(0, 0, 50, 50);
+        assertFalse(mSnapshot.matches(mHandles, mHandles.length, mHandles[0]));
+    }
+
+    @Test
+    public void testMatches_focusChanged() throws Exception {
+        assertFalse(mSnapshot.matches(mHandles, mHandles.length, mHandles[1]));
+        assertEquals(0, mSnapshot.next(mHandles, mHandles.length, mHandles[1]).changedCount);
+    }
+
+    @Test
+    public void testMatches_orderChanged() throws Exception {
+        final InputWindowHandle[] reordered = { mHandles[1], mHandles[0], mHandles[2] };
+        assertFalse(mSnapshot.matches(reordered, reordered.length, mHandles[0]));
+        assertEquals(0, mSnapshot.next(reordered, reordered.length, mHandles[0]).changedCount);
+    }
+
+    @Test
+    public void testMatches_windowRemoved() throws Exception {
+        assertFalse(mSnapshot.matches(mHandles, mHandles.length - 1, mHandles[0]));
+    }
+}
@@ -17,13 +17,19 @@
 package com.android.server.wm;
 
 import static android.view.WindowManager.LayoutParams.FIRST_APPLICATION_WINDOW;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
 
+import android.app.ActivityManager.TaskSnapshot;
 import android.platform.test.annotations.Presubmit;
 import android.support.test.filters.SmallTest;
 import android.support.test.runner.AndroidJUnit4;
 
+import com.android.internal.os.BackgroundThread;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -43,7 +49,8 @@ public class TaskSnapshotCacheTest extends TaskSnapshotPersisterTestBase {
     @Before
     public void setUp() throws Exception {
         super.setUp();
-        mCache = new TaskSnapshotCache(sWm, mLoader);
+        mCache = new TaskSnapshotCache(sWm, mLoader, BackgroundThread.getHandler(),
+                false /* lowRam */);
     }
 
     @Test
@@ -108,4 +115,128 @@ public class TaskSnapshotCacheTest extends TaskSnapshotPersisterTestBase {
         assertNotNull(mCache.getSnapshot(window.getTask().mTaskId, sWm.mCurrentUserId,
                 true /* restoreFromDisk */, false /* reducedResolution */));
     }
+
+    @Test
+    public void testRestoreFromDisk_cached() throws Exception {
+        final WindowState window = createWindow(null, FIRST_APPLICATION_WINDOW, "window");
+        final int taskId = window.getTask().mTaskId;
+        mPersister.persistSnapshot(taskId, sWm.mCurrentUserId, createSnapshot());
+        mPersister.waitForQueueEmpty();
+        final TaskSnapshot snapshot = mCache.getSnapshot(taskId, sWm.mCurrentUserId,
+                true /* restoreFromDisk */, true /* reducedResolution */);
+        assertNotNull(snapshot);
+        assertTrue(mCache.isRestored(taskId));
+
+        // The second request doesn't read from disk.
+        assertSame(snapshot, mCache.getSnapshot(taskId, sWm.mCurrentUserId,
+                true /* restoreFromDisk */, true /* reducedResolution */));
+    }
+
+    @Test
+    public void testRestored_reducedNotUsedForFullResolution() throws Exception {
+        final WindowState window = createWindow(null, FIRST_APPLICATION_WINDOW, "window");
+        final int taskId = window.getTask().mTaskId;
+        mPersister.persistSnapshot(taskId, sWm.mCurrentUserId, createSnapshot());
+        mPersister.waitForQueueEmpty();
+        final TaskSnapshot reduced = mCache.getSnapshot(taskId, sWm.mCurrentUserId,
+                true /* restoreFromDisk */, true /* reducedResolution */);
+        final TaskSnapshot full = mCache.getSnapshot(taskId, sWm.mCurrentUserId,
+                true /* restoreFromDisk */, false /* reducedResolution */);
+        assertTrue(reduced.isReducedResolution());
+        assertFalse(full.isReducedResolution());
+    }
+
+    @Test
+    public void testPutSnapshot_removesRestored() throws Exception {
+        final WindowState window = createWindow(null, FIRST_APPLICATION_WINDOW, "window");
+        final int taskId = window.getTask().mTaskId;
+        mPersister.persistSnapshot(taskId, sWm.mCurrentUserId, createSnapshot());
+        mPersister.waitForQueueEmpty();
+        mCache.prefetchSnapshot(taskId, sWm.mCurrentUserId);
+        assertTrue(mCache.isRestored(taskId));
+
+        final TaskSnapshot snapshot = createSnapshot();
+        mCache.putSnapshot(window.getTask(), snapshot);
+        assertFalse(mCache.isRestored(taskId));
+        assertSame(snapshot, mCache.getSnapshot(taskId, sWm.mCurrentUserId,
+                true /* restoreFromDisk */, false /* reducedResolution */));
+    }
+
+    @Test
+    public void testAppRemoved_keepsReducedRestoredSnapshot() throws Exception {
+        final WindowState window = createWindow(null, FIRST_APPLICATION_WINDOW, "window");
+        final int taskId = window.getTask().mTaskId;
+        final TaskSnapshot snapshot = createSnapshot(0.5f /* scale */);
+        mCache.putSnapshot(window.getTask(), snapshot);
+        mCache.onAppRemoved(window.mAppToken);
+
+        // Only callers that may read from disk see the snapshot.
+        assertNull(mCache.getSnapshot(taskId, window.getTask().mUserId,
+                false /* restoreFromDisk */, true /* reducedResolution */));
+        assertSame(snapshot, mCache.getSnapshot(taskId, window.getTask().mUserId,
+                true /* restoreFromDisk */, true /* reducedResolution */));
+    }
+
+    @Test
+    public void testAppRemoved_dropsFullResolutionSnapshot() throws Exception {
+        final WindowState window = createWindow(null, FIRST_APPLICATION_WINDOW, "window");
+        final int taskId = window.getTask().mTaskId;
+        mCache.putSnapshot(window.getTask(), createSnapshot());
+        mCache.onAppRemoved(window.mAppToken);
+        assertFalse(mCache.isRestored(taskId));
+    }
+
+    @Test
+    public void testTaskRemoved_removesRestored() throws Exception {
+        final WindowState window = createWindow(null, FIRST_APPLICATION_WINDOW, "window");
+        final int taskId = window.getTask().mTaskId;
+        mCache.putSnapshot(window.getTask(), createSnapshot(0.5f /* scale */));
+        mCache.onAppDied(window.mAppToken);
+        assertTrue(mCache.isRestored(taskId));
+        mCache.onTaskRemoved(taskId);
+        assertFalse(mCache.isRestored(taskId));
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        final WindowState window = createWindow(null, FIRST_APPLICATION_WINDOW, "window");
+        final int taskId = window.getTask().mTaskId;
+        mPersister.persistSnapshot(taskId, sWm.mCurrentUserId, createSnapshot());
+        mPersister.waitForQueueEmpty();
+        mCache.prefetchSnapshot(taskId, sWm.mCurrentUserId);
+        assertTrue(mCache.isRestored(taskId));
+        assertTrue(mCache.getSnapshot(taskId, sWm.mCurrentUserId, true /* restoreFromDisk */,
+                true /* reducedResolution */).isReducedResolution());
+    }
+
+    @Test
+    public void testRestoredCacheBounded() throws Exception {
+        final WindowState window = createWindow(null, FIRST_APPLICATION_WINDOW, "window");
+        mCache.putSnapshot(window.getTask(), createSnapshot(0.5f /* scale */));
+        mCache.onAppDied(window.mAppToken);
+        assertTrue(mCache.getRestoredCacheSize() > 0);
+        assertTrue(mCache.getRestoredCacheSize() <= TaskSnapshotCache.RESTORED_CACHE_BYTES);
+    }
+
+    @Test
+    public void testLowRam_onlyRestoresReducedResolution() throws Exception {
+        mCache = new TaskSnapshotCache(sWm, mLoader, BackgroundThread.getHandler(),
+                true /* lowRam */);
+        final WindowState window = createWindow(null, FIRST_APPLICATION_WINDOW, "window");
+        final int taskId = window.getTask().mTaskId;
+        mPersister.persistSnapshot(taskId, sWm.mCurrentUserId, createSnapshot());
+        mPersister.waitForQueueEmpty();
+        assertNotNull(mCache.getSnapshot(taskId, sWm.mCurrentUserId,
+                true /* restoreFromDisk */, false /* reducedResolution */));
+        assertFalse(mCache.isRestored(taskId));
+        assertNotNull(mCache.getSnapshot(taskId, sWm.mCurrentUserId,
+                true /* restoreFromDisk */, true /* reducedResolution */));
+        assertTrue(mCache.isRestored(taskId));
+        assertTrue(mCache.getRestoredCacheSize()
+                <= TaskSnapshotCache.LOW_RAM_RESTORED_CACHE_BYTES);
+
+        mCache.putSnapshot(window.getTask(), createSnapshot(0.5f /* scale */));
+        mCache.onAppDied(window.mAppToken);
+        assertTrue(mCache.isRestored(taskId));
+    }
 }
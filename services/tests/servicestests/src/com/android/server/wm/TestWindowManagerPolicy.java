@@ -56,6 +56,7 @@ import com.android.server.input.InputManagerService;
 import com.android.server.LocalServices;
 
 import java.io.PrintWriter;
+import java.util.function.Consumer;
 
 class TestWindowManagerPolicy implements WindowManagerPolicy {
     private static final String TAG = "TestWindowManagerPolicy";
@@ -64,6 +65,7 @@ class TestWindowManagerPolicy implements WindowManagerPolicy {
 
     int rotationToReport = 0;
     boolean keyguardShowingAndNotOccluded = false;
+    Consumer<WindowState> windowLayout;
 
     private Runnable mRunnableWhenAddingSplashScreen;
 
@@ -308,7 +310,9 @@ class TestWindowManagerPolicy implements WindowManagerPolicy {
     @Override
     public void layoutWindowLw(WindowState win,
             WindowState attached) {
-
+        if (windowLayout != null) {
+            windowLayout.accept(win);
+        }
     }
 
     @Override